@@ -1,9 +1,13 @@
 package com.boku.auth.http.client;
 
 import java.io.IOException;
+import java.net.URI;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
 import java.util.Set;
 
 import com.boku.auth.http.client.exception.BokuAPIClientException;
@@ -34,6 +38,9 @@ import com.boku.auth.http.exception.AuthorizationException;
 import com.boku.auth.http.httpmessage.CanonicalHttpRequest;
 import com.boku.auth.http.httpmessage.CanonicalHttpResponse;
 import com.boku.auth.http.httpsigner.HttpMessageSigner;
+import com.boku.auth.http.httpsigner.SignatureScheme;
+import com.boku.auth.http.httpsigner.SigningTemplate;
+import com.boku.util.CryptoProvider;
 
 /**
  * Wrapper around Apache {@link HttpClient} and the Boku authentication {@link HttpMessageSigner}, allowing you to
@@ -46,11 +53,14 @@ public class BokuAPIClient {
 
     private static final Logger logger = LoggerFactory.getLogger(BokuAPIClient.class);
 
+    private static final String TE_HEADER = "TE";
+    private static final String TRAILER_HEADER = "Trailer";
+
     private static final Set<Integer> NO_ENTITY_STATUS_CODES = Collections.singleton(
         HttpStatus.SC_NO_CONTENT
     );
 
-    private final ApacheHttpClientCanonicalHttpMessageFactory canonicalHttpMessageFactory = new ApacheHttpClientCanonicalHttpMessageFactory();
+    private final ApacheHttpClientCanonicalHttpMessageFactory canonicalHttpMessageFactory;
 
     private final HttpClient httpClient;
     private final HttpMessageSigner httpSigner;
@@ -72,7 +82,20 @@ public class BokuAPIClient {
      * @param requestCharset Charset to use when encoding text to send in the request body. If null, defaults to UTF-8.
      */
     public BokuAPIClient(HttpClient httpClient, HttpMessageSigner httpSigner, EntityMarshaller entityMarshaller, Charset requestCharset) {
+        this(httpClient, httpSigner, entityMarshaller, requestCharset, CryptoProvider.DEFAULT);
+    }
+
+    /**
+     * Create a client instance which digests request and response entities with digests from the given provider.<br>
+     * To also take HMAC implementations from it, construct the {@link HttpMessageSigner} with a
+     * {@link com.boku.auth.http.stringsigner.BasicStringSignerImpl BasicStringSignerImpl} using the same provider.
+     *
+     * @param cryptoProvider See {@link CryptoProvider#forName}
+     * @see #BokuAPIClient(HttpClient, HttpMessageSigner, EntityMarshaller, Charset)
+     */
+    public BokuAPIClient(HttpClient httpClient, HttpMessageSigner httpSigner, EntityMarshaller entityMarshaller, Charset requestCharset, CryptoProvider cryptoProvider) {
         this.httpClient = httpClient;
+        this.canonicalHttpMessageFactory = new ApacheHttpClientCanonicalHttpMessageFactory(cryptoProvider);
         this.httpSigner = httpSigner;
         this.requestCharset = requestCharset != null ? requestCharset : StandardCharsets.UTF_8;
         this.entityMarshaller = entityMarshaller;
@@ -158,6 +181,93 @@ public class BokuAPIClient {
         return new RequestBuilder(new HttpDelete(url));
     }
 
+    private static HttpUriRequest createRequest(String method, URI uri) {
+        switch (method) {
+            case HttpPost.METHOD_NAME:
+                return new HttpPost(uri);
+            case HttpPut.METHOD_NAME:
+                return new HttpPut(uri);
+            case HttpGet.METHOD_NAME:
+                return new HttpGet(uri);
+            case HttpDelete.METHOD_NAME:
+                return new HttpDelete(uri);
+            default:
+                throw new IllegalArgumentException("Unsupported method " + method);
+        }
+    }
+
+    private static AuthorizationHeader copyOf(AuthorizationHeader authHeader) {
+        AuthorizationHeader ret = new AuthorizationHeader();
+        ret.setScheme(authHeader.getScheme());
+        ret.setPartnerId(authHeader.getPartnerId());
+        ret.setKeyId(authHeader.getKeyId());
+        ret.setSignedHeaders(new ArrayList<>(authHeader.getSignedHeaders()));
+        return ret;
+    }
+
+    /**
+     * A request to send many times with different entities, created by {@link RequestBuilder#toTemplate()}.<br>
+     * <br>
+     * Requests built from the template are signed with a {@link SigningTemplate}, so that the request line and
+     * headers are only processed for the signature once, rather than on every request. Thread safe.
+     */
+    public class RequestTemplate {
+
+        private final String method;
+        private final URI uri;
+        private final Header[] headers;
+        private final AuthorizationHeader authHeader;
+        private final SigningTemplate signingTemplate;
+        private final boolean requireSignedResponse;
+
+        private RequestTemplate(RequestBuilder builder) {
+            this.method = builder.request.getMethod();
+            this.uri = builder.request.getURI();
+            List<Header> headers = new ArrayList<>();
+            for (Header header : builder.request.getAllHeaders()) {
+                if (!header.getName().equalsIgnoreCase(AuthorizationHeader.REQUEST_HEADER)) {
+                    headers.add(header);
+                }
+            }
+            this.headers = headers.toArray(new Header[0]);
+            this.requireSignedResponse = builder.requireSignedResponse;
+            if (builder.authHeader == null) {
+                this.authHeader = null;
+                this.signingTemplate = null;
+                return;
+            }
+
+            this.authHeader = copyOf(builder.authHeader);
+            if (this.authHeader.getScheme() == null) {
+                this.authHeader.setScheme(httpSigner.getDefaultScheme());
+            }
+            CanonicalHttpRequest canonicalRequest = canonicalHttpMessageFactory.createRequest(
+                SignatureScheme.forName(this.authHeader.getScheme()),
+                this.authHeader.getSignedHeaders(),
+                builder.request,
+                null
+            );
+            this.signingTemplate = httpSigner.createTemplate(this.authHeader, canonicalRequest);
+        }
+
+        /**
+         * @return A new {@link RequestBuilder} with the URL, headers, authorization and options of the template, to
+         *         which an entity may be added. Adding headers or authorization other than those already present
+         *         is allowed, but means the request is signed from scratch.
+         */
+        public RequestBuilder newRequest() {
+            HttpUriRequest request = createRequest(this.method, this.uri);
+            request.setHeaders(this.headers);
+            RequestBuilder ret = new RequestBuilder(request);
+            if (this.authHeader != null) {
+                ret.authHeader = copyOf(this.authHeader);
+                ret.signingTemplate = this.signingTemplate;
+            }
+            ret.requireSignedResponse = this.requireSignedResponse;
+            return ret;
+        }
+    }
+
     /**
      * High level interface to build up a request
      */
@@ -165,6 +275,7 @@ public class BokuAPIClient {
 
         private final HttpUriRequest request;
         private AuthorizationHeader authHeader;
+        private SigningTemplate signingTemplate;
         private String entityString;
         private boolean requireSignedResponse;
 
@@ -186,6 +297,7 @@ public class BokuAPIClient {
          */
         public RequestBuilder withAuthorization(AuthorizationHeader authHeader) {
             this.authHeader = authHeader;
+            this.signingTemplate = null;
             this.requireSignedResponse = true;
             return this;
         }
@@ -198,6 +310,15 @@ public class BokuAPIClient {
          * @param value Header value
          */
         public RequestBuilder withHeader(String name, String value) {
+            if (this.signingTemplate != null) {
+                for (Header header : this.request.getHeaders(name)) {
+                    if (Objects.equals(header.getValue(), value)) {
+                        // Already there from the template
+                        return this;
+                    }
+                }
+                this.signingTemplate = null;
+            }
             this.request.addHeader(name, value);
             if (this.authHeader != null) {
                 for (String signedHeaderName : this.authHeader.getSignedHeaders()) {
@@ -252,6 +373,35 @@ public class BokuAPIClient {
             return this;
         }
 
+        /**
+         * Option to let the server stream the response rather than hold it back to sign, by telling it we accept the
+         * signature in a trailer ("TE: trailers"). The server must have trailer signing enabled for this to make any
+         * difference; either way the signature is verified as usual.<br>
+         * <br>
+         * Ignored, with a warning logged once, if trailers can't be read with the version of HttpClient in use. Don't
+         * combine with content decompression, which hides the trailers too.
+         */
+        public RequestBuilder withOptionAcceptTrailerSignedResponse(boolean acceptTrailerSignedResponse) {
+            if (acceptTrailerSignedResponse && ResponseTrailers.isSupported()) {
+                this.request.setHeader(TE_HEADER, "trailers");
+            } else {
+                this.request.removeHeaders(TE_HEADER);
+            }
+            return this;
+        }
+
+        /**
+         * Create a template from the request built so far, excluding any entity, for sending the same request many
+         * times with different entities. To have the Content-Type header set by {@link #withEntity} included, call
+         * withEntity with a sample entity first.
+         *
+         * @throws com.boku.auth.http.exception.InvalidApplicationSuppliedAuthorizationHeaderException If the
+         *         authorization does not specify a known key
+         */
+        public RequestTemplate toTemplate() {
+            return new RequestTemplate(this);
+        }
+
         /**
          * Internal method called by the other variants of {@link #execute}.
          */
@@ -276,8 +426,23 @@ public class BokuAPIClient {
 
             logger.debug("Response:\n{}", apiClientResponse);
 
-            // Verify signature on the response if required
+            // Verify signature on the response if required. A streamed response carries it in a trailer instead.
             Header[] respAuthHeaders = httpResponse.getHeaders(AuthorizationHeader.RESPONSE_HEADER);
+            if (respAuthHeaders.length == 0) {
+                if (!apiClientResponse.areTrailersReadable() && isTrailerAnnounced(httpResponse, AuthorizationHeader.RESPONSE_HEADER)) {
+                    if (this.requireSignedResponse) {
+                        throw new BokuAPIClientException(
+                                "Got " + httpResponse.getStatusLine() + " with " + AuthorizationHeader.RESPONSE_HEADER
+                                + " expected in a trailer, but the response trailers could not be read (content decompression "
+                                + "or an unsupported HttpClient version?)",
+                                apiClientResponse
+                        );
+                    }
+                    logger.warn("Not verifying {} response, its {} trailer could not be read",
+                            httpResponse.getStatusLine(), AuthorizationHeader.RESPONSE_HEADER);
+                }
+                respAuthHeaders = apiClientResponse.getTrailers(AuthorizationHeader.RESPONSE_HEADER);
+            }
             if(this.requireSignedResponse && respAuthHeaders.length == 0) {
                 throw new BokuAPIClientException(
                         "Got " + httpResponse.getStatusLine() + " with " + respAuthHeaders.length + " " + AuthorizationHeader.RESPONSE_HEADER + " headers, expected 1!",
@@ -285,7 +450,7 @@ public class BokuAPIClient {
                 );
             }
             if(respAuthHeaders.length > 0) {
-                verifyResponseSignature(httpResponse, apiClientResponse);
+                verifyResponseSignature(httpResponse, respAuthHeaders, apiClientResponse);
             }
 
             return apiClientResponse;
@@ -358,7 +523,18 @@ public class BokuAPIClient {
                 return null;
             }
 
+            if (this.signingTemplate != null) {
+                SignatureScheme scheme = SignatureScheme.forName(this.signingTemplate.getScheme());
+                this.authHeader = this.signingTemplate.sign(canonicalHttpMessageFactory.createEntityDigest(scheme, this.request));
+                return this.authHeader;
+            }
+
+            // The scheme decides how the entity is digested, so has to be settled first
+            if (this.authHeader.getScheme() == null) {
+                this.authHeader.setScheme(httpSigner.getDefaultScheme());
+            }
             CanonicalHttpRequest canonicalRequest = canonicalHttpMessageFactory.createRequest(
+                SignatureScheme.forName(this.authHeader.getScheme()),
                 this.authHeader.getSignedHeaders(),
                 this.request
             );
@@ -370,8 +546,7 @@ public class BokuAPIClient {
 
     }
 
-    private void verifyResponseSignature(HttpResponse httpResponse, BokuAPIClientResponse apiClientResponse) throws BokuAPIClientException {
-        Header[] respAuthHeaders = httpResponse.getHeaders(AuthorizationHeader.RESPONSE_HEADER);
+    private void verifyResponseSignature(HttpResponse httpResponse, Header[] respAuthHeaders, BokuAPIClientResponse apiClientResponse) throws BokuAPIClientException {
         if (respAuthHeaders.length != 1) {
             throw new BokuAPIClientException(
                 "Got " + httpResponse.getStatusLine() + " with " + respAuthHeaders.length + " " + AuthorizationHeader.RESPONSE_HEADER + " headers, expected 1!",
@@ -391,7 +566,9 @@ public class BokuAPIClient {
             );
         }
 
+        // An unknown scheme fails verification below, whatever the digest
         CanonicalHttpResponse canonicalResponse = canonicalHttpMessageFactory.createResponse(
+            SignatureScheme.forName(respAuthHeader.getScheme()),
             respAuthHeader.getSignedHeaders(),
             httpResponse,
             apiClientResponse.getEntity() == null ? null : apiClientResponse.getEntity().getData()
@@ -404,9 +581,25 @@ public class BokuAPIClient {
         }
     }
 
+    /**
+     * @return True if the response's Trailer header says the given field will be sent as a trailer
+     */
+    private static boolean isTrailerAnnounced(HttpResponse httpResponse, String name) {
+        for (Header header : httpResponse.getHeaders(TRAILER_HEADER)) {
+            for (String field : header.getValue().split(",")) {
+                if (field.trim().equalsIgnoreCase(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
     private BokuAPIClientResponse createBokuAPIClientResponse(HttpResponse httpResponse) throws IOException {
         ContentType entityContentType = null;
         byte[] entityData = null;
+        Header[] trailers = null;
+        boolean trailersReadable = true;
         try {
             HttpEntity httpEntity = httpResponse.getEntity();
             if (httpEntity != null) {
@@ -414,13 +607,16 @@ public class BokuAPIClient {
                 if (entityContentType == null) {
                     entityContentType = ContentType.APPLICATION_OCTET_STREAM;
                 }
-                entityData = EntityUtils.toByteArray(httpEntity);
+                ResponseTrailers reader = new ResponseTrailers(httpEntity.getContent(), httpEntity.isChunked());
+                entityData = reader.readEntity();
+                trailers = reader.getTrailers();
+                trailersReadable = reader.isReadable();
             }
         } finally {
             EntityUtils.consumeQuietly(httpResponse.getEntity());
         }
 
-        return new BokuAPIClientResponse(this.entityMarshaller, httpResponse, entityContentType, entityData);
+        return new BokuAPIClientResponse(this.entityMarshaller, httpResponse, entityContentType, entityData, trailers, trailersReadable);
     }
 
     private static void logRequest(HttpUriRequest request, String entityString) {
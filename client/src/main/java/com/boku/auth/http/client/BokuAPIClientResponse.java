@@ -2,6 +2,8 @@ package com.boku.auth.http.client;
 
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.boku.auth.http.client.exception.BokuAPIClientException;
 import org.apache.http.Header;
@@ -31,10 +33,15 @@ public final class BokuAPIClientResponse {
 
     private final HttpResponse httpResponse;
     private final Entity entity;
+    private final Header[] trailers;
+    private final boolean trailersReadable;
 
-    BokuAPIClientResponse(EntityMarshaller entityMarshaller, HttpResponse httpResponse, ContentType entityContentType, byte[] entityData) {
+    BokuAPIClientResponse(EntityMarshaller entityMarshaller, HttpResponse httpResponse, ContentType entityContentType, byte[] entityData,
+                          Header[] trailers, boolean trailersReadable) {
         this.entityMarshaller = entityMarshaller;
         this.httpResponse = httpResponse;
+        this.trailers = trailers == null ? new Header[0] : trailers;
+        this.trailersReadable = trailersReadable;
         if (entityData == null) {
             this.entity = null;
         } else {
@@ -84,6 +91,36 @@ public final class BokuAPIClientResponse {
         return this.httpResponse.getAllHeaders();
     }
 
+    /**
+     * Get the trailer fields sent after a chunked entity, e.g. the response signature when the server streamed the
+     * response.<br>
+     * Never null.
+     */
+    public Header[] getTrailers() {
+        return this.trailers.clone();
+    }
+
+    /**
+     * Get the trailer fields with the given name, ignoring case.<br>
+     * Never null.
+     */
+    public Header[] getTrailers(String name) {
+        List<Header> ret = new ArrayList<>();
+        for (Header trailer : this.trailers) {
+            if (trailer.getName().equalsIgnoreCase(name)) {
+                ret.add(trailer);
+            }
+        }
+        return ret.toArray(new Header[0]);
+    }
+
+    /**
+     * @return False if the entity was chunked, but any trailers sent with it could not be read
+     */
+    boolean areTrailersReadable() {
+        return this.trailersReadable;
+    }
+
     /**
      * Get the {@link Entity} returned with this response, if any.
      *
@@ -107,6 +144,9 @@ public final class BokuAPIClientResponse {
                 sb.append("(entity ").append(this.entity.getData().length).append(" bytes)");
             }
         }
+        for (Header trailer : this.trailers) {
+            sb.append('\n').append(trailer.getName()).append(": ").append(trailer.getValue());
+        }
         return sb.toString();
     }
 
@@ -0,0 +1,99 @@
+package com.boku.auth.http.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+
+import org.apache.http.Header;
+import org.apache.http.conn.EofSensorInputStream;
+import org.apache.http.impl.io.ChunkedInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.boku.util.IO;
+
+/**
+ * Reads a response entity along with any trailer fields sent after it.<br>
+ * <br>
+ * HttpClient parses trailers into the {@link ChunkedInputStream} of a chunked entity, but the stream handed out by
+ * the entity is an {@link EofSensorInputStream} which drops its reference to the chunked stream at EOF and offers no
+ * public accessor. So the chunked stream is picked out by reflection before reading starts. That only works with the
+ * HttpClient versions whose internals match, and not once the stream is wrapped again, e.g. for content decompression;
+ * see {@link #isSupported()} and {@link #isReadable()}.
+ */
+final class ResponseTrailers {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResponseTrailers.class);
+
+    private static final Header[] NONE = new Header[0];
+
+    private static final Field WRAPPED_STREAM = wrappedStreamField();
+
+    private final InputStream content;
+    private final ChunkedInputStream chunked;
+    private final boolean readable;
+
+    /**
+     * @param content The stream from {@link org.apache.http.HttpEntity#getContent()}, not yet read from
+     * @param chunkedEntity Whether the entity was sent chunked, and so may have trailers
+     */
+    ResponseTrailers(InputStream content, boolean chunkedEntity) {
+        this.content = content;
+        this.chunked = findChunked(content);
+        this.readable = this.chunked != null || !chunkedEntity;
+    }
+
+    /**
+     * @return True if this version of HttpClient lets us get at response trailers at all
+     */
+    static boolean isSupported() {
+        return WRAPPED_STREAM != null;
+    }
+
+    /**
+     * @return False if the entity was chunked, but any trailers sent with it can't be got at
+     */
+    boolean isReadable() {
+        return this.readable;
+    }
+
+    /**
+     * Read the rest of the entity. The trailers are available afterwards.
+     */
+    byte[] readEntity() throws IOException {
+        return IO.toByteArray(this.content);
+    }
+
+    /**
+     * @return The trailer fields, or an empty array if there were none or the entity was not chunked
+     */
+    Header[] getTrailers() {
+        if (this.chunked == null) {
+            return NONE;
+        }
+        return this.chunked.getFooters();
+    }
+
+    private static ChunkedInputStream findChunked(InputStream content) {
+        if (content instanceof EofSensorInputStream && WRAPPED_STREAM != null) {
+            try {
+                content = (InputStream)WRAPPED_STREAM.get(content);
+            } catch (IllegalAccessException ex) {
+                return null;
+            }
+        }
+        return content instanceof ChunkedInputStream ? (ChunkedInputStream)content : null;
+    }
+
+    private static Field wrappedStreamField() {
+        try {
+            Field ret = EofSensorInputStream.class.getDeclaredField("wrappedStream");
+            ret.setAccessible(true);
+            return ret;
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            logger.warn("Cannot get at HttpClient's chunked response stream, so response trailers can't be read, and signed "
+                + "response trailers will not be asked for: {}", ex.toString());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.boku.auth.http.client.kms;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+import com.boku.auth.http.stringsigner.SignatureAlgorithm;
+import com.boku.auth.http.stringsigner.StringSigner;
+
+/**
+ * Wire format for batched signing requests between {@link RemoteStringSigner} and a key management service.<br>
+ * <br>
+ * A batch is a POST of US-ASCII text, one line per string to sign:
+ * <pre>
+ * $algorithm $partnerId $keyId $stringToSign
+ * </pre>
+ * where all but the algorithm are base64 encoded UTF-8. The response, with status 200, has one line per request line
+ * in the same order, each either <code>OK $signature</code>, <code>INVALID_KEY $message</code> or
+ * <code>ERROR $message</code>, messages again base64 encoded. Any other status fails the whole batch.<br>
+ * <br>
+ * {@link #handle} implements the service side given a local {@link StringSigner}, for stand-in and test servers.
+ */
+public final class KmsProtocol {
+
+    public static final String CONTENT_TYPE = "text/plain; charset=US-ASCII";
+
+    static final String OK = "OK";
+    static final String INVALID_KEY = "INVALID_KEY";
+    static final String ERROR = "ERROR";
+
+    private KmsProtocol() {
+    }
+
+    /**
+     * One string to sign, as sent in a batch.
+     */
+    static final class Item {
+
+        final SignatureAlgorithm algorithm;
+        final String partnerId;
+        final String keyId;
+        final String stringToSign;
+
+        Item(SignatureAlgorithm algorithm, String partnerId, String keyId, String stringToSign) {
+            this.algorithm = algorithm;
+            this.partnerId = partnerId;
+            this.keyId = keyId;
+            this.stringToSign = stringToSign;
+        }
+    }
+
+    /**
+     * One line of a batch response.
+     */
+    static final class Result {
+
+        final String status;
+        final String value;
+
+        Result(String status, String value) {
+            this.status = status;
+            this.value = value;
+        }
+    }
+
+    static void writeRequest(List<Item> items, StringBuilder out) {
+        for (Item item : items) {
+            out.append(item.algorithm.name()).append(' ');
+            encode(item.partnerId, out).append(' ');
+            encode(item.keyId, out).append(' ');
+            encode(item.stringToSign, out).append('\n');
+        }
+    }
+
+    static List<Result> readResponse(BufferedReader in) throws IOException {
+        List<Result> ret = new ArrayList<>();
+        for (String line; (line = in.readLine()) != null; ) {
+            int space = line.indexOf(' ');
+            if (space < 0) {
+                throw new IOException("Malformed response line, " + line);
+            }
+            String status = line.substring(0, space);
+            String value = line.substring(space + 1);
+            ret.add(new Result(status, OK.equals(status) ? value : decode(value)));
+        }
+        return ret;
+    }
+
+    /**
+     * Service side: read a batch from in, sign each item with the given signer, and write the results to out.
+     *
+     * @param in The request body
+     * @param out The response body, to be sent with status 200 and {@link #CONTENT_TYPE}
+     * @param signer Signs each item
+     * @return The number of items in the batch
+     * @throws IOException If the request could not be read, in which case nothing was written and the caller should
+     *                     respond with status 400
+     */
+    public static int handle(Reader in, Writer out, StringSigner signer) throws IOException {
+        BufferedReader reader = in instanceof BufferedReader ? (BufferedReader)in : new BufferedReader(in);
+        List<Item> items = new ArrayList<>();
+        for (String line; (line = reader.readLine()) != null; ) {
+            if (!line.isEmpty()) {
+                items.add(parseItem(line));
+            }
+        }
+
+        StringBuilder response = new StringBuilder(items.size() * 72);
+        for (Item item : items) {
+            try {
+                String signature = signer.generateSignature(item.algorithm, item.partnerId, item.keyId, item.stringToSign);
+                response.append(OK).append(' ').append(signature).append('\n');
+            } catch (InvalidKeyException ex) {
+                response.append(INVALID_KEY).append(' ');
+                encode(String.valueOf(ex.getMessage()), response).append('\n');
+            } catch (RuntimeException ex) {
+                response.append(ERROR).append(' ');
+                encode(ex.toString(), response).append('\n');
+            }
+        }
+        out.append(response);
+        return items.size();
+    }
+
+    private static Item parseItem(String line) throws IOException {
+        String[] fields = line.split(" ", -1);
+        if (fields.length != 4) {
+            throw new IOException("Expected 4 fields, got " + fields.length);
+        }
+        SignatureAlgorithm algorithm;
+        try {
+            algorithm = SignatureAlgorithm.valueOf(fields[0]);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Unknown algorithm, " + fields[0]);
+        }
+        return new Item(algorithm, decode(fields[1]), decode(fields[2]), decode(fields[3]));
+    }
+
+    private static StringBuilder encode(String s, StringBuilder out) {
+        return out.append(Base64.getEncoder().encodeToString(s.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static String decode(String s) throws IOException {
+        try {
+            return new String(Base64.getDecoder().decode(s), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException("Invalid base64, " + ex.getMessage());
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package com.boku.auth.http.client.kms;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.boku.auth.http.stringsigner.AsyncStringSigner;
+import com.boku.auth.http.stringsigner.SignatureAlgorithm;
+import com.boku.auth.http.stringsigner.StringSigner;
+
+/**
+ * {@link StringSigner} which delegates to a remote key management service over HTTP, so that keys never leave that
+ * service. See {@link KmsProtocol} for the wire format.<br>
+ * <br>
+ * Concurrent requests are coalesced into batches. A single dispatcher thread takes requests off a bounded queue; if no
+ * batch is currently in flight it sends whatever is queued straight away, so an idle signer adds no latency. Otherwise
+ * it waits up to maxBatchDelayMillis for the batch to fill to maxBatchSize before sending. Up to maxConcurrentBatches
+ * are in flight at once, over a pool of keep-alive connections of the same size.<br>
+ * <br>
+ * To keep latency bounded under a burst, requests beyond maxQueuedRequests are rejected immediately with
+ * {@link RejectedExecutionException} rather than queued, and every request fails with
+ * {@link java.util.concurrent.TimeoutException} if not answered within requestTimeoutMillis, including time spent
+ * queued.<br>
+ * <br>
+ * Failures of the service or transport are reported as {@link UncheckedIOException}. Transport security, e.g. TLS
+ * client certificates, can be set up by passing in a suitably configured HttpClient.
+ */
+public class RemoteStringSigner implements StringSigner, AsyncStringSigner, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RemoteStringSigner.class);
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+    public static final long DEFAULT_MAX_BATCH_DELAY_MILLIS = 2;
+    public static final int DEFAULT_MAX_CONCURRENT_BATCHES = 8;
+    public static final int DEFAULT_MAX_QUEUED_REQUESTS = 10000;
+    public static final long DEFAULT_REQUEST_TIMEOUT_MILLIS = 5000;
+
+    private final URI endpoint;
+    private final CloseableHttpClient httpClient;
+    private final boolean ownHttpClient;
+    private final int maxBatchSize;
+    private final long maxBatchDelayNanos;
+    private final int maxConcurrentBatches;
+    private final long requestTimeoutMillis;
+
+    private final BlockingQueue<Pending> queue;
+    private final Semaphore inFlight;
+    private final ExecutorService sender;
+    private final Thread dispatcher;
+    private volatile boolean closed;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong batchFailures = new AtomicLong();
+
+    /**
+     * Create an instance with default settings, and its own HttpClient.
+     *
+     * @param endpoint URL of the service's signing endpoint
+     */
+    public RemoteStringSigner(URI endpoint) {
+        this(endpoint, null, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_DELAY_MILLIS, DEFAULT_MAX_CONCURRENT_BATCHES,
+            DEFAULT_MAX_QUEUED_REQUESTS, DEFAULT_REQUEST_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Create an instance with explicit settings.
+     *
+     * @param endpoint URL of the service's signing endpoint
+     * @param httpClient HttpClient to use, which should allow at least maxConcurrentBatches connections to the endpoint,
+     *                   or null to create one. One passed in is not closed by {@link #close()}.
+     * @param maxBatchSize Most strings to sign in one request to the service. 1 disables batching.
+     * @param maxBatchDelayMillis Longest a request waits for others to batch with while a batch is already in flight.
+     * @param maxConcurrentBatches Most requests to the service in flight at once
+     * @param maxQueuedRequests Most requests waiting to be sent, beyond which requests are rejected
+     * @param requestTimeoutMillis Longest a request may take, from being queued until it is answered
+     */
+    public RemoteStringSigner(URI endpoint, CloseableHttpClient httpClient, int maxBatchSize, long maxBatchDelayMillis,
+            int maxConcurrentBatches, int maxQueuedRequests, long requestTimeoutMillis) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maxBatchSize must be positive, got " + maxBatchSize);
+        }
+        if (maxBatchDelayMillis < 0) {
+            throw new IllegalArgumentException("maxBatchDelayMillis may not be negative, got " + maxBatchDelayMillis);
+        }
+        if (maxConcurrentBatches <= 0) {
+            throw new IllegalArgumentException("maxConcurrentBatches must be positive, got " + maxConcurrentBatches);
+        }
+        if (maxQueuedRequests <= 0) {
+            throw new IllegalArgumentException("maxQueuedRequests must be positive, got " + maxQueuedRequests);
+        }
+        if (requestTimeoutMillis <= 0) {
+            throw new IllegalArgumentException("requestTimeoutMillis must be positive, got " + requestTimeoutMillis);
+        }
+        this.endpoint = endpoint;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchDelayMillis);
+        this.maxConcurrentBatches = maxConcurrentBatches;
+        this.requestTimeoutMillis = requestTimeoutMillis;
+        if (httpClient == null) {
+            this.httpClient = createHttpClient(maxConcurrentBatches, requestTimeoutMillis);
+            this.ownHttpClient = true;
+        } else {
+            this.httpClient = httpClient;
+            this.ownHttpClient = false;
+        }
+
+        this.queue = new ArrayBlockingQueue<>(maxQueuedRequests);
+        this.inFlight = new Semaphore(maxConcurrentBatches);
+        AtomicInteger senderCount = new AtomicInteger();
+        this.sender = Executors.newFixedThreadPool(maxConcurrentBatches, r -> {
+            Thread t = new Thread(r, RemoteStringSigner.class.getSimpleName() + "-sender-" + senderCount.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.dispatcher = new Thread(this::dispatch, RemoteStringSigner.class.getSimpleName() + "-dispatcher");
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    private static CloseableHttpClient createHttpClient(int maxConnections, long timeoutMillis) {
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxConnections);
+        connectionManager.setDefaultMaxPerRoute(maxConnections);
+        RequestConfig requestConfig = RequestConfig.custom()
+            .setConnectTimeout((int)timeoutMillis)
+            .setSocketTimeout((int)timeoutMillis)
+            .setConnectionRequestTimeout((int)timeoutMillis)
+            .build();
+        return HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(requestConfig)
+            .build();
+    }
+
+    /**
+     * Blocks until the service responds, or the request times out.
+     */
+    @Override
+    public String generateSignature(SignatureAlgorithm algorithm, String partnerId, String keyId, String stringToSign) throws InvalidKeyException {
+        try {
+            return this.generateSignatureAsync(algorithm, partnerId, keyId, stringToSign).toCompletableFuture().join();
+        } catch (CompletionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof InvalidKeyException) {
+                throw (InvalidKeyException)cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            throw ex;
+        }
+    }
+
+    @Override
+    public CompletionStage<String> generateSignatureAsync(SignatureAlgorithm algorithm, String partnerId, String keyId, String stringToSign) {
+        if (partnerId == null || keyId == null) {
+            return CompletableFuture.failedFuture(new InvalidKeyException("No key found by partnerId=" + partnerId + " and keyId=" + keyId));
+        }
+        this.requests.incrementAndGet();
+        Pending pending = new Pending(new KmsProtocol.Item(algorithm, partnerId, keyId, stringToSign));
+        if (this.closed || !this.queue.offer(pending)) {
+            this.rejected.incrementAndGet();
+            return CompletableFuture.failedFuture(new RejectedExecutionException(
+                this.closed ? "Closed" : "Too many signing requests queued for " + this.endpoint
+            ));
+        }
+        // close() may have drained the queue between the check and the offer, in which case nothing else will send or
+        // fail this request. Whoever takes it off the queue is responsible for it.
+        if (this.closed && this.queue.remove(pending)) {
+            this.rejected.incrementAndGet();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Closed"));
+        }
+        return pending.future.orTimeout(this.requestTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void dispatch() {
+        List<Pending> batch = new ArrayList<>(this.maxBatchSize);
+        while (!this.closed) {
+            try {
+                batch.add(this.queue.take());
+                this.queue.drainTo(batch, this.maxBatchSize - batch.size());
+
+                // Only linger for more if something is already in flight, otherwise send right away
+                if (this.inFlight.availablePermits() < this.maxConcurrentBatches) {
+                    long deadline = System.nanoTime() + this.maxBatchDelayNanos;
+                    while (batch.size() < this.maxBatchSize) {
+                        long remaining = deadline - System.nanoTime();
+                        Pending next = remaining > 0 ? this.queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                        this.queue.drainTo(batch, this.maxBatchSize - batch.size());
+                    }
+                }
+
+                this.inFlight.acquire();
+                List<Pending> toSend = new ArrayList<>(batch);
+                batch.clear();
+                try {
+                    this.sender.execute(() -> {
+                        try {
+                            this.send(toSend);
+                        } finally {
+                            this.inFlight.release();
+                        }
+                    });
+                } catch (RejectedExecutionException ex) {
+                    this.inFlight.release();
+                    fail(toSend, ex);
+                }
+            } catch (InterruptedException ex) {
+                fail(batch, new RejectedExecutionException("Closed"));
+                batch.clear();
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+    }
+
+    private void send(List<Pending> batch) {
+        // Skip requests which timed out while queued
+        List<Pending> live = new ArrayList<>(batch.size());
+        List<KmsProtocol.Item> items = new ArrayList<>(batch.size());
+        for (Pending p : batch) {
+            if (!p.future.isDone()) {
+                live.add(p);
+                items.add(p.item);
+            }
+        }
+        if (live.isEmpty()) {
+            return;
+        }
+        this.batches.incrementAndGet();
+
+        StringBuilder body = new StringBuilder(items.size() * 128);
+        KmsProtocol.writeRequest(items, body);
+        HttpPost post = new HttpPost(this.endpoint);
+        post.setEntity(new StringEntity(body.toString(), ContentType.create("text/plain", StandardCharsets.US_ASCII)));
+
+        List<KmsProtocol.Result> results;
+        try (CloseableHttpResponse response = this.httpClient.execute(post)) {
+            HttpEntity entity = response.getEntity();
+            int status = response.getStatusLine().getStatusCode();
+            if (status != HttpStatus.SC_OK) {
+                EntityUtils.consumeQuietly(entity);
+                throw new IOException("Signing service returned " + response.getStatusLine() + " for batch of " + items.size());
+            }
+            if (entity == null) {
+                throw new IOException("Signing service returned no response body");
+            }
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(entity.getContent(), StandardCharsets.US_ASCII))) {
+                results = KmsProtocol.readResponse(in);
+            }
+            if (results.size() != items.size()) {
+                throw new IOException("Signing service returned " + results.size() + " results for batch of " + items.size());
+            }
+        } catch (IOException ex) {
+            this.batchFailures.incrementAndGet();
+            logger.warn("Signing batch of {} failed: {}", items.size(), ex.toString());
+            fail(live, new UncheckedIOException(ex));
+            return;
+        } catch (RuntimeException ex) {
+            this.batchFailures.incrementAndGet();
+            logger.warn("Signing batch of {} failed", items.size(), ex);
+            fail(live, ex);
+            return;
+        }
+
+        for (int i = 0; i < live.size(); i++) {
+            KmsProtocol.Result result = results.get(i);
+            CompletableFuture<String> future = live.get(i).future;
+            if (KmsProtocol.OK.equals(result.status)) {
+                future.complete(result.value);
+            } else if (KmsProtocol.INVALID_KEY.equals(result.status)) {
+                future.completeExceptionally(new InvalidKeyException(result.value));
+            } else {
+                future.completeExceptionally(new UncheckedIOException(new IOException("Signing service error: " + result.value)));
+            }
+        }
+    }
+
+    private static void fail(List<Pending> batch, Throwable ex) {
+        for (Pending p : batch) {
+            p.future.completeExceptionally(ex);
+        }
+    }
+
+    /**
+     * Stop accepting requests, fail any still queued, and release resources. Requests already sent are allowed to
+     * complete.
+     */
+    @Override
+    public void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.dispatcher.interrupt();
+        try {
+            this.dispatcher.join(this.requestTimeoutMillis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        List<Pending> remaining = new ArrayList<>();
+        this.queue.drainTo(remaining);
+        fail(remaining, new RejectedExecutionException("Closed"));
+        this.sender.shutdown();
+        try {
+            this.sender.awaitTermination(this.requestTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (this.ownHttpClient) {
+            this.httpClient.close();
+        }
+    }
+
+    /**
+     * @return A snapshot of request statistics
+     */
+    public Stats getStats() {
+        return new Stats(this.requests.get(), this.batches.get(), this.rejected.get(), this.batchFailures.get());
+    }
+
+    /**
+     * Point in time statistics for a {@link RemoteStringSigner}.
+     */
+    public static final class Stats {
+
+        private final long requests;
+        private final long batches;
+        private final long rejected;
+        private final long batchFailures;
+
+        Stats(long requests, long batches, long rejected, long batchFailures) {
+            this.requests = requests;
+            this.batches = batches;
+            this.rejected = rejected;
+            this.batchFailures = batchFailures;
+        }
+
+        /**
+         * @return Number of strings submitted for signing
+         */
+        public long getRequests() {
+            return this.requests;
+        }
+
+        /**
+         * @return Number of batches sent to the service
+         */
+        public long getBatches() {
+            return this.batches;
+        }
+
+        /**
+         * @return Number of requests rejected because the queue was full or the signer closed
+         */
+        public long getRejected() {
+            return this.rejected;
+        }
+
+        /**
+         * @return Number of batches which failed as a whole, e.g. due to a connection error
+         */
+        public long getBatchFailures() {
+            return this.batchFailures;
+        }
+
+        /**
+         * @return Mean number of requests per batch sent
+         */
+        public double getAverageBatchSize() {
+            return this.batches == 0 ? 0 : (double)(this.requests - this.rejected) / this.batches;
+        }
+
+        @Override
+        public String toString() {
+            return "requests=" + this.requests + ", batches=" + this.batches
+                + ", averageBatchSize=" + String.format("%.1f", this.getAverageBatchSize())
+                + ", rejected=" + this.rejected + ", batchFailures=" + this.batchFailures;
+        }
+    }
+
+    private static final class Pending {
+
+        final KmsProtocol.Item item;
+        final CompletableFuture<String> future = new CompletableFuture<>();
+
+        Pending(KmsProtocol.Item item) {
+            this.item = item;
+        }
+    }
+}
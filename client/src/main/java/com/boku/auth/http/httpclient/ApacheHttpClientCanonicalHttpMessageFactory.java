@@ -1,17 +1,20 @@
 package com.boku.auth.http.httpclient;
 
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
+import java.nio.channels.Channels;
 import java.util.Iterator;
 import java.util.List;
 
 import com.boku.auth.http.httpmessage.CanonicalHttpMessage;
+import com.boku.auth.http.httpmessage.EntityDigester;
 import com.boku.auth.http.httpsigner.HttpMessageSigner;
-import com.boku.util.DigestFactory;
+import com.boku.auth.http.httpsigner.SignatureScheme;
 import com.boku.util.HexCodec;
 import com.boku.auth.http.httpmessage.CanonicalHttpHeader;
-import com.boku.util.IO;
+import com.boku.util.CryptoProvider;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
@@ -28,22 +31,79 @@ import com.boku.auth.http.httpmessage.CanonicalHttpResponse;
  */
 public class ApacheHttpClientCanonicalHttpMessageFactory {
 
+    private final CryptoProvider cryptoProvider;
+
+    /**
+     * Create an instance digesting entities with the default JCA providers.
+     */
+    public ApacheHttpClientCanonicalHttpMessageFactory() {
+        this(CryptoProvider.DEFAULT);
+    }
+
+    /**
+     * Create an instance digesting entities with digests from the given provider.
+     */
+    public ApacheHttpClientCanonicalHttpMessageFactory(CryptoProvider cryptoProvider) {
+        if (cryptoProvider == null) {
+            throw new IllegalArgumentException("cryptoProvider cannot be null");
+        }
+        this.cryptoProvider = cryptoProvider;
+    }
+
+    /**
+     * As per {@link #createRequest(SignatureScheme, List, HttpUriRequest)}, for {@link HttpMessageSigner#SCHEME}.
+     */
+    public CanonicalHttpRequest createRequest(List<String> signedHeaders, HttpUriRequest request) {
+        return createRequest(SignatureScheme.HMAC_SHA256, signedHeaders, request);
+    }
+
+    /**
+     * As per {@link #createRequest(SignatureScheme, List, HttpUriRequest, byte[])}, for {@link HttpMessageSigner#SCHEME}.
+     */
+    public CanonicalHttpRequest createRequest(List<String> signedHeaders, HttpUriRequest request, byte[] entity) {
+        return createRequest(SignatureScheme.HMAC_SHA256, signedHeaders, request, entity);
+    }
+
+    /**
+     * As per {@link #createResponse(SignatureScheme, List, HttpResponse, byte[])}, for {@link HttpMessageSigner#SCHEME}.
+     */
+    public CanonicalHttpResponse createResponse(List<String> signedHeaders, HttpResponse response, byte[] entityData) {
+        return createResponse(SignatureScheme.HMAC_SHA256, signedHeaders, response, entityData);
+    }
+
     /**
      * Given a HttpClient request and a list of headers to sign, translate into a {@link CanonicalHttpRequest}, reading
-     * the contents of the request entity if present and repeatable.
+     * the contents of the request entity if present and repeatable.<br>
+     * The entity is digested as it is read rather than being buffered, and file backed entities are memory mapped
+     * rather than read, see {@link EntityDigester}.
      *
+     * @param scheme The scheme the request is to be signed with, which determines how the entity is digested. Null
+     *               means {@link HttpMessageSigner#SCHEME}.
      * @param signedHeaders A list of headers to sign, as will appear in the Authorization header. This list will be
      *                      modified in-place to remove any headers that do not appear in the actual request.
      * @param request The HttpClient request
      * @return A {@link CanonicalHttpRequest} instance.
      */
-    public CanonicalHttpRequest createRequest(List<String> signedHeaders, HttpUriRequest request) {
+    public CanonicalHttpRequest createRequest(SignatureScheme scheme, List<String> signedHeaders, HttpUriRequest request) {
+        return createRequest(signedHeaders, request, this.createEntityDigest(scheme, request));
+    }
+
+    /**
+     * Calculate just the entity digest of the given request, as
+     * {@link #createRequest(SignatureScheme, List, HttpUriRequest)} would, e.g. for use with a
+     * {@link com.boku.auth.http.httpsigner.SigningTemplate SigningTemplate}.
+     *
+     * @param scheme The scheme the request is to be signed with. Null means {@link HttpMessageSigner#SCHEME}.
+     * @param request The HttpClient request, whose entity if any must be repeatable
+     * @return The hex encoded entity digest, or null if the request has no entity
+     */
+    public String createEntityDigest(SignatureScheme scheme, HttpUriRequest request) {
         HttpEntity httpEntity = null;
         if (request instanceof HttpEntityEnclosingRequest) {
             httpEntity = ((HttpEntityEnclosingRequest)request).getEntity();
         }
         if (httpEntity == null) {
-            return createRequest(signedHeaders, request, null);
+            return EntityDigester.NO_ENTITY;
         }
 
         if (!httpEntity.isRepeatable()) {
@@ -52,31 +112,44 @@ public class ApacheHttpClientCanonicalHttpMessageFactory {
             );
         }
 
-        byte[] entityData;
+        EntityDigester digester = (scheme != null ? scheme : SignatureScheme.HMAC_SHA256).newEntityDigester(this.cryptoProvider);
         try (InputStream is = httpEntity.getContent()) {
-            entityData = IO.toByteArray(is);
+            if (is instanceof FileInputStream) {
+                digester.update(((FileInputStream)is).getChannel());
+            } else {
+                digester.update(Channels.newChannel(is));
+            }
         } catch (IOException ex) {
             throw new IllegalStateException("IO error reading repeatable entity on " + request + ". I'm not sure why " +
                 "this would happen, but maybe your problem can be fixed by using the 3-argument form of createRequest",
                 ex
             );
         }
-
-        return createRequest(signedHeaders, request, entityData);
+        return digester.digest();
     }
 
     /**
-     * Same as {@link #createRequest(List, HttpUriRequest)}, but takes explicit entity data instead.<br>
+     * Same as {@link #createRequest(SignatureScheme, List, HttpUriRequest)}, but takes explicit entity data instead.<br>
      * There shouldn't really be any reason to use this method - if you have all the entity contents in memory anyway,
      * just use a ByteArrayEntity or StringEntity when you create your HttpRequest.
      *
+     * @param scheme The scheme the request is to be signed with, which determines how the entity is digested. Null
+     *               means {@link HttpMessageSigner#SCHEME}.
      * @param signedHeaders A list of headers to sign, as will appear in the Authorization header. This list will be
      *                      modified in-place to remove any headers that do not appear in the actual request.
      * @param request The HttpClient request
      * @param entity Request entity, if present, null otherwise.
      * @return A {@link CanonicalHttpRequest} instance.
      */
-    public CanonicalHttpRequest createRequest(List<String> signedHeaders, HttpUriRequest request, byte[] entity) {
+    public CanonicalHttpRequest createRequest(SignatureScheme scheme, List<String> signedHeaders, HttpUriRequest request, byte[] entity) {
+        String entityDigest = null;
+        if (entity != null && entity.length > 0) {
+            entityDigest = HexCodec.encodeString(this.digest(scheme, entity));
+        }
+        return createRequest(signedHeaders, request, entityDigest);
+    }
+
+    private static CanonicalHttpRequest createRequest(List<String> signedHeaders, HttpUriRequest request, String entityDigest) {
         CanonicalHttpRequest canonicalRequest = new CanonicalHttpRequest();
 
         // Request line
@@ -104,22 +177,20 @@ public class ApacheHttpClientCanonicalHttpMessageFactory {
             }
         }
 
-        // Entity
-        if (entity != null && entity.length > 0) {
-            String entityDigest = HexCodec.encodeString(DigestFactory.getSHA256().digest(entity));
-            canonicalRequest.setEntityDigest(entityDigest);
-        }
+        canonicalRequest.setEntityDigest(entityDigest);
 
         return canonicalRequest;
     }
 
     /**
+     * @param scheme The scheme named in the response X-SignedResponse header, which determines how the entity is
+     *               digested. Null means {@link HttpMessageSigner#SCHEME}.
      * @param signedHeaders The list of signed-headers as returned in the response X-SignedResponse header
      * @param response HttpClient response object
      * @param entityData Returned raw response entity data
      * @return A {@link CanonicalHttpResponse}
      */
-    public CanonicalHttpResponse createResponse(List<String> signedHeaders, HttpResponse response, byte[] entityData) {
+    public CanonicalHttpResponse createResponse(SignatureScheme scheme, List<String> signedHeaders, HttpResponse response, byte[] entityData) {
         CanonicalHttpResponse canonicalResponse = new CanonicalHttpResponse();
 
         // Headers
@@ -131,9 +202,13 @@ public class ApacheHttpClientCanonicalHttpMessageFactory {
 
         // Entity
         if (entityData != null && entityData.length > 0) {
-            canonicalResponse.setEntityDigest(HexCodec.encodeString(DigestFactory.getSHA256().digest(entityData)));
+            canonicalResponse.setEntityDigest(HexCodec.encodeString(this.digest(scheme, entityData)));
         }
 
         return canonicalResponse;
     }
+
+    private byte[] digest(SignatureScheme scheme, byte[] entity) {
+        return (scheme != null ? scheme : SignatureScheme.HMAC_SHA256).digest(entity, this.cryptoProvider);
+    }
 }
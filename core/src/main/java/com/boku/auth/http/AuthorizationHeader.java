@@ -1,9 +1,7 @@
 package com.boku.auth.http;
 
-import com.boku.util.Joiner;
-
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -26,14 +24,6 @@ public class AuthorizationHeader {
      */
     public static final String RESPONSE_HEADER = "X-SignedResponse";
 
-    private static final String
-        PARAM_PARTNER_ID            = "partner-id",
-        PARAM_KEY_ID                = "key-id",
-        PARAM_SIGNED_HEADERS        = "signed-headers",
-        PARAM_TIMESTAMP             = "timestamp",
-        PARAM_SIGNATURE             = "signature",
-        PARAM_REQUIRES_CANONICALIZE = "requires-canonicalize";
-
     private String scheme;
     private String partnerId;
     private String keyId;
@@ -143,45 +133,44 @@ public class AuthorizationHeader {
      * @return A parsed {@link AuthorizationHeader} instance, which may or may not be valid. Does not return null.
      */
     public static AuthorizationHeader parse(String headerValue) {
-        headerValue = trimToNull(headerValue);
-        if (headerValue == null) {
-            throw new IllegalArgumentException("cannot be empty");
-        }
+        return AuthorizationHeaderCodec.parse(headerValue);
+    }
 
-        AuthorizationHeader ah = new AuthorizationHeader();
+    /**
+     * As {@link #parse(String)}, but reading the header value from any {@link CharSequence} without first copying it
+     * into a String.
+     *
+     * @param headerValue The header value. May not be null.
+     * @return A parsed {@link AuthorizationHeader} instance, which may or may not be valid. Does not return null.
+     */
+    public static AuthorizationHeader parse(CharSequence headerValue) {
+        return AuthorizationHeaderCodec.parse(headerValue);
+    }
 
-        String[] schemeAndPairs = headerValue.split("\\s+", 2);
-        if (schemeAndPairs.length != 2) {
-            throw new IllegalArgumentException("format invalid");
-        }
-        ah.scheme = schemeAndPairs[0];
+    /**
+     * As {@link #parse(String)}, but reading the raw header value bytes between the buffer's position and limit, which
+     * are interpreted as ISO-8859-1. The buffer's position is not changed.
+     *
+     * @param headerValue The header value. May not be null.
+     * @return A parsed {@link AuthorizationHeader} instance, which may or may not be valid. Does not return null.
+     */
+    public static AuthorizationHeader parse(ByteBuffer headerValue) {
+        return AuthorizationHeaderCodec.parse(headerValue);
+    }
 
-        for (String segment : schemeAndPairs[1].split("\\s*,\\s*")) {
-            String[] kv = segment.split("=", 2);
-            if (kv.length < 2 || trimToNull(kv[1]) == null) {
-                continue;
-            }
-            if (PARAM_PARTNER_ID.equals(kv[0])) {
-                ah.partnerId = kv[1];
-            } else if (PARAM_KEY_ID.equals(kv[0])) {
-                ah.keyId = kv[1];
-            } else if (PARAM_SIGNED_HEADERS.equals(kv[0])) {
-                ah.signedHeaders = new ArrayList<>();
-                ah.signedHeaders.addAll(Arrays.asList(kv[1].split(";")));
-            } else if (PARAM_TIMESTAMP.equals(kv[0])) {
-                try {
-                    ah.timestamp = Long.valueOf(kv[1]);
-                } catch (NumberFormatException ex) {
-                    throw new IllegalArgumentException("invalid timestamp, " + kv[1]);
-                }
-            } else if (PARAM_SIGNATURE.equals(kv[0])) {
-                ah.signature = kv[1];
-            } else if (PARAM_REQUIRES_CANONICALIZE.equals(kv[0])) {
-                ah.requiresCanonicalize = Boolean.parseBoolean(kv[1]);
-            }
+    /**
+     * As {@link #parse(ByteBuffer)}, for a slice of a byte array.
+     *
+     * @param headerValue Buffer holding the raw header value. May not be null.
+     * @param off Offset of the header value in the buffer
+     * @param len Length of the header value
+     * @return A parsed {@link AuthorizationHeader} instance, which may or may not be valid. Does not return null.
+     */
+    public static AuthorizationHeader parse(byte[] headerValue, int off, int len) {
+        if (headerValue == null) {
+            throw new IllegalArgumentException("cannot be empty");
         }
-
-        return ah;
+        return AuthorizationHeaderCodec.parse(ByteBuffer.wrap(headerValue, off, len));
     }
 
     /**
@@ -200,60 +189,16 @@ public class AuthorizationHeader {
      */
     @Override
     public String toString() {
-        ToStringer ts = new ToStringer(this.scheme);
-
-        ts.append(PARAM_PARTNER_ID, this.partnerId);
-        ts.append(PARAM_KEY_ID, this.keyId);
-
-        if (!this.signedHeaders.isEmpty()) {
-            Joiner.join(ts.key(PARAM_SIGNED_HEADERS), ";", this.signedHeaders);
-        }
-
-        ts.append(PARAM_TIMESTAMP, this.timestamp);
-        ts.append(PARAM_SIGNATURE, this.signature);
-
-        if (this.requiresCanonicalize != null) {
-            ts.append(PARAM_REQUIRES_CANONICALIZE, this.requiresCanonicalize);
-        }
-
-        return ts.toString();
+        return this.toString(new StringBuilder(AuthorizationHeaderCodec.estimateLength(this))).toString();
     }
 
-
-    private static class ToStringer {
-
-        final StringBuilder sb;
-        int numParams = 0;
-
-        ToStringer(String scheme) {
-            sb = new StringBuilder().append(scheme);
-        }
-
-        ToStringer append(String key, Object value) {
-            key(key).append(value);
-            return this;
-        }
-
-        StringBuilder key(String key) {
-            if (numParams++ == 0) {
-                sb.append(' ');
-            } else {
-                sb.append(", ");
-            }
-            sb.append(key).append('=');
-            return sb;
-        }
-
-        public String toString() {
-            return sb.toString();
-        }
-    }
-
-    private static String trimToNull(String s) {
-        if (s == null) {
-            return null;
-        }
-        s = s.trim();
-        return s.length() == 0 ? null : s;
+    /**
+     * Append the textual representation of this AuthorizationHeader to the given StringBuilder, as per
+     * {@link #toString()}.
+     *
+     * @return The StringBuilder passed in.
+     */
+    public StringBuilder toString(StringBuilder sb) {
+        return AuthorizationHeaderCodec.format(this, sb);
     }
 }
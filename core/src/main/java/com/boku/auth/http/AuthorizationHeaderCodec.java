@@ -0,0 +1,513 @@
+package com.boku.auth.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.boku.util.Interner;
+
+/**
+ * Single pass parser and serializer for the {@link AuthorizationHeader} text format, shared with
+ * {@link CompactAuthorizationHeader}.<br>
+ * <br>
+ * Parsing gives exactly the same results as the original implementation built on String.split (on the first run of
+ * whitespace, then on commas with any surrounding whitespace, then on '=' and ';'), but without running regular
+ * expressions or allocating intermediate arrays - the only allocations are the header object and its field values.
+ * The scheme, partner-id, key-id and signed header names come from a small set of values which recur on every request,
+ * so they are looked up in {@link #IDENTIFIERS} rather than being copied out of the input each time.
+ */
+final class AuthorizationHeaderCodec {
+
+    /**
+     * Intern table for the identifier fields of parsed headers. Longer values than this are not worth interning.
+     */
+    static final Interner IDENTIFIERS = new Interner(4096, 64);
+
+    static final String
+        PARAM_PARTNER_ID            = "partner-id",
+        PARAM_KEY_ID                = "key-id",
+        PARAM_SIGNED_HEADERS        = "signed-headers",
+        PARAM_TIMESTAMP             = "timestamp",
+        PARAM_SIGNATURE             = "signature",
+        PARAM_REQUIRES_CANONICALIZE = "requires-canonicalize";
+
+    private AuthorizationHeaderCodec() {
+    }
+
+    /**
+     * @see AuthorizationHeader#parse(CharSequence)
+     */
+    static AuthorizationHeader parse(CharSequence in) {
+        return parse(in, new MutableTarget());
+    }
+
+    /**
+     * @see AuthorizationHeader#parse(ByteBuffer)
+     */
+    static AuthorizationHeader parse(ByteBuffer in) {
+        return parse(latin1(in), new MutableTarget());
+    }
+
+    /**
+     * @see CompactAuthorizationHeader#parse(CharSequence)
+     */
+    static CompactAuthorizationHeader parseCompact(CharSequence in) {
+        return parse(in, new CompactTarget());
+    }
+
+    /**
+     * @see CompactAuthorizationHeader#parse(ByteBuffer)
+     */
+    static CompactAuthorizationHeader parseCompact(ByteBuffer in) {
+        return parse(latin1(in), new CompactTarget());
+    }
+
+    private static CharSequence latin1(ByteBuffer in) {
+        if (in == null) {
+            throw new IllegalArgumentException("cannot be empty");
+        }
+        return new Latin1CharSequence(in, in.position(), in.limit());
+    }
+
+    private static <T> T parse(CharSequence in, Target<T> target) {
+        if (in == null) {
+            throw new IllegalArgumentException("cannot be empty");
+        }
+
+        // Same as String.trim()
+        int start = 0;
+        int end = in.length();
+        while (start < end && in.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && in.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            throw new IllegalArgumentException("cannot be empty");
+        }
+
+        // Scheme runs up to the first whitespace, and there must be something after it
+        int schemeEnd = start;
+        while (schemeEnd < end && !isWhitespace(in.charAt(schemeEnd))) {
+            schemeEnd++;
+        }
+        if (schemeEnd == end) {
+            throw new IllegalArgumentException("format invalid");
+        }
+
+        target.scheme(IDENTIFIERS.intern(in, start, schemeEnd));
+
+        // The input was trimmed, so this stops before the end
+        int pos = schemeEnd;
+        while (isWhitespace(in.charAt(pos))) {
+            pos++;
+        }
+
+        // Comma separated params, each with any whitespace adjacent to the commas removed
+        while (pos <= end) {
+            int comma = indexOf(in, ',', pos, end);
+            int paramStart = pos;
+            int paramEnd = comma;
+            while (paramStart < paramEnd && isWhitespace(in.charAt(paramStart))) {
+                paramStart++;
+            }
+            while (paramEnd > paramStart && isWhitespace(in.charAt(paramEnd - 1))) {
+                paramEnd--;
+            }
+            parseParam(target, in, paramStart, paramEnd);
+            pos = comma + 1;
+        }
+
+        return target.build();
+    }
+
+    private static void parseParam(Target<?> target, CharSequence in, int start, int end) {
+        int eq = indexOf(in, '=', start, end);
+        if (eq == end) {
+            return;
+        }
+        int valueStart = eq + 1;
+        if (isBlank(in, valueStart, end)) {
+            return;
+        }
+
+        if (regionEquals(in, start, eq, PARAM_PARTNER_ID)) {
+            target.partnerId(IDENTIFIERS.intern(in, valueStart, end));
+        } else if (regionEquals(in, start, eq, PARAM_KEY_ID)) {
+            target.keyId(IDENTIFIERS.intern(in, valueStart, end));
+        } else if (regionEquals(in, start, eq, PARAM_SIGNED_HEADERS)) {
+            parseSignedHeaders(target, in, valueStart, end);
+        } else if (regionEquals(in, start, eq, PARAM_TIMESTAMP)) {
+            try {
+                target.timestamp(Long.parseLong(in, valueStart, end, 10));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("invalid timestamp, " + substring(in, valueStart, end));
+            }
+        } else if (regionEquals(in, start, eq, PARAM_SIGNATURE)) {
+            target.signature(substring(in, valueStart, end));
+        } else if (regionEquals(in, start, eq, PARAM_REQUIRES_CANONICALIZE)) {
+            target.requiresCanonicalize(regionEqualsIgnoreCase(in, valueStart, end, "true"));
+        }
+    }
+
+    /**
+     * Split on ';', discarding trailing empty names as String.split does. The names are counted first so the target
+     * can size its storage exactly.
+     */
+    private static void parseSignedHeaders(Target<?> target, CharSequence in, int start, int end) {
+        while (end > start && in.charAt(end - 1) == ';') {
+            end--;
+        }
+        if (start == end) {
+            target.signedHeaders(0);
+            return;
+        }
+        int count = 1;
+        for (int i = start; i < end; i++) {
+            if (in.charAt(i) == ';') {
+                count++;
+            }
+        }
+        target.signedHeaders(count);
+        int pos = start;
+        for (int i = 0; i < count; i++) {
+            int semi = indexOf(in, ';', pos, end);
+            target.signedHeader(i, IDENTIFIERS.intern(in, pos, semi));
+            pos = semi + 1;
+        }
+    }
+
+    /**
+     * @see AuthorizationHeader#toString(StringBuilder)
+     */
+    static StringBuilder format(AuthorizationHeader ah, StringBuilder out) {
+        Long timestamp = ah.getTimestamp();
+        return format(ah.getScheme(), ah.getPartnerId(), ah.getKeyId(), ah.getSignedHeaders(), timestamp != null,
+            timestamp != null ? timestamp : 0, ah.getSignature(), ah.getRequiresCanonicalize(), out);
+    }
+
+    /**
+     * @see CompactAuthorizationHeader#toString(StringBuilder)
+     */
+    static StringBuilder format(CompactAuthorizationHeader ah, StringBuilder out) {
+        return format(ah.getScheme(), ah.getPartnerId(), ah.getKeyId(), ah.getSignedHeaders(), ah.hasTimestamp(),
+            ah.getTimestamp(), ah.getSignature(), ah.getRequiresCanonicalize(), out);
+    }
+
+    private static StringBuilder format(String scheme, String partnerId, String keyId, List<String> signedHeaders,
+                                        boolean hasTimestamp, long timestamp, String signature, Boolean requiresCanonicalize,
+                                        StringBuilder out) {
+        out.append(scheme);
+        out.append(' ').append(PARAM_PARTNER_ID).append('=').append(partnerId);
+        out.append(", ").append(PARAM_KEY_ID).append('=').append(keyId);
+
+        if (!signedHeaders.isEmpty()) {
+            out.append(", ").append(PARAM_SIGNED_HEADERS).append('=');
+            for (int i = 0; i < signedHeaders.size(); i++) {
+                if (i > 0) {
+                    out.append(';');
+                }
+                out.append(signedHeaders.get(i));
+            }
+        }
+
+        out.append(", ").append(PARAM_TIMESTAMP).append('=');
+        if (hasTimestamp) {
+            out.append(timestamp);
+        } else {
+            out.append("null");
+        }
+        out.append(", ").append(PARAM_SIGNATURE).append('=').append(signature);
+
+        if (requiresCanonicalize != null) {
+            out.append(", ").append(PARAM_REQUIRES_CANONICALIZE).append('=').append(requiresCanonicalize);
+        }
+
+        return out;
+    }
+
+    /**
+     * Rough upper bound on the serialized length of a typical header, to size the output buffer in one go.
+     */
+    static int estimateLength(AuthorizationHeader ah) {
+        return estimateLength(ah.getScheme(), ah.getPartnerId(), ah.getKeyId(), ah.getSignature(), ah.getSignedHeaders());
+    }
+
+    static int estimateLength(CompactAuthorizationHeader ah) {
+        return estimateLength(ah.getScheme(), ah.getPartnerId(), ah.getKeyId(), ah.getSignature(), ah.getSignedHeaders());
+    }
+
+    private static int estimateLength(String scheme, String partnerId, String keyId, String signature, List<String> signedHeaders) {
+        int len = 96 + length(scheme) + length(partnerId) + length(keyId) + length(signature);
+        for (String name : signedHeaders) {
+            len += length(name) + 1;
+        }
+        return len;
+    }
+
+    private static int length(String s) {
+        return s == null ? 4 : s.length();
+    }
+
+    /**
+     * Matches the regular expression \s, which is narrower than Character.isWhitespace.
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * True if the region would be empty after String.trim().
+     */
+    private static boolean isBlank(CharSequence in, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (in.charAt(i) > ' ') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(CharSequence in, char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (in.charAt(i) == c) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static boolean regionEquals(CharSequence in, int start, int end, String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (in.charAt(start + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Same comparison as String.equalsIgnoreCase.
+     */
+    private static boolean regionEqualsIgnoreCase(CharSequence in, int start, int end, String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            char c1 = in.charAt(start + i);
+            char c2 = s.charAt(i);
+            if (c1 == c2) {
+                continue;
+            }
+            char u1 = Character.toUpperCase(c1);
+            char u2 = Character.toUpperCase(c2);
+            if (u1 != u2 && Character.toLowerCase(u1) != Character.toLowerCase(u2)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String substring(CharSequence in, int start, int end) {
+        if (in instanceof String) {
+            return ((String)in).substring(start, end);
+        }
+        return in.subSequence(start, end).toString();
+    }
+
+    /**
+     * Receives the fields of a header as they are parsed, and builds the result.
+     */
+    private abstract static class Target<T> {
+
+        abstract void scheme(String scheme);
+
+        abstract void partnerId(String partnerId);
+
+        abstract void keyId(String keyId);
+
+        /**
+         * Start a new list of signed headers, replacing any previous one, to be filled in by
+         * {@link #signedHeader(int, String)}.
+         */
+        abstract void signedHeaders(int count);
+
+        abstract void signedHeader(int index, String name);
+
+        abstract void timestamp(long timestamp);
+
+        abstract void signature(String signature);
+
+        abstract void requiresCanonicalize(boolean requiresCanonicalize);
+
+        abstract T build();
+    }
+
+    private static final class MutableTarget extends Target<AuthorizationHeader> {
+
+        private final AuthorizationHeader ah = new AuthorizationHeader();
+
+        @Override
+        void scheme(String scheme) {
+            this.ah.setScheme(scheme);
+        }
+
+        @Override
+        void partnerId(String partnerId) {
+            this.ah.setPartnerId(partnerId);
+        }
+
+        @Override
+        void keyId(String keyId) {
+            this.ah.setKeyId(keyId);
+        }
+
+        @Override
+        void signedHeaders(int count) {
+            this.ah.setSignedHeaders(new ArrayList<>(count));
+        }
+
+        @Override
+        void signedHeader(int index, String name) {
+            this.ah.getSignedHeaders().add(name);
+        }
+
+        @Override
+        void timestamp(long timestamp) {
+            this.ah.setTimestamp(timestamp);
+        }
+
+        @Override
+        void signature(String signature) {
+            this.ah.setSignature(signature);
+        }
+
+        @Override
+        void requiresCanonicalize(boolean requiresCanonicalize) {
+            this.ah.setRequiresCanonicalize(requiresCanonicalize);
+        }
+
+        @Override
+        AuthorizationHeader build() {
+            return this.ah;
+        }
+    }
+
+    private static final class CompactTarget extends Target<CompactAuthorizationHeader> {
+
+        private static final String[] NO_HEADERS = {};
+
+        private String scheme;
+        private String partnerId;
+        private String keyId;
+        private String[] signedHeaders = NO_HEADERS;
+        private boolean hasTimestamp;
+        private long timestamp;
+        private String signature;
+        private Boolean requiresCanonicalize;
+
+        @Override
+        void scheme(String scheme) {
+            this.scheme = scheme;
+        }
+
+        @Override
+        void partnerId(String partnerId) {
+            this.partnerId = partnerId;
+        }
+
+        @Override
+        void keyId(String keyId) {
+            this.keyId = keyId;
+        }
+
+        @Override
+        void signedHeaders(int count) {
+            this.signedHeaders = count == 0 ? NO_HEADERS : new String[count];
+        }
+
+        @Override
+        void signedHeader(int index, String name) {
+            this.signedHeaders[index] = name;
+        }
+
+        @Override
+        void timestamp(long timestamp) {
+            this.hasTimestamp = true;
+            this.timestamp = timestamp;
+        }
+
+        @Override
+        void signature(String signature) {
+            this.signature = signature;
+        }
+
+        @Override
+        void requiresCanonicalize(boolean requiresCanonicalize) {
+            this.requiresCanonicalize = requiresCanonicalize;
+        }
+
+        @Override
+        CompactAuthorizationHeader build() {
+            return new CompactAuthorizationHeader(this.scheme, this.partnerId, this.keyId, this.signedHeaders,
+                this.hasTimestamp, this.timestamp, this.signature, this.requiresCanonicalize);
+        }
+    }
+
+    /**
+     * Read-only view of a region of a {@link ByteBuffer} as ISO-8859-1 text, which is how raw HTTP header bytes are
+     * interpreted. The buffer's position is not modified.
+     */
+    private static final class Latin1CharSequence implements CharSequence {
+
+        private final ByteBuffer buf;
+        private final int offset;
+        private final int length;
+
+        Latin1CharSequence(ByteBuffer buf, int start, int end) {
+            this.buf = buf;
+            this.offset = start;
+            this.length = end - start;
+        }
+
+        @Override
+        public int length() {
+            return this.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= this.length) {
+                throw new IndexOutOfBoundsException("index " + index + ", length " + this.length);
+            }
+            return (char)(this.buf.get(this.offset + index) & 0xFF);
+        }
+
+        /**
+         * Returns a String directly, since the only use is extracting field values.
+         */
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || end > this.length || start > end) {
+                throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + this.length);
+            }
+            int len = end - start;
+            if (this.buf.hasArray()) {
+                return new String(this.buf.array(), this.buf.arrayOffset() + this.offset + start, len, StandardCharsets.ISO_8859_1);
+            }
+            byte[] b = new byte[len];
+            this.buf.get(this.offset + start, b);
+            return new String(b, StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        public String toString() {
+            return this.subSequence(0, this.length).toString();
+        }
+    }
+}
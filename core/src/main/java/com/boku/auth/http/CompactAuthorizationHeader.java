@@ -0,0 +1,214 @@
+package com.boku.auth.http;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Immutable, compact form of {@link AuthorizationHeader}, for code which parses the header of every message and only
+ * reads it.<br>
+ * <br>
+ * The scheme, partner-id, key-id and signed header names are interned in a bounded table shared by all parsed headers,
+ * so the same few values seen on every request are not copied out of the header again each time. The signed headers
+ * are held in an array, and the timestamp as a primitive. Parsing accepts exactly what {@link AuthorizationHeader#parse}
+ * does, and the two convert to each other with {@link #of(AuthorizationHeader)} and {@link #toAuthorizationHeader()}.<br>
+ * <br>
+ * Instances are thread safe.
+ */
+public final class CompactAuthorizationHeader {
+
+    private final String scheme;
+    private final String partnerId;
+    private final String keyId;
+    private final String[] signedHeaders;
+    private final boolean hasTimestamp;
+    private final long timestamp;
+    private final String signature;
+    private final Boolean requiresCanonicalize;
+
+    /**
+     * Takes ownership of the signedHeaders array, which must not be modified afterwards.
+     */
+    CompactAuthorizationHeader(String scheme, String partnerId, String keyId, String[] signedHeaders, boolean hasTimestamp,
+                               long timestamp, String signature, Boolean requiresCanonicalize) {
+        this.scheme = scheme;
+        this.partnerId = partnerId;
+        this.keyId = keyId;
+        this.signedHeaders = signedHeaders;
+        this.hasTimestamp = hasTimestamp;
+        this.timestamp = hasTimestamp ? timestamp : 0;
+        this.signature = signature;
+        this.requiresCanonicalize = requiresCanonicalize;
+    }
+
+    /**
+     * Copy the given mutable header, interning its identifiers.
+     *
+     * @param ah The header to copy. May not be null.
+     */
+    public static CompactAuthorizationHeader of(AuthorizationHeader ah) {
+        if (ah == null) {
+            throw new IllegalArgumentException("ah cannot be null");
+        }
+        List<String> names = ah.getSignedHeaders() != null ? ah.getSignedHeaders() : Collections.emptyList();
+        String[] signedHeaders = new String[names.size()];
+        for (int i = 0; i < signedHeaders.length; i++) {
+            signedHeaders[i] = AuthorizationHeaderCodec.IDENTIFIERS.intern(names.get(i));
+        }
+        Long timestamp = ah.getTimestamp();
+        return new CompactAuthorizationHeader(
+            AuthorizationHeaderCodec.IDENTIFIERS.intern(ah.getScheme()),
+            AuthorizationHeaderCodec.IDENTIFIERS.intern(ah.getPartnerId()),
+            AuthorizationHeaderCodec.IDENTIFIERS.intern(ah.getKeyId()),
+            signedHeaders,
+            timestamp != null, timestamp != null ? timestamp : 0,
+            ah.getSignature(),
+            ah.getRequiresCanonicalize()
+        );
+    }
+
+    /**
+     * As per {@link AuthorizationHeader#parse(CharSequence)}.
+     *
+     * @param headerValue The header value. May not be null.
+     * @return A parsed instance, which may or may not be valid. Does not return null.
+     */
+    public static CompactAuthorizationHeader parse(CharSequence headerValue) {
+        return AuthorizationHeaderCodec.parseCompact(headerValue);
+    }
+
+    /**
+     * As per {@link AuthorizationHeader#parse(ByteBuffer)}.
+     *
+     * @param headerValue The header value. May not be null.
+     * @return A parsed instance, which may or may not be valid. Does not return null.
+     */
+    public static CompactAuthorizationHeader parse(ByteBuffer headerValue) {
+        return AuthorizationHeaderCodec.parseCompact(headerValue);
+    }
+
+    /**
+     * @return A new mutable copy of this header
+     */
+    public AuthorizationHeader toAuthorizationHeader() {
+        AuthorizationHeader ah = new AuthorizationHeader();
+        ah.setScheme(this.scheme);
+        ah.setPartnerId(this.partnerId);
+        ah.setKeyId(this.keyId);
+        ah.setSignedHeaders(new ArrayList<>(Arrays.asList(this.signedHeaders)));
+        ah.setTimestamp(this.hasTimestamp ? this.timestamp : null);
+        ah.setSignature(this.signature);
+        ah.setRequiresCanonicalize(this.requiresCanonicalize);
+        return ah;
+    }
+
+    /**
+     * @see AuthorizationHeader#getScheme()
+     */
+    public String getScheme() {
+        return this.scheme;
+    }
+
+    /**
+     * @see AuthorizationHeader#getPartnerId()
+     */
+    public String getPartnerId() {
+        return this.partnerId;
+    }
+
+    /**
+     * @see AuthorizationHeader#getKeyId()
+     */
+    public String getKeyId() {
+        return this.keyId;
+    }
+
+    /**
+     * @return An unmodifiable view of the signed header names. See {@link #getSignedHeader(int)} to read them
+     *         without allocating the view.
+     */
+    public List<String> getSignedHeaders() {
+        return Collections.unmodifiableList(Arrays.asList(this.signedHeaders));
+    }
+
+    public int getSignedHeaderCount() {
+        return this.signedHeaders.length;
+    }
+
+    public String getSignedHeader(int index) {
+        return this.signedHeaders[index];
+    }
+
+    /**
+     * @return False if the header had no timestamp, i.e. {@link AuthorizationHeader#getTimestamp()} would be null
+     */
+    public boolean hasTimestamp() {
+        return this.hasTimestamp;
+    }
+
+    /**
+     * @return The timestamp, see {@link AuthorizationHeader#getTimestamp()}, or 0 if there is none
+     */
+    public long getTimestamp() {
+        return this.timestamp;
+    }
+
+    /**
+     * @see AuthorizationHeader#getSignature()
+     */
+    public String getSignature() {
+        return this.signature;
+    }
+
+    /**
+     * @see AuthorizationHeader#getRequiresCanonicalize()
+     */
+    public Boolean getRequiresCanonicalize() {
+        return this.requiresCanonicalize;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CompactAuthorizationHeader)) {
+            return false;
+        }
+        CompactAuthorizationHeader that = (CompactAuthorizationHeader)o;
+        return this.hasTimestamp == that.hasTimestamp
+            && this.timestamp == that.timestamp
+            && Objects.equals(this.scheme, that.scheme)
+            && Objects.equals(this.partnerId, that.partnerId)
+            && Objects.equals(this.keyId, that.keyId)
+            && Arrays.equals(this.signedHeaders, that.signedHeaders)
+            && Objects.equals(this.signature, that.signature)
+            && Objects.equals(this.requiresCanonicalize, that.requiresCanonicalize);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.scheme, this.partnerId, this.keyId, Arrays.hashCode(this.signedHeaders),
+            this.hasTimestamp ? this.timestamp : null, this.signature, this.requiresCanonicalize);
+    }
+
+    /**
+     * As per {@link AuthorizationHeader#toString()}.
+     */
+    @Override
+    public String toString() {
+        return this.toString(new StringBuilder(AuthorizationHeaderCodec.estimateLength(this))).toString();
+    }
+
+    /**
+     * As per {@link AuthorizationHeader#toString(StringBuilder)}.
+     *
+     * @return The StringBuilder passed in.
+     */
+    public StringBuilder toString(StringBuilder sb) {
+        return AuthorizationHeaderCodec.format(this, sb);
+    }
+}
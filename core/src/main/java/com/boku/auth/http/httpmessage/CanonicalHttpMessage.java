@@ -1,5 +1,6 @@
 package com.boku.auth.http.httpmessage;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -54,6 +55,41 @@ public abstract class CanonicalHttpMessage {
      * @return the same StringBuilder that was passed in as the `out` parameter (for method chaining)
      */
     public StringBuilder toString(StringBuilder out) {
+        try {
+            return this.appendTo(out);
+        } catch (IOException ex) {
+            throw new IllegalStateException("StringBuilder does not throw IOException", ex);
+        }
+    }
+
+    /**
+     * Same as {@link #toString(StringBuilder)}, but writes to any {@link Appendable}. This allows the Message To Sign
+     * to be streamed directly into e.g. a {@link com.boku.util.Utf8Encoder} without building up an intermediate String.
+     *
+     * @param out The Appendable to append the output of this method to
+     * @param <A> Type of out
+     * @return the same Appendable that was passed in as the `out` parameter (for method chaining)
+     * @throws IOException If thrown by out
+     */
+    public <A extends Appendable> A appendTo(A out) throws IOException {
+        this.appendHeadersTo(out);
+
+        if (this.getEntityDigest() != null) {
+            out.append(this.getEntityDigest());
+        }
+        out.append('\n');
+
+        return out;
+    }
+
+    /**
+     * Write the part of the Message To Sign preceding the entity digest, i.e. the request line for requests, and the
+     * headers. This part is the same for every message to a given endpoint with the same headers, see
+     * {@link com.boku.auth.http.httpsigner.SigningTemplate SigningTemplate}.
+     *
+     * @see #appendTo(Appendable)
+     */
+    public <A extends Appendable> A appendHeadersTo(A out) throws IOException {
         if (this instanceof CanonicalHttpRequest) {
             CanonicalHttpRequest httpRequest = (CanonicalHttpRequest)this;
             out.append(httpRequest.getMethod());
@@ -73,11 +109,6 @@ public abstract class CanonicalHttpMessage {
             out.append('\n');
         }
 
-        if (this.getEntityDigest() != null) {
-            out.append(this.getEntityDigest());
-        }
-        out.append('\n');
-
         return out;
     }
 }
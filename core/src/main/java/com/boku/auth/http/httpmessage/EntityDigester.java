@@ -0,0 +1,113 @@
+package com.boku.auth.http.httpmessage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+
+/**
+ * Calculates the entity digest of a message, in the form {@link CanonicalHttpMessage#setEntityDigest} expects, from
+ * the entity as it becomes available.<br>
+ * <br>
+ * Besides byte arrays, the entity may be given as heap or direct {@link ByteBuffer}s, read from a
+ * {@link ReadableByteChannel}, or memory mapped from a {@link FileChannel}, so that large entities already on disk or
+ * off heap are digested in place rather than first being copied into a byte array.<br>
+ * <br>
+ * Implementations need only implement {@link #update(ByteBuffer)}, {@link #getLength()} and {@link #digest()}; see
+ * {@link #of(MessageDigest)} for the usual one. Not thread safe.
+ */
+public interface EntityDigester {
+
+    /**
+     * The digest of an entity with no bytes, i.e. no entity, as {@link CanonicalHttpMessage#getEntityDigest()} gives
+     * it. Returned by {@link #digest()} when {@link #isEmpty()}, which is how callers should check for it.
+     */
+    String NO_ENTITY = null;
+
+    // Mapping a file region reserves address space until the buffer is collected, so large files are mapped in parts
+    long MAX_MAP_SIZE = 64L << 20;
+
+    int CHANNEL_BUFFER_SIZE = 16 << 10;
+
+    /**
+     * @return A new digester using the given digest, which it then uses exclusively
+     */
+    static EntityDigester of(MessageDigest md) {
+        return new MessageDigestEntityDigester(md);
+    }
+
+    /**
+     * Digest the remaining bytes of the given buffer, leaving its position at its limit.
+     */
+    void update(ByteBuffer data);
+
+    default void update(byte[] data, int offset, int length) {
+        this.update(ByteBuffer.wrap(data, offset, length));
+    }
+
+    /**
+     * Digest everything read from the given channel, up to end of stream, which must be blocking.<br>
+     * A {@link FileChannel} is memory mapped from its current position instead of being read, as per
+     * {@link #update(FileChannel, long, long)}, and its position is then moved to the end of the file.
+     *
+     * @return The number of bytes digested
+     */
+    default long update(ReadableByteChannel channel) throws IOException {
+        if (channel instanceof FileChannel) {
+            FileChannel file = (FileChannel)channel;
+            long position = file.position();
+            long n = this.update(file, position, Long.MAX_VALUE);
+            file.position(position + n);
+            return n;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(CHANNEL_BUFFER_SIZE);
+        long total = 0;
+        int n;
+        while ((n = channel.read(buffer)) >= 0) {
+            buffer.flip();
+            this.update(buffer);
+            buffer.clear();
+            total += n;
+        }
+        return total;
+    }
+
+    /**
+     * Digest a region of the given file by memory mapping it, without reading it into the Java heap. The channel's
+     * position is not used or changed.
+     *
+     * @param position Offset in the file to start at
+     * @param count Maximum number of bytes to digest. Fewer are digested if the file ends first.
+     * @return The number of bytes digested
+     */
+    default long update(FileChannel file, long position, long count) throws IOException {
+        if (position < 0 || count < 0) {
+            throw new IllegalArgumentException("position and count must not be negative, got " + position + " and " + count);
+        }
+        long end = position + Math.min(count, Math.max(0, file.size() - position));
+        for (long offset = position; offset < end; offset += MAX_MAP_SIZE) {
+            MappedByteBuffer region = file.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(MAX_MAP_SIZE, end - offset));
+            this.update(region);
+        }
+        return end - position;
+    }
+
+    /**
+     * @return The number of bytes digested since the last {@link #digest()}
+     */
+    long getLength();
+
+    default boolean isEmpty() {
+        return this.getLength() == 0;
+    }
+
+    /**
+     * Complete the digest, and reset ready for the next entity.
+     *
+     * @return The hex encoded digest, or {@link #NO_ENTITY} if no bytes were digested
+     */
+    String digest();
+
+}
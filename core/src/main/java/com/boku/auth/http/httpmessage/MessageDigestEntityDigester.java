@@ -0,0 +1,54 @@
+package com.boku.auth.http.httpmessage;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+
+import com.boku.util.HexCodec;
+
+/**
+ * {@link EntityDigester} over a {@link MessageDigest}, see {@link EntityDigester#of}.
+ */
+final class MessageDigestEntityDigester implements EntityDigester {
+
+    private final MessageDigest md;
+    private long length;
+
+    MessageDigestEntityDigester(MessageDigest md) {
+        if (md == null) {
+            throw new IllegalArgumentException("md cannot be null");
+        }
+        this.md = md;
+    }
+
+    @Override
+    public void update(ByteBuffer data) {
+        this.length += data.remaining();
+        this.md.update(data);
+    }
+
+    @Override
+    public void update(byte[] data, int offset, int length) {
+        this.md.update(data, offset, length);
+        this.length += length;
+    }
+
+    @Override
+    public long getLength() {
+        return this.length;
+    }
+
+    @Override
+    public String digest() {
+        if (this.length == 0) {
+            this.md.reset();
+            return NO_ENTITY;
+        }
+        this.length = 0;
+        return HexCodec.encodeString(this.md.digest());
+    }
+
+    @Override
+    public String toString() {
+        return "EntityDigester{" + this.md.getAlgorithm() + '}';
+    }
+}
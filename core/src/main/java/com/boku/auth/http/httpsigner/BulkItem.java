@@ -0,0 +1,35 @@
+package com.boku.auth.http.httpsigner;
+
+import com.boku.auth.http.AuthorizationHeader;
+import com.boku.auth.http.httpmessage.CanonicalHttpMessage;
+
+/**
+ * An {@link AuthorizationHeader} and the {@link CanonicalHttpMessage} it applies to, as passed to
+ * {@link HttpMessageSigner#signAll} and {@link HttpMessageSigner#verifyAll}.
+ */
+public final class BulkItem {
+
+    private final AuthorizationHeader authHeader;
+    private final CanonicalHttpMessage httpMessage;
+
+    /**
+     * @param authHeader For signing, as per {@link HttpMessageSigner#sign}, and will be populated in the same way. For
+     *                   verification, a fully populated header, as per {@link HttpMessageSigner#verifySignature}.
+     * @param httpMessage The HTTP request or response
+     */
+    public BulkItem(AuthorizationHeader authHeader, CanonicalHttpMessage httpMessage) {
+        if (authHeader == null || httpMessage == null) {
+            throw new IllegalArgumentException("authHeader and httpMessage are required");
+        }
+        this.authHeader = authHeader;
+        this.httpMessage = httpMessage;
+    }
+
+    public AuthorizationHeader getAuthHeader() {
+        return this.authHeader;
+    }
+
+    public CanonicalHttpMessage getHttpMessage() {
+        return this.httpMessage;
+    }
+}
@@ -0,0 +1,44 @@
+package com.boku.auth.http.httpsigner;
+
+/**
+ * Outcome of signing or verifying one {@link BulkItem} via {@link HttpMessageSigner#signAll} or
+ * {@link HttpMessageSigner#verifyAll}.
+ */
+public final class BulkResult {
+
+    private final BulkItem item;
+    private final Exception failure;
+
+    BulkResult(BulkItem item, Exception failure) {
+        this.item = item;
+        this.failure = failure;
+    }
+
+    /**
+     * @return The item this is the result for
+     */
+    public BulkItem getItem() {
+        return this.item;
+    }
+
+    /**
+     * @return true if the item was signed, or its signature verified, successfully
+     */
+    public boolean isSuccess() {
+        return this.failure == null;
+    }
+
+    /**
+     * @return What {@link HttpMessageSigner#sign} or {@link HttpMessageSigner#verifySignature} would have thrown for
+     *         this item, or null on success. For verification failures this is an
+     *         {@link com.boku.auth.http.exception.AuthorizationException AuthorizationException}.
+     */
+    public Exception getFailure() {
+        return this.failure;
+    }
+
+    @Override
+    public String toString() {
+        return this.failure == null ? "success" : "failure: " + this.failure;
+    }
+}
@@ -0,0 +1,177 @@
+package com.boku.auth.http.httpsigner;
+
+import java.security.InvalidKeyException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import com.boku.auth.http.keyprovider.KeyProvider;
+import com.boku.auth.http.keyprovider.PartnerKeyId;
+import com.boku.auth.http.stringsigner.SignatureAlgorithm;
+import com.boku.auth.http.stringsigner.StringSigner;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link KeyProvider} supplying time-scoped signing keys derived from partner keys, in the manner of AWS SigV4 key
+ * derivation.<br>
+ * <br>
+ * The key for a given partner ID, key ID and {@link DerivedKeyScope scope} is the signature, by the partner key, of a
+ * fixed derivation string naming the scope, as generated by the root {@link StringSigner}. The root signer is
+ * therefore consulted once per key per scope, and may be a remote key service without the partner key itself ever
+ * leaving it; every message signed or verified within the scope then only needs the derived key, which is cached
+ * here.<br>
+ * <br>
+ * Derived keys are requested with a key ID of the form keyId/SCOPE/scopeId, as built by {@link #scopedKeyId}. A key is
+ * only provided from shortly before its scope starts until shortly after it ends, as per the grace period, so
+ * messages with timestamps outside that window fail verification as though the key were unknown. Expired keys are
+ * dropped from the cache.
+ */
+public class DerivedKeyProvider implements KeyProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(DerivedKeyProvider.class);
+
+    /**
+     * Matches the allowed clock difference when checking request timestamps on the server
+     */
+    public static final long DEFAULT_GRACE_SECONDS = 300;
+
+    // Never the start of a canonical request or response, so a derived key can't be passed off as a message signature
+    private static final String DERIVATION_PREFIX = "BOKU-DERIVED-KEY/1\n";
+
+    private static final long PRUNE_INTERVAL_SECONDS = 60;
+
+    private final Map<PartnerKeyId, Entry> entries = new ConcurrentHashMap<>();
+    private final StringSigner rootSigner;
+    private final long graceSeconds;
+    private final LongSupplier clock;
+
+    private final LongAdder derivations = new LongAdder();
+    private volatile long nextPrune;
+
+    /**
+     * Create an instance with the default grace period.
+     *
+     * @param rootSigner Signer holding the partner keys
+     */
+    public DerivedKeyProvider(StringSigner rootSigner) {
+        this(rootSigner, DEFAULT_GRACE_SECONDS);
+    }
+
+    /**
+     * @param rootSigner Signer holding the partner keys
+     * @param graceSeconds How long before the start and after the end of its scope a derived key is still provided,
+     *                     to allow for clock differences between the signing and verifying sides
+     */
+    public DerivedKeyProvider(StringSigner rootSigner, long graceSeconds) {
+        this(rootSigner, graceSeconds, () -> TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()));
+    }
+
+    DerivedKeyProvider(StringSigner rootSigner, long graceSeconds, LongSupplier clock) {
+        if (rootSigner == null) {
+            throw new IllegalArgumentException("rootSigner cannot be null");
+        }
+        if (graceSeconds < 0) {
+            throw new IllegalArgumentException("graceSeconds may not be negative, got " + graceSeconds);
+        }
+        this.rootSigner = rootSigner;
+        this.graceSeconds = graceSeconds;
+        this.clock = clock;
+    }
+
+    /**
+     * @return The key ID under which this provider supplies the key derived from keyId for the scope containing the
+     *         given timestamp
+     */
+    public static String scopedKeyId(String keyId, DerivedKeyScope scope, long timestamp) {
+        return keyId + '/' + scope.name() + '/' + scope.scopeId(timestamp);
+    }
+
+    /**
+     * @param keyId A key ID as built by {@link #scopedKeyId}. Anything else is treated as unknown.
+     * @return The derived key, or null if the partner key is unknown or the scope is not currently valid
+     */
+    @Override
+    public String get(String partnerId, String keyId) {
+        if (partnerId == null || keyId == null) {
+            return null;
+        }
+        long now = this.clock.getAsLong();
+        PartnerKeyId cacheKey = new PartnerKeyId(partnerId, keyId);
+        Entry entry = this.entries.get(cacheKey);
+        if (entry != null && now >= entry.validFrom && now < entry.validUntil) {
+            return entry.key;
+        }
+
+        // Key ID is keyId/SCOPE/scopeId, where keyId may itself contain slashes
+        int scopeIdStart = keyId.lastIndexOf('/');
+        int scopeStart = scopeIdStart <= 0 ? -1 : keyId.lastIndexOf('/', scopeIdStart - 1);
+        if (scopeStart <= 0) {
+            return null;
+        }
+        DerivedKeyScope scope;
+        long start;
+        try {
+            scope = DerivedKeyScope.valueOf(keyId.substring(scopeStart + 1, scopeIdStart));
+            start = scope.startOf(keyId.substring(scopeIdStart + 1));
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+        long validFrom = start - this.graceSeconds;
+        long validUntil = start + scope.getSeconds() + this.graceSeconds;
+        if (now < validFrom || now >= validUntil) {
+            logger.debug("Derived key {} for partner-id {} requested outside its validity period", keyId, partnerId);
+            return null;
+        }
+
+        String rootKeyId = keyId.substring(0, scopeStart);
+        String key;
+        try {
+            key = this.rootSigner.generateSignature(
+                SignatureAlgorithm.HMAC_SHA256,
+                partnerId,
+                rootKeyId,
+                DERIVATION_PREFIX + scope.name() + '\n' + keyId.substring(scopeIdStart + 1)
+            );
+        } catch (InvalidKeyException ex) {
+            return null;
+        }
+        this.derivations.increment();
+
+        this.entries.put(cacheKey, new Entry(key, validFrom, validUntil));
+        if (now >= this.nextPrune) {
+            this.nextPrune = now + PRUNE_INTERVAL_SECONDS;
+            this.entries.values().removeIf(e -> now >= e.validUntil);
+        }
+        return key;
+    }
+
+    /**
+     * @return The number of derived keys currently cached
+     */
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return Number of keys derived via the root signer since this instance was created
+     */
+    public long getDerivationCount() {
+        return this.derivations.sum();
+    }
+
+    private static final class Entry {
+
+        final String key;
+        final long validFrom;
+        final long validUntil;
+
+        Entry(String key, long validFrom, long validUntil) {
+            this.key = key;
+            this.validFrom = validFrom;
+            this.validUntil = validUntil;
+        }
+    }
+}
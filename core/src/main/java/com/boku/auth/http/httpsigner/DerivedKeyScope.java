@@ -0,0 +1,109 @@
+package com.boku.auth.http.httpsigner;
+
+import java.time.DateTimeException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Validity period of a derived signing key, see {@link DerivedKeyProvider}.<br>
+ * <br>
+ * Each scope has its own authorization scheme (see {@link SignatureScheme}), so that the verifying side knows which key
+ * to derive from the {@link com.boku.auth.http.AuthorizationHeader AuthorizationHeader} alone: the scope a message
+ * belongs to is the one containing its timestamp, in UTC. The message is otherwise signed exactly as for
+ * {@link HttpMessageSigner#SCHEME}.
+ */
+public enum DerivedKeyScope {
+
+    /**
+     * One key per UTC day, identified as yyyyMMdd
+     */
+    DAY("2/HMAC_SHA256-DAY(H+SHA256(E))", 86400, 8),
+
+    /**
+     * One key per UTC hour, identified as yyyyMMddHH
+     */
+    HOUR("2/HMAC_SHA256-HOUR(H+SHA256(E))", 3600, 10);
+
+    private final String scheme;
+    private final long seconds;
+    private final int scopeIdLength;
+
+    DerivedKeyScope(String scheme, long seconds, int scopeIdLength) {
+        this.scheme = scheme;
+        this.seconds = seconds;
+        this.scopeIdLength = scopeIdLength;
+    }
+
+    /**
+     * @return The authorization scheme for messages signed with keys of this scope
+     */
+    public String getScheme() {
+        return this.scheme;
+    }
+
+    /**
+     * @return How long each key of this scope is for, in seconds
+     */
+    public long getSeconds() {
+        return this.seconds;
+    }
+
+    /**
+     * @return The scope the given authorization scheme is for, or null if it is not a derived key scheme
+     */
+    public static DerivedKeyScope fromScheme(String scheme) {
+        SignatureScheme signatureScheme = SignatureScheme.forName(scheme);
+        return signatureScheme == null ? null : signatureScheme.getDerivedKeyScope();
+    }
+
+    /**
+     * @param timestamp Unix time in seconds, as per {@link com.boku.auth.http.AuthorizationHeader#getTimestamp()}
+     * @return The identifier of the key covering the given time, e.g. 20261016 for {@link #DAY}
+     */
+    public String scopeId(long timestamp) {
+        LocalDateTime t = LocalDateTime.ofEpochSecond(Math.floorDiv(timestamp, this.seconds) * this.seconds, 0, ZoneOffset.UTC);
+        StringBuilder sb = new StringBuilder(this.scopeIdLength);
+        sb.append(t.getYear());
+        append2(sb, t.getMonthValue());
+        append2(sb, t.getDayOfMonth());
+        if (this == HOUR) {
+            append2(sb, t.getHour());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Inverse of {@link #scopeId(long)}.
+     *
+     * @return Unix time in seconds at which the identified key becomes valid
+     * @throws IllegalArgumentException If scopeId is not a valid identifier for this scope
+     */
+    public long startOf(String scopeId) {
+        if (scopeId == null || scopeId.length() != this.scopeIdLength) {
+            throw new IllegalArgumentException("Invalid " + this + " scope ID: " + scopeId);
+        }
+        for (int i = 0; i < scopeId.length(); i++) {
+            if (scopeId.charAt(i) < '0' || scopeId.charAt(i) > '9') {
+                throw new IllegalArgumentException("Invalid " + this + " scope ID: " + scopeId);
+            }
+        }
+        try {
+            return LocalDateTime.of(
+                Integer.parseInt(scopeId.substring(0, 4)),
+                Integer.parseInt(scopeId.substring(4, 6)),
+                Integer.parseInt(scopeId.substring(6, 8)),
+                this == HOUR ? Integer.parseInt(scopeId.substring(8, 10)) : 0,
+                0
+            ).toEpochSecond(ZoneOffset.UTC);
+        } catch (DateTimeException ex) {
+            throw new IllegalArgumentException("Invalid " + this + " scope ID: " + scopeId, ex);
+        }
+    }
+
+    private static void append2(StringBuilder sb, int value) {
+        if (value < 10) {
+            sb.append('0');
+        }
+        sb.append(value);
+    }
+}
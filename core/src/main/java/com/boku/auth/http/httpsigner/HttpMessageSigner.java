@@ -1,14 +1,31 @@
 package com.boku.auth.http.httpsigner;
 
 import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 import com.boku.auth.http.exception.AuthorizationException;
 import com.boku.auth.http.exception.AuthorizationFailedException;
 import com.boku.auth.http.exception.InvalidApplicationSuppliedAuthorizationHeaderException;
 import com.boku.auth.http.exception.InvalidAuthorizationHeaderException;
 import com.boku.auth.http.httpmessage.CanonicalHttpMessage;
+import com.boku.auth.http.stringsigner.AsyncStringSigner;
+import com.boku.auth.http.stringsigner.BasicStringSignerImpl;
 import com.boku.auth.http.stringsigner.SignatureAlgorithm;
+import com.boku.auth.http.stringsigner.StreamingStringSigner;
+import com.boku.auth.http.stringsigner.StringToSign;
 import com.boku.auth.http.stringsigner.StringSigner;
+import com.boku.util.HexCodec;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -22,33 +39,114 @@ public class HttpMessageSigner {
     private static final Logger logger = LoggerFactory.getLogger(HttpMessageSigner.class);
 
     // Format is $version/$description. Version is reserved for major changes not expressible in description.
-    // We only support one at the moment.
+    // This is the default; see SignatureScheme for the others.
     public static final String SCHEME = "2/HMAC_SHA256(H+SHA256(E))";
 
+    // Bulk operations process messages sharing a key in chunks of up to this many per task
+    private static final int BULK_CHUNK_SIZE = 256;
+
     private final StringSigner stringSigner;
+    private final AsyncStringSigner asyncStringSigner;
+    private final StringSigner derivedKeySigner;
+    private final SignatureScheme defaultScheme;
 
     /**
-     * Construct a new instance that uses the given {@link StringSigner} to generate signatures.
+     * Construct a new instance that uses the given {@link StringSigner} to generate signatures.<br>
+     * If it is also a {@link StreamingStringSigner}, the string to sign is streamed to it rather than built up in
+     * memory first. If it is also an {@link AsyncStringSigner}, that is used by {@link #signAsync} and
+     * {@link #verifySignatureAsync}, which otherwise sign synchronously.<br>
+     * <br>
+     * Messages are signed with {@link #SCHEME} unless the header says otherwise. All registered
+     * {@link SignatureScheme}s are supported except the derived key ones; see
+     * {@link #HttpMessageSigner(StringSigner, SignatureScheme)} for those.
      */
     public HttpMessageSigner(StringSigner ss) {
         this.stringSigner = ss;
+        this.asyncStringSigner = ss instanceof AsyncStringSigner ? (AsyncStringSigner)ss : null;
+        this.derivedKeySigner = null;
+        this.defaultScheme = SignatureScheme.HMAC_SHA256;
+    }
+
+    /**
+     * Construct a new instance which supports all registered {@link SignatureScheme}s, including the
+     * {@link DerivedKeyScope derived key} ones, deriving keys from those of the given {@link StringSigner} via a new
+     * {@link DerivedKeyProvider}.
+     *
+     * @param ss Signer holding the partner keys, consulted for messages not using derived keys, and to derive keys
+     * @param defaultScheme The scheme to sign messages with where the header does not give one, or null to use
+     *                      {@link #SCHEME}. Messages using any supported scheme are verified either way.
+     */
+    public HttpMessageSigner(StringSigner ss, SignatureScheme defaultScheme) {
+        this(ss, new DerivedKeyProvider(ss), defaultScheme);
+    }
+
+    /**
+     * As per {@link #HttpMessageSigner(StringSigner, SignatureScheme)}, signing messages by default with a key derived
+     * for the given scope.
+     *
+     * @param signingScope The scope of key to sign messages with where the header does not give a scheme, or null to
+     *                     use {@link #SCHEME}
+     */
+    public HttpMessageSigner(StringSigner ss, DerivedKeyScope signingScope) {
+        this(ss, signingScope == null ? null : SignatureScheme.forName(signingScope.getScheme()));
+    }
+
+    /**
+     * As per {@link #HttpMessageSigner(StringSigner, SignatureScheme)}, but using the given {@link DerivedKeyProvider},
+     * which may be shared between instances.<br>
+     * Messages using a derived key scheme are signed locally with the derived key, so the {@link StringSigner} is only
+     * consulted for them once per key per scope.
+     */
+    public HttpMessageSigner(StringSigner ss, DerivedKeyProvider derivedKeyProvider, SignatureScheme defaultScheme) {
+        this.stringSigner = ss;
+        this.asyncStringSigner = ss instanceof AsyncStringSigner ? (AsyncStringSigner)ss : null;
+        this.derivedKeySigner = new BasicStringSignerImpl(derivedKeyProvider);
+        this.defaultScheme = defaultScheme != null ? defaultScheme : SignatureScheme.HMAC_SHA256;
+    }
+
+    /**
+     * Construct a new instance that uses the given {@link AsyncStringSigner} to generate signatures.<br>
+     * {@link #signAsync} and {@link #verifySignatureAsync} do not block; the synchronous methods wait for the result.
+     */
+    public HttpMessageSigner(AsyncStringSigner ass) {
+        this.stringSigner = (algorithm, partnerId, keyId, stringToSign) -> {
+            try {
+                return ass.generateSignatureAsync(algorithm, partnerId, keyId, stringToSign).toCompletableFuture().join();
+            } catch (CompletionException ex) {
+                Throwable cause = unwrap(ex);
+                if (cause instanceof InvalidKeyException) {
+                    throw (InvalidKeyException)cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                }
+                throw ex;
+            }
+        };
+        this.asyncStringSigner = ass;
+        this.derivedKeySigner = null;
+        this.defaultScheme = SignatureScheme.HMAC_SHA256;
+    }
+
+    /**
+     * @return The name of the scheme {@link #sign} uses where the header does not give one. The entity digest of a
+     *         message to be signed must be calculated as this scheme requires.
+     */
+    public String getDefaultScheme() {
+        return this.defaultScheme.getName();
     }
 
     /**
      * Given a partially specified {@link AuthorizationHeader} (only partnerId and keyId are required), and a
-     * {@link CanonicalHttpMessage} to sign, generate the signature and place it into the given authHeader.
+     * {@link CanonicalHttpMessage} to sign, generate the signature and place it into the given authHeader.<br>
+     * Where the scheme is not given, the {@link #getDefaultScheme() default} is used.
      *
      * @param authHeader The {@link AuthorizationHeader} instance to populate.
      * @param httpMessage A {@link CanonicalHttpMessage} instance
      * @throws InvalidApplicationSuppliedAuthorizationHeaderException If the given authHeader did not specify a known key, or some other configuration error occurred.
      */
     public void sign(AuthorizationHeader authHeader, CanonicalHttpMessage httpMessage) {
-        if (authHeader.getScheme() == null) {
-            authHeader.setScheme(SCHEME);
-        }
-        if (authHeader.getTimestamp() == null) {
-            authHeader.setTimestamp(System.currentTimeMillis() / 1000);
-        }
+        this.setDefaults(authHeader);
         String signature;
         try {
             signature = this.generateSignature(authHeader, httpMessage);
@@ -58,24 +156,366 @@ public class HttpMessageSigner {
         authHeader.setSignature(signature);
     }
 
+    /**
+     * Create a {@link SigningTemplate} for signing many messages identical to the given one other than in their entity
+     * and timestamp, such as repeated requests to one endpoint. The parts of the message the template covers are
+     * processed once, here, rather than for every message.<br>
+     * Where the scheme is not given, the {@link #getDefaultScheme() default} is used.
+     *
+     * @param authHeader A partially specified header, as per {@link #sign}. Only the scheme, partnerId, keyId and
+     *                   signedHeaders are used, and it is not modified.
+     * @param httpMessage The message to base the template on. Its entity digest is ignored.
+     * @return A new template. Does not return null.
+     * @throws InvalidApplicationSuppliedAuthorizationHeaderException If the given authHeader did not specify a known key, or some other configuration error occurred.
+     */
+    public SigningTemplate createTemplate(AuthorizationHeader authHeader, CanonicalHttpMessage httpMessage) {
+        String scheme = authHeader.getScheme() != null ? authHeader.getScheme() : this.defaultScheme.getName();
+        try {
+            return new SigningTemplate(this, scheme, authHeader, httpMessage);
+        } catch (InvalidAuthorizationHeaderException ex) {
+            throw new InvalidApplicationSuppliedAuthorizationHeaderException("Failed to create signing template", ex);
+        }
+    }
+
     /**
      * Given a {@link CanonicalHttpMessage} and an {@link AuthorizationHeader} pre-filled out with a signature,
      * recalculate the signature (as in {@link #sign}), and verify it matches the
-     * {@link AuthorizationHeader#getSignature() signature} provided in the AuthorizationHeader.
+     * {@link AuthorizationHeader#getSignature() signature} provided in the AuthorizationHeader.<br>
+     * <br>
+     * The comparison takes time independent of how much of the signature matched. Where the {@link StringSigner} is a
+     * {@link StreamingStringSigner}, the provided signature is checked directly against the raw MAC output, without
+     * encoding it.
      *
      * @param authHeader A fully populated AuthorizationHeader pertaining to the given httpMessage.
      * @param httpMessage The HTTP request or response for which to check the signature.
      * @throws AuthorizationException If the signature was incorrect, or the supplied AuthorizationHeader was invalid in any other way.
      */
     public void verifySignature(AuthorizationHeader authHeader, CanonicalHttpMessage httpMessage) throws AuthorizationException {
-        String sig = this.generateSignature(authHeader, httpMessage);
-        if (!sig.equals(authHeader.getSignature())) {
-            logger.warn("Verification failed - expected signature {} in auth header: {}", sig, authHeader);
-            throw new AuthorizationFailedException("Invalid signature");
+        SigningKey key = this.resolveKey(authHeader);
+        if (key.signer instanceof StreamingStringSigner) {
+            byte[] mac = generateRawSignature(key, authHeader, httpMessage);
+            if (!HexCodec.isEqual(mac, authHeader.getSignature())) {
+                verificationFailed(HexCodec.encodeString(mac), authHeader);
+            }
+        } else {
+            String sig = generateSignature(key, authHeader, httpMessage);
+            if (!isEqual(sig, authHeader.getSignature())) {
+                verificationFailed(sig, authHeader);
+            }
         }
         logger.debug("Verified signature correct for auth header: {}", authHeader);
     }
 
+    /**
+     * Asynchronous equivalent of {@link #sign}. If this instance was constructed with an {@link AsyncStringSigner},
+     * the calling thread is not held while the signature is generated.
+     *
+     * @param authHeader The {@link AuthorizationHeader} instance to populate, which happens before the returned stage
+     *                   completes.
+     * @param httpMessage A {@link CanonicalHttpMessage} instance
+     * @return A stage completed once authHeader is signed, or completed exceptionally with
+     *         {@link InvalidApplicationSuppliedAuthorizationHeaderException} as per {@link #sign}. Does not return
+     *         null.
+     */
+    public CompletionStage<Void> signAsync(AuthorizationHeader authHeader, CanonicalHttpMessage httpMessage) {
+        this.setDefaults(authHeader);
+        CompletableFuture<Void> ret = new CompletableFuture<>();
+        this.generateSignatureAsync(authHeader, httpMessage).whenComplete((signature, ex) -> {
+            if (ex != null) {
+                ex = unwrap(ex);
+                if (ex instanceof InvalidAuthorizationHeaderException) {
+                    ex = new InvalidApplicationSuppliedAuthorizationHeaderException("Failed to sign message", (InvalidAuthorizationHeaderException)ex);
+                }
+                ret.completeExceptionally(ex);
+                return;
+            }
+            authHeader.setSignature(signature);
+            ret.complete(null);
+        });
+        return ret;
+    }
+
+    /**
+     * Asynchronous equivalent of {@link #verifySignature}. If this instance was constructed with an
+     * {@link AsyncStringSigner}, the calling thread is not held while the signature is generated.
+     *
+     * @param authHeader A fully populated AuthorizationHeader pertaining to the given httpMessage.
+     * @param httpMessage The HTTP request or response for which to check the signature.
+     * @return A stage completed if the signature is correct, or completed exceptionally with
+     *         {@link AuthorizationException} as per {@link #verifySignature}. Does not return null.
+     */
+    public CompletionStage<Void> verifySignatureAsync(AuthorizationHeader authHeader, CanonicalHttpMessage httpMessage) {
+        CompletableFuture<Void> ret = new CompletableFuture<>();
+        this.generateSignatureAsync(authHeader, httpMessage).whenComplete((signature, ex) -> {
+            if (ex != null) {
+                ret.completeExceptionally(unwrap(ex));
+                return;
+            }
+            if (!isEqual(signature, authHeader.getSignature())) {
+                try {
+                    verificationFailed(signature, authHeader);
+                } catch (AuthorizationFailedException failed) {
+                    ret.completeExceptionally(failed);
+                    return;
+                }
+            }
+            logger.debug("Verified signature correct for auth header: {}", authHeader);
+            ret.complete(null);
+        });
+        return ret;
+    }
+
+    /**
+     * Asynchronous equivalent of {@link #generateSignature}.
+     *
+     * @return A stage completed with the hex encoded signature, or completed exceptionally with
+     *         {@link InvalidAuthorizationHeaderException} as per {@link #generateSignature}. Does not return null.
+     */
+    public CompletionStage<String> generateSignatureAsync(AuthorizationHeader authHeader, CanonicalHttpMessage httpMessage) {
+        CompletableFuture<String> ret = new CompletableFuture<>();
+        try {
+            SigningKey key = this.resolveKey(authHeader);
+            if (this.asyncStringSigner == null || key.signer != this.stringSigner) {
+                // Derived keys are local, so there's nothing to wait for
+                ret.complete(generateSignature(key, authHeader, httpMessage));
+                return ret;
+            }
+            this.asyncStringSigner.generateSignatureAsync(
+                    key.algorithm,
+                    key.partnerId,
+                    key.keyId,
+                    getStringToSign(httpMessage, authHeader.getTimestamp())
+            ).whenComplete((hmac, ex) -> {
+                if (ex != null) {
+                    ex = unwrap(ex);
+                    ret.completeExceptionally(ex instanceof InvalidKeyException ? invalidKey(authHeader, (InvalidKeyException)ex) : ex);
+                    return;
+                }
+                if (logger.isDebugEnabled()) {
+                    logGenerated(hmac, authHeader, httpMessage);
+                }
+                ret.complete(hmac);
+            });
+        } catch (InvalidAuthorizationHeaderException | RuntimeException ex) {
+            ret.completeExceptionally(ex);
+        }
+        return ret;
+    }
+
+    private static Throwable unwrap(Throwable ex) {
+        return ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+    }
+
+    /**
+     * Sign many messages, as per {@link #sign}, in parallel on the {@link ForkJoinPool#commonPool() common pool}.
+     *
+     * @see #signAll(List, Executor)
+     */
+    public List<BulkResult> signAll(List<BulkItem> items) {
+        return this.signAll(items, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Sign many messages, as per {@link #sign}, in parallel on the given executor, returning once all are done.<br>
+     * <br>
+     * Messages are grouped by partner ID and key ID, and each group split into chunks processed as one task, so that
+     * the key is looked up and the signing state initialized once per chunk rather than once per message where the
+     * {@link StringSigner} supports it (see {@link StreamingStringSigner#generateRawSignatures}).<br>
+     * <br>
+     * A failure to sign one message does not affect the others; each result records what {@link #sign} would have
+     * thrown.
+     *
+     * @param items The messages to sign. Each authHeader is populated as per {@link #sign}.
+     * @param executor Where to run the signing tasks
+     * @return One result per item, in the same order. Does not return null.
+     */
+    public List<BulkResult> signAll(List<BulkItem> items, Executor executor) {
+        return this.runAll(items, executor, true);
+    }
+
+    /**
+     * Verify many signatures, as per {@link #verifySignature}, in parallel on the
+     * {@link ForkJoinPool#commonPool() common pool}.
+     *
+     * @see #verifyAll(List, Executor)
+     */
+    public List<BulkResult> verifyAll(List<BulkItem> items) {
+        return this.verifyAll(items, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Verify many signatures, as per {@link #verifySignature}, in parallel on the given executor, returning once all
+     * are done. Work is grouped by key as per {@link #signAll(List, Executor)}.
+     *
+     * @param items The messages to verify, each with a fully populated authHeader
+     * @param executor Where to run the verification tasks
+     * @return One result per item, in the same order. Does not return null.
+     */
+    public List<BulkResult> verifyAll(List<BulkItem> items, Executor executor) {
+        return this.runAll(items, executor, false);
+    }
+
+    private List<BulkResult> runAll(List<BulkItem> items, Executor executor, boolean sign) {
+        BulkResult[] results = new BulkResult[items.size()];
+        if (sign) {
+            for (BulkItem item : items) {
+                this.setDefaults(item.getAuthHeader());
+            }
+        }
+        List<int[]> chunks = chunkByKey(items);
+        if (chunks.size() == 1) {
+            this.runChunk(items, chunks.get(0), sign, results);
+        } else if (!chunks.isEmpty()) {
+            CompletableFuture<?>[] tasks = new CompletableFuture<?>[chunks.size()];
+            for (int i = 0; i < tasks.length; i++) {
+                int[] chunk = chunks.get(i);
+                tasks[i] = CompletableFuture.runAsync(() -> this.runChunk(items, chunk, sign, results), executor);
+            }
+            CompletableFuture.allOf(tasks).join();
+        }
+        return Collections.unmodifiableList(Arrays.asList(results));
+    }
+
+    /**
+     * @return Indexes of the given items, ordered so those with the same scheme, partner ID and key ID (and for derived
+     *         keys, scope) are adjacent, and split into chunks. Small groups share a chunk rather than each becoming a
+     *         task of their own.
+     */
+    private static List<int[]> chunkByKey(List<BulkItem> items) {
+        Map<List<String>, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < items.size(); i++) {
+            AuthorizationHeader ah = items.get(i).getAuthHeader();
+            DerivedKeyScope scope = DerivedKeyScope.fromScheme(ah.getScheme());
+            String scopeId = scope == null || ah.getTimestamp() == null ? null : scope.scopeId(ah.getTimestamp());
+            groups.computeIfAbsent(Arrays.asList(ah.getScheme(), ah.getPartnerId(), ah.getKeyId(), scopeId), k -> new ArrayList<>()).add(i);
+        }
+        int[] ordered = groups.values().stream().flatMap(List::stream).mapToInt(Integer::intValue).toArray();
+        List<int[]> chunks = new ArrayList<>();
+        for (int start = 0; start < ordered.length; start += BULK_CHUNK_SIZE) {
+            chunks.add(Arrays.copyOfRange(ordered, start, Math.min(ordered.length, start + BULK_CHUNK_SIZE)));
+        }
+        return chunks;
+    }
+
+    /**
+     * Sign or verify the given items, storing a result for each. Does not throw.
+     */
+    private void runChunk(List<BulkItem> items, int[] chunk, boolean sign, BulkResult[] results) {
+        SigningKey[] keys = new SigningKey[chunk.length];
+        for (int c = 0; c < chunk.length; c++) {
+            BulkItem item = items.get(chunk[c]);
+            try {
+                keys[c] = this.resolveKey(item.getAuthHeader());
+            } catch (InvalidAuthorizationHeaderException ex) {
+                results[chunk[c]] = new BulkResult(item, sign ? new InvalidApplicationSuppliedAuthorizationHeaderException("Failed to sign message", ex) : ex);
+            }
+        }
+
+        for (int start = 0, end; start < chunk.length; start = end) {
+            SigningKey key = keys[start];
+            end = start + 1;
+            if (key == null) {
+                continue;
+            }
+            if (!(key.signer instanceof StreamingStringSigner)) {
+                this.runOne(items.get(chunk[start]), chunk[start], sign, results);
+                continue;
+            }
+            while (end < chunk.length && key.isSameKey(keys[end])) {
+                end++;
+            }
+            runKeyGroup(items, Arrays.copyOfRange(chunk, start, end), key, sign, results);
+        }
+    }
+
+    private void runOne(BulkItem item, int i, boolean sign, BulkResult[] results) {
+        try {
+            if (sign) {
+                this.sign(item.getAuthHeader(), item.getHttpMessage());
+            } else {
+                this.verifySignature(item.getAuthHeader(), item.getHttpMessage());
+            }
+            results[i] = new BulkResult(item, null);
+        } catch (AuthorizationException | RuntimeException ex) {
+            results[i] = new BulkResult(item, ex);
+        }
+    }
+
+    /**
+     * Sign or verify the given items, which all use the given key, with a single call to its
+     * {@link StreamingStringSigner}.
+     */
+    private static void runKeyGroup(List<BulkItem> items, int[] chunk, SigningKey key, boolean sign, BulkResult[] results) {
+        List<BulkItem> pending = new ArrayList<>(chunk.length);
+        List<Integer> pendingIndexes = new ArrayList<>(chunk.length);
+        List<StringToSign> stringsToSign = new ArrayList<>(chunk.length);
+        for (int i : chunk) {
+            BulkItem item = items.get(i);
+            Long timestamp = item.getAuthHeader().getTimestamp();
+            CanonicalHttpMessage httpMessage = item.getHttpMessage();
+            pending.add(item);
+            pendingIndexes.add(i);
+            stringsToSign.add(out -> httpMessage.appendTo(out).append(String.valueOf(timestamp)));
+        }
+
+        byte[][] macs;
+        try {
+            macs = ((StreamingStringSigner)key.signer).generateRawSignatures(
+                    key.algorithm,
+                    key.partnerId,
+                    key.keyId,
+                    stringsToSign
+            );
+        } catch (InvalidKeyException | RuntimeException ex) {
+            for (int p = 0; p < pending.size(); p++) {
+                BulkItem item = pending.get(p);
+                Exception failure = ex;
+                if (ex instanceof InvalidKeyException) {
+                    InvalidAuthorizationHeaderException invalidKey = invalidKey(item.getAuthHeader(), (InvalidKeyException)ex);
+                    failure = sign ? new InvalidApplicationSuppliedAuthorizationHeaderException("Failed to sign message", invalidKey) : invalidKey;
+                }
+                results[pendingIndexes.get(p)] = new BulkResult(item, failure);
+            }
+            return;
+        }
+
+        for (int p = 0; p < pending.size(); p++) {
+            BulkItem item = pending.get(p);
+            AuthorizationHeader authHeader = item.getAuthHeader();
+            byte[] mac = macs[p];
+            Exception failure = null;
+            if (logger.isDebugEnabled()) {
+                logGenerated(HexCodec.encodeString(mac), authHeader, item.getHttpMessage());
+            }
+            if (sign) {
+                authHeader.setSignature(HexCodec.encodeString(mac));
+            } else if (HexCodec.isEqual(mac, authHeader.getSignature())) {
+                logger.debug("Verified signature correct for auth header: {}", authHeader);
+            } else {
+                try {
+                    verificationFailed(HexCodec.encodeString(mac), authHeader);
+                } catch (AuthorizationFailedException ex) {
+                    failure = ex;
+                }
+            }
+            results[pendingIndexes.get(p)] = new BulkResult(item, failure);
+        }
+    }
+
+    private void setDefaults(AuthorizationHeader authHeader) {
+        if (authHeader.getScheme() == null) {
+            authHeader.setScheme(this.defaultScheme.getName());
+        }
+        if (authHeader.getTimestamp() == null) {
+            authHeader.setTimestamp(System.currentTimeMillis() / 1000);
+        }
+    }
+
+    private static void verificationFailed(String expectedSignature, AuthorizationHeader authHeader) throws AuthorizationFailedException {
+        logger.warn("Verification failed - expected signature {} in auth header: {}", expectedSignature, authHeader);
+        throw new AuthorizationFailedException("Invalid signature");
+    }
+
     /**
      * Note: you should usually not need to call this method directly.
      * Prefer {@link #sign} or {@link #verifySignature} instead.<br>
@@ -89,32 +529,132 @@ public class HttpMessageSigner {
      * @throws InvalidAuthorizationHeaderException If the given authHeader contained unrecognized signing parameters, e.g. unknown key ID.
      */
     public String generateSignature(AuthorizationHeader authHeader, CanonicalHttpMessage httpMessage) throws InvalidAuthorizationHeaderException {
-        if (!SCHEME.equals(authHeader.getScheme())) {
-            logger.warn("Unknown scheme in auth header: {}", authHeader);
-            throw new InvalidAuthorizationHeaderException("Unknown authorization scheme, " + authHeader.getScheme());
+        return generateSignature(this.resolveKey(authHeader), authHeader, httpMessage);
+    }
+
+    private static String generateSignature(SigningKey key, AuthorizationHeader authHeader, CanonicalHttpMessage httpMessage) throws InvalidAuthorizationHeaderException {
+        if (key.signer instanceof StreamingStringSigner) {
+            return HexCodec.encodeString(generateRawSignature(key, authHeader, httpMessage));
         }
 
-        String stringToSign = httpMessage.toString(new StringBuilder())
-            .append(authHeader.getTimestamp())
-            .toString();
+        Long timestamp = authHeader.getTimestamp();
 
         String hmac;
         try {
-            hmac = this.stringSigner.generateSignature(
-                    SignatureAlgorithm.HMAC_SHA256,
-                    authHeader.getPartnerId(),
-                    authHeader.getKeyId(),
-                    stringToSign
+            hmac = key.signer.generateSignature(
+                    key.algorithm,
+                    key.partnerId,
+                    key.keyId,
+                    getStringToSign(httpMessage, timestamp)
             );
         } catch (InvalidKeyException ex) {
-            logger.warn("Invalid partner-id / key-id in auth header? {}", authHeader, ex);
-            throw new InvalidAuthorizationHeaderException("Unrecognized partner-id or key-id");
+            throw invalidKey(authHeader, ex);
         }
 
+        if (logger.isDebugEnabled()) {
+            logGenerated(hmac, authHeader, httpMessage);
+        }
+        return hmac;
+    }
+
+    private static byte[] generateRawSignature(SigningKey key, AuthorizationHeader authHeader, CanonicalHttpMessage httpMessage) throws InvalidAuthorizationHeaderException {
+        Long timestamp = authHeader.getTimestamp();
+
+        byte[] hmac;
+        try {
+            hmac = ((StreamingStringSigner)key.signer).generateRawSignature(
+                    key.algorithm,
+                    key.partnerId,
+                    key.keyId,
+                    out -> httpMessage.appendTo(out).append(String.valueOf(timestamp))
+            );
+        } catch (InvalidKeyException ex) {
+            throw invalidKey(authHeader, ex);
+        }
+
+        if (logger.isDebugEnabled()) {
+            logGenerated(HexCodec.encodeString(hmac), authHeader, httpMessage);
+        }
+        return hmac;
+    }
+
+    /**
+     * Work out which signer and key the given header's scheme calls for.
+     */
+    SigningKey resolveKey(AuthorizationHeader authHeader) throws InvalidAuthorizationHeaderException {
+        SignatureScheme scheme = SignatureScheme.forName(authHeader.getScheme());
+        DerivedKeyScope scope = scheme == null ? null : scheme.getDerivedKeyScope();
+        if (scheme == null || (scope != null && this.derivedKeySigner == null)) {
+            logger.warn("Unknown scheme in auth header: {}", authHeader);
+            throw new InvalidAuthorizationHeaderException("Unknown authorization scheme, " + authHeader.getScheme());
+        }
+        if (scope == null) {
+            return new SigningKey(this.stringSigner, scheme.getSignatureAlgorithm(), authHeader.getPartnerId(), authHeader.getKeyId());
+        }
+        if (authHeader.getTimestamp() == null || authHeader.getKeyId() == null) {
+            throw new InvalidAuthorizationHeaderException("Derived key schemes require a timestamp and key-id");
+        }
+        return new SigningKey(
+            this.derivedKeySigner,
+            scheme.getSignatureAlgorithm(),
+            authHeader.getPartnerId(),
+            DerivedKeyProvider.scopedKeyId(authHeader.getKeyId(), scope, authHeader.getTimestamp())
+        );
+    }
+
+    static InvalidAuthorizationHeaderException invalidKey(AuthorizationHeader authHeader, InvalidKeyException ex) {
+        logger.warn("Invalid partner-id / key-id in auth header? {}", authHeader, ex);
+        return new InvalidAuthorizationHeaderException("Unrecognized partner-id or key-id");
+    }
+
+    private static void logGenerated(String hmac, AuthorizationHeader authHeader, CanonicalHttpMessage httpMessage) {
         logger.debug("Generated signature {} using key-id {} for {}:\n{}",
-                hmac, authHeader.getKeyId(), httpMessage.getClass().getSimpleName(), stringToSign
+                hmac, authHeader.getKeyId(), httpMessage.getClass().getSimpleName(), getStringToSign(httpMessage, authHeader.getTimestamp())
         );
-        return hmac;
+    }
+
+    private static String getStringToSign(CanonicalHttpMessage httpMessage, Long timestamp) {
+        return httpMessage.toString(new StringBuilder())
+            .append(timestamp)
+            .toString();
+    }
+
+    /**
+     * The signer and what to pass to it for a message. For derived keys, the key ID identifies the derived key.
+     */
+    static final class SigningKey {
+
+        final StringSigner signer;
+        final SignatureAlgorithm algorithm;
+        final String partnerId;
+        final String keyId;
+
+        SigningKey(StringSigner signer, SignatureAlgorithm algorithm, String partnerId, String keyId) {
+            this.signer = signer;
+            this.algorithm = algorithm;
+            this.partnerId = partnerId;
+            this.keyId = keyId;
+        }
+
+        boolean isSameKey(SigningKey other) {
+            return other != null && this.signer == other.signer && this.algorithm == other.algorithm
+                && Objects.equals(this.partnerId, other.partnerId) && Objects.equals(this.keyId, other.keyId);
+        }
+    }
+
+    /**
+     * String comparison taking time independent of where the first difference is. Signatures are ASCII, so comparing
+     * chars is sufficient.
+     */
+    private static boolean isEqual(String expected, String actual) {
+        if (actual == null || actual.length() != expected.length()) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0; i < expected.length(); i++) {
+            diff |= expected.charAt(i) ^ actual.charAt(i);
+        }
+        return diff == 0;
     }
 
 }
@@ -0,0 +1,222 @@
+package com.boku.auth.http.httpsigner;
+
+import java.security.MessageDigest;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import com.boku.auth.http.httpmessage.EntityDigester;
+import com.boku.auth.http.stringsigner.SignatureAlgorithm;
+import com.boku.util.CryptoProvider;
+import com.boku.util.TreeHashDigest;
+
+/**
+ * A signature scheme, as named in the {@link com.boku.auth.http.AuthorizationHeader AuthorizationHeader}, describing
+ * how the entity digest and the signature of a message are calculated.<br>
+ * <br>
+ * Schemes are looked up by name from a global registry via {@link #forName}, which {@link HttpMessageSigner} and the
+ * client and server modules use to decide how to digest and sign each message. The schemes defined here are always
+ * registered; others may be added with {@link #register}, combining any supported {@link SignatureAlgorithm} and
+ * {@link MessageDigest} algorithm. Both sides must have registered a scheme for it to be usable.
+ */
+public final class SignatureScheme {
+
+    // Copied on write, since it's read for every message and written to approximately never
+    private static volatile Map<String, SignatureScheme> registry = Collections.emptyMap();
+
+    /**
+     * {@link HttpMessageSigner#SCHEME}, the default: HMAC-SHA256 signature over a SHA-256 entity digest.
+     */
+    public static final SignatureScheme HMAC_SHA256 = register(new SignatureScheme(
+        HttpMessageSigner.SCHEME, SignatureAlgorithm.HMAC_SHA256, "SHA-256", null
+    ));
+
+    /**
+     * HMAC-SHA512/256 signature over a SHA-512/256 entity digest. Cheaper than {@link #HMAC_SHA256} for large entities
+     * on 64-bit CPUs without SHA-256 instructions, and slower on those with them.
+     */
+    public static final SignatureScheme HMAC_SHA512_256 = register(new SignatureScheme(
+        "2/HMAC_SHA512_256(H+SHA512_256(E))", SignatureAlgorithm.HMAC_SHA512_256, "SHA-512/256", null
+    ));
+
+    /**
+     * HMAC-SHA256 signature over a {@link TreeHashDigest SHA-256 tree hash} entity digest, which for large entities can
+     * be calculated on several cores at once.
+     */
+    public static final SignatureScheme HMAC_SHA256_TREE = register(new SignatureScheme(
+        "2/HMAC_SHA256(H+TREE_SHA256(E))", SignatureAlgorithm.HMAC_SHA256, TreeHashDigest.ALGORITHM, null
+    ));
+
+    /**
+     * As per {@link #HMAC_SHA256}, but with a key derived for the UTC day.
+     */
+    public static final SignatureScheme HMAC_SHA256_DAY = register(new SignatureScheme(
+        DerivedKeyScope.DAY.getScheme(), SignatureAlgorithm.HMAC_SHA256, "SHA-256", DerivedKeyScope.DAY
+    ));
+
+    /**
+     * As per {@link #HMAC_SHA256}, but with a key derived for the UTC hour.
+     */
+    public static final SignatureScheme HMAC_SHA256_HOUR = register(new SignatureScheme(
+        DerivedKeyScope.HOUR.getScheme(), SignatureAlgorithm.HMAC_SHA256, "SHA-256", DerivedKeyScope.HOUR
+    ));
+
+    private final String name;
+    private final SignatureAlgorithm signatureAlgorithm;
+    private final String digestAlgorithm;
+    private final DerivedKeyScope derivedKeyScope;
+
+    /**
+     * @param name The scheme as it appears in the Authorization header, of the form $version/$description
+     * @param signatureAlgorithm Algorithm the {@link com.boku.auth.http.stringsigner.StringSigner StringSigner} signs
+     *                           the message with
+     * @param digestAlgorithm {@link MessageDigest} algorithm name for the entity digest
+     * @param derivedKeyScope If not null, messages are signed with a key derived for this scope, see
+     *                        {@link DerivedKeyProvider}
+     */
+    public SignatureScheme(String name, SignatureAlgorithm signatureAlgorithm, String digestAlgorithm, DerivedKeyScope derivedKeyScope) {
+        if (name == null || name.isEmpty() || name.chars().anyMatch(Character::isWhitespace)) {
+            throw new IllegalArgumentException("Scheme name must be non-empty and contain no whitespace, got " + name);
+        }
+        if (signatureAlgorithm == null) {
+            throw new IllegalArgumentException("signatureAlgorithm cannot be null");
+        }
+        if (digestAlgorithm == null) {
+            throw new IllegalArgumentException("digestAlgorithm cannot be null");
+        }
+        this.name = name;
+        this.signatureAlgorithm = signatureAlgorithm;
+        this.digestAlgorithm = digestAlgorithm;
+        this.derivedKeyScope = derivedKeyScope;
+        // Fail now rather than on first use if the digest is unavailable
+        this.newDigest();
+    }
+
+    /**
+     * Add a scheme to the registry. Registering the same scheme more than once has no effect.
+     *
+     * @return The given scheme
+     * @throws IllegalStateException If a different scheme with the same name is already registered
+     */
+    public static SignatureScheme register(SignatureScheme scheme) {
+        synchronized (SignatureScheme.class) {
+            SignatureScheme existing = registry.get(scheme.name);
+            if (existing != null) {
+                if (!existing.equals(scheme)) {
+                    throw new IllegalStateException("A different scheme is already registered as " + scheme.name);
+                }
+                return existing;
+            }
+            Map<String, SignatureScheme> updated = new LinkedHashMap<>(registry);
+            updated.put(scheme.name, scheme);
+            registry = updated;
+        }
+        return scheme;
+    }
+
+    /**
+     * @return The registered scheme with the given name, or null if there is none
+     */
+    public static SignatureScheme forName(String name) {
+        return name == null ? null : registry.get(name);
+    }
+
+    /**
+     * @return A snapshot of all registered schemes, in the order they were registered
+     */
+    public static Collection<SignatureScheme> getRegistered() {
+        return Collections.unmodifiableCollection(registry.values());
+    }
+
+    public String getName() {
+        return this.name;
+    }
+
+    public SignatureAlgorithm getSignatureAlgorithm() {
+        return this.signatureAlgorithm;
+    }
+
+    public String getDigestAlgorithm() {
+        return this.digestAlgorithm;
+    }
+
+    /**
+     * @return The scope of the derived key messages are signed with, or null if they are signed with the partner key
+     */
+    public DerivedKeyScope getDerivedKeyScope() {
+        return this.derivedKeyScope;
+    }
+
+    /**
+     * @return A new {@link MessageDigest} for entities of messages using this scheme
+     */
+    public MessageDigest newDigest() {
+        return this.newDigest(CryptoProvider.DEFAULT);
+    }
+
+    /**
+     * As per {@link #newDigest()}, from the given provider.
+     */
+    public MessageDigest newDigest(CryptoProvider provider) {
+        return provider.getDigest(this.digestAlgorithm);
+    }
+
+    /**
+     * @return A new {@link EntityDigester} for entities of messages using this scheme
+     */
+    public EntityDigester newEntityDigester() {
+        return this.newEntityDigester(CryptoProvider.DEFAULT);
+    }
+
+    /**
+     * As per {@link #newEntityDigester()}, with a digest from the given provider.
+     */
+    public EntityDigester newEntityDigester(CryptoProvider provider) {
+        return EntityDigester.of(this.newDigest(provider));
+    }
+
+    /**
+     * Digest a complete entity as per {@link #newDigest()}, in parallel on the common {@link ForkJoinPool} where the
+     * digest algorithm allows.
+     */
+    public byte[] digest(byte[] entity) {
+        return this.digest(entity, CryptoProvider.DEFAULT);
+    }
+
+    /**
+     * As per {@link #digest(byte[])}, with digests from the given provider.
+     */
+    public byte[] digest(byte[] entity, CryptoProvider provider) {
+        if (TreeHashDigest.ALGORITHM.equals(this.digestAlgorithm)) {
+            return TreeHashDigest.digest(entity, ForkJoinPool.commonPool(), provider);
+        }
+        return provider.digest(this.digestAlgorithm, entity);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        SignatureScheme that = (SignatureScheme)o;
+        return this.name.equals(that.name)
+            && this.signatureAlgorithm == that.signatureAlgorithm
+            && this.digestAlgorithm.equals(that.digestAlgorithm)
+            && this.derivedKeyScope == that.derivedKeyScope;
+    }
+
+    @Override
+    public int hashCode() {
+        return this.name.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return this.name;
+    }
+}
@@ -0,0 +1,185 @@
+package com.boku.auth.http.httpsigner;
+
+import java.io.IOException;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.boku.auth.http.AuthorizationHeader;
+import com.boku.auth.http.exception.InvalidApplicationSuppliedAuthorizationHeaderException;
+import com.boku.auth.http.exception.InvalidAuthorizationHeaderException;
+import com.boku.auth.http.httpmessage.CanonicalHttpMessage;
+import com.boku.auth.http.stringsigner.PrefixedSigner;
+import com.boku.auth.http.stringsigner.StreamingStringSigner;
+import com.boku.auth.http.stringsigner.StringToSign;
+import com.boku.util.HexCodec;
+
+/**
+ * Signs a series of messages which differ only in their entity and timestamp, e.g. repeated requests to the same API
+ * endpoint with the same headers. Created by {@link HttpMessageSigner#createTemplate}.<br>
+ * <br>
+ * The Message To Sign up to the entity digest (see {@link CanonicalHttpMessage#appendHeadersTo}) is built once, when
+ * the template is created. Where the {@link com.boku.auth.http.stringsigner.StringSigner StringSigner} is a
+ * {@link StreamingStringSigner}, that prefix is also absorbed into the signing state once (see
+ * {@link StreamingStringSigner#withPrefix}), so that each signature only processes the entity digest and timestamp.
+ * Other signers are given the whole string every time.<br>
+ * <br>
+ * Signatures are identical to those {@link HttpMessageSigner#sign} gives for the same message. Instances are thread
+ * safe.
+ */
+public final class SigningTemplate {
+
+    private static final Logger logger = LoggerFactory.getLogger(SigningTemplate.class);
+
+    private final HttpMessageSigner httpSigner;
+    private final String scheme;
+    private final String partnerId;
+    private final String keyId;
+    private final List<String> signedHeaders;
+    private final String prefix;
+    private volatile Prepared prepared;
+
+    SigningTemplate(HttpMessageSigner httpSigner, String scheme, AuthorizationHeader authHeader, CanonicalHttpMessage httpMessage) throws InvalidAuthorizationHeaderException {
+        this.httpSigner = httpSigner;
+        this.scheme = scheme;
+        this.partnerId = authHeader.getPartnerId();
+        this.keyId = authHeader.getKeyId();
+        this.signedHeaders = Collections.unmodifiableList(new ArrayList<>(authHeader.getSignedHeaders()));
+        try {
+            this.prefix = httpMessage.appendHeadersTo(new StringBuilder()).toString();
+        } catch (IOException ex) {
+            throw new IllegalStateException("StringBuilder does not throw IOException", ex);
+        }
+
+        // Fail now on unknown schemes and keys, rather than on first use
+        AuthorizationHeader ah = this.newAuthorizationHeader(System.currentTimeMillis() / 1000);
+        this.prepared = this.prepare(this.httpSigner.resolveKey(ah), ah);
+    }
+
+    public String getScheme() {
+        return this.scheme;
+    }
+
+    public String getPartnerId() {
+        return this.partnerId;
+    }
+
+    public String getKeyId() {
+        return this.keyId;
+    }
+
+    /**
+     * @return The names of the headers signed, unmodifiable. Does not return null.
+     */
+    public List<String> getSignedHeaders() {
+        return this.signedHeaders;
+    }
+
+    /**
+     * As per {@link #sign(String, long)}, timestamped with the current time.
+     */
+    public AuthorizationHeader sign(String entityDigest) {
+        return this.sign(entityDigest, System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * Sign a message matching the template, with the given entity digest.
+     *
+     * @param entityDigest The hex encoded digest of the message entity, as calculated for this template's
+     *                     {@link #getScheme() scheme}, or null if there is no entity
+     * @param timestamp Unix time in seconds, as per {@link AuthorizationHeader#getTimestamp()}
+     * @return A new, fully populated {@link AuthorizationHeader}. Does not return null.
+     * @throws InvalidApplicationSuppliedAuthorizationHeaderException If the key is no longer available, as per
+     *                                                                {@link HttpMessageSigner#sign}
+     */
+    public AuthorizationHeader sign(String entityDigest, long timestamp) {
+        AuthorizationHeader ah = this.newAuthorizationHeader(timestamp);
+        String signature;
+        try {
+            signature = this.generateSignature(ah, entityDigest);
+        } catch (InvalidAuthorizationHeaderException ex) {
+            throw new InvalidApplicationSuppliedAuthorizationHeaderException("Failed to sign message", ex);
+        }
+        ah.setSignature(signature);
+        return ah;
+    }
+
+    private String generateSignature(AuthorizationHeader ah, String entityDigest) throws InvalidAuthorizationHeaderException {
+        // Derived keys change with the timestamp, so check the prepared state is still for the right one
+        HttpMessageSigner.SigningKey key = this.httpSigner.resolveKey(ah);
+        Prepared prepared = this.prepared;
+        if (!key.isSameKey(prepared.key)) {
+            prepared = this.prepare(key, ah);
+            this.prepared = prepared;
+        }
+
+        long timestamp = ah.getTimestamp();
+        StringToSign suffix = out -> {
+            if (entityDigest != null) {
+                out.append(entityDigest);
+            }
+            out.append('\n').append(String.valueOf(timestamp));
+        };
+
+        String hmac;
+        try {
+            if (prepared.prefixedSigner != null) {
+                hmac = HexCodec.encodeString(prepared.prefixedSigner.generateRawSignature(suffix));
+            } else {
+                hmac = key.signer.generateSignature(key.algorithm, key.partnerId, key.keyId, this.prefix + StringToSign.toString(suffix));
+            }
+        } catch (InvalidKeyException ex) {
+            throw HttpMessageSigner.invalidKey(ah, ex);
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("Generated signature {} using key-id {} from template:\n{}{}", hmac, ah.getKeyId(), this.prefix, StringToSign.toString(suffix));
+        }
+        return hmac;
+    }
+
+    private Prepared prepare(HttpMessageSigner.SigningKey key, AuthorizationHeader ah) throws InvalidAuthorizationHeaderException {
+        if (!(key.signer instanceof StreamingStringSigner)) {
+            return new Prepared(key, null);
+        }
+        try {
+            return new Prepared(key, ((StreamingStringSigner)key.signer).withPrefix(key.algorithm, key.partnerId, key.keyId, out -> out.append(this.prefix)));
+        } catch (InvalidKeyException ex) {
+            throw HttpMessageSigner.invalidKey(ah, ex);
+        }
+    }
+
+    private AuthorizationHeader newAuthorizationHeader(long timestamp) {
+        AuthorizationHeader ah = new AuthorizationHeader();
+        ah.setScheme(this.scheme);
+        ah.setPartnerId(this.partnerId);
+        ah.setKeyId(this.keyId);
+        ah.setSignedHeaders(new ArrayList<>(this.signedHeaders));
+        ah.setTimestamp(timestamp);
+        return ah;
+    }
+
+    @Override
+    public String toString() {
+        return "SigningTemplate{scheme=" + this.scheme + ", partnerId=" + this.partnerId + ", keyId=" + this.keyId
+            + ", signedHeaders=" + this.signedHeaders + '}';
+    }
+
+    /**
+     * The key the template was last used with, and for streaming signers, the state with the prefix absorbed.
+     */
+    private static final class Prepared {
+
+        final HttpMessageSigner.SigningKey key;
+        final PrefixedSigner prefixedSigner;
+
+        Prepared(HttpMessageSigner.SigningKey key, PrefixedSigner prefixedSigner) {
+            this.key = key;
+            this.prefixedSigner = prefixedSigner;
+        }
+    }
+}
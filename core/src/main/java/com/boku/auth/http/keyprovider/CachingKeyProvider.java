@@ -0,0 +1,502 @@
+package com.boku.auth.http.keyprovider;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link KeyProvider} decorator which caches the keys returned by another, typically remote, KeyProvider.<br>
+ * <br>
+ * Behaviour:<ul>
+ *     <li>Keys are cached for a fixed TTL, and unknown partner ID / key ID pairs (for which the delegate returned null)
+ *     for a separate, usually shorter, TTL.</li>
+ *     <li>Concurrent requests for a key that is not cached result in a single call to the delegate, which all callers
+ *     wait for.</li>
+ *     <li>Once a cached key is older than the refresh-ahead age but not yet expired, the next request for it triggers a
+ *     reload in the background, and the current value is returned immediately. Keys in regular use are therefore
+ *     reloaded before they expire, and request threads never wait for the delegate for them.</li>
+ *     <li>If a background reload fails, the current value continues to be used until it expires, and the reload is
+ *     not tried again for a while.</li>
+ *     <li>When the cache is full, an entry which has not been used recently is evicted, approximating LRU.</li>
+ *     <li>Unknown pairs are kept apart from known keys, in a space a tenth the size, so that requests naming made up
+ *     IDs can't push real keys out of the cache.</li>
+ * </ul>
+ * Exceptions thrown by the delegate are passed on to the caller (and any concurrent waiters), and are not cached.<br>
+ * <br>
+ * See {@link #getStats()} for hit, miss and load time statistics.
+ */
+public class CachingKeyProvider implements KeyProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachingKeyProvider.class);
+
+    public static final int DEFAULT_MAX_SIZE = 10_000;
+    public static final long DEFAULT_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    public static final long DEFAULT_NEGATIVE_TTL_MILLIS = TimeUnit.SECONDS.toMillis(30);
+    public static final long DEFAULT_REFRESH_AHEAD_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    static final long DEFAULT_REFRESH_RETRY_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    private static volatile ExecutorService defaultRefreshExecutor;
+
+    /*
+     * The partner ID and key ID come straight from request headers, so whoever can reach the server chooses what gets
+     * looked up here. Hits only read a concurrent map and flag the entry as used, taking no locks. Inserts and
+     * evictions are guarded by the one lock, and evict by the clock (second chance) algorithm, which is constant time
+     * however full the cache is. Loads in progress are kept in neither space, so they can't evict anything until their
+     * result is known.
+     */
+    private final Object lock = new Object();
+    private final Space keys;
+    private final Space unknownKeys;
+    private final Map<PartnerKeyId, CompletableFuture<String>> loading = new ConcurrentHashMap<>();
+
+    private final KeyProvider delegate;
+    private final long ttlNanos;
+    private final long negativeTtlNanos;
+    private final long refreshAheadNanos;
+    private final long refreshRetryNanos;
+    private final Executor refreshExecutor;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadFailures = new LongAdder();
+    private final LongAdder totalLoadNanos = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create an instance using the default cache settings, refreshing keys on a shared pool of daemon threads.
+     */
+    public CachingKeyProvider(KeyProvider delegate) {
+        this(delegate, DEFAULT_MAX_SIZE, DEFAULT_TTL_MILLIS, DEFAULT_NEGATIVE_TTL_MILLIS, DEFAULT_REFRESH_AHEAD_MILLIS, null);
+    }
+
+    /**
+     * Create an instance with explicit cache settings.
+     *
+     * @param delegate The KeyProvider to load keys from
+     * @param maxSize Maximum number of keys to cache. Up to a tenth as many unknown partner ID / key ID pairs (at
+     *                least one) are cached on top of that.
+     * @param ttlMillis How long a key may be used for after it was loaded
+     * @param negativeTtlMillis How long to remember that a partner ID / key ID pair is unknown. Pass 0 to not cache
+     *                          unknown keys at all.
+     * @param refreshAheadMillis Age after which a key is reloaded in the background when next requested. Must be less
+     *                           than ttlMillis to have any effect. Pass 0 to disable background reloads.
+     * @param refreshExecutor Executor to run background reloads on, or null to use a shared pool of daemon threads
+     */
+    public CachingKeyProvider(KeyProvider delegate, int maxSize, long ttlMillis, long negativeTtlMillis, long refreshAheadMillis, Executor refreshExecutor) {
+        this(delegate, maxSize, ttlMillis, negativeTtlMillis, refreshAheadMillis, DEFAULT_REFRESH_RETRY_MILLIS, refreshExecutor);
+    }
+
+    CachingKeyProvider(KeyProvider delegate, int maxSize, long ttlMillis, long negativeTtlMillis, long refreshAheadMillis,
+                       long refreshRetryMillis, Executor refreshExecutor) {
+        if (delegate == null) {
+            throw new IllegalArgumentException("delegate cannot be null");
+        }
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive, got " + maxSize);
+        }
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("ttlMillis must be positive, got " + ttlMillis);
+        }
+        if (negativeTtlMillis < 0) {
+            throw new IllegalArgumentException("negativeTtlMillis may not be negative, got " + negativeTtlMillis);
+        }
+        if (refreshAheadMillis < 0) {
+            throw new IllegalArgumentException("refreshAheadMillis may not be negative, got " + refreshAheadMillis);
+        }
+        this.delegate = delegate;
+        this.keys = new Space(maxSize);
+        this.unknownKeys = new Space(Math.max(1, maxSize / 10));
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(negativeTtlMillis);
+        this.refreshAheadNanos = refreshAheadMillis == 0 || refreshAheadMillis >= ttlMillis
+            ? Long.MAX_VALUE
+            : TimeUnit.MILLISECONDS.toNanos(refreshAheadMillis);
+        this.refreshRetryNanos = TimeUnit.MILLISECONDS.toNanos(refreshRetryMillis);
+        this.refreshExecutor = refreshExecutor != null ? refreshExecutor : getDefaultRefreshExecutor();
+    }
+
+    @Override
+    public String get(String partnerId, String keyId) {
+        PartnerKeyId cacheKey = new PartnerKeyId(partnerId, keyId);
+        long now = System.nanoTime();
+
+        Entry entry = this.keys.get(cacheKey);
+        if (entry == null) {
+            entry = this.unknownKeys.get(cacheKey);
+        }
+        if (entry != null) {
+            long age = now - entry.loadedAt;
+            if (age < (entry.key == null ? this.negativeTtlNanos : this.ttlNanos)) {
+                this.hits.increment();
+                if (entry.key != null && age >= this.refreshAheadNanos) {
+                    this.refreshAsync(cacheKey, entry, now);
+                }
+                return entry.key;
+            }
+        }
+
+        // Not cached or expired. Load it, unless someone else already is.
+        this.misses.increment();
+        CompletableFuture<String> value = new CompletableFuture<>();
+        CompletableFuture<String> inProgress = this.loading.putIfAbsent(cacheKey, value);
+        if (inProgress != null) {
+            return join(inProgress);
+        }
+        return this.load(cacheKey, value, now);
+    }
+
+    /**
+     * Load the key and complete the given future with it, which must already be in the loading map.
+     */
+    private String load(PartnerKeyId cacheKey, CompletableFuture<String> value, long now) {
+        String key;
+        try {
+            key = this.loadFromDelegate(cacheKey);
+        } catch (Throwable t) {
+            // Whatever it was, waiters must not be left blocked on a load that will never complete
+            this.loading.remove(cacheKey, value);
+            value.completeExceptionally(t);
+            throw t;
+        }
+        this.store(cacheKey, new Entry(cacheKey, key, now));
+        this.loading.remove(cacheKey, value);
+        value.complete(key);
+        return key;
+    }
+
+    private void store(PartnerKeyId cacheKey, Entry entry) {
+        synchronized (this.lock) {
+            if (entry.key != null) {
+                this.unknownKeys.remove(cacheKey);
+                this.keys.put(cacheKey, entry);
+            } else {
+                this.keys.remove(cacheKey);
+                if (this.negativeTtlNanos > 0) {
+                    this.unknownKeys.put(cacheKey, entry);
+                } else {
+                    this.unknownKeys.remove(cacheKey);
+                }
+            }
+        }
+    }
+
+    private void refreshAsync(PartnerKeyId cacheKey, Entry current, long now) {
+        if (now - current.nextRefreshAttempt < 0 || !current.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.refreshExecutor.execute(() -> {
+                try {
+                    long loadedAt = System.nanoTime();
+                    String key = this.loadFromDelegate(cacheKey);
+                    if (key == null) {
+                        logger.info("Key for {} no longer found on refresh", cacheKey);
+                    }
+                    synchronized (this.lock) {
+                        // Unless it was invalidated or replaced in the meantime
+                        if (this.keys.map.get(cacheKey) != current) {
+                            return;
+                        }
+                        this.store(cacheKey, new Entry(cacheKey, key, loadedAt));
+                    }
+                    this.refreshes.increment();
+                } catch (RuntimeException ex) {
+                    logger.warn("Background refresh of key for {} failed, will retry in {}ms", cacheKey,
+                        TimeUnit.NANOSECONDS.toMillis(this.refreshRetryNanos), ex);
+                    this.retryRefreshLater(current);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            logger.warn("Background refresh of key for {} rejected by executor", cacheKey, ex);
+            this.retryRefreshLater(current);
+        }
+    }
+
+    private void retryRefreshLater(Entry current) {
+        current.nextRefreshAttempt = System.nanoTime() + this.refreshRetryNanos;
+        current.refreshing.set(false);
+    }
+
+    private String loadFromDelegate(PartnerKeyId cacheKey) {
+        long start = System.nanoTime();
+        try {
+            String key = this.delegate.get(cacheKey.getPartnerId(), cacheKey.getKeyId());
+            this.loads.increment();
+            return key;
+        } catch (RuntimeException | Error ex) {
+            this.loadFailures.increment();
+            throw ex;
+        } finally {
+            this.totalLoadNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    private static String join(CompletableFuture<String> value) {
+        try {
+            return value.join();
+        } catch (CompletionException ex) {
+            if (ex.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)ex.getCause();
+            }
+            if (ex.getCause() instanceof Error) {
+                throw (Error)ex.getCause();
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Discard the cached key, if any, for the given partner ID and key ID, so that the next request loads it again.
+     */
+    public void invalidate(String partnerId, String keyId) {
+        PartnerKeyId cacheKey = new PartnerKeyId(partnerId, keyId);
+        this.keys.remove(cacheKey);
+        this.unknownKeys.remove(cacheKey);
+    }
+
+    /**
+     * Discard all cached keys.
+     */
+    public void invalidateAll() {
+        synchronized (this.lock) {
+            this.keys.clear();
+            this.unknownKeys.clear();
+        }
+    }
+
+    /**
+     * @return The number of partner ID / key ID pairs currently cached, including unknown ones
+     */
+    public int size() {
+        return this.keys.map.size() + this.unknownKeys.map.size();
+    }
+
+    /**
+     * @return A snapshot of the statistics accumulated since this instance was created
+     */
+    public Stats getStats() {
+        return new Stats(
+            this.hits.sum(), this.misses.sum(), this.loads.sum(), this.loadFailures.sum(),
+            this.totalLoadNanos.sum(), this.refreshes.sum(), this.evictions.sum()
+        );
+    }
+
+    /**
+     * Point in time statistics for a {@link CachingKeyProvider}.
+     */
+    public static final class Stats {
+
+        private final long hitCount;
+        private final long missCount;
+        private final long loadCount;
+        private final long loadFailureCount;
+        private final long totalLoadTimeNanos;
+        private final long refreshCount;
+        private final long evictionCount;
+
+        Stats(long hitCount, long missCount, long loadCount, long loadFailureCount, long totalLoadTimeNanos, long refreshCount, long evictionCount) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.loadCount = loadCount;
+            this.loadFailureCount = loadFailureCount;
+            this.totalLoadTimeNanos = totalLoadTimeNanos;
+            this.refreshCount = refreshCount;
+            this.evictionCount = evictionCount;
+        }
+
+        /**
+         * @return Number of requests answered from the cache without waiting
+         */
+        public long getHitCount() {
+            return this.hitCount;
+        }
+
+        /**
+         * @return Number of requests which had to wait for a key to be loaded, either by themselves or a concurrent
+         * request for the same key
+         */
+        public long getMissCount() {
+            return this.missCount;
+        }
+
+        /**
+         * @return Number of successful calls to the delegate, including background refreshes
+         */
+        public long getLoadCount() {
+            return this.loadCount;
+        }
+
+        /**
+         * @return Number of calls to the delegate which threw an exception
+         */
+        public long getLoadFailureCount() {
+            return this.loadFailureCount;
+        }
+
+        /**
+         * @return Total time spent in calls to the delegate, in nanoseconds
+         */
+        public long getTotalLoadTimeNanos() {
+            return this.totalLoadTimeNanos;
+        }
+
+        /**
+         * @return Average time taken by a call to the delegate, in nanoseconds, or 0 if there have been none
+         */
+        public double getAverageLoadTimeNanos() {
+            long calls = this.loadCount + this.loadFailureCount;
+            return calls == 0 ? 0 : (double)this.totalLoadTimeNanos / calls;
+        }
+
+        /**
+         * @return Number of keys replaced by a background refresh
+         */
+        public long getRefreshCount() {
+            return this.refreshCount;
+        }
+
+        /**
+         * @return Number of entries evicted because the cache was full
+         */
+        public long getEvictionCount() {
+            return this.evictionCount;
+        }
+
+        /**
+         * @return Fraction of requests which were hits, or 1 if there have been no requests
+         */
+        public double getHitRate() {
+            long requests = this.hitCount + this.missCount;
+            return requests == 0 ? 1 : (double)this.hitCount / requests;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + this.hitCount + ", misses=" + this.missCount + ", loads=" + this.loadCount
+                + ", loadFailures=" + this.loadFailureCount + ", avgLoadMillis=" + String.format("%.3f", this.getAverageLoadTimeNanos() / 1e6)
+                + ", refreshes=" + this.refreshCount + ", evictions=" + this.evictionCount;
+        }
+    }
+
+    private static ExecutorService getDefaultRefreshExecutor() {
+        if (defaultRefreshExecutor == null) {
+            synchronized (CachingKeyProvider.class) {
+                if (defaultRefreshExecutor == null) {
+                    AtomicInteger threadNumber = new AtomicInteger();
+                    defaultRefreshExecutor = Executors.newCachedThreadPool(r -> {
+                        Thread t = new Thread(r, CachingKeyProvider.class.getSimpleName() + "-refresh-" + threadNumber.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    });
+                }
+            }
+        }
+        return defaultRefreshExecutor;
+    }
+
+    /**
+     * One bounded space of cached entries. Lookups and removals may happen on any thread without locking; inserts and
+     * clearing must hold the lock.
+     */
+    private final class Space {
+
+        final ConcurrentHashMap<PartnerKeyId, Entry> map = new ConcurrentHashMap<>();
+        /**
+         * Entries in insertion order, for the clock hand to sweep. May contain entries since replaced or removed from
+         * the map, which are skipped, and compacted away once they make up half of it.
+         */
+        private final ArrayDeque<Entry> clock = new ArrayDeque<>();
+        private final int maxSize;
+
+        Space(int maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        Entry get(PartnerKeyId cacheKey) {
+            Entry entry = this.map.get(cacheKey);
+            // Read before writing, so that hot entries don't keep invalidating each other's cache lines
+            if (entry != null && !entry.used) {
+                entry.used = true;
+            }
+            return entry;
+        }
+
+        void put(PartnerKeyId cacheKey, Entry entry) {
+            Entry previous = this.map.put(cacheKey, entry);
+            this.clock.addLast(entry);
+            if (previous == null && this.map.size() > this.maxSize) {
+                this.evictOne(entry);
+            }
+            if (this.clock.size() > 2 * this.maxSize) {
+                this.clock.removeIf(e -> this.map.get(e.cacheKey) != e);
+            }
+        }
+
+        void remove(PartnerKeyId cacheKey) {
+            this.map.remove(cacheKey);
+        }
+
+        void clear() {
+            this.map.clear();
+            this.clock.clear();
+        }
+
+        /**
+         * Evict the first entry in clock order which has not been used since the hand last passed it, giving any used
+         * ones a second chance. The entry just inserted is never evicted.
+         */
+        private void evictOne(Entry inserted) {
+            Entry e;
+            while ((e = this.clock.pollFirst()) != null) {
+                if (this.map.get(e.cacheKey) != e) {
+                    continue;
+                }
+                if (e == inserted) {
+                    this.clock.addLast(e);
+                    continue;
+                }
+                if (e.used) {
+                    e.used = false;
+                    this.clock.addLast(e);
+                    continue;
+                }
+                this.map.remove(e.cacheKey, e);
+                CachingKeyProvider.this.evictions.increment();
+                return;
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        final PartnerKeyId cacheKey;
+        final String key;
+        final long loadedAt;
+        final AtomicBoolean refreshing = new AtomicBoolean();
+        volatile long nextRefreshAttempt;
+        volatile boolean used;
+
+        Entry(PartnerKeyId cacheKey, String key, long loadedAt) {
+            this.cacheKey = cacheKey;
+            this.key = key;
+            this.loadedAt = loadedAt;
+            this.nextRefreshAttempt = loadedAt;
+        }
+    }
+}
@@ -10,6 +10,17 @@ import java.security.NoSuchAlgorithmException;
 import java.security.UnrecoverableEntryException;
 import java.security.cert.CertificateException;
 import java.security.spec.InvalidKeySpecException;
+import java.util.AbstractMap;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Implements {@link KeyProvider} by looking up the requested keys as passwords stored in a Java KeyStore.<br>
@@ -22,13 +33,31 @@ import java.security.spec.InvalidKeySpecException;
  * <pre>keytool -importpass -storetype pkcs12 -alias abc.1 -keystore filename.p12</pre>
  * <br>
  * When prompted for the keystore password, enter your desired keystore password, and when prompted for the password
- * to save, paste in the API key that was provided to you.
+ * to save, paste in the API key that was provided to you.<br>
+ * <br>
+ * By default each lookup decrypts the requested entry from the KeyStore, which is slow and not thread safe, so lookups
+ * are serialized. In snapshot mode (see {@link #KeystoreKeyProvider(KeyStore, String, boolean)}), every entry is
+ * instead decrypted once up front into an immutable map, and lookups take no locks. The snapshot can be replaced
+ * atomically with {@link #reload(KeyStore)}. Snapshot lookups match aliases the same way the KeyStore would, i.e. case
+ * insensitively for the JDK's PKCS12, JKS and JCEKS types, and exactly for any other type.
  */
 public class KeystoreKeyProvider implements KeyProvider {
 
+    /**
+     * Below this many entries, decrypting in parallel isn't worth the overhead.
+     */
+    private static final int PARALLEL_DECRYPT_THRESHOLD = 16;
+
+    /**
+     * KeyStore types which store aliases lowercased and match them case insensitively.
+     */
+    private static final Set<String> CASE_INSENSITIVE_TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList("pkcs12", "jks", "jceks")));
+
     private final KeyStore.PasswordProtection keystorePassword;
     private final KeyStore keyStore;
     private final SecretKeyFactory keyFactory;
+    private final boolean snapshotMode;
+    private volatile Snapshot snapshot;
 
     /**
      * Create a key provider backed by a pre-loaded KeyStore.
@@ -37,13 +66,25 @@ public class KeystoreKeyProvider implements KeyProvider {
      * @param password The KeyStore password, required to access individual entries
      */
     public KeystoreKeyProvider(KeyStore keyStore, String password) {
+        this(keyStore, password, false);
+    }
+
+    /**
+     * Create a key provider backed by a pre-loaded KeyStore, optionally in snapshot mode.
+     *
+     * @param keyStore The KeyStore instance
+     * @param password The KeyStore password, required to access individual entries
+     * @param snapshot If true, decrypt all entries now and serve lookups from memory without locking. Otherwise,
+     *                 decrypt entries on demand.
+     * @throws IllegalStateException If snapshot is true and any entry could not be decrypted
+     */
+    public KeystoreKeyProvider(KeyStore keyStore, String password, boolean snapshot) {
         this.keystorePassword = new KeyStore.PasswordProtection(password.toCharArray());
         this.keyStore = keyStore;
-
-        try {
-            this.keyFactory = SecretKeyFactory.getInstance("PBE");
-        } catch (NoSuchAlgorithmException ex) {
-            throw new IllegalStateException("No PBE (password based encryption) support?", ex);
+        this.keyFactory = createKeyFactory();
+        this.snapshotMode = snapshot;
+        if (snapshot) {
+            this.snapshot = this.decryptAll(keyStore);
         }
     }
 
@@ -56,6 +97,23 @@ public class KeystoreKeyProvider implements KeyProvider {
      * @throws IOException If there was an IO error loading the file.
      */
     public static KeystoreKeyProvider fromPKCS12(String filename, String password) throws IOException {
+        return fromPKCS12(filename, password, false);
+    }
+
+    /**
+     * Create a key provider backed by the given PKCS12 (.p12) file, optionally in snapshot mode.
+     *
+     * @param filename The path to the p12 file on the filesystem
+     * @param password The keystore password, required to open the file and access individual entries
+     * @param snapshot See {@link #KeystoreKeyProvider(KeyStore, String, boolean)}
+     * @return A {@link KeystoreKeyProvider} instance. Does not return null.
+     * @throws IOException If there was an IO error loading the file.
+     */
+    public static KeystoreKeyProvider fromPKCS12(String filename, String password, boolean snapshot) throws IOException {
+        return new KeystoreKeyProvider(loadPKCS12(filename, password), password, snapshot);
+    }
+
+    static KeyStore loadPKCS12(String filename, String password) throws IOException {
         KeyStore keyStore;
         try {
             keyStore = KeyStore.getInstance("PKCS12");
@@ -63,21 +121,99 @@ public class KeystoreKeyProvider implements KeyProvider {
             throw new IllegalStateException("No P12 support?", ex);
         }
 
-        try {
-            keyStore.load(new FileInputStream(filename), password.toCharArray());
+        try (FileInputStream in = new FileInputStream(filename)) {
+            keyStore.load(in, password.toCharArray());
         } catch (NoSuchAlgorithmException | CertificateException ex) {
             throw new IllegalStateException("Error loading " + filename, ex);
         }
 
-        return new KeystoreKeyProvider(keyStore, password);
+        return keyStore;
     }
 
     @Override
-    public synchronized String get(String partnerId, String keyId) {
-        String alias = partnerId + "." + keyId;
+    public String get(String partnerId, String keyId) {
+        Snapshot snapshot = this.snapshot;
+        if (snapshot != null) {
+            return snapshot.get(partnerId, keyId);
+        }
+        synchronized (this) {
+            return decrypt(this.keyStore, partnerId + "." + keyId, this.keystorePassword, this.keyFactory);
+        }
+    }
+
+    /**
+     * Replace the snapshot with a new one decrypted from the given KeyStore, e.g. after the backing file has changed.
+     * Lookups in progress continue to use the old snapshot, and no lookup ever sees a partially loaded one.
+     *
+     * @param keyStore The new KeyStore, which must use the same password as the original
+     * @throws IllegalStateException If this provider is not in snapshot mode, or any entry could not be decrypted, in
+     *                               which case the current snapshot remains in use
+     */
+    public void reload(KeyStore keyStore) {
+        if (!this.snapshotMode) {
+            throw new IllegalStateException("reload is only supported in snapshot mode");
+        }
+        this.snapshot = this.decryptAll(keyStore);
+    }
+
+    /**
+     * @return true if in snapshot mode
+     */
+    public boolean isSnapshotMode() {
+        return this.snapshotMode;
+    }
+
+    /**
+     * Decrypt every entry in the given KeyStore into an immutable map of partner ID to key ID to key.<br>
+     * <br>
+     * For case insensitive KeyStore types the map is keyed on lowercased IDs, and lookups are lowercased to match. An
+     * alias containing more than one '.' is entered under every possible partner ID / key ID split, so that lookups
+     * give the same result as looking up the joined alias would. PBE decryption is deliberately slow, so large
+     * KeyStores are decrypted in parallel. KeyStore read operations don't modify it, and the JDK implementations are
+     * safe to read concurrently; SecretKeyFactory is not, so each task gets its own.
+     */
+    private Snapshot decryptAll(KeyStore keyStore) {
+        boolean foldCase = CASE_INSENSITIVE_TYPES.contains(keyStore.getType().toLowerCase(Locale.ENGLISH));
+        List<String> aliases;
+        try {
+            aliases = Collections.list(keyStore.aliases());
+        } catch (KeyStoreException ex) {
+            throw new IllegalStateException("KeyStore not loaded", ex);
+        }
+
+        Stream<String> stream = aliases.size() >= PARALLEL_DECRYPT_THRESHOLD ? aliases.parallelStream() : aliases.stream();
+        List<Map.Entry<String, String>> decrypted = stream
+            .filter(alias -> isSecretKeyEntry(keyStore, alias))
+            .map(alias -> new AbstractMap.SimpleImmutableEntry<>(alias, decrypt(keyStore, alias, this.keystorePassword, createKeyFactory())))
+            .filter(e -> e.getValue() != null)
+            .collect(Collectors.toList());
+
+        Map<String, Map<String, String>> ret = new HashMap<>();
+        for (Map.Entry<String, String> e : decrypted) {
+            String alias = foldCase ? e.getKey().toLowerCase(Locale.ENGLISH) : e.getKey();
+            for (int dot = alias.indexOf('.'); dot >= 0; dot = alias.indexOf('.', dot + 1)) {
+                ret.computeIfAbsent(alias.substring(0, dot), k -> new HashMap<>())
+                    .put(alias.substring(dot + 1), e.getValue());
+            }
+        }
+        for (Map.Entry<String, Map<String, String>> e : ret.entrySet()) {
+            e.setValue(Collections.unmodifiableMap(e.getValue()));
+        }
+        return new Snapshot(Collections.unmodifiableMap(ret), foldCase);
+    }
+
+    private static boolean isSecretKeyEntry(KeyStore keyStore, String alias) {
+        try {
+            return keyStore.entryInstanceOf(alias, KeyStore.SecretKeyEntry.class);
+        } catch (KeyStoreException ex) {
+            throw new IllegalStateException("Failed to load " + alias + ": " + ex.getMessage(), ex);
+        }
+    }
+
+    private static String decrypt(KeyStore keyStore, String alias, KeyStore.PasswordProtection keystorePassword, SecretKeyFactory keyFactory) {
         KeyStore.SecretKeyEntry entry;
         try {
-            entry = (KeyStore.SecretKeyEntry)this.keyStore.getEntry(alias, this.keystorePassword);
+            entry = (KeyStore.SecretKeyEntry)keyStore.getEntry(alias, keystorePassword);
         } catch (NoSuchAlgorithmException | UnrecoverableEntryException | KeyStoreException ex) {
             throw new IllegalStateException("Failed to load " + alias + ": " + ex.getMessage(), ex);
         }
@@ -87,7 +223,7 @@ public class KeystoreKeyProvider implements KeyProvider {
 
         PBEKeySpec keySpec;
         try {
-            keySpec = (PBEKeySpec)this.keyFactory.getKeySpec(entry.getSecretKey(), PBEKeySpec.class);
+            keySpec = (PBEKeySpec)keyFactory.getKeySpec(entry.getSecretKey(), PBEKeySpec.class);
         } catch (InvalidKeySpecException ex) {
             throw new IllegalStateException(ex);
         }
@@ -95,4 +231,34 @@ public class KeystoreKeyProvider implements KeyProvider {
         return new String(keySpec.getPassword());
     }
 
+    private static SecretKeyFactory createKeyFactory() {
+        try {
+            return SecretKeyFactory.getInstance("PBE");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("No PBE (password based encryption) support?", ex);
+        }
+    }
+
+    private static final class Snapshot {
+        private final Map<String, Map<String, String>> keys;
+        private final boolean foldCase;
+
+        Snapshot(Map<String, Map<String, String>> keys, boolean foldCase) {
+            this.keys = keys;
+            this.foldCase = foldCase;
+        }
+
+        String get(String partnerId, String keyId) {
+            if (partnerId == null || keyId == null) {
+                return null;
+            }
+            if (this.foldCase) {
+                partnerId = partnerId.toLowerCase(Locale.ENGLISH);
+                keyId = keyId.toLowerCase(Locale.ENGLISH);
+            }
+            Map<String, String> partnerKeys = this.keys.get(partnerId);
+            return partnerKeys == null ? null : partnerKeys.get(keyId);
+        }
+    }
+
 }
@@ -0,0 +1,521 @@
+package com.boku.auth.http.keyprovider;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * {@link KeyProvider} which keeps keys outside the Java heap, in an open addressing hash table in direct memory, for
+ * deployments with very large numbers of partner ID / key ID pairs.<br>
+ * <br>
+ * Compared to {@link PropertiesKeyProvider} or {@link KeystoreKeyProvider}, there are no per-entry objects for the
+ * garbage collector to scan, and the memory used per entry is roughly the size of the IDs and key themselves plus 32
+ * bytes. Lookups are constant time and take no locks in the absence of concurrent modification. {@link #get} allocates
+ * only the returned key, and {@link #copyKey} copies it into a caller-supplied buffer without allocating at all.<br>
+ * <br>
+ * Key bytes are zeroed when an entry is replaced or {@link #remove removed}, and all memory is zeroed on
+ * {@link #close()}. The space used by replaced and removed entries is not reused; load into a fresh instance if a
+ * large fraction of entries change.<br>
+ * <br>
+ * Partner IDs, key IDs and keys are each limited to 65535 chars (keys to 65535 UTF-8 bytes), and the total size of
+ * all entries to 2GB.
+ */
+public class OffHeapKeyProvider implements KeyProvider, Closeable {
+
+    private static final int MAX_LENGTH = 0xFFFF;
+
+    // Table slot: long hash (0 = empty), int record offset (-1 = removed), int record length
+    private static final int SLOT_SIZE = 16;
+    private static final long EMPTY = 0;
+    private static final int REMOVED = -1;
+
+    // Record: short partnerId length, short keyId length, short key length, short unused, partnerId chars, keyId chars, key bytes
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final int MAX_DATA_SIZE = Integer.MAX_VALUE - 8;
+
+    private final StampedLock lock = new StampedLock();
+    private final long seed = new SecureRandom().nextLong();
+
+    private ByteBuffer table;
+    private int mask;
+    private int size;
+    private int removed;
+    private ByteBuffer data;
+    private int dataEnd;
+    private boolean closed;
+
+    /**
+     * Create an empty instance, sized for the given number of entries. It grows as needed if more are added.
+     *
+     * @param expectedEntries Expected number of partner ID / key ID pairs
+     */
+    public OffHeapKeyProvider(int expectedEntries) {
+        if (expectedEntries < 0) {
+            throw new IllegalArgumentException("expectedEntries may not be negative, got " + expectedEntries);
+        }
+        this.table = allocateTable(tableCapacityFor(expectedEntries));
+        this.mask = this.table.capacity() / SLOT_SIZE - 1;
+        this.data = ByteBuffer.allocateDirect((int)Math.min(MAX_DATA_SIZE, Math.max(4096L, expectedEntries * 96L)));
+    }
+
+    /**
+     * Bulk load keys from a properties file in the same format as {@link PropertiesKeyProvider}. Entries are streamed
+     * straight into direct memory as they are parsed, so the file is never held on the heap as a whole.
+     *
+     * @param filename The path to a properties file that exists on the local filesystem
+     * @param expectedEntries Expected number of keys in the file, to size the table up front
+     * @return An {@link OffHeapKeyProvider} instance. Does not return null.
+     * @throws IOException If the file could not be read
+     * @throws IllegalStateException If the file contains no valid key entries
+     */
+    public static OffHeapKeyProvider fromPropertiesFile(String filename, int expectedEntries) throws IOException {
+        OffHeapKeyProvider kp = new OffHeapKeyProvider(expectedEntries);
+        @SuppressWarnings("serial")
+        Properties sink = new Properties() {
+            @Override
+            public synchronized Object put(Object name, Object value) {
+                kp.putProperty((String)name, (String)value);
+                return null;
+            }
+        };
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(filename)), 1 << 16)) {
+            sink.load(in);
+        } catch (IOException | RuntimeException ex) {
+            kp.close();
+            throw ex;
+        }
+        if (kp.size() == 0) {
+            kp.close();
+            throw new IllegalStateException("No `" + PropertiesKeyProvider.PREFIX + "` defined in " + filename);
+        }
+        return kp;
+    }
+
+    /**
+     * Add a `boku.auth.keys.$partnerId.$keyId` property, under every possible partner ID / key ID split as per
+     * {@link PropertiesKeyProvider}. Other properties are ignored.
+     */
+    private void putProperty(String name, String value) {
+        if (!name.startsWith(PropertiesKeyProvider.PREFIX + ".")) {
+            return;
+        }
+        String ids = name.substring(PropertiesKeyProvider.PREFIX.length() + 1);
+        for (int dot = ids.indexOf('.'); dot >= 0; dot = ids.indexOf('.', dot + 1)) {
+            this.put(ids.substring(0, dot), ids.substring(dot + 1), value);
+        }
+    }
+
+    @Override
+    public String get(String partnerId, String keyId) {
+        if (partnerId == null || keyId == null) {
+            return null;
+        }
+        long hash = this.hash(partnerId, keyId);
+
+        long stamp = this.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                byte[] key = this.readKey(hash, partnerId, keyId);
+                if (this.lock.validate(stamp)) {
+                    return key == null ? null : toString(key);
+                }
+            } catch (RuntimeException ex) {
+                // Read inconsistent state during a concurrent modification, retry under the lock
+            }
+        }
+
+        stamp = this.lock.readLock();
+        try {
+            byte[] key = this.readKey(hash, partnerId, keyId);
+            return key == null ? null : toString(key);
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Copy the UTF-8 bytes of the key for the given partner ID and key ID into the given buffer, without allocating.
+     *
+     * @param partnerId Partner ID, e.g. "my-merchant"
+     * @param keyId Key ID to sign with, e.g. "1"
+     * @param dest Buffer to copy the key into
+     * @param off Offset in dest to copy the key to
+     * @return The length of the key in bytes, or -1 if not found
+     * @throws IndexOutOfBoundsException If the key does not fit in dest
+     */
+    public int copyKey(String partnerId, String keyId, byte[] dest, int off) {
+        if (partnerId == null || keyId == null) {
+            return -1;
+        }
+        long hash = this.hash(partnerId, keyId);
+
+        long stamp = this.lock.tryOptimisticRead();
+        if (stamp != 0) {
+            try {
+                int len = this.copyKey(hash, partnerId, keyId, dest, off);
+                if (this.lock.validate(stamp)) {
+                    return len;
+                }
+            } catch (RuntimeException ex) {
+                // As per get
+            }
+        }
+
+        stamp = this.lock.readLock();
+        try {
+            return this.copyKey(hash, partnerId, keyId, dest, off);
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Add or replace the key for the given partner ID and key ID. The bytes of any key replaced are zeroed.
+     *
+     * @param partnerId Partner ID
+     * @param keyId Key ID
+     * @param key The key
+     */
+    public void put(String partnerId, String keyId, String key) {
+        if (partnerId == null || keyId == null || key == null) {
+            throw new IllegalArgumentException("partnerId, keyId and key are required");
+        }
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        try {
+            if (partnerId.length() > MAX_LENGTH || keyId.length() > MAX_LENGTH || keyBytes.length > MAX_LENGTH) {
+                throw new IllegalArgumentException("partnerId, keyId and key are limited to " + MAX_LENGTH + " chars");
+            }
+            long hash = this.hash(partnerId, keyId);
+            int recordLength = RECORD_HEADER_SIZE + 2 * (partnerId.length() + keyId.length()) + keyBytes.length;
+
+            long stamp = this.lock.writeLock();
+            try {
+                this.checkOpen();
+                this.ensureDataCapacity(recordLength);
+                int record = this.dataEnd;
+                this.writeRecord(record, partnerId, keyId, keyBytes);
+                this.dataEnd += recordLength;
+
+                int slot = this.findSlot(hash, partnerId, keyId);
+                if (slot >= 0) {
+                    this.zero(this.table.getInt(slot + 8), this.table.getInt(slot + 12));
+                } else {
+                    this.ensureTableCapacity();
+                    slot = this.findFreeSlot(hash);
+                    if (this.table.getLong(slot) != EMPTY) {
+                        this.removed--;
+                    }
+                    this.table.putLong(slot, hash);
+                    this.size++;
+                }
+                this.table.putInt(slot + 8, record);
+                this.table.putInt(slot + 12, recordLength);
+            } finally {
+                this.lock.unlockWrite(stamp);
+            }
+        } finally {
+            Arrays.fill(keyBytes, (byte)0);
+        }
+    }
+
+    /**
+     * Remove the key for the given partner ID and key ID, zeroing its bytes.
+     *
+     * @return true if there was such a key
+     */
+    public boolean remove(String partnerId, String keyId) {
+        if (partnerId == null || keyId == null) {
+            return false;
+        }
+        long hash = this.hash(partnerId, keyId);
+        long stamp = this.lock.writeLock();
+        try {
+            this.checkOpen();
+            int slot = this.findSlot(hash, partnerId, keyId);
+            if (slot < 0) {
+                return false;
+            }
+            this.zero(this.table.getInt(slot + 8), this.table.getInt(slot + 12));
+            this.table.putInt(slot + 8, REMOVED);
+            this.table.putInt(slot + 12, 0);
+            this.size--;
+            this.removed++;
+            return true;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return The number of partner ID / key ID pairs stored
+     */
+    public int size() {
+        long stamp = this.lock.readLock();
+        try {
+            return this.size;
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * @return The amount of direct memory currently allocated, in bytes
+     */
+    public long getOffHeapBytes() {
+        long stamp = this.lock.readLock();
+        try {
+            return (long)this.table.capacity() + this.data.capacity();
+        } finally {
+            this.lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Zero all stored keys. Subsequent lookups throw IllegalStateException. The direct memory itself is released when
+     * this instance is garbage collected.
+     */
+    @Override
+    public void close() {
+        long stamp = this.lock.writeLock();
+        try {
+            if (this.closed) {
+                return;
+            }
+            this.zero(0, this.dataEnd);
+            for (int i = 0; i < this.table.capacity(); i += 8) {
+                this.table.putLong(i, 0);
+            }
+            this.size = 0;
+            this.removed = 0;
+            this.dataEnd = 0;
+            this.closed = true;
+        } finally {
+            this.lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * For tests: a read-only view of the data region in use.
+     */
+    ByteBuffer data() {
+        ByteBuffer ret = this.data.asReadOnlyBuffer();
+        ret.limit(this.dataEnd);
+        return ret;
+    }
+
+    private byte[] readKey(long hash, String partnerId, String keyId) {
+        this.checkOpen();
+        int slot = this.findSlot(hash, partnerId, keyId);
+        if (slot < 0) {
+            return null;
+        }
+        ByteBuffer data = this.data;
+        int record = this.table.getInt(slot + 8);
+        byte[] key = new byte[data.getShort(record + 4) & 0xFFFF];
+        data.get(keyOffset(data, record), key);
+        return key;
+    }
+
+    private int copyKey(long hash, String partnerId, String keyId, byte[] dest, int off) {
+        this.checkOpen();
+        int slot = this.findSlot(hash, partnerId, keyId);
+        if (slot < 0) {
+            return -1;
+        }
+        ByteBuffer data = this.data;
+        int record = this.table.getInt(slot + 8);
+        int len = data.getShort(record + 4) & 0xFFFF;
+        data.get(keyOffset(data, record), dest, off, len);
+        return len;
+    }
+
+    private static int keyOffset(ByteBuffer data, int record) {
+        return record + RECORD_HEADER_SIZE + 2 * ((data.getShort(record) & 0xFFFF) + (data.getShort(record + 2) & 0xFFFF));
+    }
+
+    /**
+     * @return The byte offset in the table of the slot holding the given IDs, or -1 if not present
+     */
+    private int findSlot(long hash, String partnerId, String keyId) {
+        ByteBuffer table = this.table;
+        int mask = this.mask;
+        int i = index(hash) & mask;
+        for (int probes = 0; probes <= mask; probes++) {
+            int slot = i * SLOT_SIZE;
+            long h = table.getLong(slot);
+            if (h == EMPTY) {
+                return -1;
+            }
+            if (h == hash) {
+                int record = table.getInt(slot + 8);
+                if (record != REMOVED && this.idsEqual(record, partnerId, keyId)) {
+                    return slot;
+                }
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+
+    private int findFreeSlot(long hash) {
+        int i = index(hash) & this.mask;
+        while (true) {
+            int slot = i * SLOT_SIZE;
+            if (this.table.getLong(slot) == EMPTY || this.table.getInt(slot + 8) == REMOVED) {
+                return slot;
+            }
+            i = (i + 1) & this.mask;
+        }
+    }
+
+    private boolean idsEqual(int record, String partnerId, String keyId) {
+        ByteBuffer data = this.data;
+        int partnerIdLength = data.getShort(record) & 0xFFFF;
+        int keyIdLength = data.getShort(record + 2) & 0xFFFF;
+        if (partnerIdLength != partnerId.length() || keyIdLength != keyId.length()) {
+            return false;
+        }
+        int pos = record + RECORD_HEADER_SIZE;
+        for (int i = 0; i < partnerIdLength; i++, pos += 2) {
+            if (data.getChar(pos) != partnerId.charAt(i)) {
+                return false;
+            }
+        }
+        for (int i = 0; i < keyIdLength; i++, pos += 2) {
+            if (data.getChar(pos) != keyId.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeRecord(int record, String partnerId, String keyId, byte[] key) {
+        ByteBuffer data = this.data;
+        data.putShort(record, (short)partnerId.length());
+        data.putShort(record + 2, (short)keyId.length());
+        data.putShort(record + 4, (short)key.length);
+        data.putShort(record + 6, (short)0);
+        int pos = record + RECORD_HEADER_SIZE;
+        for (int i = 0; i < partnerId.length(); i++, pos += 2) {
+            data.putChar(pos, partnerId.charAt(i));
+        }
+        for (int i = 0; i < keyId.length(); i++, pos += 2) {
+            data.putChar(pos, keyId.charAt(i));
+        }
+        data.put(pos, key);
+    }
+
+    private void zero(int offset, int length) {
+        ByteBuffer data = this.data;
+        int end = offset + length;
+        int pos = offset;
+        for (; pos + 8 <= end; pos += 8) {
+            data.putLong(pos, 0);
+        }
+        for (; pos < end; pos++) {
+            data.put(pos, (byte)0);
+        }
+    }
+
+    private void ensureDataCapacity(int recordLength) {
+        long needed = (long)this.dataEnd + recordLength;
+        if (needed <= this.data.capacity()) {
+            return;
+        }
+        if (needed > MAX_DATA_SIZE) {
+            throw new IllegalStateException("Off-heap key data limited to " + MAX_DATA_SIZE + " bytes");
+        }
+        ByteBuffer grown = ByteBuffer.allocateDirect((int)Math.min(MAX_DATA_SIZE, Math.max(needed, this.data.capacity() * 2L)));
+        ByteBuffer src = this.data.duplicate();
+        src.position(0).limit(this.dataEnd);
+        grown.put(src);
+        this.zero(0, this.dataEnd);
+        this.data = grown;
+    }
+
+    /**
+     * Keep the table at most half full, counting removed slots, so probe sequences stay short.
+     */
+    private void ensureTableCapacity() {
+        int capacity = this.mask + 1;
+        if ((this.size + this.removed + 1) * 2L <= capacity) {
+            return;
+        }
+        int newCapacity = tableCapacityFor(this.size + 1);
+        ByteBuffer oldTable = this.table;
+        this.table = allocateTable(newCapacity);
+        this.mask = newCapacity - 1;
+        this.removed = 0;
+        for (int slot = 0; slot < oldTable.capacity(); slot += SLOT_SIZE) {
+            long hash = oldTable.getLong(slot);
+            int record = oldTable.getInt(slot + 8);
+            if (hash != EMPTY && record != REMOVED) {
+                int newSlot = this.findFreeSlot(hash);
+                this.table.putLong(newSlot, hash);
+                this.table.putInt(newSlot + 8, record);
+                this.table.putInt(newSlot + 12, oldTable.getInt(slot + 12));
+            }
+        }
+    }
+
+    private void checkOpen() {
+        if (this.closed) {
+            throw new IllegalStateException("Closed");
+        }
+    }
+
+    /**
+     * 64 bit FNV-1a over the chars of both IDs with a separator, seeded per instance, then mixed as per MurmurHash3's
+     * finalizer. Never returns {@link #EMPTY}.
+     */
+    private long hash(String partnerId, String keyId) {
+        long h = 0xcbf29ce484222325L ^ this.seed;
+        for (int i = 0; i < partnerId.length(); i++) {
+            h = (h ^ partnerId.charAt(i)) * 0x100000001b3L;
+        }
+        h = (h ^ 0x10000) * 0x100000001b3L;
+        for (int i = 0; i < keyId.length(); i++) {
+            h = (h ^ keyId.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == EMPTY ? 1 : h;
+    }
+
+    private static int index(long hash) {
+        return (int)(hash ^ (hash >>> 32));
+    }
+
+    private static int tableCapacityFor(int entries) {
+        long slots = Math.max(16, Long.highestOneBit(Math.max(1, entries * 2L - 1)) << 1);
+        if (slots * SLOT_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many entries, " + entries);
+        }
+        return (int)slots;
+    }
+
+    private static ByteBuffer allocateTable(int slots) {
+        return ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+    }
+
+    private static String toString(byte[] key) {
+        try {
+            return new String(key, StandardCharsets.UTF_8);
+        } finally {
+            Arrays.fill(key, (byte)0);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.boku.auth.http.keyprovider;
+
+import java.util.Objects;
+
+/**
+ * The partner ID and key ID pair a key is looked up by in a {@link KeyProvider}, for use as a map key by anything
+ * keeping per-key state.
+ */
+public final class PartnerKeyId {
+
+    private final String partnerId;
+    private final String keyId;
+    private final int hashCode;
+
+    public PartnerKeyId(String partnerId, String keyId) {
+        this.partnerId = partnerId;
+        this.keyId = keyId;
+        this.hashCode = Objects.hash(partnerId, keyId);
+    }
+
+    public String getPartnerId() {
+        return this.partnerId;
+    }
+
+    public String getKeyId() {
+        return this.keyId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        PartnerKeyId that = (PartnerKeyId)o;
+        return Objects.equals(this.partnerId, that.partnerId) &&
+            Objects.equals(this.keyId, that.keyId);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "partner-id " + this.partnerId + " key-id " + this.keyId;
+    }
+}
@@ -4,6 +4,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 
@@ -11,7 +12,8 @@ import java.util.Properties;
  * Implements {@link KeyProvider} by looking up the requested keys in a properties file.<br>
  * <br>
  * It looks for properties in the format `boku.auth.keys.$partnerId.$keyId`, and expects the value to be the key string
- * itself.<br>
+ * itself. The properties are indexed by partner ID and key ID when the instance is created, so later changes to the
+ * Properties object have no effect; see {@link ReloadingKeyProvider} for picking up changes to a file.<br>
  * <br>
  * Note that although easy to use, it may not be entirely sensible to store key data in a plain text file on the
  * filesystem such as this.
@@ -20,9 +22,9 @@ import java.util.Properties;
  */
 public class PropertiesKeyProvider implements KeyProvider {
 
-    private static final String PREFIX = "boku.auth.keys";
+    static final String PREFIX = "boku.auth.keys";
 
-    private final Properties properties;
+    private final Map<String, Map<String, String>> keys;
     private final String[] defaultPartnerKeyId;
 
     /**
@@ -32,7 +34,7 @@ public class PropertiesKeyProvider implements KeyProvider {
      * @throws IllegalStateException If the properties instance contains no valid key entries
      */
     public PropertiesKeyProvider(Properties properties) {
-        this.properties = properties;
+        this.keys = index(properties);
         this.defaultPartnerKeyId = getDefaultPartnerAndKeyId(properties);
     }
 
@@ -44,10 +46,11 @@ public class PropertiesKeyProvider implements KeyProvider {
      * @throws IllegalStateException If the file contains no valid key entries
      */
     public static PropertiesKeyProvider fromFile(String filename) throws FileNotFoundException {
-        FileInputStream is = new FileInputStream(filename);
         Properties props = new Properties();
-        try {
+        try (FileInputStream is = new FileInputStream(filename)) {
             props.load(is);
+        } catch (FileNotFoundException ex) {
+            throw ex;
         } catch (IOException ex) {
             throw new IllegalStateException("Error loading properties file " + filename, ex);
         }
@@ -86,7 +89,8 @@ public class PropertiesKeyProvider implements KeyProvider {
 
     @Override
     public String get(String partnerId, String keyId) {
-        return this.properties.getProperty(PREFIX + "." + partnerId + "." + keyId);
+        Map<String, String> partnerKeys = this.keys.get(partnerId);
+        return partnerKeys == null ? null : partnerKeys.get(keyId);
     }
 
     /**
@@ -127,6 +131,27 @@ public class PropertiesKeyProvider implements KeyProvider {
 
     }
 
+    /**
+     * Index all `boku.auth.keys.*` properties (including defaults) by partner ID and key ID, so that lookups need not
+     * build the property name. A name containing more than one '.' after the prefix is entered under every possible
+     * partner ID / key ID split, so the result is the same as looking up the joined property name.
+     */
+    private static Map<String, Map<String, String>> index(Properties properties) {
+        Map<String, Map<String, String>> ret = new HashMap<>();
+        for (String name : properties.stringPropertyNames()) {
+            if (!name.startsWith(PREFIX + ".")) {
+                continue;
+            }
+            String value = properties.getProperty(name);
+            String ids = name.substring(PREFIX.length() + 1);
+            for (int dot = ids.indexOf('.'); dot >= 0; dot = ids.indexOf('.', dot + 1)) {
+                ret.computeIfAbsent(ids.substring(0, dot), k -> new HashMap<>())
+                    .put(ids.substring(dot + 1), value);
+            }
+        }
+        return ret;
+    }
+
     @SuppressWarnings("UseOfPropertiesAsHashtable")
     private static Properties toProperties(Map<String, String> map) {
         Properties props = new Properties();
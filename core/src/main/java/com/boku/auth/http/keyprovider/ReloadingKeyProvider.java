@@ -0,0 +1,297 @@
+package com.boku.auth.http.keyprovider;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link KeyProvider} backed by a file, which is reloaded when it changes so that keys can be rotated without a
+ * restart.<br>
+ * <br>
+ * The file is loaded into an immutable KeyProvider, which lookups use via a volatile reference without locking. A
+ * background thread polls the file's modification time and size, and when either changes, loads the new contents into
+ * a new KeyProvider and swaps it in. If loading fails (e.g. the file is only partially written, or contains no keys),
+ * the previous keys remain in use and the failure is recorded in {@link #getStats()}; the load is retried at the next
+ * poll.<br>
+ * <br>
+ * Polling is used rather than a WatchService because it reliably sees files replaced via a symlink swap (as done by
+ * Kubernetes for mounted secrets) and on network filesystems, and costs one stat call per interval.<br>
+ * <br>
+ * Call {@link #close()} to stop polling.
+ */
+public class ReloadingKeyProvider implements KeyProvider, Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReloadingKeyProvider.class);
+
+    /**
+     * Loads the file into a KeyProvider. Should throw if the file contents are not valid.
+     */
+    public interface Loader {
+        KeyProvider load(Path file) throws IOException;
+    }
+
+    private final Path file;
+    private final Loader loader;
+    private final ScheduledExecutorService poller;
+
+    private volatile KeyProvider current;
+    private FileVersion currentVersion;
+
+    private final AtomicLong reloadCount = new AtomicLong();
+    private final AtomicLong failureCount = new AtomicLong();
+    private volatile long lastReloadNanos;
+    private volatile long lastReloadTimeMillis;
+    private volatile String lastFailure;
+
+    /**
+     * Load the given file, and start polling it for changes.
+     *
+     * @param file The file to load
+     * @param loader Creates a KeyProvider from the file
+     * @param pollIntervalMillis How often to check the file for changes, or 0 to never check automatically (see
+     *                           {@link #checkForChanges()})
+     * @throws IOException If the file could not be read
+     * @throws IllegalStateException If the file contents are invalid
+     */
+    public ReloadingKeyProvider(Path file, Loader loader, long pollIntervalMillis) throws IOException {
+        if (pollIntervalMillis < 0) {
+            throw new IllegalArgumentException("pollIntervalMillis may not be negative, got " + pollIntervalMillis);
+        }
+        this.file = file;
+        this.loader = loader;
+
+        FileVersion version = FileVersion.of(file);
+        this.current = this.load();
+        this.currentVersion = version;
+
+        if (pollIntervalMillis > 0) {
+            this.poller = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, ReloadingKeyProvider.class.getSimpleName() + "-" + file.getFileName());
+                t.setDaemon(true);
+                return t;
+            });
+            this.poller.scheduleWithFixedDelay(this::checkForChangesQuietly, pollIntervalMillis, pollIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            this.poller = null;
+        }
+    }
+
+    /**
+     * Reloading equivalent of {@link PropertiesKeyProvider#fromFile(String)}.
+     *
+     * @param filename The path to a properties file that exists on the local filesystem
+     * @param pollIntervalMillis How often to check the file for changes
+     * @throws IOException If the file could not be read
+     * @throws IllegalStateException If the file contains no valid key entries
+     */
+    public static ReloadingKeyProvider properties(String filename, long pollIntervalMillis) throws IOException {
+        return new ReloadingKeyProvider(Paths.get(filename), file -> {
+            Properties props = new Properties();
+            try (InputStream is = Files.newInputStream(file)) {
+                props.load(is);
+            }
+            return new PropertiesKeyProvider(props);
+        }, pollIntervalMillis);
+    }
+
+    /**
+     * Reloading equivalent of {@link KeystoreKeyProvider#fromPKCS12(String, String)}. Each version of the file is fully
+     * decrypted before being swapped in, as per {@link KeystoreKeyProvider} snapshot mode.
+     *
+     * @param filename The path to the p12 file on the filesystem
+     * @param password The keystore password, which must stay the same across reloads
+     * @param pollIntervalMillis How often to check the file for changes
+     * @throws IOException If the file could not be read
+     * @throws IllegalStateException If any entry could not be decrypted
+     */
+    public static ReloadingKeyProvider pkcs12(String filename, String password, long pollIntervalMillis) throws IOException {
+        return new ReloadingKeyProvider(
+            Paths.get(filename),
+            file -> new KeystoreKeyProvider(KeystoreKeyProvider.loadPKCS12(file.toString(), password), password, true),
+            pollIntervalMillis
+        );
+    }
+
+    @Override
+    public String get(String partnerId, String keyId) {
+        return this.current.get(partnerId, keyId);
+    }
+
+    /**
+     * Check the file for changes now, and reload it if it has changed. Called periodically by the background thread,
+     * but may also be called directly, e.g. from an admin endpoint.
+     *
+     * @return true if the file had changed and was reloaded successfully
+     * @throws IOException If the file could not be read, in which case the current keys remain in use
+     * @throws IllegalStateException If the file contents are invalid, in which case the current keys remain in use
+     */
+    public synchronized boolean checkForChanges() throws IOException {
+        FileVersion version;
+        try {
+            version = FileVersion.of(this.file);
+        } catch (IOException ex) {
+            this.recordFailure(ex);
+            throw ex;
+        }
+        if (version.equals(this.currentVersion)) {
+            return false;
+        }
+        this.current = this.load();
+        this.currentVersion = version;
+        logger.info("Reloaded keys from {} in {}ms", this.file, TimeUnit.NANOSECONDS.toMillis(this.lastReloadNanos));
+        return true;
+    }
+
+    private void checkForChangesQuietly() {
+        try {
+            this.checkForChanges();
+        } catch (IOException | RuntimeException ex) {
+            logger.warn("Failed to reload keys from {}, continuing to use previously loaded keys", this.file, ex);
+        }
+    }
+
+    private KeyProvider load() throws IOException {
+        long start = System.nanoTime();
+        KeyProvider kp;
+        try {
+            kp = this.loader.load(this.file);
+            if (kp == null) {
+                throw new IllegalStateException("Loader returned null for " + this.file);
+            }
+        } catch (IOException | RuntimeException ex) {
+            this.recordFailure(ex);
+            throw ex;
+        }
+        this.lastReloadNanos = System.nanoTime() - start;
+        this.lastReloadTimeMillis = System.currentTimeMillis();
+        this.reloadCount.incrementAndGet();
+        return kp;
+    }
+
+    private void recordFailure(Exception ex) {
+        this.failureCount.incrementAndGet();
+        this.lastFailure = ex.toString();
+    }
+
+    /**
+     * Stop polling the file. The keys last loaded remain available.
+     */
+    @Override
+    public void close() {
+        if (this.poller != null) {
+            this.poller.shutdownNow();
+        }
+    }
+
+    /**
+     * @return A snapshot of reload statistics
+     */
+    public Stats getStats() {
+        return new Stats(this.reloadCount.get(), this.failureCount.get(), this.lastReloadNanos, this.lastReloadTimeMillis, this.lastFailure);
+    }
+
+    /**
+     * Point in time reload statistics for a {@link ReloadingKeyProvider}.
+     */
+    public static final class Stats {
+
+        private final long reloadCount;
+        private final long failureCount;
+        private final long lastReloadNanos;
+        private final long lastReloadTimeMillis;
+        private final String lastFailure;
+
+        Stats(long reloadCount, long failureCount, long lastReloadNanos, long lastReloadTimeMillis, String lastFailure) {
+            this.reloadCount = reloadCount;
+            this.failureCount = failureCount;
+            this.lastReloadNanos = lastReloadNanos;
+            this.lastReloadTimeMillis = lastReloadTimeMillis;
+            this.lastFailure = lastFailure;
+        }
+
+        /**
+         * @return Number of successful loads, including the initial one
+         */
+        public long getReloadCount() {
+            return this.reloadCount;
+        }
+
+        /**
+         * @return Number of failed attempts to read or load the file
+         */
+        public long getFailureCount() {
+            return this.failureCount;
+        }
+
+        /**
+         * @return Time taken by the last successful load, in nanoseconds
+         */
+        public long getLastReloadNanos() {
+            return this.lastReloadNanos;
+        }
+
+        /**
+         * @return Wall clock time of the last successful load, in milliseconds since the epoch
+         */
+        public long getLastReloadTimeMillis() {
+            return this.lastReloadTimeMillis;
+        }
+
+        /**
+         * @return Description of the most recent failure, or null if there have been none
+         */
+        public String getLastFailure() {
+            return this.lastFailure;
+        }
+
+        @Override
+        public String toString() {
+            return "reloads=" + this.reloadCount + ", failures=" + this.failureCount
+                + ", lastReloadMillis=" + String.format("%.3f", this.lastReloadNanos / 1e6)
+                + ", lastFailure=" + this.lastFailure;
+        }
+    }
+
+    /**
+     * What we compare to detect a change. Size is included since some filesystems only have 1 second mtime resolution.
+     */
+    private static final class FileVersion {
+
+        final long lastModifiedMillis;
+        final long size;
+
+        FileVersion(long lastModifiedMillis, long size) {
+            this.lastModifiedMillis = lastModifiedMillis;
+            this.size = size;
+        }
+
+        static FileVersion of(Path file) throws IOException {
+            return new FileVersion(Files.getLastModifiedTime(file).toMillis(), Files.size(file));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FileVersion)) {
+                return false;
+            }
+            FileVersion that = (FileVersion)o;
+            return this.lastModifiedMillis == that.lastModifiedMillis && this.size == that.size;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(this.lastModifiedMillis) * 31 + Long.hashCode(this.size);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.boku.auth.http.stringsigner;
+
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Non-blocking counterpart to {@link StringSigner}, for implementations where the key is held remotely, e.g. by a key
+ * management service, so that the caller's thread is not held for the duration of the network round trip.<br>
+ * <br>
+ * {@link com.boku.auth.http.httpsigner.HttpMessageSigner HttpMessageSigner} uses this via its
+ * {@link com.boku.auth.http.httpsigner.HttpMessageSigner#signAsync signAsync} and
+ * {@link com.boku.auth.http.httpsigner.HttpMessageSigner#verifySignatureAsync verifySignatureAsync} methods.
+ * Existing synchronous signers can be adapted with {@link ExecutorAsyncStringSigner}.
+ */
+public interface AsyncStringSigner {
+
+    /**
+     * Asynchronous equivalent of {@link StringSigner#generateSignature}. Should not block.
+     *
+     * @param algorithm One of {@link SignatureAlgorithm}
+     * @param partnerId The partner ID under which the key to be used is stored
+     * @param keyId The key ID under which the key to be used is stored
+     * @param stringToSign The string to sign
+     * @return A stage completed with the signature, as per {@link StringSigner#generateSignature}, or completed
+     *         exceptionally with {@link java.security.InvalidKeyException} if the referenced key was not found or is
+     *         invalid. Does not return null.
+     */
+    CompletionStage<String> generateSignatureAsync(SignatureAlgorithm algorithm, String partnerId, String keyId, String stringToSign);
+
+}
@@ -1,61 +1,267 @@
 package com.boku.auth.http.stringsigner;
 
+import com.boku.util.CryptoProvider;
 import com.boku.util.HexCodec;
 import com.boku.auth.http.keyprovider.KeyProvider;
+import com.boku.util.Utf8Encoder;
 
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 
 /**
  * A simple implementation of {@link StringSigner} which calculates signatures locally, depending only on a
- * {@link KeyProvider}.
+ * {@link KeyProvider}.<br>
+ * <br>
+ * By default, initialized HMAC instances are cached per algorithm, partner ID and key ID (see
+ * {@link #BasicStringSignerImpl(KeyProvider, int, long)}), so that repeated signatures with the same key skip the
+ * relatively expensive Mac setup. The {@link KeyProvider} is still consulted on every call, and a changed key is picked
+ * up immediately.<br>
+ * <br>
+ * {@link #withPrefix} absorbs the prefix into an HMAC instance once, and clones that for each signature. The key is
+ * still looked up every time, and the prefix absorbed again should it have changed.<br>
+ * <br>
+ * HMAC instances come from the default JCA providers unless another {@link CryptoProvider} is given.
  */
-public class BasicStringSignerImpl implements StringSigner {
+public class BasicStringSignerImpl implements StreamingStringSigner {
 
-    private static final String HMAC_SHA256 = "HmacSHA256";
+    public static final int DEFAULT_MAX_CACHED_KEYS = 1024;
+    public static final long DEFAULT_CACHED_KEY_TTL_MILLIS = TimeUnit.MINUTES.toMillis(10);
 
     private final KeyProvider keyProvider;
+    private final CryptoProvider cryptoProvider;
+    private final Map<SignatureAlgorithm, MacCache> macCaches;
 
+    /**
+     * Create an instance using the default HMAC cache settings.
+     */
     public BasicStringSignerImpl(KeyProvider keyProvider) {
+        this(keyProvider, DEFAULT_MAX_CACHED_KEYS, DEFAULT_CACHED_KEY_TTL_MILLIS);
+    }
+
+    /**
+     * Create an instance with explicit HMAC cache settings.
+     *
+     * @param keyProvider Source of keys
+     * @param maxCachedKeys Maximum number of partner ID / key ID pairs to keep initialized HMAC instances for, per
+     *                      algorithm. Once full, the least recently used entry is evicted. Pass 0 to disable caching
+     *                      entirely.
+     * @param cachedKeyTtlMillis How long an initialized HMAC instance may be reused before it is rebuilt from the
+     *                           key provided by the {@link KeyProvider}.
+     */
+    public BasicStringSignerImpl(KeyProvider keyProvider, int maxCachedKeys, long cachedKeyTtlMillis) {
+        this(keyProvider, maxCachedKeys, cachedKeyTtlMillis, CryptoProvider.DEFAULT);
+    }
+
+    /**
+     * Create an instance with explicit HMAC cache settings, taking HMAC instances from the given provider.
+     *
+     * @see #BasicStringSignerImpl(KeyProvider, int, long)
+     */
+    public BasicStringSignerImpl(KeyProvider keyProvider, int maxCachedKeys, long cachedKeyTtlMillis, CryptoProvider cryptoProvider) {
+        if (cryptoProvider == null) {
+            throw new IllegalArgumentException("cryptoProvider cannot be null");
+        }
         this.keyProvider = keyProvider;
+        this.cryptoProvider = cryptoProvider;
+        if (maxCachedKeys == 0) {
+            this.macCaches = null;
+        } else {
+            this.macCaches = new EnumMap<>(SignatureAlgorithm.class);
+            for (SignatureAlgorithm algorithm : SignatureAlgorithm.values()) {
+                this.macCaches.put(algorithm, new MacCache(key -> this.createMac(algorithm, key), maxCachedKeys, cachedKeyTtlMillis));
+            }
+        }
     }
 
     @Override
     public String generateSignature(SignatureAlgorithm algorithm, String partnerId, String keyId, String stringToSign) throws InvalidKeyException {
-        if (algorithm != SignatureAlgorithm.HMAC_SHA256) {
-            throw new UnsupportedOperationException("Algorithm " + algorithm + " not supported");
+        Mac mac = this.getMac(algorithm, partnerId, keyId);
+
+        byte[] hmac = mac.doFinal(toUTF8(stringToSign));
+
+        return HexCodec.encodeString(hmac);
+    }
+
+    @Override
+    public String generateSignature(SignatureAlgorithm algorithm, String partnerId, String keyId, StringToSign stringToSign) throws InvalidKeyException {
+        return HexCodec.encodeString(this.generateRawSignature(algorithm, partnerId, keyId, stringToSign));
+    }
+
+    /**
+     * Streams the text straight into the HMAC via a pooled {@link Utf8Encoder}, rather than building a String and then
+     * a byte array from it.
+     */
+    @Override
+    public byte[] generateRawSignature(SignatureAlgorithm algorithm, String partnerId, String keyId, StringToSign stringToSign) throws InvalidKeyException {
+        return sign(this.getMac(algorithm, partnerId, keyId), stringToSign);
+    }
+
+    /**
+     * Looks up the key and takes a Mac once for the whole batch, reusing it for each string since doFinal resets it.
+     */
+    @Override
+    public byte[][] generateRawSignatures(SignatureAlgorithm algorithm, String partnerId, String keyId, List<? extends StringToSign> stringsToSign) throws InvalidKeyException {
+        byte[][] ret = new byte[stringsToSign.size()][];
+        if (ret.length == 0) {
+            return ret;
+        }
+        Mac mac = this.getMac(algorithm, partnerId, keyId);
+        MacEncoder encoder = MacEncoder.borrow(mac);
+        try {
+            for (int i = 0; i < ret.length; i++) {
+                ret[i] = sign(mac, encoder.encoder, stringsToSign.get(i));
+            }
+        } finally {
+            encoder.release();
+        }
+        return ret;
+    }
+
+    @Override
+    public PrefixedSigner withPrefix(SignatureAlgorithm algorithm, String partnerId, String keyId, StringToSign prefix) throws InvalidKeyException {
+        return new Prefixed(algorithm, partnerId, keyId, prefix);
+    }
+
+    private static byte[] sign(Mac mac, StringToSign stringToSign) {
+        MacEncoder encoder = MacEncoder.borrow(mac);
+        try {
+            return sign(mac, encoder.encoder, stringToSign);
+        } finally {
+            encoder.release();
         }
+    }
+
+    private static byte[] sign(Mac mac, Utf8Encoder encoder, StringToSign stringToSign) {
+        append(encoder, stringToSign);
+        return mac.doFinal();
+    }
+
+    private static void append(Utf8Encoder encoder, StringToSign stringToSign) {
+        try {
+            stringToSign.appendTo(encoder);
+        } catch (IOException ex) {
+            throw new IllegalStateException("Utf8Encoder does not throw IOException", ex);
+        }
+        encoder.flush();
+    }
+
+    private Mac getMac(SignatureAlgorithm algorithm, String partnerId, String keyId) throws InvalidKeyException {
+        return this.getMac(algorithm, partnerId, keyId, this.getKey(algorithm, partnerId, keyId));
+    }
+
+    private String getKey(SignatureAlgorithm algorithm, String partnerId, String keyId) throws InvalidKeyException {
+        // Fail on unsupported algorithms before looking up the key
+        getJcaName(algorithm);
 
         String key = this.keyProvider.get(partnerId, keyId);
         if (key == null) {
             throw new InvalidKeyException("No key found by partnerId=" + partnerId + " and keyId=" + keyId);
         }
+        return key;
+    }
 
-        Mac mac = this.getMac(key);
-
-        byte[] hmac = mac.doFinal(toUTF8(stringToSign));
-
-        return HexCodec.encodeString(hmac);
+    private Mac getMac(SignatureAlgorithm algorithm, String partnerId, String keyId, String key) throws InvalidKeyException {
+        if (this.macCaches == null) {
+            return this.createMac(algorithm, key);
+        }
+        return this.macCaches.get(algorithm).get(partnerId, keyId, key);
     }
 
-    private Mac getMac(String key) throws InvalidKeyException {
-        SecretKeySpec secretKey = new SecretKeySpec(toUTF8(key), HMAC_SHA256);
-        Mac mac;
-        try {
-            mac = Mac.getInstance(HMAC_SHA256);
-        } catch (NoSuchAlgorithmException ex) {
-            throw new IllegalStateException(HMAC_SHA256 + " is guaranteed to be present", ex);
+    private static String getJcaName(SignatureAlgorithm algorithm) {
+        switch (algorithm) {
+            case HMAC_SHA256:
+                return "HmacSHA256";
+            case HMAC_SHA512_256:
+                return "HmacSHA512/256";
+            default:
+                throw new UnsupportedOperationException("Algorithm " + algorithm + " not supported");
         }
-        mac.init(secretKey);
-        return mac;
+    }
+
+    private Mac createMac(SignatureAlgorithm algorithm, String key) throws InvalidKeyException {
+        return this.cryptoProvider.getMac(getJcaName(algorithm), toUTF8(key));
     }
 
     private static byte[] toUTF8(String string) {
         return string.getBytes(StandardCharsets.UTF_8);
     }
 
+    /**
+     * Holds a Mac with the prefix already absorbed, for the key current when it was created.
+     */
+    private final class Prefixed implements PrefixedSigner {
+
+        private final SignatureAlgorithm algorithm;
+        private final String partnerId;
+        private final String keyId;
+        private final StringToSign prefix;
+        private volatile PrefixState state;
+
+        Prefixed(SignatureAlgorithm algorithm, String partnerId, String keyId, StringToSign prefix) throws InvalidKeyException {
+            this.algorithm = algorithm;
+            this.partnerId = partnerId;
+            this.keyId = keyId;
+            this.prefix = prefix;
+            this.state = this.absorb(getKey(algorithm, partnerId, keyId));
+        }
+
+        @Override
+        public byte[] generateRawSignature(StringToSign suffix) throws InvalidKeyException {
+            String key = getKey(this.algorithm, this.partnerId, this.keyId);
+            PrefixState state = this.state;
+            if (!state.key.equals(key)) {
+                state = this.absorb(key);
+                this.state = state;
+            }
+            return sign(state.newInstance(), suffix);
+        }
+
+        private PrefixState absorb(String key) throws InvalidKeyException {
+            return new PrefixState(key, this.newMac(key));
+        }
+
+        private Mac newMac(String key) throws InvalidKeyException {
+            Mac mac = getMac(this.algorithm, this.partnerId, this.keyId, key);
+            MacEncoder encoder = MacEncoder.borrow(mac);
+            try {
+                append(encoder.encoder, this.prefix);
+            } finally {
+                encoder.release();
+            }
+            return mac;
+        }
+
+        private final class PrefixState {
+
+            final String key;
+            final Mac prototype;
+            volatile boolean cloneable = true;
+
+            PrefixState(String key, Mac prototype) {
+                this.key = key;
+                this.prototype = prototype;
+            }
+
+            Mac newInstance() throws InvalidKeyException {
+                if (this.cloneable) {
+                    try {
+                        // The prototype is never updated after absorbing the prefix, so is safe to clone concurrently
+                        return (Mac)this.prototype.clone();
+                    } catch (CloneNotSupportedException ex) {
+                        // Some providers don't support cloning, fall back to absorbing the prefix every time
+                        this.cloneable = false;
+                    }
+                }
+                return Prefixed.this.newMac(this.key);
+            }
+        }
+    }
+
 }
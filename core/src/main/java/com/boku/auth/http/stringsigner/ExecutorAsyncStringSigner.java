@@ -0,0 +1,46 @@
+package com.boku.auth.http.stringsigner;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Adapts a synchronous {@link StringSigner} to {@link AsyncStringSigner} by running it on the given {@link Executor}.
+ * <br>
+ * Useful where the StringSigner blocks, e.g. on a remote call, and that should happen on a dedicated pool sized for
+ * it, rather than on request handling threads.
+ */
+public class ExecutorAsyncStringSigner implements AsyncStringSigner {
+
+    private final StringSigner stringSigner;
+    private final Executor executor;
+
+    /**
+     * @param stringSigner The synchronous signer to delegate to
+     * @param executor Where to run the delegate
+     */
+    public ExecutorAsyncStringSigner(StringSigner stringSigner, Executor executor) {
+        this.stringSigner = stringSigner;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletionStage<String> generateSignatureAsync(SignatureAlgorithm algorithm, String partnerId, String keyId, String stringToSign) {
+        CompletableFuture<String> ret = new CompletableFuture<>();
+        try {
+            this.executor.execute(() -> {
+                try {
+                    ret.complete(this.stringSigner.generateSignature(algorithm, partnerId, keyId, stringToSign));
+                } catch (Throwable ex) {
+                    // As per CompletableFuture.supplyAsync, so that the caller is never left waiting
+                    ret.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            ret.completeExceptionally(ex);
+        }
+        return ret;
+    }
+
+}
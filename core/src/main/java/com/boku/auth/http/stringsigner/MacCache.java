@@ -0,0 +1,162 @@
+package com.boku.auth.http.stringsigner;
+
+import java.security.InvalidKeyException;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+
+import com.boku.auth.http.keyprovider.PartnerKeyId;
+
+/**
+ * Bounded cache of initialized {@link Mac} prototypes, keyed by partner ID and key ID.<br>
+ * <br>
+ * Initializing a Mac (provider lookup, key spec creation and pad calculation) costs considerably more than the HMAC of
+ * a typical string to sign, so we keep one initialized prototype per key and hand out clones of it. Clones share no
+ * mutable state with the prototype or each other, so concurrent callers never contend on a shared instance.<br>
+ * <br>
+ * Entries expire after a fixed TTL, and are replaced immediately if the key material supplied for the same IDs
+ * changes. When the cache is full, an entry which has not been used recently is evicted, approximating LRU. Lookups
+ * take no locks; inserts and evictions are serialized, and evict by the clock (second chance) algorithm, which is
+ * constant time however full the cache is.
+ */
+class MacCache {
+
+    /**
+     * Creates a freshly initialized {@link Mac} for the given key.
+     */
+    interface MacFactory {
+        Mac create(String key) throws InvalidKeyException;
+    }
+
+    private final Map<PartnerKeyId, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * Entries in insertion order, for the clock hand to sweep. May contain entries since replaced or removed, which are
+     * skipped, and compacted away once they make up half of it. Guarded by itself, as is inserting into entries.
+     */
+    private final ArrayDeque<Entry> clock = new ArrayDeque<>();
+    private final MacFactory macFactory;
+    private final int maxSize;
+    private final long ttlNanos;
+
+    MacCache(MacFactory macFactory, int maxSize, long ttlMillis) {
+        if (maxSize <= 0) {
+            throw new IllegalArgumentException("maxSize must be positive, got " + maxSize);
+        }
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("ttlMillis must be positive, got " + ttlMillis);
+        }
+        this.macFactory = macFactory;
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+    }
+
+    /**
+     * Get a ready to use {@link Mac} initialized with the given key, which the caller may use exclusively.
+     *
+     * @param partnerId Partner ID the key was retrieved by
+     * @param keyId Key ID the key was retrieved by
+     * @param key The current key material for partnerId and keyId
+     * @return An initialized Mac not shared with any other caller. Does not return null.
+     * @throws InvalidKeyException If the key was rejected by the Mac implementation
+     */
+    Mac get(String partnerId, String keyId, String key) throws InvalidKeyException {
+        PartnerKeyId cacheKey = new PartnerKeyId(partnerId, keyId);
+        long now = System.nanoTime();
+
+        Entry entry = this.entries.get(cacheKey);
+        if (entry == null || now - entry.expiresAt >= 0 || !entry.key.equals(key)) {
+            entry = new Entry(cacheKey, key, this.macFactory.create(key), now + this.ttlNanos);
+            this.insert(entry);
+        } else if (!entry.used) {
+            // Read before writing, so that hot entries don't keep invalidating each other's cache lines
+            entry.used = true;
+        }
+
+        return entry.newInstance(this.macFactory);
+    }
+
+    /**
+     * @return The number of keys currently cached
+     */
+    int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Remove all cached entries.
+     */
+    void clear() {
+        synchronized (this.clock) {
+            this.entries.clear();
+            this.clock.clear();
+        }
+    }
+
+    private void insert(Entry entry) {
+        synchronized (this.clock) {
+            Entry previous = this.entries.put(entry.cacheKey, entry);
+            this.clock.addLast(entry);
+            if (previous == null && this.entries.size() > this.maxSize) {
+                this.evictOne(entry);
+            }
+            if (this.clock.size() > 2 * this.maxSize) {
+                this.clock.removeIf(e -> this.entries.get(e.cacheKey) != e);
+            }
+        }
+    }
+
+    /**
+     * Evict the first entry in clock order which has not been used since the hand last passed it, giving any used ones
+     * a second chance. The entry just inserted is never evicted.
+     */
+    private void evictOne(Entry inserted) {
+        Entry e;
+        while ((e = this.clock.pollFirst()) != null) {
+            if (this.entries.get(e.cacheKey) != e) {
+                continue;
+            }
+            if (e == inserted) {
+                this.clock.addLast(e);
+                continue;
+            }
+            if (e.used) {
+                e.used = false;
+                this.clock.addLast(e);
+                continue;
+            }
+            this.entries.remove(e.cacheKey, e);
+            return;
+        }
+    }
+
+    private static final class Entry {
+
+        final PartnerKeyId cacheKey;
+        final String key;
+        final Mac prototype;
+        final long expiresAt;
+        volatile boolean used;
+        volatile boolean cloneable = true;
+
+        Entry(PartnerKeyId cacheKey, String key, Mac prototype, long expiresAt) {
+            this.cacheKey = cacheKey;
+            this.key = key;
+            this.prototype = prototype;
+            this.expiresAt = expiresAt;
+        }
+
+        Mac newInstance(MacFactory macFactory) throws InvalidKeyException {
+            if (this.cloneable) {
+                try {
+                    return (Mac)this.prototype.clone();
+                } catch (CloneNotSupportedException ex) {
+                    // Some providers don't support cloning, fall back to initializing from scratch every time
+                    this.cloneable = false;
+                }
+            }
+            return macFactory.create(this.key);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.boku.auth.http.stringsigner;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.crypto.Mac;
+
+import com.boku.util.Utf8Encoder;
+
+/**
+ * A {@link Utf8Encoder} writing into a {@link Mac}, pooled so that signing doesn't allocate a new encoder and buffer
+ * every time.<br>
+ * <br>
+ * {@link #borrow} takes any idle instance, or creates one if there are none, and points it at the given Mac;
+ * {@link #release} detaches it and keeps it only if there's a free slot. Like the digest pool in
+ * {@link com.boku.util.CryptoProvider}, the pool is lock free and not tied to threads.
+ */
+final class MacEncoder implements Utf8Encoder.Sink {
+
+    private static final int POOL_SIZE = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    private static final AtomicReferenceArray<MacEncoder> idle = new AtomicReferenceArray<>(POOL_SIZE);
+
+    final Utf8Encoder encoder = new Utf8Encoder(this);
+    private Mac mac;
+
+    private MacEncoder() {
+    }
+
+    /**
+     * @return An encoder writing into the given Mac, which the caller may use exclusively until it calls
+     * {@link #release()}
+     */
+    static MacEncoder borrow(Mac mac) {
+        MacEncoder ret = null;
+        int start = slot();
+        for (int i = 0; i < POOL_SIZE && ret == null; i++) {
+            ret = idle.getAndSet((start + i) % POOL_SIZE, null);
+        }
+        if (ret == null) {
+            ret = new MacEncoder();
+        }
+        ret.mac = mac;
+        return ret;
+    }
+
+    /**
+     * Discard anything not yet flushed, detach from the Mac, and return this encoder to the pool.
+     */
+    void release() {
+        this.encoder.reset();
+        this.mac = null;
+        int start = slot();
+        for (int i = 0; i < POOL_SIZE; i++) {
+            if (idle.compareAndSet((start + i) % POOL_SIZE, null, this)) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        this.mac.update(b, off, len);
+    }
+
+    // Spread threads over the slots, to limit contention when they're all busy
+    private static int slot() {
+        return (int)(Thread.currentThread().getId() % POOL_SIZE);
+    }
+}
@@ -0,0 +1,22 @@
+package com.boku.auth.http.stringsigner;
+
+import java.security.InvalidKeyException;
+
+/**
+ * Signs strings which all start with the same prefix, using one key, as returned by
+ * {@link StreamingStringSigner#withPrefix}. Only the rest of each string, the suffix, is given to sign.<br>
+ * <br>
+ * Implementations must be thread safe.
+ */
+@FunctionalInterface
+public interface PrefixedSigner {
+
+    /**
+     * Equivalent to {@link StreamingStringSigner#generateRawSignature} of the prefix followed by the given suffix.
+     *
+     * @param suffix Source of the text following the prefix
+     * @return The raw signature. Does not return null.
+     * @throws InvalidKeyException If the key is no longer found, or is invalid
+     */
+    byte[] generateRawSignature(StringToSign suffix) throws InvalidKeyException;
+}
@@ -2,14 +2,18 @@ package com.boku.auth.http.stringsigner;
 
 /**
  * Which signature algorithm to use when calling {@link StringSigner}.<br>
- * There's only one right now, more may be added as the need arises (specifically, RSA SHA-256 signatures would come in
- * handy.)
+ * More may be added as the need arises (specifically, RSA SHA-256 signatures would come in handy.)
  */
 public enum SignatureAlgorithm {
 
     /**
      * SHA-256 HMAC, encoded as a 64 character lower-case hexadecimal string
      */
-    HMAC_SHA256
+    HMAC_SHA256,
+
+    /**
+     * SHA-512/256 HMAC, encoded as a 64 character lower-case hexadecimal string
+     */
+    HMAC_SHA512_256
 
 }
@@ -0,0 +1,82 @@
+package com.boku.auth.http.stringsigner;
+
+import java.security.InvalidKeyException;
+import java.util.List;
+
+/**
+ * A {@link StringSigner} that can also sign text streamed to it as a {@link StringToSign}, avoiding the need to build
+ * the whole string to sign in memory first.<br>
+ * <br>
+ * {@link com.boku.auth.http.httpsigner.HttpMessageSigner HttpMessageSigner} uses this form automatically when the
+ * StringSigner it is given implements this interface, and verifies signatures against
+ * {@link #generateRawSignature raw signature bytes} rather than their string form.
+ */
+public interface StreamingStringSigner extends StringSigner {
+
+    /**
+     * Equivalent to {@link #generateSignature(SignatureAlgorithm, String, String, String)} called with the text
+     * produced by stringToSign. The result must be identical.
+     *
+     * @param algorithm One of {@link SignatureAlgorithm}
+     * @param partnerId The partner ID under which the key to be used is stored
+     * @param keyId The key ID under which the key to be used is stored
+     * @param stringToSign Source of the text to sign
+     * @return The signature, which is guaranteed to be printable ASCII but is otherwise of an algorithm-specific format
+     * @throws InvalidKeyException If the referenced key was not found, or is invalid
+     */
+    String generateSignature(SignatureAlgorithm algorithm, String partnerId, String keyId, StringToSign stringToSign) throws InvalidKeyException;
+
+    /**
+     * As {@link #generateSignature(SignatureAlgorithm, String, String, StringToSign)}, but returning the raw signature
+     * bytes, of which the String signature is the lower-case hex encoding.
+     *
+     * @param algorithm One of {@link SignatureAlgorithm}
+     * @param partnerId The partner ID under which the key to be used is stored
+     * @param keyId The key ID under which the key to be used is stored
+     * @param stringToSign Source of the text to sign
+     * @return The raw signature, e.g. the HMAC output. Does not return null.
+     * @throws InvalidKeyException If the referenced key was not found, or is invalid
+     */
+    byte[] generateRawSignature(SignatureAlgorithm algorithm, String partnerId, String keyId, StringToSign stringToSign) throws InvalidKeyException;
+
+    /**
+     * As {@link #generateRawSignature}, for several strings signed with the same key. Implementations may look the key
+     * up and initialize the signing state once for the whole batch.
+     *
+     * @param algorithm One of {@link SignatureAlgorithm}
+     * @param partnerId The partner ID under which the key to be used is stored
+     * @param keyId The key ID under which the key to be used is stored
+     * @param stringsToSign Sources of the text to sign
+     * @return The raw signatures, in the same order as stringsToSign. Does not return null.
+     * @throws InvalidKeyException If the referenced key was not found, or is invalid
+     */
+    default byte[][] generateRawSignatures(SignatureAlgorithm algorithm, String partnerId, String keyId, List<? extends StringToSign> stringsToSign) throws InvalidKeyException {
+        byte[][] ret = new byte[stringsToSign.size()][];
+        for (int i = 0; i < ret.length; i++) {
+            ret[i] = this.generateRawSignature(algorithm, partnerId, keyId, stringsToSign.get(i));
+        }
+        return ret;
+    }
+
+    /**
+     * Prepare to sign any number of strings starting with the given prefix, with the same key. Implementations may
+     * absorb the prefix into the signing state once, so that each signature only has to process the rest of the
+     * string.<br>
+     * The default implementation signs the whole string every time.
+     *
+     * @param algorithm One of {@link SignatureAlgorithm}
+     * @param partnerId The partner ID under which the key to be used is stored
+     * @param keyId The key ID under which the key to be used is stored
+     * @param prefix Source of the text every string to sign starts with
+     * @return A thread safe signer for the remainder of each string. Does not return null.
+     * @throws InvalidKeyException If the referenced key was not found, or is invalid. Implementations may instead
+     *                             throw this from the returned signer.
+     */
+    default PrefixedSigner withPrefix(SignatureAlgorithm algorithm, String partnerId, String keyId, StringToSign prefix) throws InvalidKeyException {
+        return suffix -> this.generateRawSignature(algorithm, partnerId, keyId, out -> {
+            prefix.appendTo(out);
+            suffix.appendTo(out);
+        });
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.boku.auth.http.stringsigner;
+
+import java.io.IOException;
+
+/**
+ * Text to be signed by a {@link StreamingStringSigner}, produced on demand rather than held as a String.
+ */
+public interface StringToSign {
+
+    /**
+     * Append the full text to sign to the given output.
+     *
+     * @param out Where to write the text. Implementations must produce the same text every time this is called.
+     * @throws IOException If thrown by out
+     */
+    void appendTo(Appendable out) throws IOException;
+
+    /**
+     * Materialize the given {@link StringToSign} as a String, e.g. for signers which don't support streaming.
+     */
+    static String toString(StringToSign stringToSign) {
+        StringBuilder sb = new StringBuilder();
+        try {
+            stringToSign.appendTo(sb);
+        } catch (IOException ex) {
+            throw new IllegalStateException("StringBuilder does not throw IOException", ex);
+        }
+        return sb.toString();
+    }
+}
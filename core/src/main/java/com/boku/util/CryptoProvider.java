@@ -0,0 +1,322 @@
+package com.boku.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.Provider;
+import java.security.Security;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The JCA {@link Provider} to take {@link Mac} and {@link MessageDigest} instances from.<br>
+ * <br>
+ * By default these come from whichever installed provider comes first for the algorithm, but an alternative provider
+ * with faster implementations may be chosen instead, see {@link #forName(String)}. Algorithms the chosen provider
+ * doesn't implement still come from the default providers. A chosen provider is checked on creation by comparing its
+ * results for every algorithm used here against those of the default providers, so a faulty provider fails at startup
+ * rather than producing signatures no-one else agrees with.<br>
+ * <br>
+ * Each instance keeps its own digest pool, see {@link DigestFactory}, which uses {@link #DEFAULT}.
+ */
+public final class CryptoProvider {
+
+    private static final Logger logger = LoggerFactory.getLogger(CryptoProvider.class);
+
+    // All algorithms this library uses, which the self test covers
+    private static final List<String> MAC_ALGORITHMS = Arrays.asList("HmacSHA256", "HmacSHA512/256");
+    private static final List<String> DIGEST_ALGORITHMS = Arrays.asList("SHA-256", "SHA-512/256");
+
+    private static final int POOL_SIZE = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    /**
+     * The default providers, as per {@link Mac#getInstance(String)} and {@link MessageDigest#getInstance(String)}
+     */
+    public static final CryptoProvider DEFAULT = new CryptoProvider(null);
+
+    private final Provider provider;
+    private final Set<String> unsupported = ConcurrentHashMap.newKeySet();
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+
+    private CryptoProvider(Provider provider) {
+        this.provider = provider;
+    }
+
+    /**
+     * Use the given provider, which need not be installed.
+     *
+     * @throws IllegalStateException If the provider fails the self test
+     */
+    public static CryptoProvider of(Provider provider) {
+        if (provider == null) {
+            throw new IllegalArgumentException("provider cannot be null");
+        }
+        CryptoProvider ret = new CryptoProvider(provider);
+        ret.selfTest();
+        return ret;
+    }
+
+    /**
+     * @param name Either the name of an installed provider, e.g. SunJCE, or the class name of a {@link Provider} with
+     *             a public no-argument constructor, which is installed if no provider of that name is already
+     * @throws IllegalArgumentException If there is no such provider
+     * @throws IllegalStateException If the provider fails the self test
+     */
+    public static CryptoProvider forName(String name) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Provider name must be non-empty, got " + name);
+        }
+        Provider provider = Security.getProvider(name);
+        if (provider == null) {
+            provider = instantiate(name);
+            Provider installed = Security.getProvider(provider.getName());
+            if (installed != null) {
+                provider = installed;
+            } else {
+                logger.info("Installing JCA provider {} from {}", provider.getName(), name);
+                Security.addProvider(provider);
+            }
+        }
+        return of(provider);
+    }
+
+    /**
+     * @return All installed providers which implement at least one of the algorithms used here, in preference order
+     */
+    public static List<Provider> getInstalled() {
+        List<Provider> ret = new ArrayList<>();
+        for (Provider p : Security.getProviders()) {
+            boolean used = MAC_ALGORITHMS.stream().anyMatch(a -> p.getService("Mac", a) != null)
+                || DIGEST_ALGORITHMS.stream().anyMatch(a -> p.getService("MessageDigest", a) != null);
+            if (used) {
+                ret.add(p);
+            }
+        }
+        return Collections.unmodifiableList(ret);
+    }
+
+    /**
+     * @return The chosen provider, or null for the defaults
+     */
+    public Provider getProvider() {
+        return this.provider;
+    }
+
+    /**
+     * @param algorithm A JCA Mac algorithm name, e.g. HmacSHA256
+     * @return A new Mac initialized with the given key
+     * @throws IllegalStateException If the algorithm is not available
+     */
+    public Mac getMac(String algorithm, byte[] key) throws InvalidKeyException {
+        Mac mac = null;
+        if (this.provider != null && !this.unsupported.contains(algorithm)) {
+            try {
+                mac = Mac.getInstance(algorithm, this.provider);
+            } catch (NoSuchAlgorithmException ex) {
+                this.fallBack(algorithm);
+            }
+        }
+        if (mac == null) {
+            try {
+                mac = Mac.getInstance(algorithm);
+            } catch (NoSuchAlgorithmException ex) {
+                throw new IllegalStateException(algorithm + " not available?", ex);
+            }
+        }
+        mac.init(new SecretKeySpec(key, algorithm));
+        return mac;
+    }
+
+    /**
+     * @param algorithm A {@link MessageDigest} algorithm name, e.g. SHA-512/256, or {@link TreeHashDigest#ALGORITHM}
+     * @return A new digest, which the caller may use exclusively
+     * @throws IllegalStateException If the algorithm is not available
+     */
+    public MessageDigest getDigest(String algorithm) {
+        return this.pool(algorithm).newInstance();
+    }
+
+    /**
+     * Digest the given data with a pooled digest.
+     *
+     * @throws IllegalStateException If the algorithm is not available
+     */
+    public byte[] digest(String algorithm, byte[] data) {
+        Pool pool = this.pool(algorithm);
+        MessageDigest md = pool.borrow();
+        try {
+            return md.digest(data);
+        } finally {
+            pool.release(md);
+        }
+    }
+
+    /**
+     * Digest the remaining bytes of the given buffer with a pooled digest. The position of the buffer is left
+     * unchanged.
+     *
+     * @throws IllegalStateException If the algorithm is not available
+     */
+    public byte[] digest(String algorithm, ByteBuffer data) {
+        Pool pool = this.pool(algorithm);
+        MessageDigest md = pool.borrow();
+        try {
+            md.update(data.duplicate());
+            return md.digest();
+        } finally {
+            pool.release(md);
+        }
+    }
+
+    /**
+     * Compare the results of every algorithm used here against the default providers.
+     *
+     * @throws IllegalStateException If any differ
+     */
+    public void selfTest() {
+        if (this.provider == null) {
+            return;
+        }
+        byte[] key = "self-test key".getBytes(StandardCharsets.UTF_8);
+        byte[] data = new byte[1000];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte)i;
+        }
+        for (String algorithm : MAC_ALGORITHMS) {
+            try {
+                byte[] expected = DEFAULT.getMac(algorithm, key).doFinal(data);
+                byte[] actual = this.getMac(algorithm, key).doFinal(data);
+                if (!MessageDigest.isEqual(expected, actual)) {
+                    throw new IllegalStateException("Provider " + this + " gives a different " + algorithm + " than the default provider");
+                }
+            } catch (InvalidKeyException ex) {
+                throw new IllegalStateException("Provider " + this + " rejected the " + algorithm + " self test key", ex);
+            }
+        }
+        for (String algorithm : DIGEST_ALGORITHMS) {
+            if (!MessageDigest.isEqual(DEFAULT.digest(algorithm, data), this.digest(algorithm, data))) {
+                throw new IllegalStateException("Provider " + this + " gives a different " + algorithm + " than the default provider");
+            }
+        }
+        logger.info("Using JCA provider {}, which passed the self test", this);
+    }
+
+    @Override
+    public String toString() {
+        return this.provider == null ? "default" : this.provider.getName();
+    }
+
+    private void fallBack(String algorithm) {
+        if (this.unsupported.add(algorithm)) {
+            logger.info("JCA provider {} does not support {}, using the default provider for it", this, algorithm);
+        }
+    }
+
+    private Pool pool(String algorithm) {
+        Pool pool = this.pools.get(algorithm);
+        if (pool == null) {
+            pool = this.pools.computeIfAbsent(algorithm, a -> new Pool(this.createDigest(a)));
+        }
+        return pool;
+    }
+
+    private MessageDigest createDigest(String algorithm) {
+        if (TreeHashDigest.ALGORITHM.equals(algorithm)) {
+            return new TreeHashDigest(this);
+        }
+        if (this.provider != null && !this.unsupported.contains(algorithm)) {
+            try {
+                return MessageDigest.getInstance(algorithm, this.provider);
+            } catch (NoSuchAlgorithmException ex) {
+                this.fallBack(algorithm);
+            }
+        }
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (final NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(algorithm + " not available?", ex);
+        }
+    }
+
+    private static Provider instantiate(String className) {
+        try {
+            Object o = Class.forName(className).getConstructor().newInstance();
+            if (!(o instanceof Provider)) {
+                throw new IllegalArgumentException(className + " is not a " + Provider.class.getName());
+            }
+            return (Provider)o;
+        } catch (ClassNotFoundException ex) {
+            throw new IllegalArgumentException("No JCA provider installed named " + className + ", nor is there a class of that name");
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalArgumentException("Failed to instantiate JCA provider " + className, ex);
+        }
+    }
+
+    /**
+     * Idle digests of a single algorithm. Borrowing takes any idle digest, or creates a new one if there are none;
+     * releasing keeps the digest only if there's a free slot, so the pool never holds more than {@link #POOL_SIZE}.
+     */
+    private final class Pool {
+
+        final MessageDigest prototype;
+        final AtomicReferenceArray<MessageDigest> idle = new AtomicReferenceArray<>(POOL_SIZE);
+        volatile boolean cloneable = true;
+
+        Pool(MessageDigest prototype) {
+            this.prototype = prototype;
+        }
+
+        MessageDigest newInstance() {
+            if (this.cloneable) {
+                try {
+                    // The prototype is never updated, so is safe to clone concurrently
+                    return (MessageDigest)this.prototype.clone();
+                } catch (CloneNotSupportedException ex) {
+                    // Some providers don't support cloning, fall back to looking up the algorithm every time
+                    this.cloneable = false;
+                }
+            }
+            return CryptoProvider.this.createDigest(this.prototype.getAlgorithm());
+        }
+
+        MessageDigest borrow() {
+            int start = slot();
+            for (int i = 0; i < POOL_SIZE; i++) {
+                MessageDigest md = this.idle.getAndSet((start + i) % POOL_SIZE, null);
+                if (md != null) {
+                    return md;
+                }
+            }
+            return this.newInstance();
+        }
+
+        void release(MessageDigest md) {
+            md.reset();
+            int start = slot();
+            for (int i = 0; i < POOL_SIZE; i++) {
+                if (this.idle.compareAndSet((start + i) % POOL_SIZE, null, md)) {
+                    return;
+                }
+            }
+        }
+
+        // Spread threads over the slots, to limit contention when they're all busy
+        private int slot() {
+            return (int)(Thread.currentThread().getId() % POOL_SIZE);
+        }
+    }
+}
@@ -1,21 +1,66 @@
 package com.boku.util;
 
+import java.nio.ByteBuffer;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
 
 /**
- * Util for getting {@link MessageDigest}s.
- *
- * Note if we need to support other types of entity digest, we will need to plug in support for getting a digest based
- * on the scheme referenced in the Authorization header.
+ * Util for getting {@link MessageDigest}s from the default providers, i.e. {@link CryptoProvider#DEFAULT}.<br>
+ * <br>
+ * Which digest an entity needs depends on the scheme referenced in the Authorization header, see
+ * {@link com.boku.auth.http.httpsigner.SignatureScheme#newDigest()}.<br>
+ * <br>
+ * Looking up a digest by name via its provider is slow compared to digesting a typical entity, so new digests are
+ * cloned from a prototype kept per algorithm, and the one-shot digest methods here borrow an idle digest from a small
+ * pool per algorithm and return it afterwards. The pool is lock free and not tied to threads, so it works the same for
+ * platform and virtual threads.
  */
 public class DigestFactory {
 
+    public static final String SHA256 = "SHA-256";
+
     public static MessageDigest getSHA256() {
-        try {
-            return MessageDigest.getInstance("SHA-256");
-        } catch (final NoSuchAlgorithmException ex) {
-            throw new IllegalStateException("SHA-256 not available?", ex);
-        }
+        return get(SHA256);
+    }
+
+    /**
+     * @param algorithm A {@link MessageDigest} algorithm name, e.g. SHA-512/256, or {@link TreeHashDigest#ALGORITHM}
+     * @return A new digest, which the caller may use exclusively
+     * @throws IllegalStateException If the algorithm is not available
+     */
+    public static MessageDigest get(String algorithm) {
+        return CryptoProvider.DEFAULT.getDigest(algorithm);
+    }
+
+    /**
+     * Digest the given data with a pooled digest.
+     *
+     * @throws IllegalStateException If the algorithm is not available
+     */
+    public static byte[] digest(String algorithm, byte[] data) {
+        return CryptoProvider.DEFAULT.digest(algorithm, data);
+    }
+
+    /**
+     * Digest the remaining bytes of the given buffer with a pooled digest. The position of the buffer is left
+     * unchanged.
+     *
+     * @throws IllegalStateException If the algorithm is not available
+     */
+    public static byte[] digest(String algorithm, ByteBuffer data) {
+        return CryptoProvider.DEFAULT.digest(algorithm, data);
+    }
+
+    /**
+     * As per {@link #digest(String, byte[])}, hex encoded.
+     */
+    public static String digestHex(String algorithm, byte[] data) {
+        return HexCodec.encodeString(digest(algorithm, data));
+    }
+
+    /**
+     * As per {@link #digest(String, ByteBuffer)}, hex encoded.
+     */
+    public static String digestHex(String algorithm, ByteBuffer data) {
+        return HexCodec.encodeString(digest(algorithm, data));
     }
 }
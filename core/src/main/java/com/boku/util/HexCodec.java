@@ -1,14 +1,43 @@
 package com.boku.util;
 
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 /**
- * Simple hex encoder.<br>
+ * Simple hex encoder and decoder.<br>
+ * <br>
+ * Encoding looks up both digits of each byte at once in a 256 entry table, and decoding looks up each digit in a table
+ * of ASCII. Besides the String forms, data may be encoded into or decoded from caller supplied buffers, so that hot
+ * paths need not allocate.<br>
  * <br>
  * If you have Apache commons-codec on the classpath, you can replace this with
  * org.apache.commons.codec.binary.Hex
  */
 public class HexCodec {
 
-    private static final char[] DIGITS = "0123456789abcdef".toCharArray();
+    // Both lower-case digits of byte b at [2b] and [2b + 1]
+    private static final byte[] PAIRS = new byte[512];
+    private static final char[] CHAR_PAIRS = new char[512];
+
+    // Value of each ASCII hex digit, or -1 if not a hex digit
+    private static final byte[] VALUES = new byte[128];
+
+    static {
+        byte[] digits = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+        for (int b = 0; b < 256; b++) {
+            PAIRS[2 * b] = digits[b >>> 4];
+            PAIRS[2 * b + 1] = digits[b & 0x0F];
+            CHAR_PAIRS[2 * b] = (char)PAIRS[2 * b];
+            CHAR_PAIRS[2 * b + 1] = (char)PAIRS[2 * b + 1];
+        }
+        Arrays.fill(VALUES, (byte)-1);
+        for (int i = 0; i < 16; i++) {
+            VALUES[digits[i]] = (byte)i;
+            VALUES[Character.toUpperCase(digits[i])] = (byte)i;
+        }
+    }
 
     /**
      * Encode the given byte array as a lower-case hexadecimal string.
@@ -17,12 +46,155 @@ public class HexCodec {
      * @return The hex encoded string. Does not return null.
      */
     public static String encodeString(byte[] in) {
-        char[] hex = new char[in.length * 2];
-        for (int i = 0, o = 0; i < in.length; i++) {
-            hex[o++] = DIGITS[(0xF0 & in[i]) >>> 4];
-            hex[o++] = DIGITS[0x0F & in[i]];
+        // Strings of Latin-1 characters are stored as bytes, so this copies the encoded bytes straight in, where a
+        // char[] would have to be compressed
+        return new String(encodeAscii(in), StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Encode the given byte array as lower-case hexadecimal ASCII, e.g. to write straight to a canonical byte stream.
+     *
+     * @return The encoded data, twice the length of the input. Does not return null.
+     */
+    public static byte[] encodeAscii(byte[] in) {
+        byte[] out = new byte[in.length * 2];
+        encode(in, 0, in.length, out, 0);
+        return out;
+    }
+
+    /**
+     * Encode len bytes of in, starting from inOffset, as lower-case hexadecimal ASCII into out, starting from outOffset.
+     *
+     * @return The offset in out following the encoded data
+     * @throws IndexOutOfBoundsException If the input range is out of bounds, or out is too short
+     */
+    public static int encode(byte[] in, int inOffset, int len, byte[] out, int outOffset) {
+        checkRange(in.length, inOffset, len);
+        checkRange(out.length, outOffset, len * 2);
+        for (int i = inOffset, o = outOffset, end = inOffset + len; i < end; i++) {
+            int p = (in[i] & 0xFF) << 1;
+            out[o++] = PAIRS[p];
+            out[o++] = PAIRS[p + 1];
+        }
+        return outOffset + len * 2;
+    }
+
+    /**
+     * As per {@link #encode(byte[], int, int, byte[], int)}, into a char array.
+     */
+    public static int encode(byte[] in, int inOffset, int len, char[] out, int outOffset) {
+        checkRange(in.length, inOffset, len);
+        checkRange(out.length, outOffset, len * 2);
+        for (int i = inOffset, o = outOffset, end = inOffset + len; i < end; i++) {
+            int p = (in[i] & 0xFF) << 1;
+            out[o++] = CHAR_PAIRS[p];
+            out[o++] = CHAR_PAIRS[p + 1];
+        }
+        return outOffset + len * 2;
+    }
+
+    /**
+     * Encode the given data as lower-case hexadecimal ASCII into out at its position, advancing the position past the
+     * encoded data.
+     *
+     * @throws BufferOverflowException If out has less than twice the length of in remaining
+     */
+    public static void encode(byte[] in, ByteBuffer out) {
+        if (out.hasArray()) {
+            int position = out.position();
+            if (out.remaining() < in.length * 2) {
+                throw new BufferOverflowException();
+            }
+            encode(in, 0, in.length, out.array(), out.arrayOffset() + position);
+            out.position(position + in.length * 2);
+        } else {
+            out.put(encodeAscii(in));
+        }
+    }
+
+    /**
+     * Decode the given hexadecimal string, which may use upper or lower case digits.
+     *
+     * @param hex The hex encoded data
+     * @return The decoded data. Does not return null.
+     * @throws IllegalArgumentException If the input is of odd length or contains a non-hex character
+     */
+    public static byte[] decode(CharSequence hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Odd number of hex digits, " + hex.length());
+        }
+        byte[] out = new byte[hex.length() / 2];
+        decodeInto(hex, out, 0);
+        return out;
+    }
+
+    /**
+     * Decode the given hexadecimal string, which may use upper or lower case digits, into out starting from offset,
+     * e.g. to check a presented signature against the expected one without allocating.
+     *
+     * @return The number of bytes decoded, i.e. half the length of hex
+     * @throws IllegalArgumentException If the input is of odd length or contains a non-hex character
+     * @throws IndexOutOfBoundsException If out is too short
+     */
+    public static int decodeInto(CharSequence hex, byte[] out, int offset) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Odd number of hex digits, " + hex.length());
+        }
+        int len = hex.length() / 2;
+        checkRange(out.length, offset, len);
+        for (int i = 0, o = offset, end = offset + len; o < end; o++) {
+            int hi = digit(hex, i++);
+            int lo = digit(hex, i++);
+            out[o] = (byte)((hi << 4) | lo);
+        }
+        return len;
+    }
+
+    /**
+     * Check whether the given hex string is exactly the lower-case hex encoding of the given data, i.e. the same result
+     * as <code>encodeString(data).equals(hex)</code>, but without allocating anything, and taking time independent of
+     * where the first difference is, as per {@link java.security.MessageDigest#isEqual}. Only the length of the input
+     * is allowed to affect the time taken.<br>
+     * <br>
+     * Intended for checking a signature presented by a remote peer against the raw MAC output.
+     *
+     * @param data The expected data, e.g. the MAC output
+     * @param hex The presented hex string. May be null, in which case the result is false.
+     * @return true if hex is the encoding of data
+     */
+    public static boolean isEqual(byte[] data, CharSequence hex) {
+        if (hex == null || hex.length() != data.length * 2) {
+            return false;
+        }
+        int diff = 0;
+        for (int i = 0, h = 0; i < data.length; i++) {
+            diff |= digitChar((data[i] >>> 4) & 0x0F) ^ hex.charAt(h++);
+            diff |= digitChar(data[i] & 0x0F) ^ hex.charAt(h++);
+        }
+        return diff == 0;
+    }
+
+    /**
+     * Lower-case hex digit for the given nibble, computed without branches or table lookups so as not to leak the
+     * value through timing.
+     */
+    private static int digitChar(int nibble) {
+        return nibble + '0' + (((9 - nibble) >> 31) & ('a' - '0' - 10));
+    }
+
+    private static int digit(CharSequence hex, int index) {
+        char c = hex.charAt(index);
+        int value = c < VALUES.length ? VALUES[c] : -1;
+        if (value < 0) {
+            throw new IllegalArgumentException("Invalid hex digit at index " + index);
+        }
+        return value;
+    }
+
+    private static void checkRange(int length, int offset, int len) {
+        if (offset < 0 || len < 0 || offset > length - len) {
+            throw new IndexOutOfBoundsException("Range [" + offset + ", " + offset + " + " + len + ") out of bounds for length " + length);
         }
-        return new String(hex);
     }
 
 }
@@ -0,0 +1,100 @@
+package com.boku.util;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded, lossy intern table for short strings which recur across many messages, such as partner IDs, key IDs and
+ * header names.<br>
+ * <br>
+ * Lookups hash and compare a region of a {@link CharSequence} in place, so a value already in the table is returned
+ * without allocating anything. The table has a fixed number of slots and a new value simply replaces whatever was in
+ * the slot it hashes to, so memory use stays bounded however many distinct values are seen, e.g. from untrusted input;
+ * the cost is that a rarely seen value may be allocated afresh each time. Values longer than the configured maximum
+ * are never interned.<br>
+ * <br>
+ * Thread safe and lock free.
+ */
+public final class Interner {
+
+    private final AtomicReferenceArray<String> table;
+    private final int mask;
+    private final int maxLength;
+
+    /**
+     * @param capacity Number of slots in the table, rounded up to a power of two
+     * @param maxLength Values longer than this are returned as new Strings, without being interned
+     */
+    public Interner(int capacity, int maxLength) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("capacity must be between 1 and 2^30, got " + capacity);
+        }
+        if (maxLength < 0) {
+            throw new IllegalArgumentException("maxLength cannot be negative, got " + maxLength);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.table = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+        this.maxLength = maxLength;
+    }
+
+    /**
+     * @return An equal String, which is the same instance as that returned by previous calls for the same value, unless
+     *         it has since been displaced. Null if given null.
+     */
+    public String intern(String s) {
+        if (s == null) {
+            return null;
+        }
+        return this.intern(s, 0, s.length());
+    }
+
+    /**
+     * As per {@link #intern(String)}, for the given region of a {@link CharSequence}.
+     *
+     * @param start Start of the region, inclusive
+     * @param end End of the region, exclusive
+     */
+    public String intern(CharSequence in, int start, int end) {
+        if (end - start > this.maxLength) {
+            return in.subSequence(start, end).toString();
+        }
+
+        // Same as String.hashCode(), which Strings cache, so comparing it first rules out most mismatches cheaply
+        int h = 0;
+        for (int i = start; i < end; i++) {
+            h = 31 * h + in.charAt(i);
+        }
+        int spread = h ^ (h >>> 16);
+
+        // Two candidate slots, so that a pair of common values which collide can both stay resident
+        int i1 = spread & this.mask;
+        String s1 = this.table.getAcquire(i1);
+        if (s1 != null && matches(s1, h, in, start, end)) {
+            return s1;
+        }
+        int i2 = (i1 + ((spread >>> 12) | 1)) & this.mask;
+        String s2 = this.table.getAcquire(i2);
+        if (s2 != null && matches(s2, h, in, start, end)) {
+            return s2;
+        }
+
+        String ret = in.subSequence(start, end).toString();
+        this.table.setRelease(s1 == null || (s2 != null && (h & 1) == 0) ? i1 : i2, ret);
+        return ret;
+    }
+
+    private static boolean matches(String s, int hash, CharSequence in, int start, int end) {
+        if (s.length() != end - start || s.hashCode() != hash) {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++) {
+            if (s.charAt(i) != in.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,264 @@
+package com.boku.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntFunction;
+
+/**
+ * SHA-256 tree hash, which unlike a plain SHA-256 digest can be calculated on several cores at once.<br>
+ * <br>
+ * The input is split into chunks of {@link #CHUNK_SIZE} bytes, the last of which may be shorter, and empty input has
+ * no chunks at all. Each chunk is hashed as SHA-256(0x00 || chunk), and the digest is then
+ * SHA-256(0x01 || hash of chunk 0 || hash of chunk 1 || ...). The prefix bytes keep chunk and root hashes apart, so
+ * one can't be passed off as the other.<br>
+ * <br>
+ * Used as a {@link MessageDigest}, this hashes incrementally on the calling thread, for data that is streamed. Where
+ * all the data is available up front, in a buffer or a file, use the static digest methods instead, which hash the
+ * chunks in parallel on a {@link ForkJoinPool}, using digests from the default providers or a given
+ * {@link CryptoProvider}. Both give the same result.
+ */
+public final class TreeHashDigest extends MessageDigest {
+
+    /**
+     * The algorithm name, which {@link DigestFactory#get(String)} recognises
+     */
+    public static final String ALGORITHM = "TREE-SHA-256";
+
+    public static final int CHUNK_SIZE = 1 << 20;
+
+    private static final int DIGEST_LENGTH = 32;
+    private static final byte CHUNK_PREFIX = 0;
+    private static final byte ROOT_PREFIX = 1;
+
+    private final MessageDigest chunkDigest;
+    private final MessageDigest rootDigest;
+    private int chunkLength;
+
+    public TreeHashDigest() {
+        this(CryptoProvider.DEFAULT);
+    }
+
+    /**
+     * @param provider Where to get the underlying SHA-256 digests from
+     */
+    public TreeHashDigest(CryptoProvider provider) {
+        super(ALGORITHM);
+        this.chunkDigest = provider.getDigest(DigestFactory.SHA256);
+        this.rootDigest = provider.getDigest(DigestFactory.SHA256);
+        this.rootDigest.update(ROOT_PREFIX);
+    }
+
+    /**
+     * Digest the given data, hashing its chunks in parallel.
+     *
+     * @param pool Pool to hash the chunks on, or null to hash them on the calling thread
+     */
+    public static byte[] digest(byte[] data, ForkJoinPool pool) {
+        return digest(data, pool, CryptoProvider.DEFAULT);
+    }
+
+    /**
+     * As per {@link #digest(byte[], ForkJoinPool)}, with SHA-256 digests from the given provider.
+     */
+    public static byte[] digest(byte[] data, ForkJoinPool pool, CryptoProvider provider) {
+        return digest(ByteBuffer.wrap(data), pool, provider);
+    }
+
+    /**
+     * Digest the remaining bytes of the given buffer, hashing its chunks in parallel. The position of the buffer is
+     * left unchanged.
+     *
+     * @param pool Pool to hash the chunks on, or null to hash them on the calling thread
+     */
+    public static byte[] digest(ByteBuffer data, ForkJoinPool pool) {
+        return digest(data, pool, CryptoProvider.DEFAULT);
+    }
+
+    /**
+     * As per {@link #digest(ByteBuffer, ForkJoinPool)}, with SHA-256 digests from the given provider.
+     */
+    public static byte[] digest(ByteBuffer data, ForkJoinPool pool, CryptoProvider provider) {
+        ByteBuffer buffer = data.slice();
+        int size = buffer.remaining();
+        return digestChunks(size, pool, provider, chunk -> {
+            int offset = chunk * CHUNK_SIZE;
+            return hashChunk(buffer.slice(offset, Math.min(CHUNK_SIZE, size - offset)), provider);
+        });
+    }
+
+    /**
+     * Digest the contents of the given file, reading and hashing its chunks in parallel.
+     *
+     * @param pool Pool to hash the chunks on, or null to hash them on the calling thread
+     */
+    public static byte[] digest(Path file, ForkJoinPool pool) throws IOException {
+        return digest(file, pool, CryptoProvider.DEFAULT);
+    }
+
+    /**
+     * As per {@link #digest(Path, ForkJoinPool)}, with SHA-256 digests from the given provider.
+     */
+    public static byte[] digest(Path file, ForkJoinPool pool, CryptoProvider provider) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            return digestChunks(size, pool, provider, chunk -> {
+                long offset = (long)chunk * CHUNK_SIZE;
+                ByteBuffer buffer = ByteBuffer.allocate((int)Math.min(CHUNK_SIZE, size - offset));
+                try {
+                    while (buffer.hasRemaining()) {
+                        if (channel.read(buffer, offset + buffer.position()) < 0) {
+                            throw new IOException(file + " was truncated while being digested");
+                        }
+                    }
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+                return hashChunk(buffer.flip(), provider);
+            });
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+    }
+
+    @Override
+    protected void engineUpdate(byte input) {
+        this.engineUpdate(new byte[]{ input }, 0, 1);
+    }
+
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        while (len > 0) {
+            int n = this.startChunk(len);
+            this.chunkDigest.update(input, offset, n);
+            this.endChunk(n);
+            offset += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    protected void engineUpdate(ByteBuffer input) {
+        while (input.hasRemaining()) {
+            int n = this.startChunk(input.remaining());
+            int limit = input.limit();
+            input.limit(input.position() + n);
+            this.chunkDigest.update(input);
+            input.limit(limit);
+            this.endChunk(n);
+        }
+    }
+
+    @Override
+    protected byte[] engineDigest() {
+        if (this.chunkLength > 0) {
+            this.rootDigest.update(this.chunkDigest.digest());
+        }
+        byte[] digest = this.rootDigest.digest();
+        this.engineReset();
+        return digest;
+    }
+
+    @Override
+    protected void engineReset() {
+        this.chunkDigest.reset();
+        this.rootDigest.reset();
+        this.rootDigest.update(ROOT_PREFIX);
+        this.chunkLength = 0;
+    }
+
+    @Override
+    protected int engineGetDigestLength() {
+        return DIGEST_LENGTH;
+    }
+
+    /**
+     * @return How many of the next len bytes go in the current chunk, starting it if need be
+     */
+    private int startChunk(int len) {
+        if (this.chunkLength == 0) {
+            this.chunkDigest.update(CHUNK_PREFIX);
+        }
+        return Math.min(len, CHUNK_SIZE - this.chunkLength);
+    }
+
+    private void endChunk(int n) {
+        this.chunkLength += n;
+        if (this.chunkLength == CHUNK_SIZE) {
+            this.rootDigest.update(this.chunkDigest.digest());
+            this.chunkLength = 0;
+        }
+    }
+
+    private static int chunkCount(long size) {
+        long chunks = (size + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        if (chunks > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too large to digest, got " + size + " bytes");
+        }
+        return (int)chunks;
+    }
+
+    private static byte[] digestChunks(long size, ForkJoinPool pool, CryptoProvider provider, IntFunction<byte[]> hashChunk) {
+        byte[][] chunkHashes = new byte[chunkCount(size)][];
+        if (pool == null || chunkHashes.length <= 1) {
+            for (int i = 0; i < chunkHashes.length; i++) {
+                chunkHashes[i] = hashChunk.apply(i);
+            }
+        } else {
+            pool.invoke(new ChunkTask(hashChunk, chunkHashes, 0, chunkHashes.length));
+        }
+
+        MessageDigest md = provider.getDigest(DigestFactory.SHA256);
+        md.update(ROOT_PREFIX);
+        for (byte[] chunkHash : chunkHashes) {
+            md.update(chunkHash);
+        }
+        return md.digest();
+    }
+
+    private static byte[] hashChunk(ByteBuffer chunk, CryptoProvider provider) {
+        MessageDigest md = provider.getDigest(DigestFactory.SHA256);
+        md.update(CHUNK_PREFIX);
+        md.update(chunk);
+        return md.digest();
+    }
+
+    /**
+     * Hashes a range of chunks, splitting it in half until there is one chunk per task.
+     */
+    private static final class ChunkTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final IntFunction<byte[]> hashChunk;
+        private final byte[][] chunkHashes;
+        private final int from;
+        private final int to;
+
+        ChunkTask(IntFunction<byte[]> hashChunk, byte[][] chunkHashes, int from, int to) {
+            this.hashChunk = hashChunk;
+            this.chunkHashes = chunkHashes;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from == 1) {
+                this.chunkHashes[this.from] = this.hashChunk.apply(this.from);
+                return;
+            }
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(
+                new ChunkTask(this.hashChunk, this.chunkHashes, this.from, mid),
+                new ChunkTask(this.hashChunk, this.chunkHashes, mid, this.to)
+            );
+        }
+    }
+}
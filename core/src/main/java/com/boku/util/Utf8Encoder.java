@@ -0,0 +1,156 @@
+package com.boku.util;
+
+/**
+ * Incremental UTF-8 encoder which writes to a {@link Sink} through a small fixed size buffer.<br>
+ * <br>
+ * Intended for feeding text into a digest or MAC without first building it up as a String and then copying it again
+ * into a byte array. The bytes produced are identical to calling {@link String#getBytes(java.nio.charset.Charset)
+ * getBytes(UTF_8)} on the concatenation of everything appended, including replacing unpaired surrogates with '?'.<br>
+ * <br>
+ * Not thread safe. Call {@link #flush()} after appending the last of the text, after which the encoder may be reused.
+ */
+public class Utf8Encoder implements Appendable {
+
+    /**
+     * Receives encoded bytes, e.g. {@link javax.crypto.Mac#update(byte[], int, int)}.
+     */
+    public interface Sink {
+        void write(byte[] b, int off, int len);
+    }
+
+    private static final int DEFAULT_BUFFER_SIZE = 256;
+    private static final int MIN_BUFFER_SIZE = 32;
+    private static final byte REPLACEMENT = '?';
+
+    private final byte[] buf;
+    private final Sink sink;
+    private int pos = 0;
+    private char highSurrogate = 0;
+
+    public Utf8Encoder(Sink sink) {
+        this(sink, DEFAULT_BUFFER_SIZE);
+    }
+
+    public Utf8Encoder(Sink sink, int bufferSize) {
+        if (bufferSize < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("bufferSize must be at least " + MIN_BUFFER_SIZE + ", got " + bufferSize);
+        }
+        this.sink = sink;
+        this.buf = new byte[bufferSize];
+    }
+
+    @Override
+    public Utf8Encoder append(CharSequence csq) {
+        if (csq == null) {
+            csq = "null";
+        }
+        return this.append(csq, 0, csq.length());
+    }
+
+    @Override
+    public Utf8Encoder append(CharSequence csq, int start, int end) {
+        if (csq == null) {
+            csq = "null";
+        }
+        int i = start;
+        while (i < end) {
+            if (this.highSurrogate == 0) {
+                // Fast path for runs of ASCII, which is almost everything we sign
+                byte[] buf = this.buf;
+                int pos = this.pos;
+                int n = Math.min(end - i, buf.length - pos);
+                int stop = i + n;
+                while (i < stop) {
+                    char c = csq.charAt(i);
+                    if (c >= 0x80) {
+                        break;
+                    }
+                    buf[pos++] = (byte)c;
+                    i++;
+                }
+                this.pos = pos;
+                if (pos == buf.length) {
+                    this.drain();
+                    continue;
+                }
+                if (i == end) {
+                    break;
+                }
+            }
+            this.append(csq.charAt(i++));
+        }
+        return this;
+    }
+
+    @Override
+    public Utf8Encoder append(char c) {
+        if (this.highSurrogate != 0) {
+            if (Character.isLowSurrogate(c)) {
+                this.ensureSpace(4);
+                int cp = Character.toCodePoint(this.highSurrogate, c);
+                this.highSurrogate = 0;
+                this.buf[this.pos++] = (byte)(0xF0 | (cp >> 18));
+                this.buf[this.pos++] = (byte)(0x80 | ((cp >> 12) & 0x3F));
+                this.buf[this.pos++] = (byte)(0x80 | ((cp >> 6) & 0x3F));
+                this.buf[this.pos++] = (byte)(0x80 | (cp & 0x3F));
+                return this;
+            }
+            this.endPendingSurrogate();
+        }
+
+        this.ensureSpace(3);
+        if (c < 0x80) {
+            this.buf[this.pos++] = (byte)c;
+        } else if (c < 0x800) {
+            this.buf[this.pos++] = (byte)(0xC0 | (c >> 6));
+            this.buf[this.pos++] = (byte)(0x80 | (c & 0x3F));
+        } else if (Character.isHighSurrogate(c)) {
+            this.highSurrogate = c;
+        } else if (Character.isLowSurrogate(c)) {
+            this.buf[this.pos++] = REPLACEMENT;
+        } else {
+            this.buf[this.pos++] = (byte)(0xE0 | (c >> 12));
+            this.buf[this.pos++] = (byte)(0x80 | ((c >> 6) & 0x3F));
+            this.buf[this.pos++] = (byte)(0x80 | (c & 0x3F));
+        }
+        return this;
+    }
+
+    /**
+     * Write out everything appended so far. A trailing unpaired high surrogate is written as '?'.
+     */
+    public void flush() {
+        this.endPendingSurrogate();
+        this.drain();
+    }
+
+    /**
+     * Discard anything appended but not yet written out, e.g. after the text being appended failed part way, so that
+     * this encoder can be reused.
+     */
+    public void reset() {
+        this.pos = 0;
+        this.highSurrogate = 0;
+    }
+
+    private void endPendingSurrogate() {
+        if (this.highSurrogate != 0) {
+            this.highSurrogate = 0;
+            this.ensureSpace(1);
+            this.buf[this.pos++] = REPLACEMENT;
+        }
+    }
+
+    private void ensureSpace(int n) {
+        if (this.buf.length - this.pos < n) {
+            this.drain();
+        }
+    }
+
+    private void drain() {
+        if (this.pos > 0) {
+            this.sink.write(this.buf, 0, this.pos);
+            this.pos = 0;
+        }
+    }
+}
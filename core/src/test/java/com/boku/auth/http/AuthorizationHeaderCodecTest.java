@@ -0,0 +1,217 @@
+package com.boku.auth.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks {@link AuthorizationHeaderCodec} against the original String.split based implementation, kept here as
+ * {@link #referenceParse}, over a corpus of test vectors plus randomly mangled variants of them.
+ */
+public class AuthorizationHeaderCodecTest {
+
+    private static final String[] CORPUS = {
+        "2/HMAC_SHA256(H+SHA256(E)) partner-id=bob, key-id=123, signed-headers=Content-Type;X-Forwarded-For, timestamp=140972658382, signature=af5938faf97a7f7a7f778af, requires-canonicalize=true",
+        "2/HMAC_SHA256(H+SHA256(E)) partner-id=bob, key-id=123, timestamp=140972658382, signature=af5938faf97a7f7a7f778af",
+        "2/HMAC_SHA256(H+SHA256(E)) ,partner-id=bob, key-id=123, , signed-headers=Content-Type;X-Forwarded-For,, timestamp=140972658382 ,signature=af5938faf97a7f7a7f778af, requires-canonicalize=true, ",
+        "2/HMAC_SHA256(H+SHA256(E)) partner-id=bob, key-id=123, signed-headers=, timestamp=140972658382, signature=af5938faf97a7f7a7f778af",
+        "2/HMAC_SHA256(H+SHA256(E)) x=y",
+        "2/HMAC_SHA256(H+SHA256(E))",
+        "2/HMAC_SHA256(H+SHA256(E)) timestamp=foo",
+        "  \t2/HMAC_SHA256(H+SHA256(E))\t\r\n partner-id=bob  ,\tkey-id=1 \u0001 ",
+        "scheme partner-id=bob key-id=1, timestamp=1",
+        "scheme partner-id==bob, key-id=, signature= \u0001 , timestamp=+17",
+        "scheme timestamp=-9223372036854775808, signature=a=b=c",
+        "scheme timestamp=9223372036854775808",
+        "scheme timestamp=١٢",
+        "scheme timestamp=-",
+        "scheme timestamp=1 2",
+        "scheme signed-headers=;;a;;b;;",
+        "scheme signed-headers=;;;",
+        "scheme signed-headers= a ; b ",
+        "scheme signed-headers=a, signed-headers=b;c",
+        "scheme requires-canonicalize=TRUE",
+        "scheme requires-canonicalize=yes",
+        "scheme requires-canonicalize=false",
+        "scheme Partner-ID=bob, partner-id=alice, partner-id=carol",
+        "scheme =bob, =, ,,,",
+        "scheme ,",
+        "scheme\u000Bpartner-id=bob",
+        "scheme\u0001partner-id=bob",
+        "scheme \u0001partner-id=bob",
+        "café partner-id=böb",
+        "",
+        "   ",
+        "\u0000",
+    };
+
+    @Test
+    public void testCorpus() {
+        for (String s : CORPUS) {
+            assertSameAsReference(s);
+        }
+    }
+
+    @Test
+    public void testMangledCorpus() {
+        Random rnd = new Random(42);
+        char[] alphabet = { ' ', '\t', '\n', '\u000B', '\u0001', ',', '=', ';', '-', '+', '0', '9', 'a', 'T', 'é' };
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder sb = new StringBuilder(CORPUS[rnd.nextInt(CORPUS.length)]);
+            int edits = 1 + rnd.nextInt(4);
+            for (int j = 0; j < edits; j++) {
+                int pos = sb.length() == 0 ? 0 : rnd.nextInt(sb.length());
+                char c = alphabet[rnd.nextInt(alphabet.length)];
+                if (sb.length() > 0 && rnd.nextBoolean()) {
+                    sb.setCharAt(pos, c);
+                } else {
+                    sb.insert(pos, c);
+                }
+            }
+            assertSameAsReference(sb.toString());
+        }
+    }
+
+    @Test
+    public void testByteBufferRegion() {
+        String header = CORPUS[0];
+        byte[] padded = ("xx" + header + "yy").getBytes(StandardCharsets.ISO_8859_1);
+
+        AuthorizationHeader fromArray = AuthorizationHeader.parse(padded, 2, header.length());
+        Assert.assertEquals(header, fromArray.toString());
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(padded.length);
+        direct.put(padded).position(2).limit(2 + header.length());
+        AuthorizationHeader fromDirect = AuthorizationHeader.parse(direct);
+        Assert.assertEquals(header, fromDirect.toString());
+        Assert.assertEquals(2, direct.position());
+    }
+
+    @Test
+    public void testToStringAppends() {
+        AuthorizationHeader ah = AuthorizationHeader.parse(CORPUS[0]);
+        Assert.assertEquals("> " + CORPUS[0], ah.toString(new StringBuilder("> ")).toString());
+    }
+
+    @Test
+    public void testCompact() {
+        CompactAuthorizationHeader compact = CompactAuthorizationHeader.parse(CORPUS[0]);
+        Assert.assertEquals(CORPUS[0], compact.toString());
+        Assert.assertEquals(2, compact.getSignedHeaderCount());
+        Assert.assertEquals("X-Forwarded-For", compact.getSignedHeader(1));
+        Assert.assertEquals(Arrays.asList("Content-Type", "X-Forwarded-For"), compact.getSignedHeaders());
+        Assert.assertTrue(compact.hasTimestamp());
+        Assert.assertEquals(140972658382L, compact.getTimestamp());
+        Assert.assertEquals(compact, CompactAuthorizationHeader.of(compact.toAuthorizationHeader()));
+        Assert.assertEquals(compact.hashCode(), CompactAuthorizationHeader.of(compact.toAuthorizationHeader()).hashCode());
+
+        ByteBuffer bytes = ByteBuffer.wrap(CORPUS[0].getBytes(StandardCharsets.ISO_8859_1));
+        Assert.assertEquals(compact, CompactAuthorizationHeader.parse(bytes));
+
+        // Identifiers are shared between parses, the signature is not interned
+        CompactAuthorizationHeader again = CompactAuthorizationHeader.parse(new StringBuilder(CORPUS[0]));
+        Assert.assertSame(compact.getScheme(), again.getScheme());
+        Assert.assertSame(compact.getPartnerId(), again.getPartnerId());
+        Assert.assertSame(compact.getKeyId(), again.getKeyId());
+        Assert.assertSame(compact.getSignedHeader(0), again.getSignedHeader(0));
+        Assert.assertNotSame(compact.getSignature(), again.getSignature());
+
+        CompactAuthorizationHeader noTimestamp = CompactAuthorizationHeader.parse("scheme partner-id=bob");
+        Assert.assertFalse(noTimestamp.hasTimestamp());
+        Assert.assertNull(noTimestamp.toAuthorizationHeader().getTimestamp());
+        Assert.assertNotEquals(noTimestamp, CompactAuthorizationHeader.parse("scheme partner-id=bob, timestamp=0"));
+    }
+
+    private static void assertSameAsReference(String headerValue) {
+        String expected = describe(() -> referenceParse(headerValue));
+        Assert.assertEquals(headerValue, expected, describe(() -> AuthorizationHeader.parse(headerValue)));
+        Assert.assertEquals(headerValue, expected, describe(() -> AuthorizationHeader.parse(new StringBuilder(headerValue))));
+        Assert.assertEquals(headerValue, expected, describe(() -> CompactAuthorizationHeader.parse(headerValue).toAuthorizationHeader()));
+        Assert.assertEquals(headerValue, expected, describe(() -> CompactAuthorizationHeader.of(AuthorizationHeader.parse(headerValue)).toAuthorizationHeader()));
+
+        boolean latin1 = headerValue.chars().allMatch(c -> c < 0x100);
+        if (latin1) {
+            byte[] bytes = headerValue.getBytes(StandardCharsets.ISO_8859_1);
+            Assert.assertEquals(headerValue, expected, describe(() -> AuthorizationHeader.parse(ByteBuffer.wrap(bytes))));
+        }
+    }
+
+    private interface Parse {
+        AuthorizationHeader parse();
+    }
+
+    /**
+     * All of the parsed fields, or the exception message, in a form that's easy to compare.
+     */
+    private static String describe(Parse p) {
+        AuthorizationHeader ah;
+        try {
+            ah = p.parse();
+        } catch (IllegalArgumentException ex) {
+            return "error: " + ex.getMessage();
+        }
+        return Arrays.asList(
+            ah.getScheme(), ah.getPartnerId(), ah.getKeyId(), ah.getSignedHeaders(), ah.getTimestamp(), ah.getSignature(), ah.getRequiresCanonicalize()
+        ).toString() + " -> " + ah;
+    }
+
+    /**
+     * The original implementation of {@link AuthorizationHeader#parse(String)}.
+     */
+    private static AuthorizationHeader referenceParse(String headerValue) {
+        headerValue = trimToNull(headerValue);
+        if (headerValue == null) {
+            throw new IllegalArgumentException("cannot be empty");
+        }
+
+        AuthorizationHeader ah = new AuthorizationHeader();
+
+        String[] schemeAndPairs = headerValue.split("\\s+", 2);
+        if (schemeAndPairs.length != 2) {
+            throw new IllegalArgumentException("format invalid");
+        }
+        ah.setScheme(schemeAndPairs[0]);
+
+        for (String segment : schemeAndPairs[1].split("\\s*,\\s*")) {
+            String[] kv = segment.split("=", 2);
+            if (kv.length < 2 || trimToNull(kv[1]) == null) {
+                continue;
+            }
+            if ("partner-id".equals(kv[0])) {
+                ah.setPartnerId(kv[1]);
+            } else if ("key-id".equals(kv[0])) {
+                ah.setKeyId(kv[1]);
+            } else if ("signed-headers".equals(kv[0])) {
+                List<String> signedHeaders = new ArrayList<>();
+                signedHeaders.addAll(Arrays.asList(kv[1].split(";")));
+                ah.setSignedHeaders(signedHeaders);
+            } else if ("timestamp".equals(kv[0])) {
+                try {
+                    ah.setTimestamp(Long.valueOf(kv[1]));
+                } catch (NumberFormatException ex) {
+                    throw new IllegalArgumentException("invalid timestamp, " + kv[1]);
+                }
+            } else if ("signature".equals(kv[0])) {
+                ah.setSignature(kv[1]);
+            } else if ("requires-canonicalize".equals(kv[0])) {
+                ah.setRequiresCanonicalize(Boolean.parseBoolean(kv[1]));
+            }
+        }
+
+        return ah;
+    }
+
+    private static String trimToNull(String s) {
+        if (s == null) {
+            return null;
+        }
+        s = s.trim();
+        return s.length() == 0 ? null : s;
+    }
+}
@@ -0,0 +1,86 @@
+package com.boku.auth.http.httpmessage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.boku.auth.http.httpsigner.SignatureScheme;
+import com.boku.util.HexCodec;
+import com.boku.util.TreeHashDigest;
+
+public class EntityDigesterTest {
+
+    private static byte[] randomBytes(int len) {
+        byte[] ret = new byte[len];
+        new Random(len).nextBytes(ret);
+        return ret;
+    }
+
+    @Test
+    public void testEmptyEntity() throws IOException {
+        EntityDigester digester = SignatureScheme.HMAC_SHA256.newEntityDigester();
+        Assert.assertTrue(digester.isEmpty());
+        Assert.assertSame(EntityDigester.NO_ENTITY, digester.digest());
+
+        digester.update(new byte[10], 0, 0);
+        digester.update(ByteBuffer.allocateDirect(0));
+        Assert.assertEquals(0, digester.update(Channels.newChannel(new ByteArrayInputStream(new byte[0]))));
+        Assert.assertNull(digester.digest());
+    }
+
+    @Test
+    public void testSources() throws IOException {
+        byte[] data = randomBytes(3 * TreeHashDigest.CHUNK_SIZE / 2 + 17);
+        Path file = Files.createTempFile("entity", ".bin");
+        try {
+            Files.write(file, data);
+            for (SignatureScheme scheme : new SignatureScheme[]{ SignatureScheme.HMAC_SHA256, SignatureScheme.HMAC_SHA256_TREE }) {
+                String expected = HexCodec.encodeString(scheme.digest(data));
+                EntityDigester digester = scheme.newEntityDigester();
+
+                digester.update(data, 0, data.length);
+                Assert.assertEquals(data.length, digester.getLength());
+                Assert.assertEquals(expected, digester.digest());
+                Assert.assertTrue("Reset by digest()", digester.isEmpty());
+
+                ByteBuffer heap = ByteBuffer.wrap(data);
+                digester.update(heap);
+                Assert.assertFalse(heap.hasRemaining());
+                Assert.assertEquals(expected, digester.digest());
+
+                ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+                direct.put(data).flip();
+                digester.update(direct.slice(0, 1000));
+                direct.position(1000);
+                digester.update(direct);
+                Assert.assertEquals(expected, digester.digest());
+
+                Assert.assertEquals(data.length, digester.update(Channels.newChannel(new ByteArrayInputStream(data))));
+                Assert.assertEquals(expected, digester.digest());
+
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    Assert.assertEquals(data.length, digester.update(channel));
+                    Assert.assertEquals(data.length, channel.position());
+                    Assert.assertEquals(expected, digester.digest());
+
+                    // A region, in parts
+                    Assert.assertEquals(1000, digester.update(channel, 0, 1000));
+                    Assert.assertEquals(data.length - 1000, digester.update(channel, 1000, Long.MAX_VALUE));
+                    Assert.assertEquals(0, digester.update(channel, data.length + 5, 10));
+                    Assert.assertEquals(expected, digester.digest());
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.boku.auth.http.httpsigner;
+
+import java.security.InvalidKeyException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.boku.auth.http.keyprovider.PropertiesKeyProvider;
+import com.boku.auth.http.stringsigner.BasicStringSignerImpl;
+import com.boku.auth.http.stringsigner.SignatureAlgorithm;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DerivedKeyProviderTest {
+
+    // 2026-10-16T12:34:56Z
+    private static final long NOW = 1792154096L;
+
+    private final BasicStringSignerImpl rootSigner;
+    private final AtomicLong clock = new AtomicLong(NOW);
+
+    public DerivedKeyProviderTest() {
+        Map<String, String> keys = new HashMap<>();
+        keys.put("boku.auth.keys.bob.1", "secret");
+        keys.put("boku.auth.keys.bob.a/b", "slashed");
+        this.rootSigner = new BasicStringSignerImpl(new PropertiesKeyProvider(keys));
+    }
+
+    @Test
+    public void testScopeIds() {
+        Assert.assertEquals("20261016", DerivedKeyScope.DAY.scopeId(NOW));
+        Assert.assertEquals("2026101612", DerivedKeyScope.HOUR.scopeId(NOW));
+        Assert.assertEquals("19700101", DerivedKeyScope.DAY.scopeId(0));
+        Assert.assertEquals(NOW - (NOW % 86400), DerivedKeyScope.DAY.startOf("20261016"));
+        Assert.assertEquals(NOW - (NOW % 3600), DerivedKeyScope.HOUR.startOf("2026101612"));
+        for (String bad : new String[]{ null, "", "202610161", "20261016123", "2026131612", "2026-10-16", "2026101624" }) {
+            try {
+                DerivedKeyScope.HOUR.startOf(bad);
+                Assert.fail("Expected IllegalArgumentException for " + bad);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        Assert.assertSame(DerivedKeyScope.DAY, DerivedKeyScope.fromScheme(DerivedKeyScope.DAY.getScheme()));
+        Assert.assertNull(DerivedKeyScope.fromScheme(HttpMessageSigner.SCHEME));
+        Assert.assertNull(DerivedKeyScope.fromScheme(null));
+    }
+
+    @Test
+    public void testDeriveAndCache() throws InvalidKeyException {
+        DerivedKeyProvider kp = new DerivedKeyProvider(this.rootSigner, 300, this.clock::get);
+        String scopedKeyId = DerivedKeyProvider.scopedKeyId("1", DerivedKeyScope.DAY, NOW);
+        Assert.assertEquals("1/DAY/20261016", scopedKeyId);
+
+        String key = kp.get("bob", scopedKeyId);
+        Assert.assertEquals(
+            this.rootSigner.generateSignature(SignatureAlgorithm.HMAC_SHA256, "bob", "1", "BOKU-DERIVED-KEY/1\nDAY\n20261016"),
+            key
+        );
+        Assert.assertEquals(key, kp.get("bob", scopedKeyId));
+        Assert.assertEquals(1, kp.getDerivationCount());
+
+        // Different scopes and keys give different keys
+        String hourKey = kp.get("bob", DerivedKeyProvider.scopedKeyId("1", DerivedKeyScope.HOUR, NOW));
+        Assert.assertNotNull(hourKey);
+        Assert.assertNotEquals(key, hourKey);
+        String slashedKey = kp.get("bob", DerivedKeyProvider.scopedKeyId("a/b", DerivedKeyScope.DAY, NOW));
+        Assert.assertNotNull(slashedKey);
+        Assert.assertNotEquals(key, slashedKey);
+        Assert.assertEquals(3, kp.getDerivationCount());
+        Assert.assertEquals(3, kp.size());
+    }
+
+    @Test
+    public void testUnknownKeys() {
+        DerivedKeyProvider kp = new DerivedKeyProvider(this.rootSigner, 300, this.clock::get);
+        Assert.assertNull(kp.get("carol", DerivedKeyProvider.scopedKeyId("1", DerivedKeyScope.DAY, NOW)));
+        Assert.assertNull(kp.get("bob", DerivedKeyProvider.scopedKeyId("2", DerivedKeyScope.DAY, NOW)));
+        for (String bad : new String[]{ "1", "1/DAY", "/DAY/20261016", "1/WEEK/20261016", "1/DAY/2026101612", "1/day/20261016" }) {
+            Assert.assertNull(bad, kp.get("bob", bad));
+        }
+        Assert.assertNull(kp.get(null, "1/DAY/20261016"));
+        Assert.assertEquals(0, kp.size());
+    }
+
+    @Test
+    public void testValidityPeriod() {
+        DerivedKeyProvider kp = new DerivedKeyProvider(this.rootSigner, 300, this.clock::get);
+        String thisHour = DerivedKeyProvider.scopedKeyId("1", DerivedKeyScope.HOUR, NOW);
+        String nextHour = DerivedKeyProvider.scopedKeyId("1", DerivedKeyScope.HOUR, NOW + 3600);
+        String lastHour = DerivedKeyProvider.scopedKeyId("1", DerivedKeyScope.HOUR, NOW - 3600);
+        long hourStart = NOW - (NOW % 3600);
+
+        Assert.assertNotNull(kp.get("bob", thisHour));
+        Assert.assertNull(kp.get("bob", nextHour));
+        Assert.assertNull(kp.get("bob", lastHour));
+
+        // Within the grace period either side of the hour
+        this.clock.set(hourStart + 3600 - 300);
+        Assert.assertNotNull(kp.get("bob", nextHour));
+        this.clock.set(hourStart + 3600 + 299);
+        Assert.assertNotNull(kp.get("bob", thisHour));
+
+        // Expired, even though cached
+        this.clock.set(hourStart + 3600 + 300);
+        Assert.assertNull(kp.get("bob", thisHour));
+
+        // Expired entries are eventually dropped
+        this.clock.set(hourStart + 5 * 3600);
+        Assert.assertNotNull(kp.get("bob", DerivedKeyProvider.scopedKeyId("1", DerivedKeyScope.HOUR, this.clock.get())));
+        Assert.assertEquals(1, kp.size());
+    }
+}
@@ -1,8 +1,27 @@
 package com.boku.auth.http.httpsigner;
 
+import java.nio.charset.StandardCharsets;
 import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.boku.auth.http.httpmessage.CanonicalHttpHeader;
+import com.boku.auth.http.httpmessage.CanonicalHttpMessage;
+import com.boku.auth.http.keyprovider.PropertiesKeyProvider;
+import com.boku.auth.http.stringsigner.BasicStringSignerImpl;
+import com.boku.auth.http.stringsigner.ExecutorAsyncStringSigner;
+import com.boku.util.HexCodec;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
 import org.hamcrest.Matchers;
 import org.junit.Assert;
 import org.junit.Rule;
@@ -167,6 +186,332 @@ public class HttpMessageSignerTest {
         signer.verifySignature(ah, httpRequest);
     }
 
+    @Test
+    public void testStreamingSignerMatchesStringSigner() throws InvalidAuthorizationHeaderException {
+        BasicStringSignerImpl streamingSigner = new BasicStringSignerImpl(new PropertiesKeyProvider(
+            Collections.singletonMap("boku.auth.keys.bob.1", "secret")
+        ));
+        StringSigner stringOnlySigner = streamingSigner::generateSignature;
+
+        CanonicalHttpRequest httpRequest = getHttpRequest();
+        httpRequest.getHeaders().add(new CanonicalHttpHeader("X-Name", "J\u00fcrgen \ud83d\ude00"));
+        for (CanonicalHttpMessage httpMessage : new CanonicalHttpMessage[]{ httpRequest, getHttpResponse() }) {
+            AuthorizationHeader ah = getAuthorizationHeader();
+            Assert.assertEquals(
+                new HttpMessageSigner(stringOnlySigner).generateSignature(ah, httpMessage),
+                new HttpMessageSigner(streamingSigner).generateSignature(ah, httpMessage)
+            );
+        }
+    }
+
+    @Test
+    public void testStreamingSignerVerify() throws AuthorizationException {
+        HttpMessageSigner streamingSigner = new HttpMessageSigner(new BasicStringSignerImpl(new PropertiesKeyProvider(
+            Collections.singletonMap("boku.auth.keys.bob.1", "secret")
+        )));
+        CanonicalHttpRequest httpRequest = getHttpRequest();
+        AuthorizationHeader ah = getAuthorizationHeader();
+        ah.setSignature(null);
+        streamingSigner.sign(ah, httpRequest);
+        streamingSigner.verifySignature(ah, httpRequest);
+
+        String sig = ah.getSignature();
+        for (String bad : new String[]{ null, "", sig.substring(1), sig.toUpperCase(), (sig.charAt(0) == '0' ? '1' : '0') + sig.substring(1) }) {
+            ah.setSignature(bad);
+            try {
+                streamingSigner.verifySignature(ah, httpRequest);
+                Assert.fail("Verification should fail for " + bad);
+            } catch (AuthorizationFailedException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testSignAllVerifyAll() throws AuthorizationException {
+        Map<String, String> keys = new HashMap<>();
+        keys.put("boku.auth.keys.bob.1", "secret");
+        keys.put("boku.auth.keys.alice.1", "other-secret");
+        HttpMessageSigner streamingSigner = new HttpMessageSigner(new BasicStringSignerImpl(new PropertiesKeyProvider(keys)));
+
+        List<BulkItem> items = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            AuthorizationHeader ah = getAuthorizationHeader();
+            ah.setPartnerId(i % 3 == 0 ? "alice" : "bob");
+            ah.setSignature(null);
+            ah.setTimestamp(ah.getTimestamp() + i);
+            items.add(new BulkItem(ah, i % 2 == 0 ? getHttpRequest() : getHttpResponse()));
+        }
+        items.get(10).getAuthHeader().setPartnerId("carol");
+        items.get(20).getAuthHeader().setScheme("X");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<BulkResult> signed = streamingSigner.signAll(items, executor);
+            Assert.assertEquals(items.size(), signed.size());
+            for (int i = 0; i < items.size(); i++) {
+                BulkResult result = signed.get(i);
+                Assert.assertSame(items.get(i), result.getItem());
+                if (i == 10 || i == 20) {
+                    Assert.assertFalse(result.isSuccess());
+                    Assert.assertThat(result.getFailure(), Matchers.instanceOf(InvalidApplicationSuppliedAuthorizationHeaderException.class));
+                    continue;
+                }
+                Assert.assertTrue(result.toString(), result.isSuccess());
+                AuthorizationHeader ah = items.get(i).getAuthHeader();
+                Assert.assertEquals(streamingSigner.generateSignature(ah, items.get(i).getHttpMessage()), ah.getSignature());
+            }
+
+            items.get(30).getAuthHeader().setSignature("incorrect");
+            List<BulkResult> verified = streamingSigner.verifyAll(items, executor);
+            for (int i = 0; i < items.size(); i++) {
+                BulkResult result = verified.get(i);
+                if (i == 10 || i == 20) {
+                    Assert.assertThat(result.getFailure(), Matchers.instanceOf(InvalidAuthorizationHeaderException.class));
+                } else if (i == 30) {
+                    Assert.assertThat(result.getFailure(), Matchers.instanceOf(AuthorizationFailedException.class));
+                } else {
+                    Assert.assertTrue(result.toString(), result.isSuccess());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testVerifyAllWithStringSigner() {
+        List<BulkItem> items = new ArrayList<>();
+        for (int i = 0; i < 600; i++) {
+            AuthorizationHeader ah = getAuthorizationHeader();
+            ah.setKeyId(Integer.toString(i % 5));
+            items.add(new BulkItem(ah, getHttpRequest()));
+        }
+        items.get(7).getAuthHeader().setSignature("incorrect");
+
+        List<BulkResult> results = signer.verifyAll(items);
+        for (int i = 0; i < items.size(); i++) {
+            Assert.assertEquals(i != 7, results.get(i).isSuccess());
+        }
+        Assert.assertThat(results.get(7).getFailure(), Matchers.instanceOf(AuthorizationFailedException.class));
+        Assert.assertTrue(signer.verifyAll(Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void testAsyncSignAndVerify() throws Exception {
+        BasicStringSignerImpl stringSigner = new BasicStringSignerImpl(new PropertiesKeyProvider(
+            Collections.singletonMap("boku.auth.keys.bob.1", "secret")
+        ));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            HttpMessageSigner asyncSigner = new HttpMessageSigner(new ExecutorAsyncStringSigner(stringSigner, executor));
+            CanonicalHttpRequest httpRequest = getHttpRequest();
+
+            AuthorizationHeader ah = getAuthorizationHeader();
+            ah.setSignature(null);
+            asyncSigner.signAsync(ah, httpRequest).toCompletableFuture().get();
+            Assert.assertEquals(new HttpMessageSigner(stringSigner).generateSignature(ah, httpRequest), ah.getSignature());
+            asyncSigner.verifySignatureAsync(ah, httpRequest).toCompletableFuture().get();
+
+            // Blocking methods work via the async signer too
+            asyncSigner.verifySignature(ah, httpRequest);
+
+            ah.setSignature("incorrect");
+            assertFailsWith(asyncSigner.verifySignatureAsync(ah, httpRequest).toCompletableFuture(), AuthorizationFailedException.class);
+
+            ah.setPartnerId("carol");
+            assertFailsWith(asyncSigner.verifySignatureAsync(ah, httpRequest).toCompletableFuture(), InvalidAuthorizationHeaderException.class);
+            assertFailsWith(asyncSigner.signAsync(ah, httpRequest).toCompletableFuture(), InvalidApplicationSuppliedAuthorizationHeaderException.class);
+            try {
+                asyncSigner.sign(ah, httpRequest);
+                Assert.fail("Expected InvalidApplicationSuppliedAuthorizationHeaderException");
+            } catch (InvalidApplicationSuppliedAuthorizationHeaderException expected) {
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testAsyncWithSyncSigner() throws Exception {
+        AuthorizationHeader ah = getAuthorizationHeader();
+        CanonicalHttpRequest httpRequest = getHttpRequest();
+        signer.verifySignatureAsync(ah, httpRequest).toCompletableFuture().get();
+
+        ah.setSignature("incorrect");
+        assertFailsWith(signer.verifySignatureAsync(ah, httpRequest).toCompletableFuture(), AuthorizationFailedException.class);
+    }
+
+    @Test
+    public void testSha512Scheme() throws Exception {
+        BasicStringSignerImpl stringSigner = new BasicStringSignerImpl(new PropertiesKeyProvider(
+            Collections.singletonMap("boku.auth.keys.bob.1", "secret")
+        ));
+        StringSigner stringOnlySigner = stringSigner::generateSignature;
+        CanonicalHttpRequest httpRequest = getHttpRequest();
+
+        AuthorizationHeader ah = getAuthorizationHeader();
+        ah.setScheme(SignatureScheme.HMAC_SHA512_256.getName());
+        ah.setSignature(null);
+        HttpMessageSigner streamingSigner = new HttpMessageSigner(stringSigner);
+        streamingSigner.sign(ah, httpRequest);
+
+        Mac mac = Mac.getInstance("HmacSHA512/256");
+        mac.init(new SecretKeySpec("secret".getBytes(StandardCharsets.UTF_8), "HmacSHA512/256"));
+        String expected = HexCodec.encodeString(mac.doFinal(
+            httpRequest.toString(new StringBuilder()).append(ah.getTimestamp()).toString().getBytes(StandardCharsets.UTF_8)
+        ));
+        Assert.assertEquals(expected, ah.getSignature());
+        Assert.assertEquals(expected, new HttpMessageSigner(stringOnlySigner).generateSignature(ah, httpRequest));
+        streamingSigner.verifySignature(ah, httpRequest);
+
+        // Same message under the default scheme is signed differently
+        AuthorizationHeader defaultAh = getAuthorizationHeader();
+        defaultAh.setTimestamp(ah.getTimestamp());
+        Assert.assertNotEquals(expected, streamingSigner.generateSignature(defaultAh, httpRequest));
+
+        HttpMessageSigner defaultingSigner = new HttpMessageSigner(stringSigner, SignatureScheme.HMAC_SHA512_256);
+        Assert.assertEquals(SignatureScheme.HMAC_SHA512_256.getName(), defaultingSigner.getDefaultScheme());
+        ah.setScheme(null);
+        defaultingSigner.sign(ah, httpRequest);
+        Assert.assertEquals(SignatureScheme.HMAC_SHA512_256.getName(), ah.getScheme());
+        Assert.assertEquals(expected, ah.getSignature());
+    }
+
+    @Test
+    public void testDerivedKeys() throws Exception {
+        BasicStringSignerImpl rootSigner = new BasicStringSignerImpl(new PropertiesKeyProvider(
+            Collections.singletonMap("boku.auth.keys.bob.1", "secret")
+        ));
+        AtomicInteger rootCalls = new AtomicInteger();
+        StringSigner countingRootSigner = (algorithm, partnerId, keyId, stringToSign) -> {
+            rootCalls.incrementAndGet();
+            return rootSigner.generateSignature(algorithm, partnerId, keyId, stringToSign);
+        };
+        HttpMessageSigner derivedSigner = new HttpMessageSigner(countingRootSigner, DerivedKeyScope.HOUR);
+        CanonicalHttpRequest httpRequest = getHttpRequest();
+
+        AuthorizationHeader ah = getAuthorizationHeader();
+        ah.setScheme(null);
+        ah.setTimestamp(null);
+        ah.setSignature(null);
+        derivedSigner.sign(ah, httpRequest);
+        Assert.assertEquals(DerivedKeyScope.HOUR.getScheme(), ah.getScheme());
+        derivedSigner.verifySignature(ah, httpRequest);
+        derivedSigner.verifySignatureAsync(ah, httpRequest).toCompletableFuture().get();
+        Assert.assertEquals("Key should be derived once, then used locally", 1, rootCalls.get());
+
+        // Not the same as signing with the partner key directly
+        AuthorizationHeader plainAh = getAuthorizationHeader();
+        plainAh.setTimestamp(ah.getTimestamp());
+        String plainSignature = new HttpMessageSigner(rootSigner).generateSignature(plainAh, httpRequest);
+        Assert.assertNotEquals(plainSignature, ah.getSignature());
+
+        // The regular scheme still works, and derived schemes are unknown to signers not set up for them
+        plainAh.setSignature(plainSignature);
+        derivedSigner.verifySignature(plainAh, httpRequest);
+        try {
+            new HttpMessageSigner(rootSigner).verifySignature(ah, httpRequest);
+            Assert.fail("Expected InvalidAuthorizationHeaderException");
+        } catch (InvalidAuthorizationHeaderException expected) {
+        }
+
+        // Keys for other periods are not available
+        String sig = ah.getSignature();
+        ah.setTimestamp(ah.getTimestamp() - 2 * 3600);
+        try {
+            derivedSigner.verifySignature(ah, httpRequest);
+            Assert.fail("Expected InvalidAuthorizationHeaderException");
+        } catch (InvalidAuthorizationHeaderException expected) {
+        }
+        ah.setTimestamp(ah.getTimestamp() + 2 * 3600);
+
+        List<BulkItem> items = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            AuthorizationHeader bulkAh = getAuthorizationHeader();
+            bulkAh.setScheme(i % 2 == 0 ? DerivedKeyScope.DAY.getScheme() : null);
+            bulkAh.setTimestamp(ah.getTimestamp());
+            bulkAh.setSignature(null);
+            items.add(new BulkItem(bulkAh, httpRequest));
+        }
+        items.add(new BulkItem(ah, httpRequest));
+        for (BulkResult result : derivedSigner.signAll(items)) {
+            Assert.assertTrue(result.toString(), result.isSuccess());
+        }
+        Assert.assertEquals(sig, ah.getSignature());
+        Assert.assertEquals(DerivedKeyScope.HOUR.getScheme(), items.get(1).getAuthHeader().getScheme());
+        Assert.assertEquals(sig, items.get(1).getAuthHeader().getSignature());
+        items.get(2).getAuthHeader().setSignature("incorrect");
+        List<BulkResult> verified = derivedSigner.verifyAll(items);
+        for (int i = 0; i < items.size(); i++) {
+            Assert.assertEquals(i != 2, verified.get(i).isSuccess());
+        }
+        Assert.assertEquals("One plain verification, and one derivation for each scope", 3, rootCalls.get());
+    }
+
+    @Test
+    public void testSigningTemplate() throws Exception {
+        Map<String, String> keys = new HashMap<>();
+        keys.put("bob.1", "secret");
+        BasicStringSignerImpl streamingSigner = new BasicStringSignerImpl((partnerId, keyId) -> keys.get(partnerId + "." + keyId));
+        StringSigner stringOnlySigner = streamingSigner::generateSignature;
+
+        for (HttpMessageSigner httpSigner : new HttpMessageSigner[]{
+            new HttpMessageSigner(streamingSigner),
+            new HttpMessageSigner(stringOnlySigner),
+            new HttpMessageSigner(streamingSigner, DerivedKeyScope.DAY)
+        }) {
+            for (CanonicalHttpMessage httpMessage : new CanonicalHttpMessage[]{ getHttpRequest(), getHttpResponse() }) {
+                AuthorizationHeader templateAh = getAuthorizationHeader();
+                templateAh.setScheme(null);
+                SigningTemplate template = httpSigner.createTemplate(templateAh, httpMessage);
+                Assert.assertEquals(httpSigner.getDefaultScheme(), template.getScheme());
+                Assert.assertNull("Header should not be modified", templateAh.getScheme());
+
+                // Derived keys are only available around the current time
+                long timestamp = System.currentTimeMillis() / 1000;
+                for (String entityDigest : new String[]{ "entity_digest!", "another", null }) {
+                    httpMessage.setEntityDigest(entityDigest);
+                    AuthorizationHeader ah = getAuthorizationHeader();
+                    ah.setScheme(template.getScheme());
+                    ah.setTimestamp(timestamp);
+                    httpSigner.sign(ah, httpMessage);
+
+                    AuthorizationHeader templated = template.sign(entityDigest, timestamp);
+                    Assert.assertEquals(ah.toString(), templated.toString());
+                    httpSigner.verifySignature(templated, httpMessage);
+                }
+            }
+        }
+
+        // A changed key is picked up
+        HttpMessageSigner httpSigner = new HttpMessageSigner(streamingSigner);
+        CanonicalHttpRequest httpRequest = getHttpRequest();
+        SigningTemplate template = httpSigner.createTemplate(getAuthorizationHeader(), httpRequest);
+        keys.put("bob.1", "new secret");
+        AuthorizationHeader ah = template.sign("entity_digest!");
+        httpSigner.verifySignature(ah, httpRequest);
+        keys.remove("bob.1");
+        try {
+            template.sign("entity_digest!");
+            Assert.fail("Expected InvalidApplicationSuppliedAuthorizationHeaderException");
+        } catch (InvalidApplicationSuppliedAuthorizationHeaderException expected) {
+        }
+        try {
+            httpSigner.createTemplate(getAuthorizationHeader(), httpRequest);
+            Assert.fail("Expected InvalidApplicationSuppliedAuthorizationHeaderException");
+        } catch (InvalidApplicationSuppliedAuthorizationHeaderException expected) {
+        }
+    }
+
+    private static void assertFailsWith(CompletableFuture<?> future, Class<? extends Exception> expected) {
+        try {
+            future.join();
+            Assert.fail("Expected " + expected.getSimpleName());
+        } catch (CompletionException ex) {
+            Assert.assertThat(ex.getCause(), Matchers.instanceOf(expected));
+        }
+    }
+
     private static AuthorizationHeader getAuthorizationHeader() {
         AuthorizationHeader ah = new AuthorizationHeader();
         ah.setScheme("2/HMAC_SHA256(H+SHA256(E))");
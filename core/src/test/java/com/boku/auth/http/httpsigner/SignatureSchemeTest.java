@@ -0,0 +1,68 @@
+package com.boku.auth.http.httpsigner;
+
+import java.util.Random;
+
+import com.boku.auth.http.stringsigner.SignatureAlgorithm;
+import com.boku.util.TreeHashDigest;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SignatureSchemeTest {
+
+    @Test
+    public void testBuiltIn() {
+        Assert.assertSame(SignatureScheme.HMAC_SHA256, SignatureScheme.forName(HttpMessageSigner.SCHEME));
+        Assert.assertSame(SignatureScheme.HMAC_SHA512_256, SignatureScheme.forName("2/HMAC_SHA512_256(H+SHA512_256(E))"));
+        Assert.assertEquals("SHA-512/256", SignatureScheme.HMAC_SHA512_256.newDigest().getAlgorithm());
+        Assert.assertEquals(32, SignatureScheme.HMAC_SHA512_256.newDigest().getDigestLength());
+        Assert.assertSame(DerivedKeyScope.DAY, SignatureScheme.forName(DerivedKeyScope.DAY.getScheme()).getDerivedKeyScope());
+        Assert.assertNull(SignatureScheme.HMAC_SHA256.getDerivedKeyScope());
+        Assert.assertNull(SignatureScheme.forName("X"));
+        Assert.assertNull(SignatureScheme.forName(null));
+        Assert.assertTrue(SignatureScheme.getRegistered().contains(SignatureScheme.HMAC_SHA512_256));
+    }
+
+    @Test
+    public void testTreeHashDigest() {
+        SignatureScheme scheme = SignatureScheme.forName("2/HMAC_SHA256(H+TREE_SHA256(E))");
+        Assert.assertSame(SignatureScheme.HMAC_SHA256_TREE, scheme);
+        Assert.assertEquals(TreeHashDigest.ALGORITHM, scheme.newDigest().getAlgorithm());
+        byte[] entity = new byte[TreeHashDigest.CHUNK_SIZE * 3 + 1];
+        new Random(1).nextBytes(entity);
+        // Parallel digest of the whole entity matches the streaming one
+        Assert.assertArrayEquals(scheme.newDigest().digest(entity), scheme.digest(entity));
+        Assert.assertArrayEquals(SignatureScheme.HMAC_SHA256.newDigest().digest(entity), SignatureScheme.HMAC_SHA256.digest(entity));
+    }
+
+    @Test
+    public void testRegister() {
+        SignatureScheme custom = new SignatureScheme("2/HMAC_SHA512_256(H+SHA256(E))", SignatureAlgorithm.HMAC_SHA512_256, "SHA-256", null);
+        Assert.assertSame(custom, SignatureScheme.register(custom));
+        Assert.assertSame(custom, SignatureScheme.forName(custom.getName()));
+
+        // Registering an equal scheme again is fine, but not a different one under the same name
+        SignatureScheme.register(new SignatureScheme(custom.getName(), SignatureAlgorithm.HMAC_SHA512_256, "SHA-256", null));
+        try {
+            SignatureScheme.register(new SignatureScheme(custom.getName(), SignatureAlgorithm.HMAC_SHA256, "SHA-256", null));
+            Assert.fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertSame(custom, SignatureScheme.forName(custom.getName()));
+    }
+
+    @Test
+    public void testInvalid() {
+        for (String name : new String[]{ null, "", "2/HMAC SHA256" }) {
+            try {
+                new SignatureScheme(name, SignatureAlgorithm.HMAC_SHA256, "SHA-256", null);
+                Assert.fail("Expected IllegalArgumentException for " + name);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        try {
+            new SignatureScheme("3/X", SignatureAlgorithm.HMAC_SHA256, "NOT-A-DIGEST", null);
+            Assert.fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.boku.auth.http.keyprovider;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CachingKeyProviderTest {
+
+    private final Map<String, String> keys = new ConcurrentHashMap<>();
+    private final AtomicInteger calls = new AtomicInteger();
+    private final KeyProvider backend = (partnerId, keyId) -> {
+        calls.incrementAndGet();
+        return keys.get(partnerId + "." + keyId);
+    };
+
+    public CachingKeyProviderTest() {
+        keys.put("bob.1", "key1");
+        keys.put("bob.2", "key2");
+    }
+
+    @Test
+    public void testHitsAndMisses() {
+        CachingKeyProvider kp = new CachingKeyProvider(backend);
+        Assert.assertEquals("key1", kp.get("bob", "1"));
+        Assert.assertEquals("key1", kp.get("bob", "1"));
+        Assert.assertEquals("key2", kp.get("bob", "2"));
+        Assert.assertEquals(2, calls.get());
+
+        CachingKeyProvider.Stats stats = kp.getStats();
+        Assert.assertEquals(1, stats.getHitCount());
+        Assert.assertEquals(2, stats.getMissCount());
+        Assert.assertEquals(2, stats.getLoadCount());
+        Assert.assertTrue(stats.getTotalLoadTimeNanos() > 0);
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        CachingKeyProvider kp = new CachingKeyProvider(backend, 10, 20, 20, 0, Runnable::run);
+        Assert.assertEquals("key1", kp.get("bob", "1"));
+        keys.put("bob.1", "rotated");
+        Assert.assertEquals("key1", kp.get("bob", "1"));
+        Thread.sleep(50);
+        Assert.assertEquals("rotated", kp.get("bob", "1"));
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testNegativeCaching() throws InterruptedException {
+        CachingKeyProvider kp = new CachingKeyProvider(backend, 10, 60_000, 20, 0, Runnable::run);
+        Assert.assertNull(kp.get("bob", "3"));
+        Assert.assertNull(kp.get("bob", "3"));
+        Assert.assertEquals(1, calls.get());
+
+        keys.put("bob.3", "key3");
+        Thread.sleep(50);
+        Assert.assertEquals("key3", kp.get("bob", "3"));
+        Assert.assertEquals(2, calls.get());
+    }
+
+    @Test
+    public void testNegativeCachingDisabled() {
+        CachingKeyProvider kp = new CachingKeyProvider(backend, 10, 60_000, 0, 0, Runnable::run);
+        Assert.assertNull(kp.get("bob", "3"));
+        Assert.assertNull(kp.get("bob", "3"));
+        Assert.assertEquals(2, calls.get());
+        Assert.assertEquals(0, kp.size());
+    }
+
+    @Test
+    public void testRefreshAhead() throws InterruptedException {
+        List<Runnable> pending = new ArrayList<>();
+        CachingKeyProvider kp = new CachingKeyProvider(backend, 10, 60_000, 60_000, 1, pending::add);
+        Assert.assertEquals("key1", kp.get("bob", "1"));
+        keys.put("bob.1", "rotated");
+        Thread.sleep(10);
+
+        // Stale value is returned without waiting, and only one refresh is scheduled
+        Assert.assertEquals("key1", kp.get("bob", "1"));
+        Assert.assertEquals("key1", kp.get("bob", "1"));
+        Assert.assertEquals(1, pending.size());
+        Assert.assertEquals(1, calls.get());
+
+        pending.get(0).run();
+        Assert.assertEquals("rotated", kp.get("bob", "1"));
+        Assert.assertEquals(1, kp.getStats().getRefreshCount());
+    }
+
+    @Test
+    public void testFailedRefreshKeepsValue() throws InterruptedException {
+        List<Runnable> pending = new ArrayList<>();
+        boolean[] fail = { false };
+        CachingKeyProvider kp = new CachingKeyProvider((partnerId, keyId) -> {
+            if (fail[0]) {
+                throw new IllegalStateException("backend down");
+            }
+            return "key1";
+        }, 10, 60_000, 60_000, 1, 50, pending::add);
+        Assert.assertEquals("key1", kp.get("bob", "1"));
+        Thread.sleep(10);
+        fail[0] = true;
+        Assert.assertEquals("key1", kp.get("bob", "1"));
+        pending.remove(0).run();
+        Assert.assertEquals(1, kp.getStats().getLoadFailureCount());
+
+        // Not retried straight away, so a failing backend isn't hit by every request
+        Assert.assertEquals("key1", kp.get("bob", "1"));
+        Assert.assertEquals(0, pending.size());
+
+        // Retried once the backoff is up
+        Thread.sleep(100);
+        Assert.assertEquals("key1", kp.get("bob", "1"));
+        Assert.assertEquals(1, pending.size());
+    }
+
+    @Test
+    public void testSingleFlight() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CachingKeyProvider kp = new CachingKeyProvider((partnerId, keyId) -> {
+            calls.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                throw new IllegalStateException(ex);
+            }
+            return "key1";
+        });
+
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(pool.submit(() -> kp.get("bob", "1")));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<String> f : results) {
+                Assert.assertEquals("key1", f.get(5, TimeUnit.SECONDS));
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(8, kp.getStats().getMissCount());
+    }
+
+    @Test
+    public void testExceptionsNotCached() {
+        CachingKeyProvider kp = new CachingKeyProvider((partnerId, keyId) -> {
+            if (calls.incrementAndGet() == 1) {
+                throw new IllegalStateException("backend down");
+            }
+            return "key1";
+        });
+        try {
+            kp.get("bob", "1");
+            Assert.fail("Expected exception");
+        } catch (IllegalStateException expected) {
+        }
+        Assert.assertEquals("key1", kp.get("bob", "1"));
+        Assert.assertEquals(1, kp.getStats().getLoadFailureCount());
+    }
+
+    @Test
+    public void testErrorNotCached() throws Exception {
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CachingKeyProvider kp = new CachingKeyProvider((partnerId, keyId) -> {
+            if (calls.incrementAndGet() == 1) {
+                loading.countDown();
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    throw new IllegalStateException(ex);
+                }
+                throw new AssertionError("backend broken");
+            }
+            return "key1";
+        });
+
+        ExecutorService pool = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> loader = pool.submit(() -> kp.get("bob", "1"));
+            loading.await(5, TimeUnit.SECONDS);
+            Future<String> waiter = pool.submit(() -> kp.get("bob", "1"));
+            Thread.sleep(50);
+            release.countDown();
+            for (Future<String> f : Arrays.asList(loader, waiter)) {
+                try {
+                    String key = f.get(5, TimeUnit.SECONDS);
+                    // The waiter may have arrived after the failed load was removed, and loaded it again itself
+                    Assert.assertEquals("key1", key);
+                } catch (ExecutionException expected) {
+                    Assert.assertTrue(expected.getCause() instanceof AssertionError);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        Assert.assertEquals("key1", kp.get("bob", "1"));
+        Assert.assertEquals(1, kp.getStats().getLoadFailureCount());
+    }
+
+    @Test
+    public void testUnknownKeysDontEvictKnownOnes() {
+        CachingKeyProvider kp = new CachingKeyProvider(backend, 20, 60_000, 60_000, 0, Runnable::run);
+        kp.get("bob", "1");
+        kp.get("bob", "2");
+        for (int i = 0; i < 100; i++) {
+            Assert.assertNull(kp.get("mallory", String.valueOf(i)));
+        }
+        Assert.assertEquals(102, calls.get());
+
+        // Unknown keys are bounded to a tenth of the cache size, and the known keys are still cached
+        Assert.assertEquals(2 + 2, kp.size());
+        Assert.assertEquals(98, kp.getStats().getEvictionCount());
+        Assert.assertEquals("key1", kp.get("bob", "1"));
+        Assert.assertEquals("key2", kp.get("bob", "2"));
+        Assert.assertEquals(102, calls.get());
+    }
+
+    @Test
+    public void testBounded() {
+        keys.put("bob.3", "key3");
+        CachingKeyProvider kp = new CachingKeyProvider(backend, 2, 60_000, 60_000, 0, Runnable::run);
+        kp.get("bob", "1");
+        kp.get("bob", "2");
+        kp.get("bob", "1");
+
+        // bob.2 is least recently used, so gets evicted
+        kp.get("bob", "3");
+        Assert.assertEquals(2, kp.size());
+        Assert.assertEquals(1, kp.getStats().getEvictionCount());
+        kp.get("bob", "1");
+        Assert.assertEquals(3, calls.get());
+        kp.get("bob", "2");
+        Assert.assertEquals(4, calls.get());
+    }
+
+    @Test
+    public void testKeepsNewEntryWhenAllOthersInUse() {
+        keys.put("bob.3", "key3");
+        CachingKeyProvider kp = new CachingKeyProvider(backend, 2, 60_000, 60_000, 0, Runnable::run);
+        kp.get("bob", "1");
+        kp.get("bob", "2");
+        kp.get("bob", "1");
+        kp.get("bob", "2");
+
+        // Both are in use, so one of them goes, but never the one just added
+        kp.get("bob", "3");
+        Assert.assertEquals(2, kp.size());
+        Assert.assertEquals(1, kp.getStats().getEvictionCount());
+        Assert.assertEquals("key3", kp.get("bob", "3"));
+        Assert.assertEquals(3, calls.get());
+    }
+}
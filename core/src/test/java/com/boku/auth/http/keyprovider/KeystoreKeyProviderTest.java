@@ -0,0 +1,87 @@
+package com.boku.auth.http.keyprovider;
+
+import java.security.KeyStore;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class KeystoreKeyProviderTest {
+
+    private static final String PASSWORD = "storepass";
+
+    @Test
+    public void testSnapshotMatchesOnDemand() throws Exception {
+        KeyStore ks = keyStore("bob.1", "key1", "bob.2", "key2", "a.b.c", "dotted");
+        KeystoreKeyProvider onDemand = new KeystoreKeyProvider(ks, PASSWORD);
+        KeystoreKeyProvider snapshot = new KeystoreKeyProvider(ks, PASSWORD, true);
+        Assert.assertFalse(onDemand.isSnapshotMode());
+        Assert.assertTrue(snapshot.isSnapshotMode());
+
+        String[][] lookups = { { "bob", "1" }, { "bob", "2" }, { "bob", "3" }, { "alice", "1" }, { "a", "b.c" }, { "a.b", "c" }, { "a", "b" } };
+        for (String[] lookup : lookups) {
+            Assert.assertEquals(lookup[0] + "." + lookup[1], onDemand.get(lookup[0], lookup[1]), snapshot.get(lookup[0], lookup[1]));
+        }
+        Assert.assertEquals("dotted", snapshot.get("a.b", "c"));
+    }
+
+    @Test
+    public void testSnapshotMatchesOnDemandForMixedCaseAliases() throws Exception {
+        KeyStore ks = keyStore("Bob.1", "key1", "carol.KeyA", "keyA");
+        KeystoreKeyProvider onDemand = new KeystoreKeyProvider(ks, PASSWORD);
+        KeystoreKeyProvider snapshot = new KeystoreKeyProvider(ks, PASSWORD, true);
+
+        String[][] lookups = { { "Bob", "1" }, { "bob", "1" }, { "BOB", "1" }, { "carol", "KeyA" }, { "Carol", "keya" }, { "carol", "KeyB" } };
+        for (String[] lookup : lookups) {
+            Assert.assertEquals(lookup[0] + "." + lookup[1], onDemand.get(lookup[0], lookup[1]), snapshot.get(lookup[0], lookup[1]));
+        }
+        Assert.assertEquals("key1", snapshot.get("Bob", "1"));
+        Assert.assertEquals("keyA", snapshot.get("carol", "KeyA"));
+        Assert.assertNull(snapshot.get(null, "1"));
+        Assert.assertNull(snapshot.get("Bob", null));
+    }
+
+    @Test
+    public void testSnapshotParallelLoad() throws Exception {
+        String[] entries = new String[2 * 40];
+        for (int i = 0; i < 40; i++) {
+            entries[2 * i] = "p" + (i % 4) + "." + i;
+            entries[2 * i + 1] = "key" + i;
+        }
+        KeystoreKeyProvider snapshot = new KeystoreKeyProvider(keyStore(entries), PASSWORD, true);
+        for (int i = 0; i < 40; i++) {
+            Assert.assertEquals("key" + i, snapshot.get("p" + (i % 4), String.valueOf(i)));
+        }
+    }
+
+    @Test
+    public void testReload() throws Exception {
+        KeystoreKeyProvider kp = new KeystoreKeyProvider(keyStore("bob.1", "key1"), PASSWORD, true);
+        Assert.assertEquals("key1", kp.get("bob", "1"));
+
+        kp.reload(keyStore("bob.1", "rotated", "bob.2", "key2"));
+        Assert.assertEquals("rotated", kp.get("bob", "1"));
+        Assert.assertEquals("key2", kp.get("bob", "2"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testReloadRequiresSnapshotMode() throws Exception {
+        new KeystoreKeyProvider(keyStore("bob.1", "key1"), PASSWORD).reload(keyStore("bob.1", "key1"));
+    }
+
+    private static KeyStore keyStore(String... aliasesAndKeys) throws Exception {
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+        ks.load(null, null);
+        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBE");
+        for (int i = 0; i < aliasesAndKeys.length; i += 2) {
+            ks.setEntry(
+                aliasesAndKeys[i],
+                new KeyStore.SecretKeyEntry(factory.generateSecret(new PBEKeySpec(aliasesAndKeys[i + 1].toCharArray()))),
+                new KeyStore.PasswordProtection(PASSWORD.toCharArray())
+            );
+        }
+        return ks;
+    }
+}
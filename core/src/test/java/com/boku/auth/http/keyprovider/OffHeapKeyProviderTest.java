@@ -0,0 +1,171 @@
+package com.boku.auth.http.keyprovider;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class OffHeapKeyProviderTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testPutGetReplace() {
+        try (OffHeapKeyProvider kp = new OffHeapKeyProvider(0)) {
+            kp.put("bob", "1", "key1");
+            kp.put("bób", "ключ", "κλειδί");
+            Assert.assertEquals("key1", kp.get("bob", "1"));
+            Assert.assertEquals("κλειδί", kp.get("bób", "ключ"));
+            Assert.assertNull(kp.get("bob", "2"));
+            Assert.assertNull(kp.get("bo", "b1"));
+            Assert.assertNull(kp.get(null, "1"));
+
+            kp.put("bob", "1", "rotated");
+            Assert.assertEquals("rotated", kp.get("bob", "1"));
+            Assert.assertEquals(2, kp.size());
+
+            byte[] dest = new byte[16];
+            Assert.assertEquals(7, kp.copyKey("bob", "1", dest, 1));
+            Assert.assertEquals("rotated", new String(dest, 1, 7, StandardCharsets.UTF_8));
+            Assert.assertEquals(-1, kp.copyKey("bob", "2", dest, 0));
+        }
+    }
+
+    @Test
+    public void testRemoveZeroesKey() {
+        try (OffHeapKeyProvider kp = new OffHeapKeyProvider(4)) {
+            kp.put("bob", "1", "secret-one");
+            kp.put("bob", "1", "secret-two");
+            kp.put("alice", "1", "secret-three");
+            Assert.assertTrue(containsBytes(kp.data(), "secret-two"));
+            Assert.assertFalse("replaced key not zeroed", containsBytes(kp.data(), "secret-one"));
+
+            Assert.assertTrue(kp.remove("bob", "1"));
+            Assert.assertFalse(kp.remove("bob", "1"));
+            Assert.assertNull(kp.get("bob", "1"));
+            Assert.assertEquals("secret-three", kp.get("alice", "1"));
+            Assert.assertEquals(1, kp.size());
+            Assert.assertFalse("removed key not zeroed", containsBytes(kp.data(), "secret-two"));
+
+            kp.close();
+            Assert.assertFalse(containsBytes(kp.data(), "secret-three"));
+            try {
+                kp.get("alice", "1");
+                Assert.fail("Expected IllegalStateException");
+            } catch (IllegalStateException expected) {
+                // ok
+            }
+        }
+    }
+
+    @Test
+    public void testGrowthMatchesHashMap() {
+        Random rnd = new Random(7);
+        Map<String, String> expected = new HashMap<>();
+        try (OffHeapKeyProvider kp = new OffHeapKeyProvider(16)) {
+            for (int i = 0; i < 100000; i++) {
+                String partnerId = "partner-" + rnd.nextInt(20000);
+                String keyId = Integer.toString(rnd.nextInt(5));
+                if (rnd.nextInt(4) == 0) {
+                    Assert.assertEquals(expected.remove(partnerId + " " + keyId) != null, kp.remove(partnerId, keyId));
+                } else {
+                    String key = Long.toHexString(rnd.nextLong());
+                    expected.put(partnerId + " " + keyId, key);
+                    kp.put(partnerId, keyId, key);
+                }
+            }
+            Assert.assertEquals(expected.size(), kp.size());
+            for (int p = 0; p < 20000; p++) {
+                for (int k = 0; k < 5; k++) {
+                    String partnerId = "partner-" + p;
+                    String keyId = Integer.toString(k);
+                    Assert.assertEquals(expected.get(partnerId + " " + keyId), kp.get(partnerId, keyId));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFromPropertiesFile() throws IOException {
+        Path file = tmp.newFile("keys.properties").toPath();
+        Files.write(file, (
+            "# comment\n"
+            + "boku.auth.keys.bob.1 = key1\n"
+            + "boku.auth.keys.a.b.c=dotted\n"
+            + "boku.auth.keys.carol.1=multi\\\n"
+            + "    line\n"
+            + "other.bob.2=ignored\n"
+        ).getBytes(StandardCharsets.ISO_8859_1));
+
+        try (OffHeapKeyProvider kp = OffHeapKeyProvider.fromPropertiesFile(file.toString(), 10)) {
+            Assert.assertEquals("key1", kp.get("bob", "1"));
+            Assert.assertEquals("multiline", kp.get("carol", "1"));
+            Assert.assertEquals("dotted", kp.get("a", "b.c"));
+            Assert.assertEquals("dotted", kp.get("a.b", "c"));
+            Assert.assertNull(kp.get("bob", "2"));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFromPropertiesFileWithNoKeys() throws IOException {
+        Path file = tmp.newFile("keys.properties").toPath();
+        Files.write(file, "other.bob.1=key1\n".getBytes(StandardCharsets.ISO_8859_1));
+        OffHeapKeyProvider.fromPropertiesFile(file.toString(), 10);
+    }
+
+    @Test
+    public void testConcurrentReadsDuringWrites() throws Exception {
+        try (OffHeapKeyProvider kp = new OffHeapKeyProvider(16)) {
+            kp.put("stable", "1", "stable-key");
+            AtomicReference<String> failure = new AtomicReference<>();
+            Thread writer = new Thread(() -> {
+                for (int i = 0; i < 50000; i++) {
+                    kp.put("p" + i, "1", "k" + i);
+                    if (i % 3 == 0) {
+                        kp.remove("p" + (i / 2), "1");
+                    }
+                }
+            });
+            writer.start();
+            Random rnd = new Random(3);
+            while (writer.isAlive()) {
+                String stable = kp.get("stable", "1");
+                if (!"stable-key".equals(stable)) {
+                    failure.set("stable key read as " + stable);
+                }
+                int i = rnd.nextInt(50000);
+                String key = kp.get("p" + i, "1");
+                if (key != null && !key.equals("k" + i)) {
+                    failure.set("p" + i + " read as " + key);
+                }
+            }
+            writer.join();
+            Assert.assertNull(failure.get());
+        }
+    }
+
+    private static boolean containsBytes(ByteBuffer data, String s) {
+        byte[] needle = s.getBytes(StandardCharsets.UTF_8);
+        outer:
+        for (int i = 0; i + needle.length <= data.limit(); i++) {
+            for (int j = 0; j < needle.length; j++) {
+                if (data.get(i + j) != needle[j]) {
+                    continue outer;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+}
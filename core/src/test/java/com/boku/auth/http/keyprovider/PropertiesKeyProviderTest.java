@@ -0,0 +1,30 @@
+package com.boku.auth.http.keyprovider;
+
+import java.util.Properties;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PropertiesKeyProviderTest {
+
+    @Test
+    public void testLookup() {
+        Properties defaults = new Properties();
+        defaults.setProperty("boku.auth.keys.alice.1", "alice1");
+        Properties props = new Properties(defaults);
+        props.setProperty("boku.auth.keys.bob.1", "bob1");
+        props.setProperty("boku.auth.keys.a.b.c", "dotted");
+        props.setProperty("other.bob.2", "ignored");
+
+        PropertiesKeyProvider kp = new PropertiesKeyProvider(props);
+        Assert.assertEquals("bob1", kp.get("bob", "1"));
+        Assert.assertEquals("alice1", kp.get("alice", "1"));
+        Assert.assertNull(kp.get("bob", "2"));
+        Assert.assertNull(kp.get("carol", "1"));
+
+        // Same result as looking up the joined property name
+        Assert.assertEquals("dotted", kp.get("a", "b.c"));
+        Assert.assertEquals("dotted", kp.get("a.b", "c"));
+        Assert.assertNull(kp.get("a", "b"));
+    }
+}
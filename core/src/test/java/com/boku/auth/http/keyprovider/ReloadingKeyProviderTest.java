@@ -0,0 +1,141 @@
+package com.boku.auth.http.keyprovider;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.KeyStore;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ReloadingKeyProviderTest {
+
+    private static final String PASSWORD = "storepass";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testReloadOnChange() throws IOException {
+        Path file = tmp.newFile("keys.properties").toPath();
+        write(file, "boku.auth.keys.bob.1=key1\n", 1000);
+
+        try (ReloadingKeyProvider kp = ReloadingKeyProvider.properties(file.toString(), 0)) {
+            Assert.assertEquals("key1", kp.get("bob", "1"));
+            Assert.assertFalse(kp.checkForChanges());
+
+            write(file, "boku.auth.keys.bob.1=rotated\nboku.auth.keys.bob.2=key2\n", 2000);
+            Assert.assertTrue(kp.checkForChanges());
+            Assert.assertEquals("rotated", kp.get("bob", "1"));
+            Assert.assertEquals("key2", kp.get("bob", "2"));
+
+            ReloadingKeyProvider.Stats stats = kp.getStats();
+            Assert.assertEquals(2, stats.getReloadCount());
+            Assert.assertEquals(0, stats.getFailureCount());
+            Assert.assertNull(stats.getLastFailure());
+        }
+    }
+
+    @Test
+    public void testInvalidContentsKeepPreviousKeys() throws IOException {
+        Path file = tmp.newFile("keys.properties").toPath();
+        write(file, "boku.auth.keys.bob.1=key1\n", 1000);
+
+        try (ReloadingKeyProvider kp = ReloadingKeyProvider.properties(file.toString(), 0)) {
+            write(file, "no.keys.here=1\n", 2000);
+            try {
+                kp.checkForChanges();
+                Assert.fail("Expected reload to fail");
+            } catch (IllegalStateException expected) {
+            }
+            Assert.assertEquals("key1", kp.get("bob", "1"));
+            Assert.assertEquals(1, kp.getStats().getFailureCount());
+            Assert.assertNotNull(kp.getStats().getLastFailure());
+
+            // Fixed file is picked up
+            write(file, "boku.auth.keys.bob.1=key2\n", 3000);
+            Assert.assertTrue(kp.checkForChanges());
+            Assert.assertEquals("key2", kp.get("bob", "1"));
+        }
+    }
+
+    @Test
+    public void testMissingFileKeepsPreviousKeys() throws IOException {
+        Path file = tmp.newFile("keys.properties").toPath();
+        write(file, "boku.auth.keys.bob.1=key1\n", 1000);
+
+        try (ReloadingKeyProvider kp = ReloadingKeyProvider.properties(file.toString(), 0)) {
+            Files.delete(file);
+            try {
+                kp.checkForChanges();
+                Assert.fail("Expected reload to fail");
+            } catch (IOException expected) {
+            }
+            Assert.assertEquals("key1", kp.get("bob", "1"));
+        }
+    }
+
+    @Test
+    public void testPolling() throws IOException, InterruptedException {
+        Path file = tmp.newFile("keys.properties").toPath();
+        write(file, "boku.auth.keys.bob.1=key1\n", 1000);
+
+        try (ReloadingKeyProvider kp = ReloadingKeyProvider.properties(file.toString(), 10)) {
+            write(file, "boku.auth.keys.bob.1=rotated\n", 2000);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!"rotated".equals(kp.get("bob", "1")) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals("rotated", kp.get("bob", "1"));
+        }
+    }
+
+    @Test
+    public void testPKCS12ReloadWithMixedCaseAliases() throws Exception {
+        Path file = tmp.newFile("keys.p12").toPath();
+        writePKCS12(file, 1000, "Bob.1", "key1");
+
+        try (ReloadingKeyProvider kp = ReloadingKeyProvider.pkcs12(file.toString(), PASSWORD, 0)) {
+            Assert.assertEquals("key1", kp.get("Bob", "1"));
+
+            writePKCS12(file, 2000, "Bob.1", "rotated", "Bob.KeyB", "keyB");
+            Assert.assertTrue(kp.checkForChanges());
+            Assert.assertEquals("rotated", kp.get("Bob", "1"));
+            Assert.assertEquals("keyB", kp.get("Bob", "KeyB"));
+            Assert.assertEquals("rotated", kp.get("bob", "1"));
+        }
+    }
+
+    private static void writePKCS12(Path file, long mtime, String... aliasesAndKeys) throws Exception {
+        KeyStore ks = KeyStore.getInstance("PKCS12");
+        ks.load(null, null);
+        SecretKeyFactory factory = SecretKeyFactory.getInstance("PBE");
+        for (int i = 0; i < aliasesAndKeys.length; i += 2) {
+            ks.setEntry(
+                aliasesAndKeys[i],
+                new KeyStore.SecretKeyEntry(factory.generateSecret(new PBEKeySpec(aliasesAndKeys[i + 1].toCharArray()))),
+                new KeyStore.PasswordProtection(PASSWORD.toCharArray())
+            );
+        }
+        try (OutputStream out = Files.newOutputStream(file)) {
+            ks.store(out, PASSWORD.toCharArray());
+        }
+        Files.setLastModifiedTime(file, FileTime.fromMillis(mtime));
+    }
+
+    /**
+     * Set an explicit mtime, since the filesystem's resolution may be too coarse to see quick successive writes.
+     */
+    private static void write(Path file, String contents, long mtime) throws IOException {
+        Files.write(file, contents.getBytes(StandardCharsets.ISO_8859_1));
+        Files.setLastModifiedTime(file, FileTime.fromMillis(mtime));
+    }
+}
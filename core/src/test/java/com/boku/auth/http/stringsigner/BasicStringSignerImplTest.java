@@ -0,0 +1,171 @@
+package com.boku.auth.http.stringsigner;
+
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.boku.auth.http.keyprovider.PropertiesKeyProvider;
+import com.boku.util.CryptoProvider;
+
+public class BasicStringSignerImplTest {
+
+    private static final String FOX = "The quick brown fox jumps over the lazy dog";
+    private static final String FOX_HMAC = "f7bc83f430538424b13298e6aa6fb143ef4d59a14946175997479dbc2d1a3cd8";
+
+    private final Map<String, String> keys = new HashMap<>();
+
+    public BasicStringSignerImplTest() {
+        keys.put("boku.auth.keys.bob.1", "key");
+        keys.put("boku.auth.keys.bob.2", "another key");
+    }
+
+    @Test
+    public void testKnownValue() throws InvalidKeyException {
+        for (BasicStringSignerImpl signer : signers()) {
+            Assert.assertEquals(FOX_HMAC, signer.generateSignature(SignatureAlgorithm.HMAC_SHA256, "bob", "1", FOX));
+            Assert.assertEquals(FOX_HMAC, signer.generateSignature(SignatureAlgorithm.HMAC_SHA256, "bob", "1", FOX));
+        }
+    }
+
+    @Test
+    public void testCachedMatchesUncached() throws InvalidKeyException {
+        BasicStringSignerImpl[] signers = signers();
+        for (String keyId : new String[]{ "1", "2", "1", "2" }) {
+            for (String s : new String[]{ "", "a", FOX, "POST /x\n\n1403052141" }) {
+                Assert.assertEquals(
+                    signers[0].generateSignature(SignatureAlgorithm.HMAC_SHA256, "bob", keyId, s),
+                    signers[1].generateSignature(SignatureAlgorithm.HMAC_SHA256, "bob", keyId, s)
+                );
+            }
+        }
+    }
+
+    @Test
+    public void testStreamingMatchesString() throws InvalidKeyException {
+        String[] inputs = {
+            "", "a", FOX, "POST /x\n\n1403052141",
+            "caf\u00e9 \u20ac \ud83d\ude00 end",  // 2, 3 and 4 byte sequences
+            "lone \ud83d high", "lone \ude00 low", "trailing high \ud83d", "\ude00\ud83d",
+            new String(new char[2000]).replace('\0', '\u0800')  // spans several encoder buffers
+        };
+        BasicStringSignerImpl signer = signers()[1];
+        for (String s : inputs) {
+            for (int split = 0; split <= Math.min(s.length(), 20); split++) {
+                final int at = split;
+                Assert.assertEquals(
+                    signer.generateSignature(SignatureAlgorithm.HMAC_SHA256, "bob", "1", s),
+                    signer.generateSignature(SignatureAlgorithm.HMAC_SHA256, "bob", "1",
+                        out -> out.append(s, 0, at).append(s.substring(at)))
+                );
+            }
+        }
+    }
+
+    @Test
+    public void testChangedKeyPickedUp() throws InvalidKeyException {
+        Map<String, String> mutableKeys = new HashMap<>(keys);
+        BasicStringSignerImpl signer = new BasicStringSignerImpl(
+            (partnerId, keyId) -> mutableKeys.get("boku.auth.keys." + partnerId + "." + keyId), 16, 60_000
+        );
+
+        Assert.assertEquals(FOX_HMAC, signer.generateSignature(SignatureAlgorithm.HMAC_SHA256, "bob", "1", FOX));
+        mutableKeys.put("boku.auth.keys.bob.1", "rotated");
+        Assert.assertNotEquals(FOX_HMAC, signer.generateSignature(SignatureAlgorithm.HMAC_SHA256, "bob", "1", FOX));
+    }
+
+    @Test(expected = InvalidKeyException.class)
+    public void testUnknownKey() throws InvalidKeyException {
+        signers()[1].generateSignature(SignatureAlgorithm.HMAC_SHA256, "bob", "3", FOX);
+    }
+
+    @Test
+    public void testEncoderReusableAfterFailure() throws InvalidKeyException {
+        BasicStringSignerImpl signer = signers()[1];
+        for (int i = 0; i < 100; i++) {
+            try {
+                signer.generateSignature(SignatureAlgorithm.HMAC_SHA256, "bob", "1", out -> {
+                    out.append("partial \ud83d");
+                    throw new IllegalStateException("failed part way");
+                });
+                Assert.fail("Expected exception");
+            } catch (IllegalStateException expected) {
+            }
+            Assert.assertEquals(FOX_HMAC, signer.generateSignature(SignatureAlgorithm.HMAC_SHA256, "bob", "1", out -> out.append(FOX)));
+        }
+    }
+
+    @Test
+    public void testCacheBounded() throws InvalidKeyException {
+        AtomicInteger created = new AtomicInteger();
+        MacCache cache = new MacCache(key -> {
+            created.incrementAndGet();
+            return createMac(key);
+        }, 2, 60_000);
+
+        cache.get("bob", "1", "a");
+        cache.get("bob", "2", "b");
+        cache.get("bob", "1", "a");
+        Assert.assertEquals(2, created.get());
+
+        // bob.2 is least recently used, so gets evicted
+        cache.get("bob", "3", "c");
+        Assert.assertEquals(2, cache.size());
+        cache.get("bob", "1", "a");
+        Assert.assertEquals(3, created.get());
+        cache.get("bob", "2", "b");
+        Assert.assertEquals(4, created.get());
+    }
+
+    @Test
+    public void testCacheKeepsNewEntryWhenAllOthersInUse() throws InvalidKeyException {
+        AtomicInteger created = new AtomicInteger();
+        MacCache cache = new MacCache(key -> {
+            created.incrementAndGet();
+            return createMac(key);
+        }, 2, 60_000);
+
+        cache.get("bob", "1", "a");
+        cache.get("bob", "2", "b");
+        cache.get("bob", "1", "a");
+        cache.get("bob", "2", "b");
+
+        // Both are in use, so one of them goes, but never the one just added
+        cache.get("bob", "3", "c");
+        Assert.assertEquals(2, cache.size());
+        cache.get("bob", "3", "c");
+        Assert.assertEquals(3, created.get());
+    }
+
+    private static Mac createMac(String key) throws InvalidKeyException {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+            return mac;
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private BasicStringSignerImpl[] signers() {
+        PropertiesKeyProvider keyProvider = new PropertiesKeyProvider(keys);
+        return new BasicStringSignerImpl[]{
+            new BasicStringSignerImpl(keyProvider, 0, 0),
+            new BasicStringSignerImpl(keyProvider),
+            new BasicStringSignerImpl(
+                keyProvider,
+                BasicStringSignerImpl.DEFAULT_MAX_CACHED_KEYS,
+                BasicStringSignerImpl.DEFAULT_CACHED_KEY_TTL_MILLIS,
+                CryptoProvider.forName("SunJCE")
+            )
+        };
+    }
+}
@@ -0,0 +1,125 @@
+package com.boku.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.MessageDigestSpi;
+import java.security.Provider;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.boku.auth.http.httpsigner.SignatureScheme;
+
+public class CryptoProviderTest {
+
+    private static final byte[] KEY = "key".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] DATA = "data".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void testNamedProvider() throws Exception {
+        // SunJCE has HMACs but no plain digests, so those come from the default providers
+        CryptoProvider sunJce = CryptoProvider.forName("SunJCE");
+        Assert.assertEquals("SunJCE", sunJce.toString());
+        Assert.assertSame(sunJce.getProvider(), sunJce.getMac("HmacSHA256", KEY).getProvider());
+        Assert.assertArrayEquals(CryptoProvider.DEFAULT.getMac("HmacSHA256", KEY).doFinal(DATA), sunJce.getMac("HmacSHA256", KEY).doFinal(DATA));
+        Assert.assertArrayEquals(DigestFactory.digest("SHA-256", DATA), sunJce.digest("SHA-256", DATA));
+        Assert.assertNotSame(sunJce.getProvider(), sunJce.getDigest("SHA-256").getProvider());
+
+        Assert.assertTrue(CryptoProvider.getInstalled().contains(sunJce.getProvider()));
+        Assert.assertNull(CryptoProvider.DEFAULT.getProvider());
+    }
+
+    @Test
+    public void testUnknownProvider() {
+        for (String name : new String[]{ null, "", "NoSuchProvider", "java.lang.String" }) {
+            try {
+                CryptoProvider.forName(name);
+                Assert.fail("Expected IllegalArgumentException for " + name);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testSelfTestFailure() {
+        Provider broken = new Provider("Broken", "1.0", "SHA-256 that isn't") {
+            {
+                put("MessageDigest.SHA-256", BrokenDigest.class.getName());
+            }
+        };
+        try {
+            CryptoProvider.of(broken);
+            Assert.fail("Expected IllegalStateException");
+        } catch (IllegalStateException ex) {
+            Assert.assertTrue(ex.getMessage(), ex.getMessage().contains("SHA-256"));
+        }
+    }
+
+    @Test
+    public void testTreeHashUsesProvider() {
+        Provider counting = new Provider("Counting", "1.0", "SHA-256 that counts its instances") {
+            {
+                put("MessageDigest.SHA-256", CountingDigest.class.getName());
+            }
+        };
+        CryptoProvider provider = CryptoProvider.of(counting);
+        byte[] entity = new byte[TreeHashDigest.CHUNK_SIZE + 1];
+
+        int before = CountingDigest.instances.get();
+        byte[] digest = SignatureScheme.HMAC_SHA256_TREE.digest(entity, provider);
+        Assert.assertArrayEquals(SignatureScheme.HMAC_SHA256_TREE.digest(entity), digest);
+        Assert.assertTrue(CountingDigest.instances.get() > before);
+    }
+
+    public static class CountingDigest extends MessageDigestSpi {
+
+        static final AtomicInteger instances = new AtomicInteger();
+
+        private final MessageDigest delegate = DigestFactory.getSHA256();
+
+        public CountingDigest() {
+            instances.incrementAndGet();
+        }
+
+        @Override
+        protected void engineUpdate(byte input) {
+            this.delegate.update(input);
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len) {
+            this.delegate.update(input, offset, len);
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            return this.delegate.digest();
+        }
+
+        @Override
+        protected void engineReset() {
+            this.delegate.reset();
+        }
+    }
+
+    public static class BrokenDigest extends MessageDigestSpi {
+
+        @Override
+        protected void engineUpdate(byte input) {
+        }
+
+        @Override
+        protected void engineUpdate(byte[] input, int offset, int len) {
+        }
+
+        @Override
+        protected byte[] engineDigest() {
+            return new byte[32];
+        }
+
+        @Override
+        protected void engineReset() {
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.boku.util;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class DigestFactoryTest {
+
+    private static final String ABC_SHA256 = "ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad";
+
+    @Test
+    public void testDigest() {
+        byte[] abc = "abc".getBytes(StandardCharsets.UTF_8);
+        Assert.assertEquals(ABC_SHA256, DigestFactory.digestHex(DigestFactory.SHA256, abc));
+        Assert.assertEquals(ABC_SHA256, HexCodec.encodeString(DigestFactory.getSHA256().digest(abc)));
+
+        ByteBuffer buffer = ByteBuffer.allocate(5);
+        buffer.put((byte)'x').put(abc).flip().position(1).limit(4);
+        Assert.assertEquals(ABC_SHA256, DigestFactory.digestHex(DigestFactory.SHA256, buffer));
+        Assert.assertEquals(1, buffer.position());
+
+        // New instances are independent of each other
+        MessageDigest md1 = DigestFactory.getSHA256();
+        MessageDigest md2 = DigestFactory.getSHA256();
+        Assert.assertNotSame(md1, md2);
+        md1.update((byte)'x');
+        Assert.assertEquals(ABC_SHA256, HexCodec.encodeString(md2.digest(abc)));
+
+        Assert.assertEquals(TreeHashDigest.ALGORITHM, DigestFactory.get(TreeHashDigest.ALGORITHM).getAlgorithm());
+        try {
+            DigestFactory.get("SHA-999");
+            Assert.fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testConcurrentUse() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 10_000; i++) {
+                        byte[] data = Integer.toString(i).getBytes(StandardCharsets.UTF_8);
+                        byte[] expected = MessageDigest.getInstance("SHA-256").digest(data);
+                        if (!MessageDigest.isEqual(expected, DigestFactory.digest(DigestFactory.SHA256, data))) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                Assert.assertTrue(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.boku.util;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HexCodecTest {
+
+    @Test
+    public void testRoundTrip() {
+        Random rnd = new Random(1);
+        for (int len = 0; len < 70; len++) {
+            byte[] data = new byte[len];
+            rnd.nextBytes(data);
+            String hex = HexCodec.encodeString(data);
+            Assert.assertArrayEquals(data, HexCodec.decode(hex));
+            Assert.assertArrayEquals(data, HexCodec.decode(hex.toUpperCase()));
+            Assert.assertTrue(HexCodec.isEqual(data, hex));
+        }
+    }
+
+    @Test
+    public void testKnownValue() {
+        byte[] data = { 0x00, 0x09, 0x0a, 0x0f, 0x10, (byte)0x9f, (byte)0xa0, (byte)0xff };
+        Assert.assertEquals("00090a0f109fa0ff", HexCodec.encodeString(data));
+        Assert.assertArrayEquals(data, HexCodec.decode("00090A0f109Fa0fF"));
+    }
+
+    @Test
+    public void testIsEqualRejectsMismatch() {
+        byte[] data = HexCodec.decode("00090a0f109fa0ff");
+        Assert.assertFalse(HexCodec.isEqual(data, null));
+        Assert.assertFalse(HexCodec.isEqual(data, ""));
+        Assert.assertFalse(HexCodec.isEqual(data, "00090a0f109fa0f"));
+        Assert.assertFalse(HexCodec.isEqual(data, "00090a0f109fa0ff0"));
+        Assert.assertFalse(HexCodec.isEqual(data, "10090a0f109fa0ff"));
+        Assert.assertFalse(HexCodec.isEqual(data, "00090a0f109fa0fe"));
+        // Same as comparing against the encoded string, so upper case does not match
+        Assert.assertFalse(HexCodec.isEqual(data, "00090A0F109FA0FF"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeOddLength() {
+        HexCodec.decode("abc");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDecodeInvalidDigit() {
+        HexCodec.decode("0g");
+    }
+
+    @Test
+    public void testDecodeNonAscii() {
+        for (String hex : new String[]{ "0\u0130", "\u00e00", "0/", ":0", "@0", "0G", "`0" }) {
+            try {
+                HexCodec.decode(hex);
+                Assert.fail("Expected IllegalArgumentException for " + hex);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    @Test
+    public void testAllBytes() {
+        byte[] data = new byte[256];
+        StringBuilder expected = new StringBuilder();
+        for (int b = 0; b < 256; b++) {
+            data[b] = (byte)b;
+            expected.append(String.format("%02x", b));
+        }
+        Assert.assertEquals(expected.toString(), HexCodec.encodeString(data));
+        Assert.assertArrayEquals(expected.toString().getBytes(StandardCharsets.US_ASCII), HexCodec.encodeAscii(data));
+        Assert.assertArrayEquals(data, HexCodec.decode(expected));
+    }
+
+    @Test
+    public void testBuffers() {
+        byte[] data = HexCodec.decode("00090a0f109fa0ff");
+
+        char[] chars = new char[20];
+        Assert.assertEquals(15, HexCodec.encode(data, 2, 5, chars, 5));
+        Assert.assertEquals("0a0f109fa0", new String(chars, 5, 10));
+        Assert.assertEquals(0, chars[4]);
+        Assert.assertEquals(0, chars[15]);
+
+        byte[] ascii = new byte[20];
+        Assert.assertEquals(17, HexCodec.encode(data, 0, 8, ascii, 1));
+        Assert.assertEquals("00090a0f109fa0ff", new String(ascii, 1, 16, StandardCharsets.US_ASCII));
+
+        for (ByteBuffer buffer : new ByteBuffer[]{ ByteBuffer.allocate(20), ByteBuffer.allocateDirect(20), ByteBuffer.wrap(new byte[24], 2, 20).slice() }) {
+            buffer.put((byte)'x');
+            HexCodec.encode(data, buffer);
+            Assert.assertEquals(17, buffer.position());
+            buffer.flip();
+            Assert.assertEquals("x00090a0f109fa0ff", StandardCharsets.US_ASCII.decode(buffer).toString());
+        }
+        try {
+            HexCodec.encode(data, ByteBuffer.allocate(15));
+            Assert.fail("Expected BufferOverflowException");
+        } catch (BufferOverflowException expected) {
+        }
+
+        byte[] decoded = new byte[10];
+        Assert.assertEquals(8, HexCodec.decodeInto("00090A0F109FA0FF", decoded, 2));
+        Assert.assertArrayEquals(data, Arrays.copyOfRange(decoded, 2, 10));
+        for (int offset : new int[]{ -1, 3 }) {
+            try {
+                HexCodec.decodeInto("00090A0F109FA0FF", decoded, offset);
+                Assert.fail("Expected IndexOutOfBoundsException for offset " + offset);
+            } catch (IndexOutOfBoundsException expected) {
+            }
+        }
+        try {
+            HexCodec.encode(data, 4, 5, ascii, 0);
+            Assert.fail("Expected IndexOutOfBoundsException");
+        } catch (IndexOutOfBoundsException expected) {
+        }
+    }
+}
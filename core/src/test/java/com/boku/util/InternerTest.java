@@ -0,0 +1,52 @@
+package com.boku.util;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class InternerTest {
+
+    @Test
+    public void testIntern() {
+        Interner interner = new Interner(16, 8);
+        String a = interner.intern("partner");
+        Assert.assertEquals("partner", a);
+        Assert.assertSame(a, interner.intern(new String("partner")));
+        Assert.assertSame(a, interner.intern(new StringBuilder("x partner y"), 2, 9));
+        Assert.assertEquals("", interner.intern(""));
+        Assert.assertNull(interner.intern(null));
+
+        // Too long to intern
+        String longValue = interner.intern(new String("123456789"));
+        Assert.assertEquals("123456789", longValue);
+        Assert.assertNotSame(longValue, interner.intern(new String("123456789")));
+    }
+
+    @Test
+    public void testBounded() {
+        Interner interner = new Interner(10, 64);
+        String[] interned = new String[1000];
+        for (int i = 0; i < interned.length; i++) {
+            interned[i] = interner.intern("key-" + i);
+            Assert.assertEquals("key-" + i, interned[i]);
+        }
+
+        // Only as many distinct values as there are slots can still be resident. Most recent first, since each miss
+        // here displaces something.
+        Set<String> resident = new HashSet<>();
+        for (int i = interned.length - 1; i >= 0; i--) {
+            if (interner.intern("key-" + i) == interned[i]) {
+                resident.add(interned[i]);
+            }
+        }
+        Assert.assertTrue(resident.size() <= 16);
+        Assert.assertFalse(resident.isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidCapacity() {
+        new Interner(0, 8);
+    }
+}
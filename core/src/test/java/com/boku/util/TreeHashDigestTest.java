@@ -0,0 +1,90 @@
+package com.boku.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TreeHashDigestTest {
+
+    private static final int CHUNK = TreeHashDigest.CHUNK_SIZE;
+
+    // Calculated independently of this implementation
+    private static final String EMPTY = "4bf5122f344554c53bde2ebb8cd2b7e3d1600ad631c385a5d7cce23c7785459a";
+    private static final String ABC = "d7472c1021a4e9c087d491c1b90b8daeb39e77520a873ef4d61f2c52281cd001";
+    private static final String ONE_CHUNK = "b6dd4d7e685974c60eb784bc0d151250dd767258a41f8f21ef56dc3ecc84ae53";
+    private static final String ONE_CHUNK_PLUS_ONE = "df90a52f156d8f1ab3865f27a6516d826ae99ee227d09e1e4808cb8d682f805d";
+    private static final String TWO_AND_A_HALF_CHUNKS = "17e659b9a92a794166a48004f2485e4b54b3858c76594b396449102635b8e463";
+
+    private static byte[] pattern(int len) {
+        byte[] data = new byte[len];
+        for (int i = 0; i < len; i++) {
+            data[i] = (byte)(i * 31 + 7);
+        }
+        return data;
+    }
+
+    @Test
+    public void testVectors() {
+        Assert.assertEquals(EMPTY, HexCodec.encodeString(new TreeHashDigest().digest()));
+        Assert.assertEquals(ABC, HexCodec.encodeString(new TreeHashDigest().digest("abc".getBytes(StandardCharsets.UTF_8))));
+        Assert.assertEquals(ONE_CHUNK, HexCodec.encodeString(new TreeHashDigest().digest(pattern(CHUNK))));
+        Assert.assertEquals(ONE_CHUNK_PLUS_ONE, HexCodec.encodeString(new TreeHashDigest().digest(pattern(CHUNK + 1))));
+        Assert.assertEquals(TWO_AND_A_HALF_CHUNKS, HexCodec.encodeString(new TreeHashDigest().digest(pattern(CHUNK * 5 / 2))));
+    }
+
+    @Test
+    public void testIncrementalMatchesParallel() throws IOException {
+        byte[] data = pattern(CHUNK * 5 / 2);
+
+        // Updates not lined up with chunk boundaries, mixing the different update methods
+        MessageDigest md = DigestFactory.get(TreeHashDigest.ALGORITHM);
+        int offset = 0;
+        for (int step = 1; offset < data.length; step = step * 7 + 3) {
+            int n = Math.min(step, data.length - offset);
+            if (n == 1) {
+                md.update(data[offset]);
+            } else if (step % 2 == 0) {
+                md.update(ByteBuffer.wrap(data, offset, n));
+            } else {
+                md.update(data, offset, n);
+            }
+            offset += n;
+        }
+        Assert.assertEquals(TWO_AND_A_HALF_CHUNKS, HexCodec.encodeString(md.digest()));
+        // Reset by digest()
+        Assert.assertEquals(EMPTY, HexCodec.encodeString(md.digest()));
+
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            Assert.assertEquals(TWO_AND_A_HALF_CHUNKS, HexCodec.encodeString(TreeHashDigest.digest(data, pool)));
+            Assert.assertEquals(TWO_AND_A_HALF_CHUNKS, HexCodec.encodeString(TreeHashDigest.digest(data, null)));
+            Assert.assertEquals(EMPTY, HexCodec.encodeString(TreeHashDigest.digest(new byte[0], pool)));
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length + 10);
+            direct.position(10);
+            direct.put(data);
+            direct.position(10);
+            Assert.assertEquals(TWO_AND_A_HALF_CHUNKS, HexCodec.encodeString(TreeHashDigest.digest(direct, pool)));
+            Assert.assertEquals(10, direct.position());
+
+            Path file = Files.createTempFile("treehash", ".bin");
+            try {
+                Files.write(file, data);
+                Assert.assertEquals(TWO_AND_A_HALF_CHUNKS, HexCodec.encodeString(TreeHashDigest.digest(file, pool)));
+                Files.write(file, new byte[0]);
+                Assert.assertEquals(EMPTY, HexCodec.encodeString(TreeHashDigest.digest(file, pool)));
+            } finally {
+                Files.delete(file);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,405 @@
+package com.boku.auth.http.it;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import com.boku.auth.http.AuthorizationHeader;
+import com.boku.auth.http.client.BokuAPIClientResponse;
+import com.boku.auth.http.exception.AuthorizationException;
+import com.boku.auth.http.server.AuthorizationContextProvider;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Async servlets behind the filter, checking auth from container callbacks rather than the request thread.
+ */
+public class AsyncTest extends CWAIntegrationTestBase {
+
+    public AsyncTest() {
+        env.server.addServlet("/auth/nonblocking", new NonBlockingEchoServlet(env.authContextProvider, 1));
+        env.server.addServlet("/auth/nonblocking-large", new NonBlockingEchoServlet(env.authContextProvider, 20_000));
+        env.server.addServlet("/auth/start", new StartServlet(env.authContextProvider));
+        env.server.addServlet("/auth/dispatch", new DispatchServlet(env.authContextProvider));
+        env.server.addServlet("/auth/executor", new ExecutorServlet(env.authContextProvider));
+        env.server.addServlet("/auth/fill", new FillServlet());
+    }
+
+    @Test
+    public void testNonBlocking() throws IOException {
+        BokuAPIClientResponse response = env.client
+            .post(url("/auth/nonblocking"))
+            .withAuthorization(authorization())
+            .withEntityString("hello")
+            .execute(BokuAPIClientResponse.class);
+
+        Assert.assertEquals(200, response.getStatusLine().getStatusCode());
+        Assert.assertEquals("bob: hello", response.getEntity().getDataAsText());
+        Assert.assertTrue(response.containsHeader(AuthorizationHeader.RESPONSE_HEADER));
+    }
+
+    @Test
+    public void testNonBlockingLarge() throws IOException {
+        BokuAPIClientResponse response = env.client
+            .post(url("/auth/nonblocking-large"))
+            .withAuthorization(authorization())
+            .withEntityString("0123456789")
+            .execute(BokuAPIClientResponse.class);
+
+        // Several MB, so the container won't take it all in one go
+        byte[] expected = new byte[("bob: 0123456789".length()) * 20_000];
+        for (int i = 0; i < 20_000; i++) {
+            byte[] chunk = "bob: 0123456789".getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(chunk, 0, expected, i * chunk.length, chunk.length);
+        }
+        Assert.assertTrue(Arrays.equals(expected, response.getEntity().getData()));
+    }
+
+    @Test
+    public void testNotAuthorized() throws IOException {
+        AuthorizationHeader ah = authorization();
+        ah.setScheme("2/HMAC_SHA256(H+SHA256(E))");
+        ah.setTimestamp(System.currentTimeMillis() / 1000);
+        ah.setSignature("incorrect");
+        BokuAPIClientResponse response = env.client
+            .post(url("/auth/nonblocking"))
+            .withHeader(AuthorizationHeader.REQUEST_HEADER, ah.toString())
+            .withEntityString("hello")
+            .execute(BokuAPIClientResponse.class);
+
+        Assert.assertEquals(401, response.getStatusLine().getStatusCode());
+    }
+
+    @Test
+    public void testStart() throws IOException {
+        String response = env.client
+            .post(url("/auth/start"))
+            .withAuthorization(authorization())
+            .withEntityString("hello")
+            .execute();
+        Assert.assertEquals("started bob: hello", response);
+    }
+
+    @Test
+    public void testDispatch() throws IOException {
+        String response = env.client
+            .post(url("/auth/dispatch"))
+            .withAuthorization(authorization())
+            .withEntityString("hello")
+            .execute();
+        Assert.assertEquals("dispatched bob: hello", response);
+    }
+
+    @Test
+    public void testExecutor() throws IOException {
+        String response = env.client
+            .post(url("/auth/executor"))
+            .withAuthorization(authorization())
+            .withEntityString("hello")
+            .execute();
+        Assert.assertEquals("executor bob: hello", response);
+    }
+
+    @Test
+    public void testSlowReaderWithConcurrentRequests() throws Exception {
+        // Many segments each, so the slow reader's response is still being sent while the others reuse segments
+        final int size = 1 << 20;
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            Future<byte[]> slow = pool.submit(() -> this.readSlowly("/auth/fill?fill=a&size=" + size));
+            List<Future<byte[]>> others = new ArrayList<>();
+            for (int i = 0; i < 30; i++) {
+                char fill = (char)('b' + i % 20);
+                others.add(pool.submit(() -> env.client
+                    .post(url("/auth/fill?fill=" + fill + "&size=" + size))
+                    .withAuthorization(authorization())
+                    .execute(BokuAPIClientResponse.class)
+                    .getEntity().getData()));
+            }
+            for (int i = 0; i < others.size(); i++) {
+                assertFilled((char)('b' + i % 20), size, others.get(i).get(30, TimeUnit.SECONDS));
+            }
+            assertFilled('a', size, slow.get(30, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void assertFilled(char fill, int size, byte[] data) {
+        Assert.assertEquals(size, data.length);
+        for (int i = 0; i < data.length; i++) {
+            if (data[i] != fill) {
+                Assert.fail("Expected '" + fill + "' at " + i + ", got '" + (char)data[i] + "'");
+            }
+        }
+    }
+
+    /**
+     * Send a request over a plain socket with a small receive buffer, and read the response a little at a time, so
+     * the server's writes are held up.
+     */
+    private byte[] readSlowly(String path) throws IOException, InterruptedException {
+        URL url = new URL(url(path));
+        AuthorizationHeader ah = authorization();
+        ah.setScheme("2/HMAC_SHA256(H+SHA256(E))");
+        ah.setTimestamp(System.currentTimeMillis() / 1000);
+        ah.setSignature("unchecked");
+        try (Socket socket = new Socket()) {
+            socket.setReceiveBufferSize(4096);
+            socket.connect(new InetSocketAddress(url.getHost(), url.getPort()), 5000);
+            socket.setSoTimeout(10000);
+            socket.getOutputStream().write((
+                "POST " + url.getFile() + " HTTP/1.1\r\n"
+                + "Host: " + url.getHost() + "\r\n"
+                + AuthorizationHeader.REQUEST_HEADER + ": " + ah + "\r\n"
+                + "Content-Length: 0\r\n"
+                + "Connection: close\r\n\r\n"
+            ).getBytes(StandardCharsets.US_ASCII));
+
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream response = new ByteArrayOutputStream();
+            byte[] buf = new byte[16 << 10];
+            for (int n; (n = in.read(buf)) >= 0; ) {
+                response.write(buf, 0, n);
+                Thread.sleep(1);
+            }
+            return httpBody(response.toByteArray());
+        }
+    }
+
+    private static byte[] httpBody(byte[] response) {
+        String text = new String(response, StandardCharsets.ISO_8859_1);
+        int bodyStart = text.indexOf("\r\n\r\n") + 4;
+        Assert.assertTrue(text, text.startsWith("HTTP/1.1 200"));
+        if (!text.substring(0, bodyStart).toLowerCase().contains("transfer-encoding: chunked")) {
+            return Arrays.copyOfRange(response, bodyStart, response.length);
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int pos = bodyStart;
+        while (true) {
+            int lineEnd = text.indexOf("\r\n", pos);
+            int chunkSize = Integer.parseInt(text.substring(pos, lineEnd).trim(), 16);
+            if (chunkSize == 0) {
+                return body.toByteArray();
+            }
+            body.write(response, lineEnd + 2, chunkSize);
+            pos = lineEnd + 2 + chunkSize + 2;
+        }
+    }
+
+    private static String checkAuth(AuthorizationContextProvider authContextProvider, HttpServletResponse resp) throws IOException {
+        try {
+            return authContextProvider.get().getAuthorizationHeader().getPartnerId();
+        } catch (AuthorizationException ex) {
+            resp.setStatus(401);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the request with a ReadListener and writes the response with a WriteListener, a repeat count times.
+     */
+    @SuppressWarnings("serial")
+    private static class NonBlockingEchoServlet extends HttpServlet {
+
+        private final AuthorizationContextProvider authContextProvider;
+        private final int repeat;
+
+        NonBlockingEchoServlet(AuthorizationContextProvider authContextProvider, int repeat) {
+            this.authContextProvider = authContextProvider;
+            this.repeat = repeat;
+        }
+
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+            AsyncContext asyncContext = req.startAsync();
+            ServletInputStream in = req.getInputStream();
+            ByteArrayOutputStream entity = new ByteArrayOutputStream();
+            in.setReadListener(new ReadListener() {
+                @Override
+                public void onDataAvailable() throws IOException {
+                    byte[] buf = new byte[64];
+                    while (in.isReady()) {
+                        int n = in.read(buf);
+                        if (n < 0) {
+                            break;
+                        }
+                        entity.write(buf, 0, n);
+                    }
+                }
+
+                @Override
+                public void onAllDataRead() throws IOException {
+                    String partnerId = checkAuth(authContextProvider, resp);
+                    if (partnerId == null) {
+                        asyncContext.complete();
+                        return;
+                    }
+                    resp.setContentType("text/plain; charset=UTF-8");
+                    byte[] chunk = (partnerId + ": " + entity.toString("UTF-8")).getBytes(StandardCharsets.UTF_8);
+                    ServletOutputStream out = resp.getOutputStream();
+                    out.setWriteListener(new WriteListener() {
+                        private int written;
+
+                        @Override
+                        public void onWritePossible() throws IOException {
+                            while (out.isReady()) {
+                                if (this.written == repeat) {
+                                    asyncContext.complete();
+                                    return;
+                                }
+                                out.write(chunk);
+                                this.written++;
+                            }
+                        }
+
+                        @Override
+                        public void onError(Throwable t) {
+                            asyncContext.complete();
+                        }
+                    });
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    asyncContext.complete();
+                }
+            });
+        }
+    }
+
+    /**
+     * Does the work on a container thread via AsyncContext.start().
+     */
+    @SuppressWarnings("serial")
+    private static class StartServlet extends HttpServlet {
+
+        private final AuthorizationContextProvider authContextProvider;
+
+        StartServlet(AuthorizationContextProvider authContextProvider) {
+            this.authContextProvider = authContextProvider;
+        }
+
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp) {
+            AsyncContext asyncContext = req.startAsync();
+            asyncContext.start(() -> {
+                try {
+                    String entity = new String(req.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+                    String partnerId = checkAuth(this.authContextProvider, resp);
+                    resp.setContentType("text/plain; charset=UTF-8");
+                    resp.getWriter().print("started " + partnerId + ": " + entity);
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                } finally {
+                    asyncContext.complete();
+                }
+            });
+        }
+    }
+
+    /**
+     * Goes async, then dispatches back to itself to do the work.
+     */
+    @SuppressWarnings("serial")
+    private static class DispatchServlet extends HttpServlet {
+
+        private final AuthorizationContextProvider authContextProvider;
+
+        DispatchServlet(AuthorizationContextProvider authContextProvider) {
+            this.authContextProvider = authContextProvider;
+        }
+
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+            if (req.getAttribute("dispatched") == null) {
+                req.setAttribute("dispatched", true);
+                req.startAsync().dispatch();
+                return;
+            }
+            String entity = new String(req.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            String partnerId = checkAuth(this.authContextProvider, resp);
+            resp.setContentType("text/plain; charset=UTF-8");
+            resp.getWriter().print("dispatched " + partnerId + ": " + entity);
+        }
+    }
+
+    /**
+     * Hands the request off to a thread outside the container, which has no request context current, so it passes
+     * the request in to check auth.
+     */
+    @SuppressWarnings("serial")
+    private static class ExecutorServlet extends HttpServlet {
+
+        private final AuthorizationContextProvider authContextProvider;
+
+        ExecutorServlet(AuthorizationContextProvider authContextProvider) {
+            this.authContextProvider = authContextProvider;
+        }
+
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+            String entity = new String(req.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+            AsyncContext asyncContext = req.startAsync();
+            CompletableFuture.runAsync(() -> {
+                try {
+                    String partnerId;
+                    try {
+                        partnerId = this.authContextProvider.get(req).getAuthorizationHeader().getPartnerId();
+                    } catch (AuthorizationException ex) {
+                        resp.setStatus(401);
+                        return;
+                    }
+                    resp.setContentType("text/plain; charset=UTF-8");
+                    resp.getWriter().print("executor " + partnerId + ": " + entity);
+                } catch (IOException ex) {
+                    throw new RuntimeException(ex);
+                } finally {
+                    asyncContext.complete();
+                }
+            });
+        }
+    }
+
+    /**
+     * Goes async and writes the given number of copies of the given character.
+     */
+    @SuppressWarnings("serial")
+    private static class FillServlet extends HttpServlet {
+
+        @Override
+        protected void service(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+            AsyncContext asyncContext = req.startAsync();
+            byte[] chunk = new byte[1000];
+            Arrays.fill(chunk, (byte)req.getParameter("fill").charAt(0));
+            int size = Integer.parseInt(req.getParameter("size"));
+            resp.setContentType("application/octet-stream");
+            ServletOutputStream out = resp.getOutputStream();
+            for (int written = 0; written < size; written += chunk.length) {
+                out.write(chunk, 0, Math.min(chunk.length, size - written));
+            }
+            asyncContext.complete();
+        }
+    }
+}
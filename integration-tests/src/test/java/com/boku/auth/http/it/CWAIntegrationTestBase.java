@@ -6,7 +6,15 @@ import org.junit.After;
 
 public abstract class CWAIntegrationTestBase {
 
-    final TestEnvironment env = new TestEnvironment();
+    final TestEnvironment env;
+
+    public CWAIntegrationTestBase() {
+        this(new TestEnvironment());
+    }
+
+    protected CWAIntegrationTestBase(TestEnvironment env) {
+        this.env = env;
+    }
 
     @After
     public void cleanup() {
@@ -11,9 +11,11 @@ import jakarta.xml.bind.annotation.XmlRootElement;
 
 import com.boku.auth.http.AuthorizationHeader;
 import com.boku.auth.http.it.support.Servlets;
+import com.boku.auth.http.client.BokuAPIClient;
 import com.boku.auth.http.client.BokuAPIClientResponse;
 import com.boku.auth.http.client.exception.BokuAPIClientException;
 import com.boku.auth.http.client.exception.InvalidAPIEntityException;
+import com.boku.auth.http.httpsigner.SignatureScheme;
 import org.apache.http.HttpStatus;
 import org.apache.http.client.HttpResponseException;
 import org.hamcrest.Matchers;
@@ -88,6 +90,24 @@ public class ClientTest extends CWAIntegrationTestBase {
         );
     }
 
+    @Test
+    public void testRoundTripWithOtherSchemes() throws IOException {
+        for (SignatureScheme scheme : new SignatureScheme[]{ SignatureScheme.HMAC_SHA512_256, SignatureScheme.HMAC_SHA256_TREE }) {
+            String requestText = "an entity digested as per " + scheme;
+            AuthorizationHeader ah = authorization();
+            ah.setScheme(scheme.getName());
+            BokuAPIClientResponse response = env.client
+                .put(url("/auth/ping"))
+                .withAuthorization(ah)
+                .withEntityString(requestText)
+                .execute(BokuAPIClientResponse.class);
+
+            Assert.assertEquals("PUT '" + requestText + "': pong", response.getEntity().getDataAsText());
+            AuthorizationHeader respAh = AuthorizationHeader.parse(response.getFirstHeader(AuthorizationHeader.RESPONSE_HEADER).getValue());
+            Assert.assertEquals(scheme.getName(), respAh.getScheme());
+        }
+    }
+
     @Test
     public void testGET() throws IOException {
         String responseText = env.client
@@ -249,6 +269,39 @@ public class ClientTest extends CWAIntegrationTestBase {
         );
     }
 
+    @Test
+    public void testRequestTemplate() throws IOException {
+        X sample = new X();
+        BokuAPIClient.RequestTemplate template = env.client
+            .post(url("/auth/echo?qparam=1"))
+            .withAuthorization(authorization("X-BOKU-Test"))
+            .withHeader("X-BOKU-Test", "2")
+            .withEntity(sample)
+            .toTemplate();
+
+        for (int i = 0; i < 3; i++) {
+            X x = new X();
+            x.a = "foo" + i;
+            BokuAPIClient.RequestBuilder request = template.newRequest().withEntity(x);
+            if (i == 2) {
+                // Not in the template, so signed from scratch
+                request.withHeader("X-BOKU-Test", "3");
+            }
+            String responseText = request.execute();
+
+            Assert.assertEquals(
+                "POST /auth/echo?qparam=1\n" +
+                "Authorization: auth contents\n" +
+                "Content-Type: application/xml; charset=\"UTF-8\"\n" +
+                "X-BOKU-Test: 2\n" +
+                (i == 2 ? "X-BOKU-Test: 3\n" : "") +
+                "\n" +
+                "<x><a>foo" + i + "</a></x>",
+                responseText.replaceFirst("Authorization: [^\n]+", "Authorization: auth contents")
+            );
+        }
+    }
+
     @Test
     public void testUnmarshalling() throws IOException {
         env.server.addServlet("/auth/json", Servlets.withAuth(
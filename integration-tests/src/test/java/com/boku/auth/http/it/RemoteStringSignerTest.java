@@ -0,0 +1,181 @@
+package com.boku.auth.http.it;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.security.InvalidKeyException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.boku.auth.http.client.kms.KmsProtocol;
+import com.boku.auth.http.client.kms.RemoteStringSigner;
+import com.boku.auth.http.keyprovider.PropertiesKeyProvider;
+import com.boku.auth.http.stringsigner.BasicStringSignerImpl;
+import com.boku.auth.http.stringsigner.SignatureAlgorithm;
+import com.boku.auth.http.stringsigner.StringSigner;
+
+public class RemoteStringSignerTest extends CWAIntegrationTestBase {
+
+    private final StringSigner localSigner = new BasicStringSignerImpl(
+        new PropertiesKeyProvider(Collections.singletonMap("boku.auth.keys.bob.1", "abcd1234"))
+    );
+
+    private volatile CountDownLatch gate = new CountDownLatch(0);
+
+    public RemoteStringSignerTest() {
+        this.env.server.addServlet("/kms/sign", new HttpServlet() {
+            @Override
+            protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                try {
+                    gate.await();
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+                req.setCharacterEncoding("US-ASCII");
+                resp.setContentType(KmsProtocol.CONTENT_TYPE);
+                KmsProtocol.handle(req.getReader(), resp.getWriter(), localSigner);
+            }
+        });
+        this.env.server.addServlet("/kms/broken", new HttpServlet() {
+            @Override
+            protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                resp.sendError(500);
+            }
+        });
+    }
+
+    private RemoteStringSigner remoteSigner(String path, int maxConcurrentBatches, int maxQueuedRequests, long requestTimeoutMillis) {
+        return new RemoteStringSigner(URI.create(url(path)), null, 16, 5, maxConcurrentBatches, maxQueuedRequests, requestTimeoutMillis);
+    }
+
+    @Test
+    public void testBatchedSignaturesMatchLocal() throws Exception {
+        try (RemoteStringSigner remote = remoteSigner("/kms/sign", 2, 1000, 10000)) {
+            // Hold the first batch so that the rest queue up behind it
+            this.gate = new CountDownLatch(1);
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                futures.add(remote.generateSignatureAsync(SignatureAlgorithm.HMAC_SHA256, "bob", "1", "string to sign\n" + i + " é").toCompletableFuture());
+            }
+            this.gate.countDown();
+
+            for (int i = 0; i < futures.size(); i++) {
+                Assert.assertEquals(
+                    this.localSigner.generateSignature(SignatureAlgorithm.HMAC_SHA256, "bob", "1", "string to sign\n" + i + " é"),
+                    futures.get(i).get(10, TimeUnit.SECONDS)
+                );
+            }
+            Assert.assertEquals(
+                this.localSigner.generateSignature(SignatureAlgorithm.HMAC_SHA256, "bob", "1", "sync"),
+                remote.generateSignature(SignatureAlgorithm.HMAC_SHA256, "bob", "1", "sync")
+            );
+
+            RemoteStringSigner.Stats stats = remote.getStats();
+            Assert.assertEquals(201, stats.getRequests());
+            Assert.assertTrue(stats.toString(), stats.getBatches() <= 201 / 16 + 3);
+        }
+    }
+
+    @Test
+    public void testUnknownKey() throws IOException {
+        try (RemoteStringSigner remote = remoteSigner("/kms/sign", 2, 1000, 10000)) {
+            try {
+                remote.generateSignature(SignatureAlgorithm.HMAC_SHA256, "carol", "1", "x");
+                Assert.fail("Expected InvalidKeyException");
+            } catch (InvalidKeyException ex) {
+                Assert.assertTrue(ex.getMessage(), ex.getMessage().contains("carol"));
+            }
+        }
+    }
+
+    @Test
+    public void testServiceFailure() throws Exception {
+        try (RemoteStringSigner remote = remoteSigner("/kms/broken", 2, 1000, 10000)) {
+            try {
+                remote.generateSignature(SignatureAlgorithm.HMAC_SHA256, "bob", "1", "x");
+                Assert.fail("Expected UncheckedIOException");
+            } catch (UncheckedIOException expected) {
+            }
+            Assert.assertEquals(1, remote.getStats().getBatchFailures());
+        }
+    }
+
+    @Test
+    public void testBoundedQueueAndTimeout() throws Exception {
+        this.gate = new CountDownLatch(1);
+        try (RemoteStringSigner remote = remoteSigner("/kms/sign", 1, 1, 500)) {
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                futures.add(remote.generateSignatureAsync(SignatureAlgorithm.HMAC_SHA256, "bob", "1", "x" + i).toCompletableFuture());
+                Thread.sleep(5);
+            }
+            int rejected = 0;
+            int timedOut = 0;
+            for (CompletableFuture<String> f : futures) {
+                try {
+                    f.join();
+                    Assert.fail("Nothing should complete while the service is blocked");
+                } catch (CompletionException ex) {
+                    if (ex.getCause() instanceof RejectedExecutionException) {
+                        rejected++;
+                    } else if (ex.getCause() instanceof TimeoutException) {
+                        timedOut++;
+                    } else {
+                        throw ex;
+                    }
+                }
+            }
+            Assert.assertEquals(20, rejected + timedOut);
+            Assert.assertTrue("rejected " + rejected, rejected >= 15);
+            Assert.assertEquals(rejected, remote.getStats().getRejected());
+        } finally {
+            this.gate.countDown();
+        }
+    }
+
+    @Test
+    public void testRequestsRacingCloseAreNotLost() throws Exception {
+        // Long timeout, so a request left in the queue would show up as a future still pending
+        RemoteStringSigner remote = remoteSigner("/kms/sign", 2, 10000, 30000);
+        List<CompletableFuture<String>> futures = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch started = new CountDownLatch(4);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                started.countDown();
+                for (int i = 0; i < 2000; i++) {
+                    futures.add(remote.generateSignatureAsync(SignatureAlgorithm.HMAC_SHA256, "bob", "1", "x" + i).toCompletableFuture());
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        started.await();
+        remote.close();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (CompletableFuture<String> f : futures) {
+            try {
+                f.get(5, TimeUnit.SECONDS);
+            } catch (ExecutionException ex) {
+                Assert.assertTrue(ex.getCause().toString(), ex.getCause() instanceof RejectedExecutionException);
+            }
+        }
+    }
+}
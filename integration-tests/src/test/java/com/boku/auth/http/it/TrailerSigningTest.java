@@ -0,0 +1,112 @@
+package com.boku.auth.http.it;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import com.boku.auth.http.AuthorizationHeader;
+import com.boku.auth.http.client.BokuAPIClientResponse;
+import com.boku.auth.http.exception.AuthorizationException;
+import com.boku.auth.http.it.support.Servlets;
+import com.boku.auth.http.it.support.TestEnvironment;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Responses streamed with the signature in a trailer, for clients which ask for it.
+ */
+@SuppressWarnings("serial")
+public class TrailerSigningTest extends CWAIntegrationTestBase {
+
+    public TrailerSigningTest() {
+        super(new TestEnvironment(Collections.singletonMap("com.boku.auth.http.server.response.trailer-signing", "true")));
+        env.server.addServlet("/auth/ping", Servlets.withAuth(env.authContextProvider, new Servlets.PingHandler()));
+        env.server.addServlet("/auth/large", Servlets.withAuth(env.authContextProvider, (req, resp, requestEntity) -> {
+            resp.setHeader("Content-Type", "text/plain; charset=UTF-8");
+            resp.setContentLength(100 * 1000);
+            byte[] line = new byte[1000];
+            for (int i = 0; i < 100; i++) {
+                Arrays.fill(line, (byte)('a' + i % 26));
+                resp.getOutputStream().write(line);
+            }
+        }));
+        env.server.addServlet("/auth/async", new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse resp) {
+                AsyncContext asyncContext = req.startAsync();
+                asyncContext.start(() -> {
+                    try {
+                        env.authContextProvider.get();
+                        resp.setContentType("text/plain; charset=UTF-8");
+                        resp.getWriter().print("async pong");
+                    } catch (IOException | AuthorizationException ex) {
+                        throw new RuntimeException(ex);
+                    } finally {
+                        asyncContext.complete();
+                    }
+                });
+            }
+        });
+    }
+
+    @Test
+    public void testAsync() throws IOException {
+        BokuAPIClientResponse response = env.client
+            .get(url("/auth/async"))
+            .withAuthorization(authorization())
+            .withOptionAcceptTrailerSignedResponse(true)
+            .execute(BokuAPIClientResponse.class);
+
+        Assert.assertEquals("async pong", response.getEntity().getDataAsText());
+        Assert.assertEquals(1, response.getTrailers(AuthorizationHeader.RESPONSE_HEADER).length);
+    }
+
+    @Test
+    public void testTrailerSigned() throws IOException {
+        BokuAPIClientResponse response = env.client
+            .post(url("/auth/ping"))
+            .withAuthorization(authorization("Content-Type"))
+            .withOptionAcceptTrailerSignedResponse(true)
+            .withEntityString("hello")
+            .execute(BokuAPIClientResponse.class);
+
+        Assert.assertEquals("POST 'hello': pong", response.getEntity().getDataAsText());
+        Assert.assertFalse(response.containsHeader(AuthorizationHeader.RESPONSE_HEADER));
+        Assert.assertEquals(1, response.getTrailers(AuthorizationHeader.RESPONSE_HEADER).length);
+        AuthorizationHeader respAh = AuthorizationHeader.parse(response.getTrailers(AuthorizationHeader.RESPONSE_HEADER)[0].getValue());
+        Assert.assertEquals("bob", respAh.getPartnerId());
+    }
+
+    @Test
+    public void testLargeResponseStreamed() throws IOException {
+        BokuAPIClientResponse response = env.client
+            .get(url("/auth/large"))
+            .withAuthorization(authorization())
+            .withOptionAcceptTrailerSignedResponse(true)
+            .execute(BokuAPIClientResponse.class);
+
+        byte[] data = response.getEntity().getData();
+        Assert.assertEquals(100 * 1000, data.length);
+        Assert.assertEquals('z', data[25 * 1000]);
+        Assert.assertEquals("chunked", response.getFirstHeader("Transfer-Encoding").getValue());
+        Assert.assertEquals(1, response.getTrailers(AuthorizationHeader.RESPONSE_HEADER).length);
+    }
+
+    @Test
+    public void testHeaderSignedWhenTrailersNotAccepted() throws IOException {
+        BokuAPIClientResponse response = env.client
+            .get(url("/auth/ping"))
+            .withAuthorization(authorization())
+            .execute(BokuAPIClientResponse.class);
+
+        Assert.assertEquals("GET: pong", new String(response.getEntity().getData(), StandardCharsets.UTF_8));
+        Assert.assertTrue(response.containsHeader(AuthorizationHeader.RESPONSE_HEADER));
+        Assert.assertEquals(0, response.getTrailers().length);
+    }
+}
@@ -11,7 +11,9 @@ import org.eclipse.jetty.ee11.servlet.ServletHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.Map;
 
 import com.boku.auth.http.server.servletfilter.BokuHttpAuthFilter;
 
@@ -24,11 +26,18 @@ public class AuthTestingServer {
     private final ServletHandler servletHandler;
 
     public AuthTestingServer(BokuHttpAuthFilter authFilter) {
+        this(authFilter, Collections.emptyMap());
+    }
+
+    public AuthTestingServer(BokuHttpAuthFilter authFilter, Map<String, String> filterInitParams) {
         this.jetty = new Server(0);
 
         ServletContextHandler contextHandler = new ServletContextHandler();
         this.servletHandler = contextHandler.getServletHandler();
-        servletHandler.addFilterWithMapping(new FilterHolder(authFilter), "/auth/*", EnumSet.of(DispatcherType.REQUEST));
+        FilterHolder filterHolder = new FilterHolder(authFilter);
+        filterHolder.setInitParameters(filterInitParams);
+        filterHolder.setAsyncSupported(true);
+        servletHandler.addFilterWithMapping(filterHolder, "/auth/*", EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC));
 
         this.jetty.setHandler(contextHandler);
 
@@ -42,7 +51,9 @@ public class AuthTestingServer {
     }
 
     public void addServlet(String path, HttpServlet servlet) {
-        this.servletHandler.addServletWithMapping(new ServletHolder(servlet), path);
+        ServletHolder servletHolder = new ServletHolder(servlet);
+        servletHolder.setAsyncSupported(true);
+        this.servletHandler.addServletWithMapping(servletHolder, path);
     }
 
     public void stop() {
@@ -14,6 +14,7 @@ import com.boku.auth.http.server.servletfilter.BokuHttpAuthFilterCurrentRequestA
 import com.boku.auth.http.server.servletfilter.ThreadLocalServletRequestContextHolder;
 
 import java.util.Collections;
+import java.util.Map;
 
 public class TestEnvironment {
 
@@ -48,11 +49,16 @@ public class TestEnvironment {
     public final AuthTestingServer server;
 
     public TestEnvironment() {
+        this(Collections.emptyMap());
+    }
+
+    public TestEnvironment(Map<String, String> filterInitParams) {
         this.server = new AuthTestingServer(
             new BokuHttpAuthFilter(
                 this.requestContextHolder,
                 this.httpMessageSigner
-            )
+            ),
+            filterInitParams
         );
     }
 
@@ -1,6 +1,9 @@
 package com.boku.auth.http.server;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
 
 import com.boku.auth.http.AuthorizationHeader;
 import com.boku.auth.http.AuthorizationHeaderValidator;
@@ -50,8 +53,95 @@ public class AuthorizationContextProvider {
      * @throws AuthorizationException If the Authorization header is invalid or not supplied by the client.
      */
     public AuthorizationContext get() throws AuthorizationException {
-        CurrentRequestAuthInfo requestInfo = this.currentRequestInfoFactory.getCurrentRequestInfo();
+        return this.verify(this.currentRequestInfoFactory.getCurrentRequestInfo());
+    }
+
+    /**
+     * As per {@link #get()}, for the given request rather than the one current on this thread. Use this from threads
+     * the request context isn't current on, e.g. from an executor the request was handed off to, or always if the
+     * request context is kept only as a request attribute.
+     *
+     * @param request The framework specific request object, e.g. the ServletRequest, or a wrapper of it
+     * @return An {@link AuthorizationContext}. Does not return null.
+     * @throws AuthorizationException If the Authorization header is invalid or not supplied by the client.
+     */
+    public AuthorizationContext get(Object request) throws AuthorizationException {
+        return this.verify(this.currentRequestInfoFactory.getRequestInfo(request));
+    }
+
+    private AuthorizationContext verify(CurrentRequestAuthInfo requestInfo) throws AuthorizationException {
+        AuthorizationHeader authHeader = this.checkAuthorizationHeader(requestInfo);
+
+        this.httpMessageSigner.verifySignature(authHeader, requestInfo.getCanonicalRequest());
 
+        logger.debug("    Authorization header signature verified, returning auth context...");
+
+        return new AuthorizationContext(authHeader);
+    }
+
+    /**
+     * Asynchronous equivalent of {@link #get()}, for use from asynchronous request handlers with an
+     * {@link com.boku.auth.http.stringsigner.AsyncStringSigner AsyncStringSigner} backed {@link HttpMessageSigner}, so
+     * that the request thread is not held while the signature is checked.<br>
+     * <br>
+     * Must be called on a thread the request context is current on, since the current request is looked up before
+     * returning; only the signature check happens asynchronously. See {@link #getAsync(Object)} otherwise.
+     *
+     * @return A stage completed with a verified {@link AuthorizationContext}, or completed exceptionally with
+     *         {@link AuthorizationException} as per {@link #get()}. Does not return null.
+     */
+    public CompletionStage<AuthorizationContext> getAsync() {
+        CurrentRequestAuthInfo requestInfo;
+        try {
+            requestInfo = this.currentRequestInfoFactory.getCurrentRequestInfo();
+        } catch (AuthorizationException | RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        return this.verifyAsync(requestInfo);
+    }
+
+    /**
+     * As per {@link #getAsync()}, for the given request rather than the one current on this thread.
+     *
+     * @param request The framework specific request object, e.g. the ServletRequest, or a wrapper of it
+     * @see #get(Object)
+     */
+    public CompletionStage<AuthorizationContext> getAsync(Object request) {
+        CurrentRequestAuthInfo requestInfo;
+        try {
+            requestInfo = this.currentRequestInfoFactory.getRequestInfo(request);
+        } catch (AuthorizationException | RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+        return this.verifyAsync(requestInfo);
+    }
+
+    private CompletionStage<AuthorizationContext> verifyAsync(CurrentRequestAuthInfo requestInfo) {
+        AuthorizationHeader authHeader;
+        try {
+            authHeader = this.checkAuthorizationHeader(requestInfo);
+        } catch (AuthorizationException | RuntimeException ex) {
+            return CompletableFuture.failedFuture(ex);
+        }
+
+        CompletableFuture<AuthorizationContext> ret = new CompletableFuture<>();
+        this.httpMessageSigner.verifySignatureAsync(authHeader, requestInfo.getCanonicalRequest()).whenComplete((v, ex) -> {
+            if (ex != null) {
+                ret.completeExceptionally(ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex);
+                return;
+            }
+            logger.debug("    Authorization header signature verified, returning auth context...");
+            ret.complete(new AuthorizationContext(authHeader));
+        });
+        return ret;
+    }
+
+    /**
+     * Everything {@link #get()} checks before the signature itself.
+     *
+     * @return The validated authorization header
+     */
+    private AuthorizationHeader checkAuthorizationHeader(CurrentRequestAuthInfo requestInfo) throws AuthorizationException {
         CanonicalHttpRequest canonicalRequest = requestInfo.getCanonicalRequest();
 
         logger.debug("Providing AuthorizationContext for {} {}...", canonicalRequest.getMethod(), canonicalRequest.getPath());
@@ -71,12 +161,7 @@ public class AuthorizationContextProvider {
             logger.warn("Authorization header timestamp too old: {}", authHeader);
             throw new AuthorizationFailedException("Signature expired");
         }
-
-        this.httpMessageSigner.verifySignature(authHeader, canonicalRequest);
-
-        logger.debug("    Authorization header signature verified, returning auth context...");
-
-        return new AuthorizationContext(authHeader);
+        return authHeader;
     }
 
 }
@@ -1,6 +1,8 @@
 package com.boku.auth.http.server.factory;
 
+import com.boku.auth.http.keyprovider.CachingKeyProvider;
 import com.boku.auth.http.keyprovider.KeystoreKeyProvider;
+import com.boku.auth.http.keyprovider.ReloadingKeyProvider;
 import com.boku.auth.http.server.servletfilter.BokuHttpAuthFilter;
 import com.boku.auth.http.server.servletfilter.BokuHttpAuthFilterCurrentRequestAuthInfoFactory;
 import com.boku.auth.http.httpsigner.HttpMessageSigner;
@@ -8,7 +10,9 @@ import com.boku.auth.http.keyprovider.KeyProvider;
 import com.boku.auth.http.stringsigner.BasicStringSignerImpl;
 import com.boku.auth.http.stringsigner.StringSigner;
 import com.boku.auth.http.server.AuthorizationContextProvider;
+import com.boku.auth.http.server.servletfilter.ServletRequestContextHolder;
 import com.boku.auth.http.server.servletfilter.ThreadLocalServletRequestContextHolder;
+import com.boku.util.CryptoProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -18,9 +22,11 @@ import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.nio.file.NoSuchFileException;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Factory for server side auth components.<br>
@@ -49,8 +55,16 @@ public class ServerAuthorizationComponentsFactory {
     public static final String KEYPROVIDER_P12_FILE_KEY = "com.boku.auth.keyprovider.pkcs12.file";
     public static final String KEYPROVIDER_P12_FILE_DEFAULT = "boku-auth-keys.p12";
     public static final String KEYPROVIDER_P12_PASSWORD_KEY = "com.boku.auth.keyprovider.pkcs12.password";
+    public static final String KEYPROVIDER_P12_SNAPSHOT_KEY = "com.boku.auth.keyprovider.pkcs12.snapshot";
+    public static final String KEYPROVIDER_P12_RELOAD_INTERVAL_SECONDS_KEY = "com.boku.auth.keyprovider.pkcs12.reload-interval-seconds";
 
     public static final String KEYPROVIDER_CUSTOM_FACTORY_METHOD_KEY = "com.boku.auth.keyprovider.custom.factory-method";
+    public static final String KEYPROVIDER_CUSTOM_CACHE_KEY = "com.boku.auth.keyprovider.custom.cache";
+
+    public static final String CRYPTO_PROVIDER_KEY = "com.boku.auth.crypto.provider";
+
+    public static final String REQUEST_CONTEXT_TYPE_KEY = "com.boku.auth.request-context.type";
+    public static final String REQUEST_CONTEXT_TYPE_DEFAULT = ServletRequestContextHolder.TYPE_THREAD_LOCAL;
 
     private static final Logger logger = LoggerFactory.getLogger(ServerAuthorizationComponentsFactory.class);
 
@@ -68,7 +82,8 @@ public class ServerAuthorizationComponentsFactory {
     }
 
     private final HttpMessageSigner httpMessageSigner;
-    private final ThreadLocalServletRequestContextHolder threadLocalServletRequestContextHolder;
+    private final CryptoProvider cryptoProvider;
+    private final ServletRequestContextHolder servletRequestContextHolder;
     private final AuthorizationContextProvider authorizationContextProvider;
 
     /**
@@ -76,17 +91,67 @@ public class ServerAuthorizationComponentsFactory {
      * implementation.
      */
     public ServerAuthorizationComponentsFactory(KeyProvider keyProvider) {
-        this(new BasicStringSignerImpl(keyProvider));
+        this(keyProvider, CryptoProvider.DEFAULT);
+    }
+
+    /**
+     * As per {@link #ServerAuthorizationComponentsFactory(KeyProvider)}, taking HMAC and digest implementations from
+     * the given provider.
+     */
+    public ServerAuthorizationComponentsFactory(KeyProvider keyProvider, CryptoProvider cryptoProvider) {
+        this(
+            new BasicStringSignerImpl(keyProvider, BasicStringSignerImpl.DEFAULT_MAX_CACHED_KEYS, BasicStringSignerImpl.DEFAULT_CACHED_KEY_TTL_MILLIS, cryptoProvider),
+            cryptoProvider
+        );
+    }
+
+    /**
+     * As per {@link #ServerAuthorizationComponentsFactory(KeyProvider, CryptoProvider)}, sharing the request context
+     * between the filter and the application with the given holder, e.g. one from
+     * {@link ServletRequestContextHolder#forType}.
+     */
+    public ServerAuthorizationComponentsFactory(KeyProvider keyProvider, CryptoProvider cryptoProvider,
+                                                ServletRequestContextHolder servletRequestContextHolder) {
+        this(
+            new BasicStringSignerImpl(keyProvider, BasicStringSignerImpl.DEFAULT_MAX_CACHED_KEYS, BasicStringSignerImpl.DEFAULT_CACHED_KEY_TTL_MILLIS, cryptoProvider),
+            cryptoProvider,
+            servletRequestContextHolder
+        );
     }
 
     /**
      * Wire up server components using a custom {@link StringSigner} implementation.
      */
     public ServerAuthorizationComponentsFactory(StringSigner stringSigner) {
+        this(stringSigner, CryptoProvider.DEFAULT);
+    }
+
+    /**
+     * Wire up server components using a custom {@link StringSigner} implementation, digesting entities with digests
+     * from the given provider.
+     */
+    public ServerAuthorizationComponentsFactory(StringSigner stringSigner, CryptoProvider cryptoProvider) {
+        this(stringSigner, cryptoProvider, new ThreadLocalServletRequestContextHolder());
+    }
+
+    /**
+     * As per {@link #ServerAuthorizationComponentsFactory(StringSigner, CryptoProvider)}, sharing the request context
+     * between the filter and the application with the given holder, e.g. one from
+     * {@link ServletRequestContextHolder#forType}.
+     */
+    public ServerAuthorizationComponentsFactory(StringSigner stringSigner, CryptoProvider cryptoProvider,
+                                                ServletRequestContextHolder servletRequestContextHolder) {
+        if (cryptoProvider == null) {
+            throw new IllegalArgumentException("cryptoProvider cannot be null");
+        }
+        if (servletRequestContextHolder == null) {
+            throw new IllegalArgumentException("servletRequestContextHolder cannot be null");
+        }
+        this.cryptoProvider = cryptoProvider;
         this.httpMessageSigner = new HttpMessageSigner(stringSigner);
-        this.threadLocalServletRequestContextHolder = new ThreadLocalServletRequestContextHolder();
+        this.servletRequestContextHolder = servletRequestContextHolder;
         this.authorizationContextProvider = new AuthorizationContextProvider(
-            new BokuHttpAuthFilterCurrentRequestAuthInfoFactory(this.threadLocalServletRequestContextHolder),
+            new BokuHttpAuthFilterCurrentRequestAuthInfoFactory(this.servletRequestContextHolder),
             this.httpMessageSigner
         );
     }
@@ -102,15 +167,28 @@ public class ServerAuthorizationComponentsFactory {
      * Get the {@link BokuHttpAuthFilter} to be installed in your web application.
      */
     public BokuHttpAuthFilter getBokuHttpAuthFilter() {
-        return new BokuHttpAuthFilter(this.getThreadLocalServletRequestContextHolder(), this.getHttpMessageSigner());
+        return new BokuHttpAuthFilter(this.getServletRequestContextHolder(), this.getHttpMessageSigner(), this.getCryptoProvider());
+    }
+
+    /**
+     * Get the {@link ServletRequestContextHolder}. You should not need to access this manually in most cases.
+     */
+    public ServletRequestContextHolder getServletRequestContextHolder() {
+        return this.servletRequestContextHolder;
     }
 
     /**
-     * Get the {@link ThreadLocalServletRequestContextHolder}. You should not need to access this manually in most
-     * cases.
+     * Get the {@link ThreadLocalServletRequestContextHolder}.
+     *
+     * @throws IllegalStateException If this factory was set up with a different kind of holder
+     * @deprecated Use {@link #getServletRequestContextHolder()}
      */
+    @Deprecated
     public ThreadLocalServletRequestContextHolder getThreadLocalServletRequestContextHolder() {
-        return this.threadLocalServletRequestContextHolder;
+        if (!(this.servletRequestContextHolder instanceof ThreadLocalServletRequestContextHolder)) {
+            throw new IllegalStateException("Request context holder is not thread-local: " + this.servletRequestContextHolder.getClass().getName());
+        }
+        return (ThreadLocalServletRequestContextHolder)this.servletRequestContextHolder;
     }
 
     /**
@@ -120,6 +198,13 @@ public class ServerAuthorizationComponentsFactory {
         return this.httpMessageSigner;
     }
 
+    /**
+     * Get the {@link CryptoProvider} HMAC and digest implementations are taken from
+     */
+    public CryptoProvider getCryptoProvider() {
+        return this.cryptoProvider;
+    }
+
 
     /**
      * For static initialization via {@link BokuHttpAuthFilter} init-params.
@@ -157,8 +242,15 @@ public class ServerAuthorizationComponentsFactory {
                 throw new IllegalStateException("No " + KEYPROVIDER_P12_PASSWORD_KEY + " given for PKCS12 file " + p12File);
             }
             try {
-                keyProvider = KeystoreKeyProvider.fromPKCS12(p12File, password);
-            } catch (FileNotFoundException ex) {
+                long reloadIntervalSeconds = Long.parseLong(config.getProperty(KEYPROVIDER_P12_RELOAD_INTERVAL_SECONDS_KEY, "0"));
+                if (reloadIntervalSeconds > 0) {
+                    logger.info("{} set, checking {} for changes every {}s", KEYPROVIDER_P12_RELOAD_INTERVAL_SECONDS_KEY, p12File, reloadIntervalSeconds);
+                    keyProvider = ReloadingKeyProvider.pkcs12(p12File, password, TimeUnit.SECONDS.toMillis(reloadIntervalSeconds));
+                } else {
+                    boolean snapshot = Boolean.parseBoolean(config.getProperty(KEYPROVIDER_P12_SNAPSHOT_KEY));
+                    keyProvider = KeystoreKeyProvider.fromPKCS12(p12File, password, snapshot);
+                }
+            } catch (FileNotFoundException | NoSuchFileException ex) {
                 String cwd;
                 try {
                     cwd = new File(".").getCanonicalPath();
@@ -211,11 +303,38 @@ public class ServerAuthorizationComponentsFactory {
                 throw new IllegalStateException(o.getClass().getCanonicalName() + " returned by " + factoryMethod + " is not a KeyProvider");
             }
 
+            if (Boolean.parseBoolean(config.getProperty(KEYPROVIDER_CUSTOM_CACHE_KEY))) {
+                logger.info("{} set, caching keys from {}", KEYPROVIDER_CUSTOM_CACHE_KEY, factoryMethod);
+                keyProvider = new CachingKeyProvider(keyProvider);
+            }
+
         } else {
             throw new IllegalStateException("Unrecognized " + KEYPROVIDER_TYPE_KEY + " value, '" + kpType + "'");
         }
 
-        return new ServerAuthorizationComponentsFactory(keyProvider);
+        CryptoProvider cryptoProvider = CryptoProvider.DEFAULT;
+        String cryptoProviderName = config.getProperty(CRYPTO_PROVIDER_KEY);
+        if (cryptoProviderName != null && !cryptoProviderName.isEmpty()) {
+            logger.info("{} set, using JCA provider {}", CRYPTO_PROVIDER_KEY, cryptoProviderName);
+            try {
+                cryptoProvider = CryptoProvider.forName(cryptoProviderName);
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalStateException("Invalid " + CRYPTO_PROVIDER_KEY + " value, '" + cryptoProviderName + "'", ex);
+            }
+        }
+
+        String requestContextType = config.getProperty(REQUEST_CONTEXT_TYPE_KEY, REQUEST_CONTEXT_TYPE_DEFAULT);
+        ServletRequestContextHolder requestContextHolder;
+        try {
+            requestContextHolder = ServletRequestContextHolder.forType(requestContextType);
+        } catch (IllegalArgumentException ex) {
+            throw new IllegalStateException("Unrecognized " + REQUEST_CONTEXT_TYPE_KEY + " value, '" + requestContextType + "'", ex);
+        }
+        if (!REQUEST_CONTEXT_TYPE_DEFAULT.equals(requestContextType)) {
+            logger.info("{} set to {}", REQUEST_CONTEXT_TYPE_KEY, requestContextType);
+        }
+
+        return new ServerAuthorizationComponentsFactory(keyProvider, cryptoProvider, requestContextHolder);
     }
 
 
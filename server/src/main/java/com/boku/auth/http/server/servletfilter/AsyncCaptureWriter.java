@@ -0,0 +1,140 @@
+package com.boku.auth.http.server.servletfilter;
+
+import java.io.IOException;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The {@link WriteListener} on the real output stream of an async request whose response is captured by a
+ * {@link ResponseCaptureOutputStream}.<br>
+ * <br>
+ * While the application is writing, write callbacks are passed on to its own listener, if it set one. Once the
+ * application completes the request, the captured response is sent without blocking, a bit more each time the
+ * container says the stream is ready, so no thread waits on a slow client.<br>
+ * <br>
+ * The container may hold on to the array passed to a non-blocking write until the stream is ready again, so the
+ * captured segments are only released, and the request completed, once the stream is ready after the last write.
+ */
+class AsyncCaptureWriter implements WriteListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(AsyncCaptureWriter.class);
+
+    private final ServletOutputStream out;
+    private final ResponseCaptureOutputStream capture;
+
+    private boolean registered;
+    /**
+     * Registered, but the container has not yet made its first call to {@link #onWritePossible}.
+     */
+    private boolean callbackPending;
+    private WriteListener applicationListener;
+    private Runnable done;
+
+    AsyncCaptureWriter(ServletOutputStream out, ResponseCaptureOutputStream capture) {
+        this.out = out;
+        this.capture = capture;
+    }
+
+    /**
+     * Pass write callbacks on to the given listener until the response is drained.
+     */
+    void setApplicationListener(WriteListener applicationListener) {
+        synchronized (this) {
+            if (this.applicationListener != null) {
+                throw new IllegalStateException("WriteListener already set");
+            }
+            this.applicationListener = applicationListener;
+        }
+        // The container calls back once, when the stream is ready, and the capture is always ready after that
+        this.register();
+    }
+
+    /**
+     * Send everything captured, then run the given callback, whether or not that succeeded.
+     */
+    void drain(Runnable done) {
+        boolean drainNow;
+        synchronized (this) {
+            this.done = done;
+            // If the container's first callback is still to come, it does the draining, so that only one thread ever
+            // writes to the stream
+            drainNow = this.registered && !this.callbackPending;
+        }
+        if (!drainNow) {
+            this.register();
+            return;
+        }
+        // Already called back, and nothing has been written so the container won't call again by itself
+        try {
+            this.onWritePossible();
+        } catch (IOException ex) {
+            this.onError(ex);
+        }
+    }
+
+    private void register() {
+        synchronized (this) {
+            if (this.registered) {
+                return;
+            }
+            this.registered = true;
+            this.callbackPending = true;
+        }
+        this.out.setWriteListener(this);
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        Runnable done;
+        WriteListener applicationListener;
+        synchronized (this) {
+            this.callbackPending = false;
+            done = this.done;
+            applicationListener = this.applicationListener;
+        }
+        if (done == null) {
+            if (applicationListener != null) {
+                applicationListener.onWritePossible();
+            }
+            return;
+        }
+        // If the last write is still in progress, isReady() arranges for another call once it is done, and
+        // drainTo() has nothing more to write by then
+        if (this.capture.drainTo(this.out) && this.out.isReady()) {
+            this.finish();
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        Runnable done;
+        WriteListener applicationListener;
+        synchronized (this) {
+            // No first onWritePossible is coming after an error, so drain() must drive it
+            this.callbackPending = false;
+            done = this.done;
+            applicationListener = this.applicationListener;
+        }
+        if (done == null) {
+            if (applicationListener != null) {
+                applicationListener.onError(t);
+            }
+            return;
+        }
+        logger.debug("Failed to send captured response: {}", t.toString());
+        this.finish();
+    }
+
+    private void finish() {
+        Runnable done;
+        synchronized (this) {
+            done = this.done;
+            this.done = () -> {};
+        }
+        done.run();
+    }
+}
@@ -1,26 +1,22 @@
 package com.boku.auth.http.server.servletfilter;
 
-import java.security.DigestInputStream;
 import java.util.Enumeration;
 
 import jakarta.servlet.http.HttpServletRequest;
 
 import com.boku.auth.http.AuthorizationHeader;
+import com.boku.auth.http.CompactAuthorizationHeader;
 import com.boku.auth.http.exception.InvalidAuthorizationHeaderException;
-import com.boku.util.DigestFactory;
-import com.boku.util.HexCodec;
 
 /**
  * Internal util class for functions shared by {@link BokuHttpAuthFilter} related stuff.
  */
 class BHAServletUtil {
 
-    private static final String SHA256_EMPTY_DIGEST = HexCodec.encodeString(DigestFactory.getSHA256().digest(new byte[0]));
-
     /**
      * Extract exactly one parsed {@link AuthorizationHeader} from the given servlet request, throwing if it's invalid.
      */
-    static AuthorizationHeader getAuthorizationHeader(HttpServletRequest request) throws InvalidAuthorizationHeaderException {
+    static CompactAuthorizationHeader getAuthorizationHeader(HttpServletRequest request) throws InvalidAuthorizationHeaderException {
         Enumeration<String> authHeaders = request.getHeaders(AuthorizationHeader.REQUEST_HEADER);
         if (authHeaders == null) {
             throw new IllegalStateException("Servlet implementation did not supply headers");
@@ -33,21 +29,27 @@ class BHAServletUtil {
             throw new InvalidAuthorizationHeaderException("Multiple " + AuthorizationHeader.REQUEST_HEADER + " headers provided");
         }
         try {
-            return AuthorizationHeader.parse(authHeaderValue);
+            return CompactAuthorizationHeader.parse(authHeaderValue);
         } catch (IllegalArgumentException ex) {
             throw new InvalidAuthorizationHeaderException("Invalid " + AuthorizationHeader.REQUEST_HEADER + " header: " + ex.getMessage());
         }
     }
 
     /**
-     * Return the digest from the given {@link DigestInputStream}, or null if zero bytes have been read through the stream.
+     * Return the scheme from the request's Authorization header, without otherwise parsing or checking it, or null if
+     * there is no such header.
      */
-    static String getEntityDigest(DigestInputStream dis) {
-        String digest = HexCodec.encodeString(dis.getMessageDigest().digest());
-        if (SHA256_EMPTY_DIGEST.equals(digest)) {
+    static String getScheme(HttpServletRequest request) {
+        String authHeaderValue = request.getHeader(AuthorizationHeader.REQUEST_HEADER);
+        if (authHeaderValue == null) {
             return null;
         }
-        return digest;
+        authHeaderValue = authHeaderValue.trim();
+        int end = 0;
+        while (end < authHeaderValue.length() && !Character.isWhitespace(authHeaderValue.charAt(end))) {
+            end++;
+        }
+        return authHeaderValue.substring(0, end);
     }
 
 }
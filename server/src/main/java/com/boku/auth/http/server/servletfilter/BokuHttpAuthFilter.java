@@ -1,38 +1,40 @@
 package com.boku.auth.http.server.servletfilter;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
-import java.security.DigestInputStream;
-import java.security.MessageDigest;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
 
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.DispatcherType;
 import jakarta.servlet.Filter;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.FilterConfig;
+import jakarta.servlet.ReadListener;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.ServletInputStream;
-import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.ServletRequest;
 import jakarta.servlet.ServletResponse;
-import jakarta.servlet.WriteListener;
 import jakarta.servlet.http.HttpServletRequest;
-import jakarta.servlet.http.HttpServletRequestWrapper;
 import jakarta.servlet.http.HttpServletResponse;
-import jakarta.servlet.http.HttpServletResponseWrapper;
 
 import com.boku.auth.http.AuthorizationHeader;
+import com.boku.auth.http.CompactAuthorizationHeader;
 import com.boku.auth.http.server.AuthorizationContextProvider;
 import com.boku.auth.http.exception.InvalidApplicationSuppliedAuthorizationHeaderException;
 import com.boku.auth.http.exception.InvalidAuthorizationHeaderException;
 import com.boku.auth.http.server.factory.ServerAuthorizationComponentsFactory;
 import com.boku.auth.http.httpsigner.HttpMessageSigner;
-import com.boku.util.DigestFactory;
+import com.boku.auth.http.httpsigner.SignatureScheme;
+import com.boku.util.CryptoProvider;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -40,17 +42,30 @@ import org.slf4j.LoggerFactory;
  * Stores information about the request so that it may be accessed by the application using
  * {@link AuthorizationContextProvider}.<br>
  * <br>
- * WARNING: This filter DOES NOT reject requests based on auth information by itself.
+ * WARNING: This filter DOES NOT reject requests based on auth information by itself.<br>
+ * <br>
+ * Async requests are supported: the request entity may be read with a {@link jakarta.servlet.ReadListener}, the
+ * response written with a {@link jakarta.servlet.WriteListener}, and the request context is available in those and
+ * other async callbacks. The response is signed and sent when the application calls
+ * {@link jakarta.servlet.AsyncContext#complete()}, without blocking a thread on a slow client. If the application uses
+ * {@link jakarta.servlet.AsyncContext#dispatch()}, map this filter for ASYNC dispatches as well as REQUEST.
  */
 public class BokuHttpAuthFilter implements Filter {
 
     private static final Logger logger = LoggerFactory.getLogger(BokuHttpAuthFilter.class);
 
+    private static final String TE_HEADER = "TE";
+    private static final String TRAILER_HEADER = "Trailer";
+
     private final List<String> signedResponseHeaders = new ArrayList<>(Collections.singletonList("Content-Type"));
+    private long responseSpillThreshold = ResponseCaptureOutputStream.NEVER_SPILL;
+    private Path responseSpillDirectory;
+    private boolean responseTrailerSigning;
 
     private final boolean staticInit;
-    private ThreadLocalServletRequestContextHolder threadLocalRequestContext;
+    private ServletRequestContextHolder requestContextHolder;
     private BokuHttpAuthFilterResponseSigner responseSigner;
+    private CryptoProvider cryptoProvider;
 
     private boolean tomcatWarningChecked = false;
 
@@ -58,10 +73,31 @@ public class BokuHttpAuthFilter implements Filter {
      * Constructor for users supporting dependency injection.<br>
      * (Either via manual filter registration, or using a shim such as org.springframework.web.filter.DelegatingFilterProxy)
      */
+    public BokuHttpAuthFilter(ServletRequestContextHolder requestContextHolder,
+                              HttpMessageSigner httpMessageSigner) {
+        this(requestContextHolder, httpMessageSigner, CryptoProvider.DEFAULT);
+    }
+
+    /**
+     * Kept for binary compatibility with code compiled against earlier versions.
+     *
+     * @deprecated Use {@link #BokuHttpAuthFilter(ServletRequestContextHolder, HttpMessageSigner)}
+     */
+    @Deprecated
     public BokuHttpAuthFilter(ThreadLocalServletRequestContextHolder threadLocalRequestContextHolder,
                               HttpMessageSigner httpMessageSigner) {
+        this((ServletRequestContextHolder)threadLocalRequestContextHolder, httpMessageSigner);
+    }
+
+    /**
+     * As per {@link #BokuHttpAuthFilter(ServletRequestContextHolder, HttpMessageSigner)}, digesting request and
+     * response entities with digests from the given provider.
+     */
+    public BokuHttpAuthFilter(ServletRequestContextHolder requestContextHolder,
+                              HttpMessageSigner httpMessageSigner, CryptoProvider cryptoProvider) {
         this.staticInit = false;
-        this.threadLocalRequestContext = threadLocalRequestContextHolder;
+        this.requestContextHolder = requestContextHolder;
+        this.cryptoProvider = cryptoProvider;
         this.responseSigner = new BokuHttpAuthFilterResponseSigner(httpMessageSigner);
     }
 
@@ -81,12 +117,27 @@ public class BokuHttpAuthFilter implements Filter {
      * Per-instance params:<ul>
      *     <li><i>com.boku.auth.http.server.response.signed-headers</i>: comma-separated list of headers to sign if they
      *     are present in the response. Defaults to just 'Content-Type'.</li>
+     *     <li><i>com.boku.auth.http.server.response.spill-threshold-kb</i>: responses are held back until they can be
+     *     signed, and only this many KB of each are kept on the heap, with the rest written to a temporary file.
+     *     Defaults to keeping the whole response on the heap.</li>
+     *     <li><i>com.boku.auth.http.server.response.spill-directory</i>: where to create those temporary files.
+     *     Defaults to the JVM's temporary directory, java.io.tmpdir.</li>
+     *     <li><i>com.boku.auth.http.server.response.trailer-signing</i>: 'true' to stream responses to clients which
+     *     send "TE: trailers" as they are written, and send the signature in an X-SignedResponse trailer once they are
+     *     complete, rather than holding them back to sign in a header. Only used for HTTP/1.1 and HTTP/2 requests;
+     *     other responses are buffered as usual. Any Content-Length set by the application is dropped from streamed
+     *     responses. Defaults to 'false'.</li>
      * </ul>
      * Global params:<ul>
      *     <li><i>com.boku.auth.keyprovider.type</i>: how to get a {@link com.boku.auth.http.keyprovider.KeyProvider KeyProvider}. One of 'PKCS12' (default, get keys from a PKCS12 key store) or 'custom' (get any kind of KeyProvider instance from a static factory method).</li>
      *     <li><i>com.boku.auth.keyprovider.pkcs12.file</i>: path to a PKCS12 file. Defaults to 'boku-auth-keys.p12' in the current directory. See documentation on {@link com.boku.auth.http.keyprovider.KeystoreKeyProvider} for how to populate this file.</li>
      *     <li><i>com.boku.auth.keyprovider.pkcs12.password</i>: the password for the PKCS12 file referenced by com.boku.auth.keyprovider.pkcs12.file</li>
+     *     <li><i>com.boku.auth.keyprovider.pkcs12.snapshot</i>: 'true' to decrypt all keys in the PKCS12 file at startup and look them up without locking. See {@link com.boku.auth.http.keyprovider.KeystoreKeyProvider}. Defaults to 'false'.</li>
+     *     <li><i>com.boku.auth.keyprovider.pkcs12.reload-interval-seconds</i>: if greater than 0, check the PKCS12 file for changes this often, and reload it without a restart when it changes. Implies snapshot mode. See {@link com.boku.auth.http.keyprovider.ReloadingKeyProvider}. Defaults to 0.</li>
      *     <li><i>com.boku.auth.keyprovider.custom.factory-method</i>: name of a public static method, taking no arguments, that will return a KeyProvider instance of some kind. E.g. com.example.SuperSecureKeyProviderFactory.getInstance</li>
+     *     <li><i>com.boku.auth.crypto.provider</i>: JCA provider to take HMAC and digest implementations from, by provider name or {@link java.security.Provider Provider} class name. See {@link CryptoProvider#forName}. Defaults to the JVM's default providers.</li>
+     *     <li><i>com.boku.auth.request-context.type</i>: how the application finds the request context when it doesn't pass the request to {@link AuthorizationContextProvider}. One of 'thread-local' (default), 'scoped-value' (for virtual threads, needs Java 25, or 21 with preview features enabled) or 'request-attribute' (no per-thread state, the request must always be passed). See {@link ServletRequestContextHolder}.</li>
+     *     <li><i>com.boku.auth.keyprovider.custom.cache</i>: 'true' to wrap the custom KeyProvider in a {@link com.boku.auth.http.keyprovider.CachingKeyProvider CachingKeyProvider} with default settings, e.g. when it calls a remote key service. Defaults to 'false'.</li>
      * </ul>
      *
      * @param filterConfig The FilterConfig containing init params
@@ -111,18 +162,46 @@ public class BokuHttpAuthFilter implements Filter {
             }
         }
 
+        String spillThresholdKB = initParams.get("com.boku.auth.http.server.response.spill-threshold-kb");
+        if (spillThresholdKB != null && spillThresholdKB.trim().length() > 0) {
+            long kb;
+            try {
+                kb = Long.parseLong(spillThresholdKB.trim());
+            } catch (NumberFormatException ex) {
+                throw new IllegalStateException("Invalid com.boku.auth.http.server.response.spill-threshold-kb, " + spillThresholdKB);
+            }
+            if (kb < 0) {
+                throw new IllegalStateException("com.boku.auth.http.server.response.spill-threshold-kb cannot be negative, got " + kb);
+            }
+            this.responseSpillThreshold = kb > Long.MAX_VALUE >> 10 ? ResponseCaptureOutputStream.NEVER_SPILL : kb << 10;
+        }
+        String spillDirectory = initParams.get("com.boku.auth.http.server.response.spill-directory");
+        if (spillDirectory != null && spillDirectory.trim().length() > 0) {
+            this.responseSpillDirectory = Paths.get(spillDirectory.trim());
+            if (!Files.isDirectory(this.responseSpillDirectory)) {
+                throw new IllegalStateException("com.boku.auth.http.server.response.spill-directory is not a directory: " + this.responseSpillDirectory);
+            }
+        }
+
+        this.responseTrailerSigning = "true".equalsIgnoreCase(initParams.get("com.boku.auth.http.server.response.trailer-signing"));
+
         if (this.staticInit) {
             ServerAuthorizationComponentsFactory.init(initParams);
 
             ServerAuthorizationComponentsFactory factory = ServerAuthorizationComponentsFactory.getInstance();
-            this.threadLocalRequestContext = factory.getThreadLocalServletRequestContextHolder();
+            this.requestContextHolder = factory.getServletRequestContextHolder();
+            this.cryptoProvider = factory.getCryptoProvider();
             this.responseSigner = new BokuHttpAuthFilterResponseSigner(factory.getHttpMessageSigner());
         }
     }
 
-    private MessageDigest getEntityDigester() {
-        // This will depend on Authorization header in future
-        return DigestFactory.getSHA256();
+    /**
+     * @return The scheme named in the Authorization header, which determines how the request and response entities are
+     *         digested. Where that is unknown, the request will fail verification anyway, so any digest will do.
+     */
+    private SignatureScheme getSignatureScheme(HttpServletRequest httpRequest) {
+        SignatureScheme scheme = SignatureScheme.forName(BHAServletUtil.getScheme(httpRequest));
+        return scheme != null ? scheme : SignatureScheme.HMAC_SHA256;
     }
 
     @Override
@@ -130,21 +209,26 @@ public class BokuHttpAuthFilter implements Filter {
         HttpServletRequest httpRequest = (HttpServletRequest)request;
         HttpServletResponse httpResponse = (HttpServletResponse)response;
 
+        // An async dispatch of a request we're already part way through: carry on with the same context and response
+        if (request.getDispatcherType() == DispatcherType.ASYNC) {
+            FilterRequestWrapper requestWrapper = FilterRequestWrapper.find(request);
+            if (requestWrapper != null) {
+                requestWrapper.redispatch(chain, request, response);
+                return;
+            }
+        }
+
         // First check if auth processing is even necessary.
         //
-        // If the client did not supply an Authorization header, still store the request info in the thread-local so
-        // that the error can be surfaced at the application's discretion, but don't waste CPU and memory digesting and
+        // If the client did not supply an Authorization header, still make the request context available so that the
+        // error can be surfaced at the application's discretion, but don't waste CPU and memory digesting and
         // buffering the entities because we're never going to use that information.
 
         if (httpRequest.getHeader(AuthorizationHeader.REQUEST_HEADER) == null) {
             logger.debug("Not doing auth processing for {} {}, because no Authorization header supplied",
                     httpRequest.getMethod(), httpRequest.getRequestURI());
-            this.threadLocalRequestContext.open(httpRequest, null);
-            try {
-                chain.doFilter(httpRequest, httpResponse);
-            } finally {
-                this.threadLocalRequestContext.close();
-            }
+            ServletRequestContextHolder.ServletRequestContext requestContext = this.requestContextHolder.open(httpRequest, null);
+            this.requestContextHolder.runWith(requestContext, () -> chain.doFilter(httpRequest, httpResponse));
             return;
         }
 
@@ -153,63 +237,120 @@ public class BokuHttpAuthFilter implements Filter {
             this.tomcatWarningChecked = true;
         }
 
-        // Listen in on the request InputStream and make a digest of everything that goes through
-        final DigestInputStream digestInputStream = new DigestInputStream(
-                request.getInputStream(),
-                this.getEntityDigester()
+        // Listen in on the request InputStream and make a digest of everything that goes through. Non-blocking reads
+        // go to the real stream's ReadListener, but the data still comes through here.
+        SignatureScheme scheme = this.getSignatureScheme(httpRequest);
+        ServletInputStream requestInputStream = request.getInputStream();
+        final EntityDigesterInputStream digestInputStream = new EntityDigesterInputStream(
+                requestInputStream,
+                scheme.newEntityDigester(this.cryptoProvider)
+        );
+
+        // Make the context current, so while the child filters are running they have access to it
+        ServletRequestContextHolder.ServletRequestContext requestContext =
+                this.requestContextHolder.open(httpRequest, digestInputStream.getDigester());
+        this.requestContextHolder.runWith(requestContext, () -> {
+            if (this.responseTrailerSigning && acceptsTrailers(httpRequest)) {
+                this.doFilterTrailerSigned(httpRequest, httpResponse, chain, scheme, requestContext, digestInputStream, requestInputStream);
+            } else {
+                this.doFilterBuffered(httpRequest, httpResponse, chain, scheme, requestContext, digestInputStream, requestInputStream);
+            }
+        });
+    }
+
+    /**
+     * Hold back the whole response until the application is done, so that the signature can be sent in a header.
+     */
+    private void doFilterBuffered(HttpServletRequest httpRequest, HttpServletResponse httpResponse, FilterChain chain,
+                                  SignatureScheme scheme,
+                                  ServletRequestContextHolder.ServletRequestContext requestContext,
+                                  EntityDigesterInputStream digestInputStream, ServletInputStream requestInputStream) throws IOException, ServletException {
+
+        // Capture the OutputStream, digesting as it goes, so we can sign the response when done.
+        ResponseCaptureOutputStream responseCapture = new ResponseCaptureOutputStream(
+                SegmentPool.DEFAULT,
+                scheme.newEntityDigester(this.cryptoProvider),
+                this.responseSpillThreshold,
+                this.responseSpillDirectory
+        );
+        CapturingResponseWrapper responseWrapper = new CapturingResponseWrapper(httpResponse, responseCapture);
+        BufferedResponseFinisher finisher = new BufferedResponseFinisher(httpRequest, httpResponse, requestContext, responseWrapper, responseCapture);
+        FilterRequestWrapper requestWrapper = this.wrapRequest(httpRequest, responseWrapper, requestContext, digestInputStream, requestInputStream, finisher);
+
+        // Non-blocking writes go into the capture, which is always ready, so the application's listener only needs
+        // calling once, when the container is ready for the real stream
+        responseCapture.setWriteListenerHandler(
+                listener -> finisher.asyncWriter().setApplicationListener(requestWrapper.inContext(listener))
         );
 
-        // Also buffer the OutputStream, so we can sign the response when done.
-        final ByteArrayOutputStream outputBuffer = new ByteArrayOutputStream();
+        this.invokeChain(requestWrapper, responseWrapper, chain);
+    }
 
-        // Set up the thread-local, so while the child filters are running they have access to the context
-        this.threadLocalRequestContext.open(httpRequest, digestInputStream);
-        int requestContextAccessCount;
-        try {
-            logger.debug("Invoking filter chain for {} {}...", httpRequest.getMethod(), httpRequest.getRequestURI());
-
-            // Invoke the chain with our spies in place.
-            chain.doFilter(
-                    new HttpServletRequestWrapper(httpRequest) {
-
-                        @Override
-                        public ServletInputStream getInputStream() {
-                            return new InputStreamAsServletInputStream(digestInputStream);
-                        }
-                    },
-                    new HttpServletResponseWrapper(httpResponse) {
-
-                        @Override
-                        public PrintWriter getWriter() throws IOException {
-                            return new PrintWriter(new OutputStreamWriter(outputBuffer, this.getCharacterEncoding()));
-                        }
-
-                        @Override
-                        public ServletOutputStream getOutputStream() {
-                            return new ServletOutputStream() {
-                                @Override
-                                public void write(int b) {
-                                    outputBuffer.write(b);
-                                }
-                                @Override
-                                public boolean isReady() {
-                                    return true;
-                                }
-                                @Override
-                                public void setWriteListener(WriteListener writeListener) {
-                                    throw new UnsupportedOperationException();
-                                }
-                            };
-                        }
-                    }
-            );
+    /**
+     * Stream the response through as the application writes it, and send the signature in a trailer once it's done.
+     */
+    private void doFilterTrailerSigned(HttpServletRequest httpRequest, HttpServletResponse httpResponse, FilterChain chain,
+                                       SignatureScheme scheme,
+                                       ServletRequestContextHolder.ServletRequestContext requestContext,
+                                       EntityDigesterInputStream digestInputStream, ServletInputStream requestInputStream) throws IOException, ServletException {
+        logger.debug("Streaming response to {} {}, with signature in trailer", httpRequest.getMethod(), httpRequest.getRequestURI());
+
+        StreamingResponseOutputStream responseStream = new StreamingResponseOutputStream(
+                httpResponse.getOutputStream(),
+                scheme.newEntityDigester(this.cryptoProvider)
+        );
+        StreamingResponseWrapper responseWrapper = new StreamingResponseWrapper(httpResponse, responseStream);
+        httpResponse.setHeader(TRAILER_HEADER, AuthorizationHeader.RESPONSE_HEADER);
+
+        SignatureTrailer trailer = new SignatureTrailer(
+                () -> this.signResponse(httpRequest, httpResponse, requestContext, responseStream.digest())
+        );
+        // The container asks for the trailer as the response completes, which may be before the chain returns if the
+        // application closes the stream itself
+        httpResponse.setTrailerFields(trailer);
+
+        TrailerResponseFinisher finisher = new TrailerResponseFinisher(httpRequest, requestContext, responseWrapper, trailer);
+        FilterRequestWrapper requestWrapper = this.wrapRequest(httpRequest, responseWrapper, requestContext, digestInputStream, requestInputStream, finisher);
+        responseStream.setWriteListenerDecorator(requestWrapper::inContext);
 
-            requestContextAccessCount = this.threadLocalRequestContext.getAccessCount();
+        this.invokeChain(requestWrapper, responseWrapper, chain);
+    }
+
+    private FilterRequestWrapper wrapRequest(HttpServletRequest httpRequest, HttpServletResponse responseWrapper,
+                                             ServletRequestContextHolder.ServletRequestContext requestContext,
+                                             EntityDigesterInputStream digestInputStream, ServletInputStream requestInputStream,
+                                             FilterRequestWrapper.Finisher finisher) {
+        FilterRequestWrapper[] requestWrapper = new FilterRequestWrapper[1];
+        ServletInputStream inputStream = new InputStreamAsServletInputStream(digestInputStream, requestInputStream) {
+
+            @Override
+            public void setReadListener(ReadListener readListener) {
+                super.setReadListener(requestWrapper[0].inContext(readListener));
+            }
+        };
+        requestWrapper[0] = new FilterRequestWrapper(
+                httpRequest, responseWrapper, this.requestContextHolder, requestContext, inputStream, finisher
+        );
+        return requestWrapper[0];
+    }
 
-        } finally {
-            this.threadLocalRequestContext.close();
+    private void invokeChain(FilterRequestWrapper requestWrapper, HttpServletResponse responseWrapper, FilterChain chain) throws IOException, ServletException {
+        logger.debug("Invoking filter chain for {} {}...", requestWrapper.getMethod(), requestWrapper.getRequestURI());
+
+        // Invoke the chain with our spies in place.
+        try {
+            chain.doFilter(requestWrapper, responseWrapper);
+        } catch (IOException | ServletException | RuntimeException | Error ex) {
+            requestWrapper.chainFailed();
+            throw ex;
         }
 
+        // Unless the application went async, we're done running the request, time to sign the response
+        requestWrapper.chainReturned();
+    }
+
+    private static void logAccessCount(HttpServletRequest httpRequest, ServletRequestContextHolder.ServletRequestContext requestContext) {
+        int requestContextAccessCount = requestContext.accessCount.get();
         if (requestContextAccessCount == 0) {
             logger.warn("Request information was not accessed for request to {} {}, i.e. auth info was not checked!",
                     httpRequest.getMethod(), httpRequest.getRequestURI());
@@ -217,19 +358,172 @@ public class BokuHttpAuthFilter implements Filter {
             logger.debug("Done invoking filter chain for {} {}, request auth info accessed {} times",
                     httpRequest.getMethod(), httpRequest.getRequestURI(), requestContextAccessCount);
         }
+    }
+
+    /**
+     * Signs a captured response into a header, then sends it: straight away on this thread, or without blocking for
+     * async requests.
+     */
+    private class BufferedResponseFinisher implements FilterRequestWrapper.Finisher {
+
+        private final HttpServletRequest httpRequest;
+        private final HttpServletResponse httpResponse;
+        private final ServletRequestContextHolder.ServletRequestContext requestContext;
+        private final CapturingResponseWrapper responseWrapper;
+        private final ResponseCaptureOutputStream responseCapture;
+        private AsyncCaptureWriter asyncWriter;
+
+        BufferedResponseFinisher(HttpServletRequest httpRequest, HttpServletResponse httpResponse,
+                                 ServletRequestContextHolder.ServletRequestContext requestContext,
+                                 CapturingResponseWrapper responseWrapper, ResponseCaptureOutputStream responseCapture) {
+            this.httpRequest = httpRequest;
+            this.httpResponse = httpResponse;
+            this.requestContext = requestContext;
+            this.responseWrapper = responseWrapper;
+            this.responseCapture = responseCapture;
+        }
 
-        // We're done running the request, time to sign the response
-        byte[] respData = outputBuffer.toByteArray();
+        synchronized AsyncCaptureWriter asyncWriter() {
+            if (this.asyncWriter == null) {
+                try {
+                    this.asyncWriter = new AsyncCaptureWriter(this.httpResponse.getOutputStream(), this.responseCapture);
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+            return this.asyncWriter;
+        }
+
+        private void sign() {
+            logAccessCount(this.httpRequest, this.requestContext);
+            this.responseWrapper.flushWriter();
+            String signature = signResponse(this.httpRequest, this.httpResponse, this.requestContext, this.responseCapture.digest());
+            if (signature != null) {
+                this.httpResponse.setHeader(AuthorizationHeader.RESPONSE_HEADER, signature);
+            }
+        }
+
+        @Override
+        public void finish() throws IOException {
+            try {
+                this.sign();
+                this.responseCapture.writeTo(this.httpResponse.getOutputStream());
+            } finally {
+                this.responseCapture.release();
+            }
+        }
+
+        @Override
+        public void finishAsync(AsyncContext asyncContext) {
+            try {
+                this.sign();
+                this.asyncWriter().drain(() -> {
+                    this.responseCapture.release();
+                    asyncContext.complete();
+                });
+            } catch (RuntimeException | Error ex) {
+                this.responseCapture.release();
+                asyncContext.complete();
+                throw ex;
+            }
+        }
+
+        @Override
+        public void abandon() {
+            this.responseCapture.release();
+        }
+    }
+
+    /**
+     * Makes sure the trailer is signed once the application is done, rather than whenever the container gets round
+     * to it.
+     */
+    private static class TrailerResponseFinisher implements FilterRequestWrapper.Finisher {
+
+        private final HttpServletRequest httpRequest;
+        private final ServletRequestContextHolder.ServletRequestContext requestContext;
+        private final StreamingResponseWrapper responseWrapper;
+        private final SignatureTrailer trailer;
+
+        TrailerResponseFinisher(HttpServletRequest httpRequest,
+                                ServletRequestContextHolder.ServletRequestContext requestContext,
+                                StreamingResponseWrapper responseWrapper, SignatureTrailer trailer) {
+            this.httpRequest = httpRequest;
+            this.requestContext = requestContext;
+            this.responseWrapper = responseWrapper;
+            this.trailer = trailer;
+        }
+
+        @Override
+        public void finish() {
+            logAccessCount(this.httpRequest, this.requestContext);
+            this.responseWrapper.flushWriter();
+            this.trailer.get();
+        }
+
+        @Override
+        public void finishAsync(AsyncContext asyncContext) {
+            try {
+                this.finish();
+            } finally {
+                asyncContext.complete();
+            }
+        }
+
+        @Override
+        public void abandon() {
+            // The container may still send the trailer with whatever error or truncated response it ends up sending,
+            // which must not go out signed
+            this.trailer.disarm();
+        }
+    }
+
+    /**
+     * True if the client said it will accept trailers, i.e. sent "TE: trailers", over a protocol which can carry them.
+     */
+    private static boolean acceptsTrailers(HttpServletRequest httpRequest) {
+        if (!"HTTP/1.1".equals(httpRequest.getProtocol()) && !"HTTP/2.0".equals(httpRequest.getProtocol())) {
+            return false;
+        }
+        Enumeration<String> values = httpRequest.getHeaders(TE_HEADER);
+        if (values == null) {
+            return false;
+        }
+        while (values.hasMoreElements()) {
+            String value = values.nextElement();
+            if (value == null) {
+                continue;
+            }
+            for (String coding : value.split(",")) {
+                int semi = coding.indexOf(';');
+                if ((semi < 0 ? coding : coding.substring(0, semi)).trim().equalsIgnoreCase("trailers")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Work out the response signature, if the request had an Authorization header referencing a key to sign with.
+     *
+     * @return The value for the response signature header or trailer, or null if the response cannot be signed
+     */
+    private String signResponse(HttpServletRequest httpRequest, HttpServletResponse httpResponse,
+                                ServletRequestContextHolder.ServletRequestContext requestContext,
+                                String entityDigest) {
 
-        // Try and get the auth header so we can use the referenced key, otherwise don't sign the response
-        AuthorizationHeader requestAuthHeader;
+        // Try and get the auth header so we can use the referenced key, otherwise don't sign the response. Usually the
+        // application has already had it parsed while checking the request.
+        CompactAuthorizationHeader requestAuthHeader = requestContext.cachedAuthHeader;
         try {
-            requestAuthHeader = BHAServletUtil.getAuthorizationHeader(httpRequest);
+            if (requestAuthHeader == null) {
+                requestAuthHeader = BHAServletUtil.getAuthorizationHeader(httpRequest);
+            }
         } catch (InvalidAuthorizationHeaderException ex) {
             logger.debug("Not signing response to {} {}, because request had invalid Authorization header: {}",
                     httpRequest.getMethod(), httpRequest.getRequestURI(), ex.getMessage());
-            response.getOutputStream().write(respData);
-            return;
+            return null;
         }
 
         logger.debug("Signing response to {} {} based on info in request auth header: {}",
@@ -238,18 +532,50 @@ public class BokuHttpAuthFilter implements Filter {
         try {
             AuthorizationHeader respAuthHeader = this.responseSigner.signResponse(
                     requestAuthHeader, this.signedResponseHeaders,
-                    httpResponse, respData
+                    httpResponse, entityDigest
             );
             logger.debug("Sending response Authorization header: {}", respAuthHeader);
-            httpResponse.setHeader(AuthorizationHeader.RESPONSE_HEADER, respAuthHeader.toString());
+            return respAuthHeader.toString();
         } catch (InvalidApplicationSuppliedAuthorizationHeaderException ex) {
             // This is expected when the inbound Authorization header referred to an invalid partner or key ID
             logger.error("Failed to sign response to {} {}: {} (inbound request Authorization header: {})",
                     httpRequest.getMethod(), httpRequest.getRequestURI(), ex.toString(), requestAuthHeader
             );
+            return null;
         }
+    }
+
+    /**
+     * Trailer fields holding the response signature, worked out once, when first asked for.
+     */
+    private static final class SignatureTrailer implements Supplier<Map<String, String>> {
+
+        private final Supplier<String> signer;
+        private Map<String, String> fields;
 
-        response.getOutputStream().write(respData);
+        SignatureTrailer(Supplier<String> signer) {
+            this.signer = signer;
+        }
+
+        @Override
+        public synchronized Map<String, String> get() {
+            if (this.fields == null) {
+                String signature = this.signer.get();
+                this.fields = signature != null
+                    ? Collections.singletonMap(AuthorizationHeader.RESPONSE_HEADER, signature)
+                    : Collections.emptyMap();
+            }
+            return this.fields;
+        }
+
+        /**
+         * Leave the response unsigned, unless the signature has already been worked out.
+         */
+        synchronized void disarm() {
+            if (this.fields == null) {
+                this.fields = Collections.emptyMap();
+            }
+        }
     }
 
     /**
@@ -3,52 +3,91 @@ package com.boku.auth.http.server.servletfilter;
 import java.util.Enumeration;
 import java.util.List;
 
+import jakarta.servlet.ServletRequest;
 import jakarta.servlet.http.HttpServletRequest;
 
 import com.boku.auth.http.AuthorizationHeader;
 import com.boku.auth.http.exception.InvalidAuthorizationHeaderException;
 import com.boku.auth.http.httpmessage.CanonicalHttpHeader;
 import com.boku.auth.http.httpmessage.CanonicalHttpRequest;
-import com.boku.auth.http.server.servletfilter.ThreadLocalServletRequestContextHolder.ServletRequestContext;
+import com.boku.auth.http.server.servletfilter.ServletRequestContextHolder.ServletRequestContext;
 import com.boku.auth.http.server.spi.CurrentRequestAuthInfo;
 import com.boku.auth.http.server.spi.CurrentRequestAuthInfoFactory;
 
 /**
- * Implements {@link CurrentRequestAuthInfoFactory} by interacting with thread-local data stored by
- * {@link BokuHttpAuthFilter}.
+ * Implements {@link CurrentRequestAuthInfoFactory} by interacting with the request context stored by
+ * {@link BokuHttpAuthFilter}, found through the {@link ServletRequestContextHolder} or on the request itself.
  */
 public class BokuHttpAuthFilterCurrentRequestAuthInfoFactory implements CurrentRequestAuthInfoFactory {
 
-    private final ThreadLocalServletRequestContextHolder threadLocalRequestContextHolder;
+    private final ServletRequestContextHolder requestContextHolder;
 
+    public BokuHttpAuthFilterCurrentRequestAuthInfoFactory(ServletRequestContextHolder requestContextHolder) {
+        this.requestContextHolder = requestContextHolder;
+    }
+
+    /**
+     * Kept for binary compatibility with code compiled against earlier versions.
+     *
+     * @deprecated Use {@link #BokuHttpAuthFilterCurrentRequestAuthInfoFactory(ServletRequestContextHolder)}
+     */
+    @Deprecated
     public BokuHttpAuthFilterCurrentRequestAuthInfoFactory(ThreadLocalServletRequestContextHolder threadLocalServletRequestContextHolder) {
-        this.threadLocalRequestContextHolder = threadLocalServletRequestContextHolder;
+        this((ServletRequestContextHolder)threadLocalServletRequestContextHolder);
     }
 
     @Override
     public CurrentRequestAuthInfo getCurrentRequestInfo() throws InvalidAuthorizationHeaderException {
-        ServletRequestContext reqCtx = this.threadLocalRequestContextHolder.get();
+        ServletRequestContext reqCtx = this.requestContextHolder.get();
         if (reqCtx == null) {
             throw new IllegalStateException("No request context set up by filter. Please install "
+                    + BokuHttpAuthFilter.class.getCanonicalName() + " or equivalent, or pass the request when "
+                    + "called outside the filter chain. Request context holder: " + this.requestContextHolder.describe());
+        }
+        return getRequestInfo(reqCtx);
+    }
+
+    /**
+     * @param request The {@link ServletRequest}, or a wrapper of it
+     */
+    @Override
+    public CurrentRequestAuthInfo getRequestInfo(Object request) throws InvalidAuthorizationHeaderException {
+        if (!(request instanceof ServletRequest)) {
+            throw new IllegalArgumentException("Not a ServletRequest: " + request);
+        }
+        ServletRequestContext reqCtx = this.requestContextHolder.get((ServletRequest)request);
+        if (reqCtx == null) {
+            throw new IllegalStateException("No request context set up by filter on the given request. Please install "
                     + BokuHttpAuthFilter.class.getCanonicalName() + " or equivalent.");
         }
+        return getRequestInfo(reqCtx);
+    }
+
+    private static CurrentRequestAuthInfo getRequestInfo(ServletRequestContext reqCtx) throws InvalidAuthorizationHeaderException {
+        if (reqCtx.cachedAuthHeader == null) {
+            reqCtx.cachedAuthHeader = BHAServletUtil.getAuthorizationHeader(reqCtx.httpRequest);
+        }
 
-        AuthorizationHeader authHeader = BHAServletUtil.getAuthorizationHeader(reqCtx.httpRequest);
+        // The application may modify what it's given, so it gets its own copy
+        AuthorizationHeader authHeader = reqCtx.cachedAuthHeader.toAuthorizationHeader();
 
         // This surfaced only in some testing with faulty ServletRequest mocks. Might as well have a nice message though.
-        if (reqCtx.requestEntityDigestInputStream == null) {
-            throw new IllegalStateException("No requestEntityDigestInputStream set on ServletRequestContext. "
+        if (reqCtx.requestEntityDigester == null) {
+            throw new IllegalStateException("No requestEntityDigester set on ServletRequestContext. "
                     + "This should never happen, because the only time it's null is when the above Authorization "
                     + "header check would fail.");
         }
 
-        if (reqCtx.cachedEntityDigest == null) {
-            // cache the entityDigest of reqCtx.requestEntityDigestInputStream
-            reqCtx.cachedEntityDigest = BHAServletUtil.getEntityDigest(reqCtx.requestEntityDigestInputStream);
+        String entityDigest;
+        // The request may be handled on more than one thread, and the digest can only be completed once
+        synchronized (reqCtx) {
+            if (reqCtx.cachedEntityDigest == null) {
+                // cache the entityDigest of reqCtx.requestEntityDigester, which is null if there was no entity
+                reqCtx.cachedEntityDigest = reqCtx.requestEntityDigester.digest();
+            }
+            entityDigest = reqCtx.cachedEntityDigest;
         }
 
-        String entityDigest = reqCtx.cachedEntityDigest;
-
         CanonicalHttpRequest canonicalRequest = createCanonicalHttpRequest(reqCtx.httpRequest, authHeader.getSignedHeaders(), entityDigest);
 
         return new CurrentRequestAuthInfo(authHeader, canonicalRequest);
@@ -6,11 +6,10 @@ import java.util.List;
 import jakarta.servlet.http.HttpServletResponse;
 
 import com.boku.auth.http.AuthorizationHeader;
+import com.boku.auth.http.CompactAuthorizationHeader;
 import com.boku.auth.http.httpmessage.CanonicalHttpHeader;
 import com.boku.auth.http.httpmessage.CanonicalHttpResponse;
 import com.boku.auth.http.httpsigner.HttpMessageSigner;
-import com.boku.util.DigestFactory;
-import com.boku.util.HexCodec;
 
 /**
  * Does the work of signing {@link HttpServletResponse}s from {@link BokuHttpAuthFilter}
@@ -23,12 +22,17 @@ class BokuHttpAuthFilterResponseSigner {
         this.httpMessageSigner = httpMessageSigner;
     }
 
-    AuthorizationHeader signResponse(AuthorizationHeader requestAuthHeader, List<String> headersToSign, HttpServletResponse httpResponse, byte[] respData) {
+    /**
+     * @param entityDigest Digest of the response entity, as calculated for the request's scheme, or null if there is
+     *                     no entity
+     */
+    AuthorizationHeader signResponse(CompactAuthorizationHeader requestAuthHeader, List<String> headersToSign, HttpServletResponse httpResponse, String entityDigest) {
 
         // This is the header we're going to output.
-        // We take partner ID and key ID from the request header, i.e. this is symmetric. In future we may want to
-        // allow the key provider to pick the key for signing messages to allow for asymmetric signatures.
+        // We take scheme, partner ID and key ID from the request header, i.e. this is symmetric. In future we may want
+        // to allow the key provider to pick the key for signing messages to allow for asymmetric signatures.
         AuthorizationHeader respAuthHeader = new AuthorizationHeader();
+        respAuthHeader.setScheme(requestAuthHeader.getScheme() != null ? requestAuthHeader.getScheme() : this.httpMessageSigner.getDefaultScheme());
         respAuthHeader.setPartnerId(requestAuthHeader.getPartnerId());
         respAuthHeader.setKeyId(requestAuthHeader.getKeyId());
 
@@ -44,10 +48,7 @@ class BokuHttpAuthFilterResponseSigner {
                 canonicalResponse.getHeaders().add(new CanonicalHttpHeader(hdr, value.trim()));
             }
         }
-        if (respData.length > 0) {
-            byte[] digest = DigestFactory.getSHA256().digest(respData);
-            canonicalResponse.setEntityDigest(HexCodec.encodeString(digest));
-        }
+        canonicalResponse.setEntityDigest(entityDigest);
 
         // Fill in missing values and sign
         this.httpMessageSigner.sign(respAuthHeader, canonicalResponse);
@@ -0,0 +1,51 @@
+package com.boku.auth.http.server.servletfilter;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Response wrapper which diverts the entity into the given stream, usually a {@link ResponseCaptureOutputStream}. The
+ * same stream, and the same writer on top of it, are handed out on every call.
+ */
+class CapturingResponseWrapper extends HttpServletResponseWrapper {
+
+    private final ServletOutputStream capture;
+    private PrintWriter writer;
+
+    CapturingResponseWrapper(HttpServletResponse response, ServletOutputStream capture) {
+        super(response);
+        this.capture = capture;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() {
+        return this.capture;
+    }
+
+    @Override
+    public PrintWriter getWriter() throws IOException {
+        if (this.writer == null) {
+            this.writer = new PrintWriter(new OutputStreamWriter(this.capture, this.getCharacterEncoding()));
+        }
+        return this.writer;
+    }
+
+    @Override
+    public void flushBuffer() throws IOException {
+        this.flushWriter();
+    }
+
+    /**
+     * Push anything still buffered in the writer through to the capture stream, so the capture is complete.
+     */
+    void flushWriter() {
+        if (this.writer != null) {
+            this.writer.flush();
+        }
+    }
+}
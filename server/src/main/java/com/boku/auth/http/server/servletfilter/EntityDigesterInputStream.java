@@ -0,0 +1,76 @@
+package com.boku.auth.http.server.servletfilter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.boku.auth.http.httpmessage.EntityDigester;
+
+/**
+ * Passes everything read from the wrapped stream through an {@link EntityDigester}. Skipped bytes are read and
+ * digested too, so the digest covers the whole entity however the application consumes it.
+ */
+class EntityDigesterInputStream extends FilterInputStream {
+
+    private final EntityDigester digester;
+    private final byte[] single = new byte[1];
+
+    EntityDigesterInputStream(InputStream in, EntityDigester digester) {
+        super(in);
+        this.digester = digester;
+    }
+
+    EntityDigester getDigester() {
+        return this.digester;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = this.in.read();
+        if (b >= 0) {
+            this.single[0] = (byte)b;
+            this.digester.update(this.single, 0, 1);
+        }
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = this.in.read(b, off, len);
+        if (n > 0) {
+            this.digester.update(b, off, n);
+        }
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (n <= 0) {
+            return 0;
+        }
+        byte[] buf = new byte[(int)Math.min(n, 4096)];
+        long skipped = 0;
+        while (skipped < n) {
+            int r = this.read(buf, 0, (int)Math.min(buf.length, n - skipped));
+            if (r < 0) {
+                break;
+            }
+            skipped += r;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readlimit) {
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+}
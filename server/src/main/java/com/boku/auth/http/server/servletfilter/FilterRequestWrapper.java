@@ -0,0 +1,397 @@
+package com.boku.auth.http.server.servletfilter;
+
+import java.io.IOException;
+
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ReadListener;
+import jakarta.servlet.ServletContext;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletInputStream;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.ServletRequestWrapper;
+import jakarta.servlet.ServletResponse;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.boku.auth.http.server.servletfilter.ServletRequestContextHolder.ServletRequestContext;
+
+/**
+ * The request {@link BokuHttpAuthFilter} passes down the chain, which keeps track of the request when the application
+ * goes async.<br>
+ * <br>
+ * Async requests are started with this wrapper and the filter's response wrapper, so that both are handed to
+ * whatever the application dispatches to. The {@link AsyncContext} handed out is wrapped so that
+ * {@link AsyncContext#complete()} gives the filter the chance to sign and send the response first, and so that
+ * {@link AsyncContext#start tasks} and async, read and write listeners run with the request context current, as they
+ * would inside the filter chain.
+ */
+class FilterRequestWrapper extends HttpServletRequestWrapper {
+
+    private static final Logger logger = LoggerFactory.getLogger(FilterRequestWrapper.class);
+
+    /**
+     * What the filter does to the response when the application is done with it. Each method is called at most once,
+     * and at most one of them is called.
+     */
+    interface Finisher {
+
+        /**
+         * The application returned from the filter chain without going async, or without going async again after a
+         * dispatch. Finish on this thread.
+         */
+        void finish() throws IOException;
+
+        /**
+         * The application completed the async context. Finish, then complete the real async context, which may be
+         * done later from another thread.
+         */
+        void finishAsync(AsyncContext asyncContext);
+
+        /**
+         * The response will not be finished, because the application failed or the request completed without the
+         * application completing it. Release any resources.
+         */
+        void abandon();
+    }
+
+    private final HttpServletResponse responseWrapper;
+    private final ServletRequestContextHolder requestContextHolder;
+    private final ServletRequestContext requestContext;
+    private final ServletInputStream inputStream;
+    private final Finisher finisher;
+
+    private boolean finished;
+    private CompletingAsyncContext asyncContext;
+
+    /**
+     * @param inputStream Stream to give the application in place of the request's own, or null to pass it through
+     */
+    FilterRequestWrapper(HttpServletRequest request, HttpServletResponse responseWrapper,
+                         ServletRequestContextHolder requestContextHolder, ServletRequestContext requestContext,
+                         ServletInputStream inputStream, Finisher finisher) {
+        super(request);
+        this.responseWrapper = responseWrapper;
+        this.requestContextHolder = requestContextHolder;
+        this.requestContext = requestContext;
+        this.inputStream = inputStream;
+        this.finisher = finisher;
+    }
+
+    /**
+     * @return The FilterRequestWrapper the given request is or wraps, or null if none
+     */
+    static FilterRequestWrapper find(ServletRequest request) {
+        while (request != null) {
+            if (request instanceof FilterRequestWrapper) {
+                return (FilterRequestWrapper)request;
+            }
+            request = request instanceof ServletRequestWrapper ? ((ServletRequestWrapper)request).getRequest() : null;
+        }
+        return null;
+    }
+
+    @Override
+    public ServletInputStream getInputStream() throws IOException {
+        if (this.inputStream == null) {
+            return super.getInputStream();
+        }
+        return this.inputStream;
+    }
+
+    @Override
+    public AsyncContext startAsync() {
+        return this.wrap(super.startAsync(this, this.responseWrapper));
+    }
+
+    @Override
+    public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) {
+        return this.wrap(super.startAsync(servletRequest, servletResponse));
+    }
+
+    @Override
+    public AsyncContext getAsyncContext() {
+        return this.wrap(super.getAsyncContext());
+    }
+
+    private synchronized AsyncContext wrap(AsyncContext asyncContext) {
+        if (this.asyncContext == null) {
+            // Only ever the one for the request, whatever happens to the app's listeners.
+            asyncContext.addListener(new CleanupListener());
+        }
+        if (this.asyncContext == null || this.asyncContext.delegate != asyncContext) {
+            this.asyncContext = new CompletingAsyncContext(asyncContext);
+        }
+        return this.asyncContext;
+    }
+
+    /**
+     * Called by the filter once the chain has returned, normally or after a dispatch. Finishes the response unless
+     * the application is carrying on asynchronously.
+     */
+    void chainReturned() throws IOException {
+        if (this.isAsyncStarted()) {
+            return;
+        }
+        Finisher finisher = this.takeFinisher();
+        if (finisher != null) {
+            finisher.finish();
+        }
+    }
+
+    /**
+     * Called by the filter if the chain threw.
+     */
+    void chainFailed() {
+        Finisher finisher = this.takeFinisher();
+        if (finisher != null) {
+            finisher.abandon();
+        }
+    }
+
+    /**
+     * Run the chain again for an async dispatch of this request, with the request context current.
+     */
+    void redispatch(FilterChain chain, ServletRequest request, ServletResponse response) throws IOException, ServletException {
+        try {
+            this.requestContextHolder.runWith(this.requestContext, () -> chain.doFilter(request, response));
+        } catch (IOException | ServletException | RuntimeException | Error ex) {
+            this.chainFailed();
+            throw ex;
+        }
+        this.chainReturned();
+    }
+
+    private synchronized Finisher takeFinisher() {
+        if (this.finished) {
+            return null;
+        }
+        this.finished = true;
+        return this.finisher;
+    }
+
+    /**
+     * @return The given task, run with the request context current
+     */
+    Runnable inContext(Runnable task) {
+        return () -> {
+            try {
+                this.requestContextHolder.runWith(this.requestContext, task::run);
+            } catch (IOException | ServletException ex) {
+                // Can't happen, the task doesn't throw them
+                throw new IllegalStateException(ex);
+            }
+        };
+    }
+
+    private interface Callback {
+        void run() throws IOException;
+    }
+
+    private void callInContext(Callback callback) throws IOException {
+        try {
+            this.requestContextHolder.runWith(this.requestContext, callback::run);
+        } catch (ServletException ex) {
+            // Can't happen, the callback doesn't throw it
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * @return The given listener, called with the request context current
+     */
+    ReadListener inContext(ReadListener listener) {
+        return new ReadListener() {
+            @Override
+            public void onDataAvailable() throws IOException {
+                callInContext(listener::onDataAvailable);
+            }
+
+            @Override
+            public void onAllDataRead() throws IOException {
+                callInContext(listener::onAllDataRead);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                inContext(() -> listener.onError(t)).run();
+            }
+        };
+    }
+
+    /**
+     * @return The given listener, called with the request context current
+     */
+    WriteListener inContext(WriteListener listener) {
+        return new WriteListener() {
+            @Override
+            public void onWritePossible() throws IOException {
+                callInContext(listener::onWritePossible);
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                inContext(() -> listener.onError(t)).run();
+            }
+        };
+    }
+
+    /**
+     * Passes the async context through, but lets the filter finish the response before it is completed.
+     */
+    private class CompletingAsyncContext implements AsyncContext {
+
+        private final AsyncContext delegate;
+
+        CompletingAsyncContext(AsyncContext delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public ServletRequest getRequest() {
+            return this.delegate.getRequest();
+        }
+
+        @Override
+        public ServletResponse getResponse() {
+            return this.delegate.getResponse();
+        }
+
+        @Override
+        public boolean hasOriginalRequestAndResponse() {
+            return this.delegate.hasOriginalRequestAndResponse();
+        }
+
+        @Override
+        public void dispatch() {
+            this.delegate.dispatch();
+        }
+
+        @Override
+        public void dispatch(String path) {
+            this.delegate.dispatch(path);
+        }
+
+        @Override
+        public void dispatch(ServletContext context, String path) {
+            this.delegate.dispatch(context, path);
+        }
+
+        @Override
+        public void complete() {
+            Finisher finisher = takeFinisher();
+            if (finisher == null) {
+                this.delegate.complete();
+                return;
+            }
+            finisher.finishAsync(this.delegate);
+        }
+
+        @Override
+        public void start(Runnable run) {
+            this.delegate.start(inContext(run));
+        }
+
+        @Override
+        public void addListener(AsyncListener listener) {
+            this.delegate.addListener(new ContextAsyncListener(this, listener));
+        }
+
+        @Override
+        public void addListener(AsyncListener listener, ServletRequest servletRequest, ServletResponse servletResponse) {
+            this.delegate.addListener(new ContextAsyncListener(this, listener), servletRequest, servletResponse);
+        }
+
+        @Override
+        public <T extends AsyncListener> T createListener(Class<T> clazz) throws ServletException {
+            return this.delegate.createListener(clazz);
+        }
+
+        @Override
+        public void setTimeout(long timeout) {
+            this.delegate.setTimeout(timeout);
+        }
+
+        @Override
+        public long getTimeout() {
+            return this.delegate.getTimeout();
+        }
+    }
+
+    /**
+     * Runs the application's listener in context, and hands it our async context rather than the container's, so that
+     * completing it from the listener (e.g. on timeout) still finishes the response.
+     */
+    private class ContextAsyncListener implements AsyncListener {
+
+        private final AsyncContext asyncContext;
+        private final AsyncListener listener;
+
+        ContextAsyncListener(AsyncContext asyncContext, AsyncListener listener) {
+            this.asyncContext = asyncContext;
+            this.listener = listener;
+        }
+
+        private AsyncEvent event(AsyncEvent event) {
+            return new AsyncEvent(this.asyncContext, event.getSuppliedRequest(), event.getSuppliedResponse(), event.getThrowable());
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) throws IOException {
+            callInContext(() -> this.listener.onComplete(this.event(event)));
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) throws IOException {
+            callInContext(() -> this.listener.onTimeout(this.event(event)));
+        }
+
+        @Override
+        public void onError(AsyncEvent event) throws IOException {
+            callInContext(() -> this.listener.onError(this.event(event)));
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) throws IOException {
+            callInContext(() -> this.listener.onStartAsync(this.event(event)));
+        }
+    }
+
+    /**
+     * Catches requests which complete without the application completing them through us, e.g. on an unhandled
+     * timeout, or on a dispatch to somewhere the filter is not mapped for async dispatches.
+     */
+    private class CleanupListener implements AsyncListener {
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            Finisher finisher = takeFinisher();
+            if (finisher != null) {
+                logger.error("Async request to {} {} completed without the filter finishing the response, response was "
+                        + "not signed", getMethod(), getRequestURI());
+                finisher.abandon();
+            }
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+            // Listeners are dropped each time async is started again
+            event.getAsyncContext().addListener(this);
+        }
+    }
+}
@@ -6,17 +6,31 @@ import jakarta.servlet.ReadListener;
 import jakarta.servlet.ServletInputStream;
 
 /**
- * InputStream delegate, but implements the ServletInputStream interface.
+ * InputStream delegate, but implements the ServletInputStream interface.<br>
+ * <br>
+ * If the InputStream reads from a ServletInputStream, give that as the source too, and non-blocking reads are
+ * supported: {@link #isReady()}, {@link #isFinished()} and {@link #setReadListener} are passed on to the source, while
+ * the data itself is still read through the delegate.
  */
 public class InputStreamAsServletInputStream extends ServletInputStream {
 
     private static final int EOF = -1;
 
     private final InputStream is;
+    private final ServletInputStream source;
     private boolean eof = false;
 
     public InputStreamAsServletInputStream(InputStream is) {
+        this(is, null);
+    }
+
+    /**
+     * @param is The stream to read from
+     * @param source The ServletInputStream which is ultimately read from, or null if none
+     */
+    public InputStreamAsServletInputStream(InputStream is, ServletInputStream source) {
         this.is = is;
+        this.source = source;
     }
 
     @Override
@@ -79,11 +93,17 @@ public class InputStreamAsServletInputStream extends ServletInputStream {
 
     @Override
     public boolean isFinished() {
+        if (source != null) {
+            return source.isFinished();
+        }
         return eof;
     }
 
     @Override
     public boolean isReady() {
+        if (source != null) {
+            return source.isReady();
+        }
         try {
             return is.available() > 0;
         } catch (IOException ex) {
@@ -93,6 +113,9 @@ public class InputStreamAsServletInputStream extends ServletInputStream {
 
     @Override
     public void setReadListener(ReadListener readListener) {
-        throw new UnsupportedOperationException();
+        if (source == null) {
+            throw new UnsupportedOperationException();
+        }
+        source.setReadListener(readListener);
     }
 }
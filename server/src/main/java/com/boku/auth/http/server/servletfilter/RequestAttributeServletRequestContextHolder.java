@@ -0,0 +1,30 @@
+package com.boku.auth.http.server.servletfilter;
+
+import java.io.IOException;
+
+import jakarta.servlet.ServletException;
+
+/**
+ * Internal implementation class.<br>
+ * <br>
+ * {@link ServletRequestContextHolder} which only keeps the request context as a request attribute, and never makes it
+ * current on a thread. No per-thread state at all, but the application has to pass the request to
+ * {@link com.boku.auth.http.server.AuthorizationContextProvider#get(Object)}.
+ */
+public class RequestAttributeServletRequestContextHolder extends ServletRequestContextHolder {
+
+    @Override
+    void runWith(ServletRequestContext requestContext, Task task) throws IOException, ServletException {
+        task.run();
+    }
+
+    @Override
+    ServletRequestContext current() {
+        return null;
+    }
+
+    @Override
+    String describe() {
+        return "request-attribute, which is never current, so the request must always be passed";
+    }
+}
@@ -0,0 +1,331 @@
+package com.boku.auth.http.server.servletfilter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.boku.auth.http.httpmessage.EntityDigester;
+
+/**
+ * Captures the response entity written by the application, so that it can be signed before being sent.<br>
+ * <br>
+ * Bytes are copied straight into fixed size segments from a {@link SegmentPool}, rather than into one array which is
+ * grown and then copied again, and are passed through an {@link EntityDigester} as they arrive so the entity digest
+ * is ready as soon as the application is done. {@link #writeTo} then sends the segments one after another, and
+ * {@link #release()} must be called afterwards to return them to the pool.<br>
+ * <br>
+ * To bound the heap used by large responses, only the first {@code spillThreshold} bytes are kept in segments. The
+ * rest is written to a temporary file, which is read back a buffer at a time into the pooled spill buffer to be sent,
+ * and deleted on release.<br>
+ * <br>
+ * For async requests, {@link #drainTo} sends the captured data without blocking instead, and a {@link WriteListener}
+ * set by the application is handed to the filter, which calls it back when the container is ready.<br>
+ * <br>
+ * Not thread safe.
+ */
+class ResponseCaptureOutputStream extends ServletOutputStream {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResponseCaptureOutputStream.class);
+
+    /**
+     * Spill threshold which keeps everything on the heap.
+     */
+    static final long NEVER_SPILL = Long.MAX_VALUE;
+
+    private final SegmentPool pool;
+    private final EntityDigester digester;
+    private final long spillThreshold;
+    private final Path spillDirectory;
+    private final List<byte[]> segments = new ArrayList<>();
+
+    // Current segment, the last in the list, and the number of bytes used in it
+    private byte[] current;
+    private int currentLength;
+    private long size;
+
+    // Bytes beyond the threshold go to the file, through a buffer so that small writes are batched
+    private FileChannel spillFile;
+    private ByteBuffer spillBuffer;
+
+    // Progress of writeTo or drainTo: next segment to send, then end of and position in the spill file
+    private int drainSegment;
+    private long drainEnd = -1;
+    private long drainPosition;
+
+    private Consumer<WriteListener> writeListenerHandler;
+
+    ResponseCaptureOutputStream(SegmentPool pool, EntityDigester digester) {
+        this(pool, digester, NEVER_SPILL, null);
+    }
+
+    /**
+     * @param spillThreshold Number of bytes to keep on the heap before spilling to a file, or {@link #NEVER_SPILL}
+     * @param spillDirectory Where to create the file, or null for the default temporary directory
+     */
+    ResponseCaptureOutputStream(SegmentPool pool, EntityDigester digester, long spillThreshold, Path spillDirectory) {
+        if (spillThreshold < 0) {
+            throw new IllegalArgumentException("spillThreshold cannot be negative, got " + spillThreshold);
+        }
+        this.pool = pool;
+        this.digester = digester;
+        this.spillThreshold = spillThreshold;
+        this.spillDirectory = spillDirectory;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (this.size >= this.spillThreshold) {
+            ByteBuffer buf = this.spillBuffer();
+            buf.put((byte)b);
+            this.digester.update(buf.array(), buf.arrayOffset() + buf.position() - 1, 1);
+            this.size++;
+            if (!buf.hasRemaining()) {
+                this.flushSpillBuffer();
+            }
+            return;
+        }
+        if (this.current == null || this.currentLength == this.current.length) {
+            this.nextSegment();
+        }
+        this.current[this.currentLength++] = (byte)b;
+        this.size++;
+        this.digester.update(this.current, this.currentLength - 1, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException("off " + off + ", len " + len + ", length " + b.length);
+        }
+        this.digester.update(b, off, len);
+        int heapLen = (int)Math.min(len, Math.max(0, this.spillThreshold - this.size));
+        this.size += len;
+        for (int end = off + heapLen; off < end; ) {
+            if (this.current == null || this.currentLength == this.current.length) {
+                this.nextSegment();
+            }
+            int n = Math.min(end - off, this.current.length - this.currentLength);
+            System.arraycopy(b, off, this.current, this.currentLength, n);
+            this.currentLength += n;
+            off += n;
+        }
+        if (heapLen < len) {
+            this.spill(ByteBuffer.wrap(b, off, len - heapLen));
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer b) throws IOException {
+        if (b.hasArray()) {
+            int len = b.remaining();
+            this.write(b.array(), b.arrayOffset() + b.position(), len);
+            b.position(b.position() + len);
+            return;
+        }
+        this.digester.update(b.duplicate());
+        while (b.hasRemaining() && this.size < this.spillThreshold) {
+            if (this.current == null || this.currentLength == this.current.length) {
+                this.nextSegment();
+            }
+            int n = (int)Math.min(Math.min(b.remaining(), this.current.length - this.currentLength), this.spillThreshold - this.size);
+            b.get(this.current, this.currentLength, n);
+            this.currentLength += n;
+            this.size += n;
+        }
+        if (b.hasRemaining()) {
+            this.size += b.remaining();
+            this.spill(b);
+        }
+    }
+
+    /**
+     * Append to the spill file, which has already been digested and counted.
+     */
+    private void spill(ByteBuffer data) throws IOException {
+        ByteBuffer buf = this.spillBuffer();
+        if (data.remaining() <= buf.remaining()) {
+            buf.put(data);
+            if (!buf.hasRemaining()) {
+                this.flushSpillBuffer();
+            }
+            return;
+        }
+        this.flushSpillBuffer();
+        while (data.hasRemaining()) {
+            this.spillFile.write(data);
+        }
+    }
+
+    private ByteBuffer spillBuffer() throws IOException {
+        if (this.spillFile == null) {
+            Path path = this.spillDirectory != null
+                ? Files.createTempFile(this.spillDirectory, "boku-http-auth-response-", ".tmp")
+                : Files.createTempFile("boku-http-auth-response-", ".tmp");
+            try {
+                this.spillFile = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+            } catch (IOException | RuntimeException ex) {
+                Files.deleteIfExists(path);
+                throw ex;
+            }
+            this.spillBuffer = ByteBuffer.wrap(this.pool.acquire());
+            logger.debug("Response exceeded {} bytes, spilling to {}", this.spillThreshold, path);
+        }
+        return this.spillBuffer;
+    }
+
+    private void flushSpillBuffer() throws IOException {
+        this.spillBuffer.flip();
+        while (this.spillBuffer.hasRemaining()) {
+            this.spillFile.write(this.spillBuffer);
+        }
+        this.spillBuffer.clear();
+    }
+
+    private void nextSegment() {
+        this.current = this.pool.acquire();
+        this.currentLength = 0;
+        this.segments.add(this.current);
+    }
+
+    /**
+     * @return The number of bytes captured
+     */
+    long size() {
+        return this.size;
+    }
+
+    /**
+     * Complete the digest of everything captured, as per {@link EntityDigester#digest()}.
+     */
+    String digest() {
+        return this.digester.digest();
+    }
+
+    /**
+     * @return True if some of the captured data is in a file rather than on the heap
+     */
+    boolean isSpilled() {
+        return this.spillFile != null;
+    }
+
+    /**
+     * Write everything captured to the given stream, a segment at a time, without copying it, followed by anything
+     * spilled to file.
+     */
+    void writeTo(OutputStream out) throws IOException {
+        this.drainSegment = 0;
+        this.drainPosition = 0;
+        this.copyTo(out, () -> true);
+    }
+
+    /**
+     * Non-blocking version of {@link #writeTo}, which writes only while the stream {@link ServletOutputStream#isReady()
+     * is ready}, and carries on from where it stopped on the next call.
+     *
+     * @return True once everything captured has been written
+     */
+    boolean drainTo(ServletOutputStream out) throws IOException {
+        return this.copyTo(out, out::isReady);
+    }
+
+    /**
+     * Write from where the last call stopped, for as long as the stream is ready.
+     *
+     * @return True once everything captured has been written
+     */
+    private boolean copyTo(OutputStream out, BooleanSupplier ready) throws IOException {
+        int count = this.segments.size();
+        while (this.drainSegment < count) {
+            if (!ready.getAsBoolean()) {
+                return false;
+            }
+            byte[] segment = this.segments.get(this.drainSegment);
+            out.write(segment, 0, this.drainSegment == count - 1 ? this.currentLength : segment.length);
+            this.drainSegment++;
+        }
+
+        if (this.spillFile != null) {
+            if (this.drainEnd < 0) {
+                this.flushSpillBuffer();
+                this.drainEnd = this.spillFile.position();
+            }
+            // The spill buffer is free now, and only holds data between being read and written
+            ByteBuffer buf = this.spillBuffer;
+            while (this.drainPosition < this.drainEnd) {
+                if (!ready.getAsBoolean()) {
+                    return false;
+                }
+                buf.clear().limit((int)Math.min(buf.capacity(), this.drainEnd - this.drainPosition));
+                int n = this.spillFile.read(buf, this.drainPosition);
+                if (n < 0) {
+                    throw new EOFException("Response spill file truncated at " + this.drainPosition + " of " + this.drainEnd + " bytes");
+                }
+                out.write(buf.array(), buf.arrayOffset(), n);
+                this.drainPosition += n;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Where to pass a {@link WriteListener} set by the application, since this stream is always ready itself.
+     */
+    void setWriteListenerHandler(Consumer<WriteListener> writeListenerHandler) {
+        this.writeListenerHandler = writeListenerHandler;
+    }
+
+    /**
+     * Return all segments to the pool, delete any spill file, and discard the captured data.
+     */
+    void release() {
+        for (byte[] segment : this.segments) {
+            this.pool.release(segment);
+        }
+        this.segments.clear();
+        this.current = null;
+        this.currentLength = 0;
+        this.size = 0;
+        this.drainSegment = 0;
+        this.drainEnd = -1;
+        this.drainPosition = 0;
+
+        if (this.spillFile != null) {
+            this.pool.release(this.spillBuffer.array());
+            this.spillBuffer = null;
+            try {
+                this.spillFile.close();
+            } catch (IOException ex) {
+                logger.warn("Failed to close response spill file: {}", ex.toString());
+            }
+            this.spillFile = null;
+        }
+    }
+
+    @Override
+    public boolean isReady() {
+        return true;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+        if (this.writeListenerHandler == null) {
+            throw new IllegalStateException("Non-blocking writes are only supported for async requests");
+        }
+        this.writeListenerHandler.accept(writeListener);
+    }
+}
@@ -0,0 +1,131 @@
+package com.boku.auth.http.server.servletfilter;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+import jakarta.servlet.ServletException;
+
+/**
+ * Internal implementation class.<br>
+ * <br>
+ * {@link ServletRequestContextHolder} which makes the request context current with a {@code java.lang.ScopedValue},
+ * rather than a ThreadLocal, so there's nothing to set and clear on each of a great many virtual threads. The binding
+ * is also seen by subtasks forked in a {@code StructuredTaskScope}.<br>
+ * <br>
+ * This library is built for Java 17, so ScopedValue is used through method handles, and is only available on Java
+ * 25, or on Java 21 to 24 with preview features enabled. See {@link #isAvailable()}.
+ */
+public class ScopedValueServletRequestContextHolder extends ServletRequestContextHolder {
+
+    private static final MethodHandle NEW_INSTANCE;
+    private static final MethodHandle WHERE;
+    private static final MethodHandle RUN;
+    private static final MethodHandle IS_BOUND;
+    private static final MethodHandle GET;
+    private static final Throwable UNAVAILABLE_REASON;
+
+    static {
+        MethodHandle newInstance = null, where = null, run = null, isBound = null, get = null;
+        Throwable unavailableReason = null;
+        try {
+            Class<?> scopedValue = Class.forName("java.lang.ScopedValue");
+            Class<?> carrier = Class.forName("java.lang.ScopedValue$Carrier");
+            MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+            newInstance = lookup.findStatic(scopedValue, "newInstance", MethodType.methodType(scopedValue));
+            where = lookup.findStatic(scopedValue, "where", MethodType.methodType(carrier, scopedValue, Object.class));
+            run = lookup.findVirtual(carrier, "run", MethodType.methodType(void.class, Runnable.class));
+            isBound = lookup.findVirtual(scopedValue, "isBound", MethodType.methodType(boolean.class));
+            get = lookup.findVirtual(scopedValue, "get", MethodType.methodType(Object.class));
+            // Fails here if preview features are needed but not enabled
+            newInstance.invoke();
+        } catch (Throwable t) {
+            unavailableReason = t;
+        }
+        NEW_INSTANCE = newInstance;
+        WHERE = where;
+        RUN = run;
+        IS_BOUND = isBound;
+        GET = get;
+        UNAVAILABLE_REASON = unavailableReason;
+    }
+
+    /**
+     * @return True if ScopedValue can be used on this JVM
+     */
+    public static boolean isAvailable() {
+        return UNAVAILABLE_REASON == null;
+    }
+
+    private final Object scopedValue;
+
+    /**
+     * @throws IllegalStateException If ScopedValue is not available on this JVM
+     */
+    public ScopedValueServletRequestContextHolder() {
+        if (UNAVAILABLE_REASON != null) {
+            throw new IllegalStateException("ScopedValue is not available on Java " + System.getProperty("java.specification.version")
+                    + ", it needs Java 25, or 21 with --enable-preview: " + UNAVAILABLE_REASON, UNAVAILABLE_REASON);
+        }
+        try {
+            this.scopedValue = NEW_INSTANCE.invoke();
+        } catch (Throwable t) {
+            throw new IllegalStateException("Failed to create ScopedValue", t);
+        }
+    }
+
+    /**
+     * Carries a checked exception out of the Runnable the ScopedValue binding runs.
+     */
+    private static final class Tunnel extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        Tunnel(Exception cause) {
+            super(cause);
+        }
+    }
+
+    @Override
+    void runWith(ServletRequestContext requestContext, Task task) throws IOException, ServletException {
+        Runnable op = () -> {
+            try {
+                task.run();
+            } catch (IOException | ServletException ex) {
+                throw new Tunnel(ex);
+            }
+        };
+        try {
+            RUN.invoke(WHERE.invoke(this.scopedValue, requestContext), op);
+        } catch (Tunnel t) {
+            if (t.getCause() instanceof IOException) {
+                throw (IOException)t.getCause();
+            }
+            throw (ServletException)t.getCause();
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    @Override
+    ServletRequestContext current() {
+        try {
+            if (!(boolean)IS_BOUND.invoke(this.scopedValue)) {
+                return null;
+            }
+            return (ServletRequestContext)GET.invoke(this.scopedValue);
+        } catch (RuntimeException | Error ex) {
+            throw ex;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    @Override
+    String describe() {
+        return "scoped-value";
+    }
+}
@@ -0,0 +1,62 @@
+package com.boku.auth.http.server.servletfilter;
+
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Bounded pool of fixed size byte arrays, used by {@link ResponseCaptureOutputStream} to buffer responses without
+ * allocating and growing a fresh array for each one.<br>
+ * <br>
+ * At most {@code maxPooled} segments are retained between uses; segments released beyond that are left to the
+ * garbage collector. Thread safe.
+ */
+final class SegmentPool {
+
+    static final int DEFAULT_SEGMENT_SIZE = 8 << 10;
+
+    /**
+     * Shared by all filter instances. Retains at most 2MB.
+     */
+    static final SegmentPool DEFAULT = new SegmentPool(DEFAULT_SEGMENT_SIZE, 256);
+
+    private final int segmentSize;
+    private final ArrayBlockingQueue<byte[]> free;
+
+    SegmentPool(int segmentSize, int maxPooled) {
+        if (segmentSize < 1) {
+            throw new IllegalArgumentException("segmentSize must be positive, got " + segmentSize);
+        }
+        if (maxPooled < 1) {
+            throw new IllegalArgumentException("maxPooled must be positive, got " + maxPooled);
+        }
+        this.segmentSize = segmentSize;
+        this.free = new ArrayBlockingQueue<>(maxPooled);
+    }
+
+    int getSegmentSize() {
+        return this.segmentSize;
+    }
+
+    /**
+     * @return A segment of {@link #getSegmentSize()} bytes, with undefined contents
+     */
+    byte[] acquire() {
+        byte[] ret = this.free.poll();
+        return ret != null ? ret : new byte[this.segmentSize];
+    }
+
+    /**
+     * Return a segment obtained from {@link #acquire()}. The caller must not use it afterwards.
+     */
+    void release(byte[] segment) {
+        if (segment.length == this.segmentSize) {
+            this.free.offer(segment);
+        }
+    }
+
+    /**
+     * @return The number of segments currently pooled
+     */
+    int size() {
+        return this.free.size();
+    }
+}
@@ -0,0 +1,150 @@
+package com.boku.auth.http.server.servletfilter;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletRequest;
+import jakarta.servlet.http.HttpServletRequest;
+
+import com.boku.auth.http.CompactAuthorizationHeader;
+import com.boku.auth.http.httpmessage.EntityDigester;
+
+/**
+ * Internal implementation class.<br>
+ * <br>
+ * {@link BokuHttpAuthFilter} sticks information about the request it's currently working on here, so that
+ * {@link BokuHttpAuthFilterCurrentRequestAuthInfoFactory} can access it.<br>
+ * <br>
+ * The context is always kept as an attribute of the request, so it can be found from any thread which has the
+ * request. Subclasses decide how it is found from the thread running the filter chain, or an async callback, without
+ * the request:<ul>
+ *     <li>{@link ThreadLocalServletRequestContextHolder}: a ThreadLocal. The default.</li>
+ *     <li>{@link ScopedValueServletRequestContextHolder}: a ScopedValue, for virtual threads. Needs Java 25, or 21 with
+ *     preview features enabled.</li>
+ *     <li>{@link RequestAttributeServletRequestContextHolder}: not at all, so there is no per-thread state; the
+ *     application must always pass the request to {@link com.boku.auth.http.server.AuthorizationContextProvider}.</li>
+ * </ul>
+ */
+public abstract class ServletRequestContextHolder {
+
+    /**
+     * Request attribute the context is stored under.
+     */
+    static final String REQUEST_ATTRIBUTE = ServletRequestContextHolder.class.getName() + ".context";
+
+    public static final String TYPE_THREAD_LOCAL = "thread-local";
+    public static final String TYPE_SCOPED_VALUE = "scoped-value";
+    public static final String TYPE_REQUEST_ATTRIBUTE = "request-attribute";
+
+    // Only subclassed in this package
+    ServletRequestContextHolder() {
+    }
+
+    /**
+     * @param type One of {@link #TYPE_THREAD_LOCAL}, {@link #TYPE_SCOPED_VALUE} or {@link #TYPE_REQUEST_ATTRIBUTE}
+     * @return A new holder of the given type
+     * @throws IllegalArgumentException If the type is unknown
+     * @throws IllegalStateException If the type is not supported by this JVM
+     */
+    public static ServletRequestContextHolder forType(String type) {
+        if (TYPE_THREAD_LOCAL.equals(type)) {
+            return new ThreadLocalServletRequestContextHolder();
+        }
+        if (TYPE_SCOPED_VALUE.equals(type)) {
+            return new ScopedValueServletRequestContextHolder();
+        }
+        if (TYPE_REQUEST_ATTRIBUTE.equals(type)) {
+            return new RequestAttributeServletRequestContextHolder();
+        }
+        throw new IllegalArgumentException("Unknown request context holder type: " + type);
+    }
+
+    /**
+     * Create the context for a request, and attach it to the request. It isn't current on any thread until passed to
+     * {@link #runWith}.
+     */
+    ServletRequestContext open(HttpServletRequest httpRequest, EntityDigester entityDigester) {
+        ServletRequestContext ret = new ServletRequestContext(httpRequest, entityDigester);
+        httpRequest.setAttribute(REQUEST_ATTRIBUTE, ret);
+        return ret;
+    }
+
+    /**
+     * @return The context current on this thread, or null if none
+     */
+    ServletRequestContext get() {
+        ServletRequestContext ret = this.current();
+        if (ret != null) {
+            ret.accessCount.incrementAndGet();
+        }
+        return ret;
+    }
+
+    /**
+     * @return The context of the given request, or null if it didn't go through the filter
+     */
+    ServletRequestContext get(ServletRequest request) {
+        Object ret = request.getAttribute(REQUEST_ATTRIBUTE);
+        if (!(ret instanceof ServletRequestContext)) {
+            return null;
+        }
+        ((ServletRequestContext)ret).accessCount.incrementAndGet();
+        return (ServletRequestContext)ret;
+    }
+
+    interface Task {
+        void run() throws IOException, ServletException;
+    }
+
+    /**
+     * Run the given task with the given context current, restoring whatever was current before afterwards.
+     */
+    abstract void runWith(ServletRequestContext requestContext, Task task) throws IOException, ServletException;
+
+    /**
+     * @return The context current on this thread, or null if none
+     */
+    abstract ServletRequestContext current();
+
+    /**
+     * @return A description of how the context is found without the request, for error messages
+     */
+    abstract String describe();
+
+    static class ServletRequestContext {
+
+        /**
+         * Current {@link HttpServletRequest}.
+         */
+        final HttpServletRequest httpRequest;
+
+        /**
+         * {@link EntityDigester} fed by the servlet InputStream for the request.
+         * This may be null if there was no auth info supplied in the request above.
+         */
+        final EntityDigester requestEntityDigester;
+
+        /**
+         * {@link EntityDigester} can only complete the digest once.
+         * Cache the entityDigest from requestEntityDigester.
+         */
+        volatile String cachedEntityDigest;
+
+        /**
+         * The request's Authorization header, parsed once by whichever of the application or the filter's response
+         * signing needs it first.
+         */
+        volatile CompactAuthorizationHeader cachedAuthHeader;
+
+        /**
+         * Counted on the context itself, from whichever thread, so counting needs no lookup of its own.
+         */
+        final AtomicInteger accessCount = new AtomicInteger();
+
+        ServletRequestContext(HttpServletRequest httpRequest, EntityDigester entityDigester) {
+            this.httpRequest = httpRequest;
+            this.requestEntityDigester = entityDigester;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package com.boku.auth.http.server.servletfilter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.UnaryOperator;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+
+import com.boku.auth.http.httpmessage.EntityDigester;
+
+/**
+ * Passes the response entity straight through to the real output stream, digesting it on the way, for responses
+ * whose signature is sent in a trailer rather than a header.<br>
+ * <br>
+ * Not thread safe.
+ */
+class StreamingResponseOutputStream extends ServletOutputStream {
+
+    private final ServletOutputStream out;
+    private final EntityDigester digester;
+    private final byte[] single = new byte[1];
+    private UnaryOperator<WriteListener> writeListenerDecorator = UnaryOperator.identity();
+
+    StreamingResponseOutputStream(ServletOutputStream out, EntityDigester digester) {
+        this.out = out;
+        this.digester = digester;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.out.write(b);
+        this.single[0] = (byte)b;
+        this.digester.update(this.single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        this.out.write(b, off, len);
+        this.digester.update(b, off, len);
+    }
+
+    @Override
+    public void write(ByteBuffer b) throws IOException {
+        ByteBuffer toDigest = b.duplicate();
+        this.out.write(b);
+        // Only what was actually consumed
+        toDigest.limit(b.position());
+        this.digester.update(toDigest);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.out.close();
+    }
+
+    /**
+     * Complete the digest of everything written, as per {@link EntityDigester#digest()}.
+     */
+    String digest() {
+        return this.digester.digest();
+    }
+
+    /**
+     * Applied to any {@link WriteListener} set by the application before it is passed on.
+     */
+    void setWriteListenerDecorator(UnaryOperator<WriteListener> writeListenerDecorator) {
+        this.writeListenerDecorator = writeListenerDecorator;
+    }
+
+    @Override
+    public boolean isReady() {
+        return this.out.isReady();
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+        this.out.setWriteListener(this.writeListenerDecorator.apply(writeListener));
+    }
+}
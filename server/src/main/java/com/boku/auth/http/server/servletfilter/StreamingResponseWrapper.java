@@ -0,0 +1,65 @@
+package com.boku.auth.http.server.servletfilter;
+
+import java.io.IOException;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Response wrapper for responses signed in a trailer, which writes the entity through a
+ * {@link StreamingResponseOutputStream}.<br>
+ * <br>
+ * Trailers can only follow a chunked (or HTTP/2) entity, so any Content-Length the application sets is dropped.
+ */
+class StreamingResponseWrapper extends CapturingResponseWrapper {
+
+    private static final String CONTENT_LENGTH = "Content-Length";
+
+    StreamingResponseWrapper(HttpServletResponse response, StreamingResponseOutputStream out) {
+        super(response, out);
+    }
+
+    @Override
+    public void setContentLength(int len) {
+    }
+
+    @Override
+    public void setContentLengthLong(long len) {
+    }
+
+    @Override
+    public void setHeader(String name, String value) {
+        if (!CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            super.setHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addHeader(String name, String value) {
+        if (!CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            super.addHeader(name, value);
+        }
+    }
+
+    @Override
+    public void setIntHeader(String name, int value) {
+        if (!CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            super.setIntHeader(name, value);
+        }
+    }
+
+    @Override
+    public void addIntHeader(String name, int value) {
+        if (!CONTENT_LENGTH.equalsIgnoreCase(name)) {
+            super.addIntHeader(name, value);
+        }
+    }
+
+    /**
+     * Nothing is held back, so flushing passes through to the real response.
+     */
+    @Override
+    public void flushBuffer() throws IOException {
+        this.flushWriter();
+        this.getResponse().flushBuffer();
+    }
+}
@@ -1,76 +1,42 @@
 package com.boku.auth.http.server.servletfilter;
 
-import java.security.DigestInputStream;
+import java.io.IOException;
 
-import jakarta.servlet.http.HttpServletRequest;
-
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import jakarta.servlet.ServletException;
 
 /**
  * Internal implementation class.<br>
  * <br>
- * {@link BokuHttpAuthFilter} sticks information about the request it's currently working on here, so that
- * {@link BokuHttpAuthFilterCurrentRequestAuthInfoFactory} can access it.
+ * {@link ServletRequestContextHolder} which makes the request context current with a ThreadLocal. The default, and
+ * works on any Java version.
  */
-public class ThreadLocalServletRequestContextHolder {
-
-    private static final Logger logger = LoggerFactory.getLogger(ThreadLocalServletRequestContextHolder.class);
+public class ThreadLocalServletRequestContextHolder extends ServletRequestContextHolder {
 
     private final ThreadLocal<ServletRequestContext> threadLocalRequestContext = new ThreadLocal<>();
 
-    void open(HttpServletRequest httpRequest, DigestInputStream digestInputStream) {
-        if (this.threadLocalRequestContext.get() != null) {
-            logger.warn("ThreadLocal ServletRequestContext was not closed out properly! Overwriting existing value...");
-        }
-        this.threadLocalRequestContext.set(new ServletRequestContext(httpRequest, digestInputStream));
-    }
-
-    ServletRequestContext get() {
-        ServletRequestContext ret = this.threadLocalRequestContext.get();
-        if (ret != null) {
-            ret.accessCount++;
+    @Override
+    void runWith(ServletRequestContext requestContext, Task task) throws IOException, ServletException {
+        ServletRequestContext previous = this.threadLocalRequestContext.get();
+        this.threadLocalRequestContext.set(requestContext);
+        try {
+            task.run();
+        } finally {
+            if (previous == null) {
+                // Don't leave an entry behind in the thread's map
+                this.threadLocalRequestContext.remove();
+            } else {
+                this.threadLocalRequestContext.set(previous);
+            }
         }
-        return ret;
-    }
-
-    int getAccessCount() {
-        return this.threadLocalRequestContext.get().accessCount;
     }
 
-    void close() {
-        if (this.threadLocalRequestContext.get() == null) {
-            logger.warn("ThreadLocal ServletRequestContext already closed!");
-        }
-        this.threadLocalRequestContext.set(null);
+    @Override
+    ServletRequestContext current() {
+        return this.threadLocalRequestContext.get();
     }
 
-
-    static class ServletRequestContext {
-
-        /**
-         * Current {@link HttpServletRequest}.
-         */
-        final HttpServletRequest httpRequest;
-
-        /**
-         * {@link DigestInputStream} wrapping the servlet InputStream for the request.
-         * This may be null if there was no auth info supplied in the request above.
-         */
-        final DigestInputStream requestEntityDigestInputStream;
-
-        /**
-         * {@link DigestInputStream} can only get digested once.
-         * Cache the entityDigest from requestEntityDigestInputStream.
-         */
-        String cachedEntityDigest;
-
-        int accessCount = 0;
-
-        ServletRequestContext(HttpServletRequest httpRequest, DigestInputStream dis) {
-            this.httpRequest = httpRequest;
-            this.requestEntityDigestInputStream = dis;
-        }
+    @Override
+    String describe() {
+        return "thread-local";
     }
-
 }
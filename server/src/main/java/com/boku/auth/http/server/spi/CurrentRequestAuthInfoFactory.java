@@ -23,4 +23,17 @@ public interface CurrentRequestAuthInfoFactory {
      */
     CurrentRequestAuthInfo getCurrentRequestInfo() throws InvalidAuthorizationHeaderException;
 
+    /**
+     * As per {@link #getCurrentRequestInfo()}, for the given request rather than the currently executing one, so that
+     * it works from any thread handling the request.
+     *
+     * @param request The framework specific request object, e.g. a ServletRequest
+     * @throws IllegalArgumentException If the request is not of a type this factory handles.
+     * @throws IllegalStateException If the request was not set up for authentication, or this factory cannot look up
+     *         requests given to it.
+     */
+    default CurrentRequestAuthInfo getRequestInfo(Object request) throws InvalidAuthorizationHeaderException {
+        throw new IllegalStateException(this.getClass().getName() + " can only get the currently executing request");
+    }
+
 }
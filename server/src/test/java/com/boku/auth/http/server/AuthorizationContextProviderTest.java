@@ -1,5 +1,8 @@
 package com.boku.auth.http.server;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
 import com.boku.auth.http.AuthorizationHeader;
 import com.boku.auth.http.exception.AuthorizationException;
 import com.boku.auth.http.exception.AuthorizationFailedException;
@@ -37,6 +40,14 @@ public class AuthorizationContextProviderTest {
                 return null;
             }
         }).when(mockHttpMessageSigner).verifySignature(ArgumentMatchers.any(AuthorizationHeader.class), ArgumentMatchers.any(CanonicalHttpRequest.class));
+        Mockito.when(mockHttpMessageSigner.verifySignatureAsync(ArgumentMatchers.any(AuthorizationHeader.class), ArgumentMatchers.any(CanonicalHttpRequest.class)))
+            .thenAnswer(invocation -> {
+                AuthorizationHeader ah = (AuthorizationHeader)invocation.getArguments()[0];
+                if (!validSignature.equals(ah.getSignature())) {
+                    return CompletableFuture.failedFuture(new AuthorizationFailedException("Invalid signature"));
+                }
+                return CompletableFuture.completedFuture(null);
+            });
     }
 
     @Rule
@@ -111,6 +122,33 @@ public class AuthorizationContextProviderTest {
         contextProvider.get();
     }
 
+    @Test
+    public void testAsync() throws AuthorizationException {
+        Mockito.when(mockRequestInfoFactory.getCurrentRequestInfo()).thenReturn(getValidCurrentRequestAuthInfo());
+        AuthorizationContext ac = contextProvider.getAsync().toCompletableFuture().join();
+        ac.assertValidForPartner("bob");
+
+        CurrentRequestAuthInfo expired = getValidCurrentRequestAuthInfo();
+        expired.getAuthorizationHeader().setTimestamp(expired.getAuthorizationHeader().getTimestamp() - 600);
+        Mockito.when(mockRequestInfoFactory.getCurrentRequestInfo()).thenReturn(expired);
+        assertAsyncFails("Signature expired");
+
+        CurrentRequestAuthInfo badSignature = getValidCurrentRequestAuthInfo();
+        badSignature.getAuthorizationHeader().setSignature("invalid");
+        Mockito.when(mockRequestInfoFactory.getCurrentRequestInfo()).thenReturn(badSignature);
+        assertAsyncFails("Invalid signature");
+    }
+
+    private void assertAsyncFails(String message) {
+        try {
+            contextProvider.getAsync().toCompletableFuture().join();
+            Assert.fail("getAsync() should not succeed");
+        } catch (CompletionException ex) {
+            Assert.assertTrue(ex.getCause() instanceof AuthorizationFailedException);
+            Assert.assertEquals(message, ex.getCause().getMessage());
+        }
+    }
+
     private static CurrentRequestAuthInfo getValidCurrentRequestAuthInfo() {
         AuthorizationHeader ah = new AuthorizationHeader();
         ah.setScheme("TEST");
@@ -5,15 +5,22 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import jakarta.servlet.FilterChain;
+import jakarta.servlet.FilterConfig;
 import jakarta.servlet.ReadListener;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.ServletInputStream;
@@ -30,6 +37,7 @@ import com.boku.auth.http.exception.InvalidAuthorizationHeaderException;
 import com.boku.auth.http.httpmessage.CanonicalHttpHeader;
 import com.boku.auth.http.httpmessage.CanonicalHttpMessage;
 import com.boku.auth.http.httpsigner.HttpMessageSigner;
+import com.boku.auth.http.httpsigner.SignatureScheme;
 import com.boku.util.DigestFactory;
 import com.boku.util.HexCodec;
 import com.boku.util.IO;
@@ -221,6 +229,240 @@ public class BokuHttpAuthFilterTest {
         Assert.assertEquals(Collections.singletonList(new CanonicalHttpHeader("Content-Type", "text/fancy")), httpResponse.getHeaders());
     }
 
+    @Test
+    public void testEntityDigestFollowsScheme() throws IOException, ServletException {
+        SignatureScheme scheme = SignatureScheme.HMAC_SHA512_256;
+        HttpServletRequest request = getServletRequest("POST", "/fake/path", null, "the entity");
+        provideHeaders(request, "Authorization", scheme.getName() + " partner-id=a, key-id=b, signature=aaa");
+
+        ByteArrayOutputStream outputStreamCapture = new ByteArrayOutputStream();
+        HttpServletResponse response = getServletResponse(outputStreamCapture);
+
+        final AtomicReference<String> requestDigest = new AtomicReference<>();
+        filter.doFilter(request, response, new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+                streamToString(request.getInputStream());
+                try {
+                    requestDigest.set(currentRequestAuthInfoFactory.getCurrentRequestInfo().getCanonicalRequest().getEntityDigest());
+                } catch (InvalidAuthorizationHeaderException ex) {
+                    throw new AssertionError(ex);
+                }
+                response.getOutputStream().write("a response".getBytes(StandardCharsets.UTF_8));
+            }
+        });
+        Assert.assertEquals(hex(scheme, "the entity"), requestDigest.get());
+
+        ArgumentCaptor<AuthorizationHeader> signedHeaderCaptor = ArgumentCaptor.forClass(AuthorizationHeader.class);
+        ArgumentCaptor<CanonicalHttpMessage> signedMessageCaptor = ArgumentCaptor.forClass(CanonicalHttpMessage.class);
+        Mockito.verify(this.mockHttpMessageSigner).sign(signedHeaderCaptor.capture(), signedMessageCaptor.capture());
+        Assert.assertEquals(hex(scheme, "a response"), signedMessageCaptor.getValue().getEntityDigest());
+    }
+
+    @Test
+    public void testWriterResponse() throws IOException, ServletException {
+        HttpServletRequest request = getServletRequest();
+        provideHeaders(request, "Authorization", "test partner-id=a, key-id=b, signature=aaa");
+
+        ByteArrayOutputStream outputStreamCapture = new ByteArrayOutputStream();
+        HttpServletResponse response = getServletResponse(outputStreamCapture);
+        Mockito.when(response.getCharacterEncoding()).thenReturn("UTF-8");
+
+        final StringBuilder expected = new StringBuilder();
+        filter.doFilter(request, response, new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+                // Larger than a segment, and not flushed by the application
+                for (int i = 0; i < 2000; i++) {
+                    String line = "line " + i + " \u00e9\n";
+                    response.getWriter().print(line);
+                    expected.append(line);
+                }
+            }
+        });
+
+        Assert.assertEquals(expected.toString(), new String(outputStreamCapture.toByteArray(), StandardCharsets.UTF_8));
+        Mockito.verify(response, Mockito.never()).flushBuffer();
+
+        ArgumentCaptor<CanonicalHttpMessage> signedMessageCaptor = ArgumentCaptor.forClass(CanonicalHttpMessage.class);
+        Mockito.verify(this.mockHttpMessageSigner).sign(org.mockito.ArgumentMatchers.any(AuthorizationHeader.class), signedMessageCaptor.capture());
+        Assert.assertEquals(sha256Hex(expected.toString()), signedMessageCaptor.getValue().getEntityDigest());
+    }
+
+    @Test
+    public void testSpilledResponse() throws IOException, ServletException {
+        Path dir = Files.createTempDirectory("spill");
+        try {
+            FilterConfig config = Mockito.mock(FilterConfig.class);
+            Mockito.when(config.getInitParameterNames()).thenReturn(Collections.enumeration(Arrays.asList(
+                "com.boku.auth.http.server.response.spill-threshold-kb", "com.boku.auth.http.server.response.spill-directory"
+            )));
+            Mockito.when(config.getInitParameter("com.boku.auth.http.server.response.spill-threshold-kb")).thenReturn("1");
+            Mockito.when(config.getInitParameter("com.boku.auth.http.server.response.spill-directory")).thenReturn(dir.toString());
+            filter.init(config);
+
+            HttpServletRequest request = getServletRequest();
+            provideHeaders(request, "Authorization", "test partner-id=a, key-id=b, signature=aaa");
+
+            ByteArrayOutputStream outputStreamCapture = new ByteArrayOutputStream();
+            HttpServletResponse response = getServletResponse(outputStreamCapture);
+
+            final byte[] entity = new byte[100_000];
+            new Random(3).nextBytes(entity);
+            filter.doFilter(request, response, new FilterChain() {
+                @Override
+                public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+                    response.getOutputStream().write(entity);
+                    Assert.assertTrue(((ResponseCaptureOutputStream)response.getOutputStream()).isSpilled());
+                }
+            });
+
+            Assert.assertArrayEquals(entity, outputStreamCapture.toByteArray());
+            ArgumentCaptor<CanonicalHttpMessage> signedMessageCaptor = ArgumentCaptor.forClass(CanonicalHttpMessage.class);
+            Mockito.verify(this.mockHttpMessageSigner).sign(org.mockito.ArgumentMatchers.any(AuthorizationHeader.class), signedMessageCaptor.capture());
+            Assert.assertEquals(HexCodec.encodeString(DigestFactory.getSHA256().digest(entity)), signedMessageCaptor.getValue().getEntityDigest());
+            try (Stream<Path> files = Files.list(dir)) {
+                Assert.assertEquals(0, files.count());
+            }
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testTrailerSignedResponse() throws IOException, ServletException {
+        FilterConfig config = Mockito.mock(FilterConfig.class);
+        Mockito.when(config.getInitParameterNames()).thenReturn(Collections.enumeration(Collections.singletonList(
+            "com.boku.auth.http.server.response.trailer-signing"
+        )));
+        Mockito.when(config.getInitParameter("com.boku.auth.http.server.response.trailer-signing")).thenReturn("true");
+        filter.init(config);
+
+        HttpServletRequest request = getServletRequest();
+        Mockito.when(request.getProtocol()).thenReturn("HTTP/1.1");
+        provideHeaders(request, "Authorization", "test partner-id=a, key-id=b, signature=aaa");
+        provideHeaders(request, "TE", "gzip, trailers;q=1");
+
+        ByteArrayOutputStream outputStreamCapture = new ByteArrayOutputStream();
+        HttpServletResponse response = getServletResponse(outputStreamCapture);
+
+        filter.doFilter(request, response, new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+                response.setContentLength(10);
+                response.getOutputStream().write("a response".getBytes(StandardCharsets.UTF_8));
+                // Passed straight through rather than held back
+                Assert.assertEquals("a response", new String(outputStreamCapture.toByteArray()));
+            }
+        });
+
+        Mockito.verify(response, Mockito.never()).setContentLength(org.mockito.ArgumentMatchers.anyInt());
+        Mockito.verify(response).setHeader("Trailer", "X-SignedResponse");
+        Mockito.verify(response, Mockito.never()).setHeader(org.mockito.ArgumentMatchers.eq("X-SignedResponse"), org.mockito.ArgumentMatchers.anyString());
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Supplier<Map<String, String>>> trailersCaptor = ArgumentCaptor.forClass(Supplier.class);
+        Mockito.verify(response).setTrailerFields(trailersCaptor.capture());
+        Map<String, String> trailers = trailersCaptor.getValue().get();
+        Assert.assertEquals(Collections.singleton("X-SignedResponse"), trailers.keySet());
+        AuthorizationHeader ah = AuthorizationHeader.parse(trailers.get("X-SignedResponse"));
+        Assert.assertEquals("a", ah.getPartnerId());
+        Assert.assertEquals("das_sig", ah.getSignature());
+        Assert.assertSame(trailers, trailersCaptor.getValue().get());
+
+        ArgumentCaptor<CanonicalHttpMessage> signedMessageCaptor = ArgumentCaptor.forClass(CanonicalHttpMessage.class);
+        Mockito.verify(this.mockHttpMessageSigner).sign(org.mockito.ArgumentMatchers.any(AuthorizationHeader.class), signedMessageCaptor.capture());
+        Assert.assertEquals(sha256Hex("a response"), signedMessageCaptor.getValue().getEntityDigest());
+    }
+
+    @Test
+    public void testTrailerSignedResponseChainThrows() throws IOException, ServletException {
+        FilterConfig config = Mockito.mock(FilterConfig.class);
+        Mockito.when(config.getInitParameterNames()).thenReturn(Collections.enumeration(Collections.singletonList(
+            "com.boku.auth.http.server.response.trailer-signing"
+        )));
+        Mockito.when(config.getInitParameter("com.boku.auth.http.server.response.trailer-signing")).thenReturn("true");
+        filter.init(config);
+
+        HttpServletRequest request = getServletRequest();
+        Mockito.when(request.getProtocol()).thenReturn("HTTP/1.1");
+        provideHeaders(request, "Authorization", "test partner-id=a, key-id=b, signature=aaa");
+        provideHeaders(request, "TE", "trailers");
+
+        HttpServletResponse response = getServletResponse();
+
+        final IllegalStateException toThrow = new IllegalStateException();
+        try {
+            filter.doFilter(request, response, new FilterChain() {
+                @Override
+                public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+                    response.getOutputStream().write("half a resp".getBytes(StandardCharsets.UTF_8));
+                    throw toThrow;
+                }
+            });
+            Assert.fail("Filter should surface exceptions");
+        } catch (IllegalStateException expected) {
+            Assert.assertSame(toThrow, expected);
+        }
+
+        // The container sends its error response with the trailer it was given, which must not sign anything
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Supplier<Map<String, String>>> trailersCaptor = ArgumentCaptor.forClass(Supplier.class);
+        Mockito.verify(response).setTrailerFields(trailersCaptor.capture());
+        Assert.assertEquals(Collections.emptyMap(), trailersCaptor.getValue().get());
+        Mockito.verify(this.mockHttpMessageSigner, Mockito.never()).sign(org.mockito.ArgumentMatchers.any(AuthorizationHeader.class), org.mockito.ArgumentMatchers.any(CanonicalHttpMessage.class));
+    }
+
+    @Test
+    public void testTrailerSigningNotAccepted() throws IOException, ServletException {
+        FilterConfig config = Mockito.mock(FilterConfig.class);
+        Mockito.when(config.getInitParameterNames()).thenReturn(Collections.enumeration(Collections.singletonList(
+            "com.boku.auth.http.server.response.trailer-signing"
+        )));
+        Mockito.when(config.getInitParameter("com.boku.auth.http.server.response.trailer-signing")).thenReturn("true");
+        filter.init(config);
+
+        // HTTP/1.0 cannot carry trailers, whatever the client says
+        HttpServletRequest request = getServletRequest();
+        Mockito.when(request.getProtocol()).thenReturn("HTTP/1.0");
+        provideHeaders(request, "Authorization", "test partner-id=a, key-id=b, signature=aaa");
+        provideHeaders(request, "TE", "trailers");
+
+        ByteArrayOutputStream outputStreamCapture = new ByteArrayOutputStream();
+        HttpServletResponse response = getServletResponse(outputStreamCapture);
+
+        filter.doFilter(request, response, new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) throws IOException {
+                response.getOutputStream().write("a response".getBytes(StandardCharsets.UTF_8));
+                Assert.assertEquals(0, outputStreamCapture.size());
+            }
+        });
+
+        Assert.assertEquals("a response", new String(outputStreamCapture.toByteArray()));
+        Mockito.verify(response).setHeader(org.mockito.ArgumentMatchers.eq("X-SignedResponse"), org.mockito.ArgumentMatchers.anyString());
+        Mockito.verify(response, Mockito.never()).setTrailerFields(org.mockito.ArgumentMatchers.any());
+    }
+
+    @Test
+    public void testEmptyEntityWithOtherScheme() throws IOException, ServletException {
+        HttpServletRequest request = getServletRequest("GET", "/fake/path", null, "");
+        provideHeaders(request, "Authorization", SignatureScheme.HMAC_SHA512_256.getName() + " partner-id=a, key-id=b, signature=aaa");
+
+        final AtomicReference<CurrentRequestAuthInfo> requestInfo = new AtomicReference<>();
+        filter.doFilter(request, getServletResponse(), new FilterChain() {
+            @Override
+            public void doFilter(ServletRequest request, ServletResponse response) {
+                try {
+                    requestInfo.set(currentRequestAuthInfoFactory.getCurrentRequestInfo());
+                } catch (InvalidAuthorizationHeaderException ex) {
+                    throw new AssertionError(ex);
+                }
+            }
+        });
+        Assert.assertNull(requestInfo.get().getCanonicalRequest().getEntityDigest());
+    }
+
     @Test
     public void testHappy_getCurrentRequestInfoCalledMoreThanOnce() throws InvalidAuthorizationHeaderException, IOException, ServletException {
         final String method = "POST";
@@ -804,6 +1046,10 @@ public class BokuHttpAuthFilterTest {
     private static String streamToString(InputStream is) throws IOException {
         return new String(IO.toByteArray(is), StandardCharsets.UTF_8);
     }
+    private static String hex(SignatureScheme scheme, String in) {
+        return HexCodec.encodeString(scheme.newDigest().digest(in.getBytes(StandardCharsets.UTF_8)));
+    }
+
     private static String sha256Hex(String in) {
         return HexCodec.encodeString(
             DigestFactory.getSHA256().digest(in.getBytes(StandardCharsets.UTF_8))
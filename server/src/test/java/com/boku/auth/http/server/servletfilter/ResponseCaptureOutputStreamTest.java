@@ -0,0 +1,236 @@
+package com.boku.auth.http.server.servletfilter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.boku.auth.http.httpsigner.SignatureScheme;
+import com.boku.util.HexCodec;
+
+public class ResponseCaptureOutputStreamTest {
+
+    private final SegmentPool pool = new SegmentPool(16, 4);
+
+    @Test
+    public void testCapture() throws IOException {
+        byte[] data = new byte[100];
+        new Random(1).nextBytes(data);
+
+        ResponseCaptureOutputStream capture = new ResponseCaptureOutputStream(this.pool, SignatureScheme.HMAC_SHA256.newEntityDigester());
+        capture.write(data[0]);
+        capture.write(data, 1, 20);
+        capture.write(ByteBuffer.wrap(data, 21, 30));
+        ByteBuffer direct = ByteBuffer.allocateDirect(49);
+        direct.put(data, 51, 49).flip();
+        capture.write(direct);
+        Assert.assertFalse(direct.hasRemaining());
+        Assert.assertEquals(100, capture.size());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        capture.writeTo(out);
+        Assert.assertArrayEquals(data, out.toByteArray());
+        Assert.assertEquals(HexCodec.encodeString(SignatureScheme.HMAC_SHA256.digest(data)), capture.digest());
+
+        // 7 segments used, of which the pool keeps 4
+        capture.release();
+        Assert.assertEquals(0, capture.size());
+        Assert.assertEquals(4, this.pool.size());
+    }
+
+    @Test
+    public void testSpill() throws IOException {
+        byte[] data = new byte[200];
+        new Random(2).nextBytes(data);
+
+        Path dir = Files.createTempDirectory("spill");
+        try {
+            ResponseCaptureOutputStream capture = new ResponseCaptureOutputStream(this.pool, SignatureScheme.HMAC_SHA256.newEntityDigester(), 20, dir);
+            capture.write(data, 0, 10);
+            Assert.assertFalse(capture.isSpilled());
+
+            // Straddles the threshold, then single bytes and buffers which go via the spill buffer or straight to file
+            capture.write(data, 10, 30);
+            Assert.assertTrue(capture.isSpilled());
+            for (int i = 40; i < 60; i++) {
+                capture.write(data[i]);
+            }
+            capture.write(ByteBuffer.wrap(data, 60, 5));
+            ByteBuffer direct = ByteBuffer.allocateDirect(135);
+            direct.put(data, 65, 135).flip();
+            capture.write(direct);
+            Assert.assertEquals(200, capture.size());
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            capture.writeTo(out);
+            Assert.assertArrayEquals(data, out.toByteArray());
+            Assert.assertEquals(HexCodec.encodeString(SignatureScheme.HMAC_SHA256.digest(data)), capture.digest());
+
+            // The file is read back through the spill buffer, which leaves it intact for another go
+            out.reset();
+            capture.writeTo(out);
+            Assert.assertArrayEquals(data, out.toByteArray());
+
+            // Only the segments for the first 20 bytes and the spill buffer were used
+            capture.release();
+            Assert.assertEquals(3, this.pool.size());
+            Assert.assertEquals(0, countFiles(dir));
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
+    private static long countFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    @Test
+    public void testDrain() throws IOException {
+        byte[] data = new byte[200];
+        new Random(4).nextBytes(data);
+
+        Path dir = Files.createTempDirectory("spill");
+        try {
+            ResponseCaptureOutputStream capture = new ResponseCaptureOutputStream(this.pool, SignatureScheme.HMAC_SHA256.newEntityDigester(), 40, dir);
+            capture.write(data);
+            Assert.assertTrue(capture.isSpilled());
+
+            // Ready for one write at a time, like a slow client
+            final ByteArrayOutputStream written = new ByteArrayOutputStream();
+            ServletOutputStream out = new ServletOutputStream() {
+                private boolean ready;
+
+                @Override
+                public boolean isReady() {
+                    this.ready = !this.ready;
+                    return this.ready;
+                }
+
+                @Override
+                public void setWriteListener(WriteListener writeListener) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public void write(int b) {
+                    written.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    Assert.assertTrue(this.ready);
+                    written.write(b, off, len);
+                }
+            };
+            int calls = 1;
+            while (!capture.drainTo(out)) {
+                calls++;
+            }
+            Assert.assertArrayEquals(data, written.toByteArray());
+            // 3 segments, then 160 bytes of file through a 16 byte buffer
+            Assert.assertEquals(13, calls);
+            Assert.assertTrue(capture.drainTo(out));
+
+            capture.release();
+        } finally {
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testEmpty() throws IOException {
+        ResponseCaptureOutputStream capture = new ResponseCaptureOutputStream(this.pool, SignatureScheme.HMAC_SHA256.newEntityDigester());
+        capture.write(new byte[0]);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        capture.writeTo(out);
+        Assert.assertEquals(0, out.size());
+        Assert.assertNull(capture.digest());
+        capture.release();
+        Assert.assertEquals(0, this.pool.size());
+    }
+
+    @Test
+    public void testSegmentsReused() throws IOException {
+        ResponseCaptureOutputStream capture = new ResponseCaptureOutputStream(this.pool, SignatureScheme.HMAC_SHA256.newEntityDigester());
+        capture.write(new byte[40]);
+        capture.release();
+        Assert.assertEquals(3, this.pool.size());
+
+        capture.write(new byte[17]);
+        Assert.assertEquals(1, this.pool.size());
+        capture.release();
+        Assert.assertEquals(3, this.pool.size());
+    }
+
+    @Test
+    public void testAsyncDrainWaitsForPendingCallback() throws IOException {
+        byte[] data = new byte[50];
+        new Random(3).nextBytes(data);
+        ResponseCaptureOutputStream capture = new ResponseCaptureOutputStream(this.pool, SignatureScheme.HMAC_SHA256.newEntityDigester());
+        capture.write(data, 0, data.length);
+
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        WriteListener[] registered = new WriteListener[1];
+        ServletOutputStream out = new ServletOutputStream() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+                Assert.assertNull(registered[0]);
+                registered[0] = writeListener;
+            }
+
+            @Override
+            public void write(int b) {
+                written.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                written.write(b, off, len);
+            }
+        };
+
+        AsyncCaptureWriter writer = new AsyncCaptureWriter(out, capture);
+        int[] appCallbacks = new int[1];
+        writer.setApplicationListener(new WriteListener() {
+            @Override
+            public void onWritePossible() {
+                appCallbacks[0]++;
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                Assert.fail(t.toString());
+            }
+        });
+        Assert.assertSame(writer, registered[0]);
+
+        // Completed before the container's first callback, which is left to do the draining
+        int[] done = new int[1];
+        writer.drain(() -> done[0]++);
+        Assert.assertEquals(0, written.size());
+        Assert.assertEquals(0, done[0]);
+
+        registered[0].onWritePossible();
+        Assert.assertArrayEquals(data, written.toByteArray());
+        Assert.assertEquals(1, done[0]);
+        Assert.assertEquals(0, appCallbacks[0]);
+        capture.release();
+    }
+}
@@ -0,0 +1,145 @@
+package com.boku.auth.http.server.servletfilter;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.boku.auth.http.server.servletfilter.ServletRequestContextHolder.ServletRequestContext;
+
+public class ServletRequestContextHolderTest {
+
+    @Test
+    public void testThreadLocalNesting() throws IOException, ServletException {
+        assertNesting(new ThreadLocalServletRequestContextHolder());
+    }
+
+    @Test
+    public void testThreadLocalRestoredOnThrow() throws IOException, ServletException {
+        ServletRequestContextHolder holder = new ThreadLocalServletRequestContextHolder();
+        ServletRequestContext ctx = holder.open(getServletRequest(), null);
+        IOException toThrow = new IOException();
+        try {
+            holder.runWith(ctx, () -> {
+                throw toThrow;
+            });
+            Assert.fail("runWith should surface exceptions");
+        } catch (IOException expected) {
+            Assert.assertSame(toThrow, expected);
+        }
+        Assert.assertNull(holder.get());
+    }
+
+    @Test
+    public void testScopedValueNesting() throws IOException, ServletException {
+        Assume.assumeTrue(ScopedValueServletRequestContextHolder.isAvailable());
+        assertNesting(ServletRequestContextHolder.forType(ServletRequestContextHolder.TYPE_SCOPED_VALUE));
+    }
+
+    @Test
+    public void testScopedValueRethrows() throws IOException, ServletException {
+        Assume.assumeTrue(ScopedValueServletRequestContextHolder.isAvailable());
+        ServletRequestContextHolder holder = new ScopedValueServletRequestContextHolder();
+        ServletRequestContext ctx = holder.open(getServletRequest(), null);
+        ServletException toThrow = new ServletException();
+        try {
+            holder.runWith(ctx, () -> {
+                throw toThrow;
+            });
+            Assert.fail("runWith should surface exceptions");
+        } catch (ServletException expected) {
+            Assert.assertSame(toThrow, expected);
+        }
+        Assert.assertNull(holder.get());
+    }
+
+    @Test
+    public void testScopedValueUnavailable() {
+        Assume.assumeFalse(ScopedValueServletRequestContextHolder.isAvailable());
+        try {
+            ServletRequestContextHolder.forType(ServletRequestContextHolder.TYPE_SCOPED_VALUE);
+            Assert.fail("ScopedValue holder should not be created without ScopedValue");
+        } catch (IllegalStateException expected) {
+            Assert.assertTrue(expected.getMessage(), expected.getMessage().contains("ScopedValue is not available"));
+        }
+    }
+
+    @Test
+    public void testRequestAttribute() throws IOException, ServletException {
+        ServletRequestContextHolder holder = ServletRequestContextHolder.forType(ServletRequestContextHolder.TYPE_REQUEST_ATTRIBUTE);
+        HttpServletRequest request = getServletRequest();
+        ServletRequestContext ctx = holder.open(request, null);
+        holder.runWith(ctx, () -> {
+            Assert.assertNull(holder.get());
+            Assert.assertSame(ctx, holder.get(request));
+            Assert.assertSame(ctx, holder.get(new HttpServletRequestWrapper(request)));
+        });
+        Assert.assertEquals(2, ctx.accessCount.get());
+    }
+
+    @Test
+    public void testGetFromOtherThread() throws Exception {
+        ServletRequestContextHolder holder = new ThreadLocalServletRequestContextHolder();
+        HttpServletRequest request = getServletRequest();
+        ServletRequestContext ctx = holder.open(request, null);
+        AtomicReference<ServletRequestContext> current = new AtomicReference<>();
+        AtomicReference<ServletRequestContext> fromRequest = new AtomicReference<>();
+        holder.runWith(ctx, () -> CompletableFuture.runAsync(() -> {
+            current.set(holder.get());
+            fromRequest.set(holder.get(request));
+        }).join());
+        Assert.assertNull(current.get());
+        Assert.assertSame(ctx, fromRequest.get());
+        Assert.assertEquals(1, ctx.accessCount.get());
+    }
+
+    @Test
+    public void testGetNotFiltered() throws IOException {
+        ServletRequestContextHolder holder = new ThreadLocalServletRequestContextHolder();
+        Assert.assertNull(holder.get());
+        Assert.assertNull(holder.get(getServletRequest()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownType() {
+        ServletRequestContextHolder.forType("carrier-pigeon");
+    }
+
+    private static void assertNesting(ServletRequestContextHolder holder) throws IOException, ServletException {
+        ServletRequestContext outer = holder.open(getServletRequest(), null);
+        ServletRequestContext inner = holder.open(getServletRequest(), null);
+
+        Assert.assertNull(holder.get());
+        holder.runWith(outer, () -> {
+            Assert.assertSame(outer, holder.get());
+            holder.runWith(inner, () -> Assert.assertSame(inner, holder.get()));
+            Assert.assertSame(outer, holder.get());
+        });
+        Assert.assertNull(holder.get());
+
+        Assert.assertEquals(2, outer.accessCount.get());
+        Assert.assertEquals(1, inner.accessCount.get());
+    }
+
+    /**
+     * Mock request which keeps its attributes.
+     */
+    private static HttpServletRequest getServletRequest() {
+        HttpServletRequest ret = Mockito.mock(HttpServletRequest.class);
+        Map<String, Object> attributes = new HashMap<>();
+        Mockito.doAnswer(invocation -> attributes.put(invocation.getArgument(0), invocation.getArgument(1)))
+                .when(ret).setAttribute(Mockito.anyString(), Mockito.any());
+        Mockito.when(ret.getAttribute(Mockito.anyString())).then(invocation -> attributes.get((String)invocation.getArgument(0)));
+        return ret;
+    }
+}
@@ -0,0 +1,622 @@
+package com.boku.auth.http.tools;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.KeyStore;
+import java.security.MessageDigest;
+import java.security.Provider;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+import com.boku.auth.http.AuthorizationHeader;
+import com.boku.auth.http.CompactAuthorizationHeader;
+import com.boku.auth.http.client.kms.RemoteStringSigner;
+import com.boku.auth.http.httpmessage.CanonicalHttpHeader;
+import com.boku.auth.http.httpmessage.CanonicalHttpRequest;
+import com.boku.auth.http.httpmessage.EntityDigester;
+import com.boku.auth.http.httpsigner.BulkItem;
+import com.boku.auth.http.httpsigner.BulkResult;
+import com.boku.auth.http.httpsigner.HttpMessageSigner;
+import com.boku.auth.http.httpsigner.SignatureScheme;
+import com.boku.auth.http.httpsigner.SigningTemplate;
+import com.boku.auth.http.keyprovider.KeyProvider;
+import com.boku.auth.http.keyprovider.KeystoreKeyProvider;
+import com.boku.auth.http.keyprovider.OffHeapKeyProvider;
+import com.boku.auth.http.keyprovider.PropertiesKeyProvider;
+import com.boku.auth.http.stringsigner.BasicStringSignerImpl;
+import com.boku.auth.http.stringsigner.SignatureAlgorithm;
+import com.boku.auth.http.stringsigner.StringSigner;
+import com.boku.auth.http.tools.shared.ArgvProcessor;
+import com.boku.util.CryptoProvider;
+import com.boku.util.DigestFactory;
+import com.boku.util.HexCodec;
+
+import static com.boku.auth.http.tools.shared.CmdUtil.*;
+
+/**
+ * See {@link #SYNOPSIS}<br>
+ * <br>
+ * This is a simple harness rather than a rigorous microbenchmark framework: each variant of a case is warmed up and
+ * then run for a fixed time on the requested number of threads, and the aggregate throughput reported. Run it a few
+ * times and on an otherwise idle machine before drawing conclusions.
+ */
+public class Benchmark {
+
+    public static final String SYNOPSIS = "Measure throughput of signing hot paths, comparing alternative implementations.";
+
+    /**
+     * A single benchmarked operation. Instances are confined to one thread, so may hold reusable state.
+     */
+    interface Operation {
+        void run() throws Exception;
+    }
+
+    interface OperationFactory {
+        Operation create() throws Exception;
+    }
+
+    private static final class Case {
+        final String description;
+        final Map<String, OperationFactory> variants = new LinkedHashMap<>();
+
+        Case(String description) {
+            this.description = description;
+        }
+
+        Case variant(String name, OperationFactory factory) {
+            this.variants.put(name, factory);
+            return this;
+        }
+    }
+
+    private static final String PARTNER_ID = "bench";
+    private static final String KEY_ID = "1";
+    private static final String KEY = "ab4f6e2e1d8b4c7aa0e0f1c2d3b4a5968778695a4b3c2d1e";
+    private static final String KEYSTORE_PASSWORD = "benchmark";
+    private static final int LARGE_KEY_COUNT = 1_000_000;
+    private static final int BULK_SIZE = 10_000;
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int LARGE_ENTITY_SIZE = 16 << 20;
+    private static final String STRING_TO_SIGN =
+        "POST /optin/3.0/optin\n" +
+        "Content-Type: application/xml; charset=\"UTF-8\"\n" +
+        "4ae0c7fdaf7c4ebb2ac4bc89e0d3f2bd2cba9ef4a2e5de1b36d0bf60b29e1e57\n" +
+        "1403052141";
+
+    private static final Map<String, Case> CASES = new LinkedHashMap<>();
+    static {
+        CASES.put("hmac", new Case("StringSigner HMAC-SHA256 of a typical string to sign")
+            .variant("uncached", () -> stringSignerOperation(new BasicStringSignerImpl(keyProvider(), 0, 0)))
+            .variant("cached", () -> stringSignerOperation(new BasicStringSignerImpl(keyProvider())))
+        );
+        CASES.put("sign", new Case("HttpMessageSigner.generateSignature for a typical POST request")
+            .variant("string", () -> {
+                StringSigner stringOnly = new BasicStringSignerImpl(keyProvider())::generateSignature;
+                return httpMessageSignerOperation(new HttpMessageSigner(stringOnly));
+            })
+            .variant("streaming", () -> httpMessageSignerOperation(new HttpMessageSigner(new BasicStringSignerImpl(keyProvider()))))
+            .variant("template", () -> {
+                AuthorizationHeader ah = authorizationHeader();
+                CanonicalHttpRequest request = canonicalRequest();
+                SigningTemplate template = new HttpMessageSigner(new BasicStringSignerImpl(keyProvider())).createTemplate(ah, request);
+                return () -> template.sign(request.getEntityDigest(), ah.getTimestamp());
+            })
+        );
+        CASES.put("verify", new Case("HttpMessageSigner.verifySignature for a typical POST request")
+            .variant("string", () -> {
+                StringSigner stringOnly = new BasicStringSignerImpl(keyProvider())::generateSignature;
+                return verifyOperation(new HttpMessageSigner(stringOnly));
+            })
+            .variant("binary", () -> verifyOperation(new HttpMessageSigner(new BasicStringSignerImpl(keyProvider()))))
+        );
+        CASES.put("small-digest", new Case("SHA-256 hex digest of a 1KB entity, by how the MessageDigest is obtained")
+            .variant("getInstance", () -> {
+                byte[] entity = randomBytes(1024);
+                return () -> HexCodec.encodeString(MessageDigest.getInstance(DigestFactory.SHA256).digest(entity));
+            })
+            .variant("pooled", () -> {
+                byte[] entity = randomBytes(1024);
+                return () -> DigestFactory.digestHex(DigestFactory.SHA256, entity);
+            })
+        );
+        Case providers = new Case("HMAC-SHA256 of a typical string to sign, and SHA-256 of a 64KB entity, by installed JCA provider");
+        for (Provider provider : CryptoProvider.getInstalled()) {
+            if (provider.getService("Mac", "HmacSHA256") != null) {
+                providers.variant("hmac-" + provider.getName(), () -> stringSignerOperation(new BasicStringSignerImpl(
+                    keyProvider(), BasicStringSignerImpl.DEFAULT_MAX_CACHED_KEYS, BasicStringSignerImpl.DEFAULT_CACHED_KEY_TTL_MILLIS, CryptoProvider.of(provider)
+                )));
+            }
+            if (provider.getService("MessageDigest", DigestFactory.SHA256) != null) {
+                providers.variant("sha256-" + provider.getName(), () -> {
+                    CryptoProvider cryptoProvider = CryptoProvider.of(provider);
+                    byte[] entity = randomBytes(64 << 10);
+                    return () -> cryptoProvider.digest(DigestFactory.SHA256, entity);
+                });
+            }
+        }
+        CASES.put("providers", providers);
+        CASES.put("hex", new Case("Hex encoding and decoding of a 32 byte signature")
+            .variant("encode-nibbles", () -> {
+                byte[] mac = randomBytes(32);
+                return () -> encodeNibbles(mac);
+            })
+            .variant("encode-string", () -> {
+                byte[] mac = randomBytes(32);
+                return () -> HexCodec.encodeString(mac);
+            })
+            .variant("encode-into", () -> {
+                byte[] mac = randomBytes(32);
+                byte[] out = new byte[64];
+                return () -> HexCodec.encode(mac, 0, mac.length, out, 0);
+            })
+            .variant("decode", () -> {
+                String hex = HexCodec.encodeString(randomBytes(32));
+                return () -> HexCodec.decode(hex);
+            })
+            .variant("decode-into", () -> {
+                String hex = HexCodec.encodeString(randomBytes(32));
+                byte[] out = new byte[32];
+                return () -> HexCodec.decodeInto(hex, out, 0);
+            })
+        );
+        CASES.put("entity-digest", new Case("Entity digest of a " + (LARGE_ENTITY_SIZE >> 20) + "MB entity, by signature scheme (use -threads 1)")
+            .variant("sha256", () -> entityDigestOperation(SignatureScheme.HMAC_SHA256, false))
+            .variant("sha512-256", () -> entityDigestOperation(SignatureScheme.HMAC_SHA512_256, false))
+            .variant("tree-streaming", () -> entityDigestOperation(SignatureScheme.HMAC_SHA256_TREE, false))
+            .variant("tree-parallel", () -> entityDigestOperation(SignatureScheme.HMAC_SHA256_TREE, true))
+        );
+        CASES.put("file-digest", new Case("SHA-256 entity digest of a " + (LARGE_ENTITY_SIZE >> 20) + "MB file")
+            .variant("read-bytes", () -> {
+                Path file = largeEntityFile();
+                return () -> SignatureScheme.HMAC_SHA256.digest(Files.readAllBytes(file));
+            })
+            .variant("mmap", () -> {
+                Path file = largeEntityFile();
+                EntityDigester digester = SignatureScheme.HMAC_SHA256.newEntityDigester();
+                return () -> {
+                    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                        digester.update(channel);
+                    }
+                    digester.digest();
+                };
+            })
+        );
+        CASES.put("auth-header", new Case("Parsing a typical Authorization header, as BokuHttpAuthFilter does for each request")
+            .variant("mutable", () -> {
+                String value = authorizationHeader().toString();
+                return () -> AuthorizationHeader.parse(value);
+            })
+            .variant("compact", () -> {
+                String value = authorizationHeader().toString();
+                return () -> CompactAuthorizationHeader.parse(value);
+            })
+            .variant("filter", () -> {
+                // Parsed once per request, then copied for the application's CurrentRequestAuthInfo
+                String value = authorizationHeader().toString();
+                return () -> CompactAuthorizationHeader.parse(value).toAuthorizationHeader();
+            })
+        );
+        CASES.put("keystore", new Case("KeystoreKeyProvider.get from a PKCS12 KeyStore")
+            .variant("on-demand", () -> keyProviderOperation(new KeystoreKeyProvider(keyStore(), KEYSTORE_PASSWORD)))
+            .variant("snapshot", () -> keyProviderOperation(new KeystoreKeyProvider(keyStore(), KEYSTORE_PASSWORD, true)))
+        );
+        Case bulk = new Case("HttpMessageSigner.verifyAll of " + BULK_SIZE + " requests over 100 keys per op, by pool size (use -threads 1)")
+            .variant("sequential", () -> bulkVerifyOperation(null));
+        for (int parallelism = 1; parallelism <= Runtime.getRuntime().availableProcessors(); parallelism *= 2) {
+            int p = parallelism;
+            bulk.variant("verifyAll-" + p, () -> bulkVerifyOperation(new ForkJoinPool(p)));
+        }
+        CASES.put("bulk-verify", bulk);
+        CASES.put("remote-sign", new Case("RemoteStringSigner against an in-process StandInKMS (use many -threads)")
+            .variant("unbatched", () -> stringSignerOperation(remoteStringSigner(1)))
+            .variant("batched", () -> stringSignerOperation(remoteStringSigner(RemoteStringSigner.DEFAULT_MAX_BATCH_SIZE)))
+        );
+        CASES.put("keys-1m", new Case("KeyProvider.get with " + LARGE_KEY_COUNT + " partners, reporting memory used")
+            .variant("properties", () -> largeKeyProviderOperation("properties"))
+            .variant("off-heap", () -> largeKeyProviderOperation("off-heap"))
+            .variant("off-heap-copy", () -> largeKeyProviderOperation("off-heap-copy"))
+        );
+    }
+
+    private static int threads = Runtime.getRuntime().availableProcessors();
+    private static int warmupSeconds = 3;
+    private static int seconds = 5;
+
+    public static void main(String[] argv) throws Exception {
+        List<String> examples = new ArrayList<>();
+        examples.add("$0 -threads 1 hmac");
+        for (Map.Entry<String, Case> e : CASES.entrySet()) {
+            examples.add("  " + e.getKey() + ": " + e.getValue().description + " " + e.getValue().variants.keySet());
+        }
+        ArgvProcessor args = new ArgvProcessor(
+            Benchmark.class, SYNOPSIS, "<CASE ...>", argv, examples.toArray(new String[0])
+        );
+        args.addParam("threads", "<N>", value -> threads = positive(value), "Number of threads to run each variant on, default " + threads);
+        args.addParam("warmup", "<SECONDS>", value -> warmupSeconds = positive(value), "Warmup time per variant, default " + warmupSeconds);
+        args.addParam("seconds", "<SECONDS>", value -> seconds = positive(value), "Measurement time per variant, default " + seconds);
+
+        List<Case> cases = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        while (args.hasNext()) {
+            String name = args.next();
+            Case c = CASES.get(name);
+            if (c == null) {
+                args.usage("Unknown case, '" + name + "'");
+            }
+            cases.add(c);
+            names.add(name);
+        }
+        if (cases.isEmpty()) {
+            args.usage("Please specify one or more cases to run");
+        }
+
+        println("Running on ", threads, " thread(s), ", warmupSeconds, "s warmup, ", seconds, "s measurement");
+        for (int i = 0; i < cases.size(); i++) {
+            Case c = cases.get(i);
+            println();
+            println(names.get(i), ": ", c.description);
+            for (Map.Entry<String, OperationFactory> variant : c.variants.entrySet()) {
+                Result result = run(variant.getValue());
+                println(String.format("  %-24s %,14.0f ops/s %,10.0f bytes/op", variant.getKey(), result.opsPerSecond, result.bytesPerOp));
+            }
+        }
+
+        for (Map.Entry<Integer, RemoteStringSigner> e : remoteStringSigners.entrySet()) {
+            println("RemoteStringSigner maxBatchSize=", e.getKey(), ": ", e.getValue().getStats());
+            e.getValue().close();
+        }
+        if (standInKMS != null) {
+            standInKMS.stop();
+        }
+    }
+
+    private static final class Result {
+        final double opsPerSecond;
+        final double bytesPerOp;
+
+        Result(double opsPerSecond, double bytesPerOp) {
+            this.opsPerSecond = opsPerSecond;
+            this.bytesPerOp = bytesPerOp;
+        }
+    }
+
+    private static Result run(OperationFactory factory) throws Exception {
+        Operation[] ops = new Operation[threads];
+        for (int i = 0; i < threads; i++) {
+            ops[i] = factory.create();
+        }
+
+        AtomicBoolean measuring = new AtomicBoolean(false);
+        AtomicBoolean stop = new AtomicBoolean(false);
+        long[] counts = new long[threads];
+        long[] allocated = new long[threads];
+        Throwable[] failure = new Throwable[1];
+        CountDownLatch done = new CountDownLatch(threads);
+
+        for (int i = 0; i < threads; i++) {
+            final int t = i;
+            Thread thread = new Thread(() -> {
+                try {
+                    Operation op = ops[t];
+                    while (!measuring.get()) {
+                        op.run();
+                    }
+                    long startAllocated = threadAllocatedBytes();
+                    long n = 0;
+                    while (!stop.get()) {
+                        op.run();
+                        n++;
+                    }
+                    allocated[t] = threadAllocatedBytes() - startAllocated;
+                    counts[t] = n;
+                } catch (Throwable ex) {
+                    synchronized (failure) {
+                        failure[0] = ex;
+                    }
+                    stop.set(true);
+                    measuring.set(true);
+                } finally {
+                    done.countDown();
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        Thread.sleep(warmupSeconds * 1000L);
+        long start = System.nanoTime();
+        measuring.set(true);
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+        done.await();
+        long elapsed = System.nanoTime() - start;
+
+        synchronized (failure) {
+            if (failure[0] != null) {
+                throw new IllegalStateException("Benchmark operation failed", failure[0]);
+            }
+        }
+
+        long total = 0;
+        long totalAllocated = 0;
+        for (int i = 0; i < threads; i++) {
+            total += counts[i];
+            totalAllocated += allocated[i];
+        }
+        return new Result(total * 1e9 / elapsed, total == 0 ? 0 : (double)totalAllocated / total);
+    }
+
+    private static long threadAllocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean)bean).getCurrentThreadAllocatedBytes();
+        }
+        return 0;
+    }
+
+    private static int positive(String value) {
+        int n = Integer.parseInt(value);
+        if (n <= 0) {
+            throw new IllegalArgumentException("must be positive");
+        }
+        return n;
+    }
+
+    private static KeyProvider keyProvider() {
+        Map<String, String> keys = new LinkedHashMap<>();
+        keys.put("boku.auth.keys." + PARTNER_ID + "." + KEY_ID, KEY);
+        return new PropertiesKeyProvider(keys);
+    }
+
+    private static KeyStore keyStore;
+
+    private static synchronized KeyStore keyStore() throws Exception {
+        if (keyStore == null) {
+            keyStore = KeyStore.getInstance("PKCS12");
+            keyStore.load(null, null);
+            SecretKeyFactory factory = SecretKeyFactory.getInstance("PBE");
+            keyStore.setEntry(
+                PARTNER_ID + "." + KEY_ID,
+                new KeyStore.SecretKeyEntry(factory.generateSecret(new PBEKeySpec(KEY.toCharArray()))),
+                new KeyStore.PasswordProtection(KEYSTORE_PASSWORD.toCharArray())
+            );
+        }
+        return keyStore;
+    }
+
+    private static AuthorizationHeader authorizationHeader() {
+        AuthorizationHeader ah = new AuthorizationHeader();
+        ah.setScheme(HttpMessageSigner.SCHEME);
+        ah.setPartnerId(PARTNER_ID);
+        ah.setKeyId(KEY_ID);
+        ah.getSignedHeaders().add("Content-Type");
+        ah.setTimestamp(1403052141L);
+        return ah;
+    }
+
+    private static CanonicalHttpRequest canonicalRequest() {
+        CanonicalHttpRequest request = new CanonicalHttpRequest();
+        request.setMethod("POST");
+        request.setPath("/optin/3.0/optin");
+        request.setQueryString("country=US&trace=1");
+        request.getHeaders().add(new CanonicalHttpHeader("Content-Type", "application/xml; charset=\"UTF-8\""));
+        request.setEntityDigest("4ae0c7fdaf7c4ebb2ac4bc89e0d3f2bd2cba9ef4a2e5de1b36d0bf60b29e1e57");
+        return request;
+    }
+
+    private static Operation httpMessageSignerOperation(HttpMessageSigner signer) {
+        AuthorizationHeader ah = authorizationHeader();
+        CanonicalHttpRequest request = canonicalRequest();
+        return () -> signer.generateSignature(ah, request);
+    }
+
+    private static Operation verifyOperation(HttpMessageSigner signer) {
+        AuthorizationHeader ah = authorizationHeader();
+        CanonicalHttpRequest request = canonicalRequest();
+        signer.sign(ah, request);
+        return () -> signer.verifySignature(ah, request);
+    }
+
+    /**
+     * Digest a large entity either as it would be streamed, or all at once via {@link SignatureScheme#digest}, which
+     * for the tree hash scheme uses all cores.
+     */
+    private static Operation entityDigestOperation(SignatureScheme scheme, boolean whole) {
+        byte[] entity = randomBytes(LARGE_ENTITY_SIZE);
+        if (whole) {
+            return () -> scheme.digest(entity);
+        }
+        MessageDigest md = scheme.newDigest();
+        return () -> {
+            for (int offset = 0; offset < entity.length; offset += 8192) {
+                md.update(entity, offset, Math.min(8192, entity.length - offset));
+            }
+            md.digest();
+        };
+    }
+
+    private static Path largeEntityFile() throws IOException {
+        Path file = Files.createTempFile("benchmark", ".bin");
+        file.toFile().deleteOnExit();
+        Files.write(file, randomBytes(LARGE_ENTITY_SIZE));
+        return file;
+    }
+
+    /**
+     * The original implementation of {@link HexCodec#encodeString}, for comparison
+     */
+    private static String encodeNibbles(byte[] in) {
+        char[] hex = new char[in.length * 2];
+        for (int i = 0, o = 0; i < in.length; i++) {
+            hex[o++] = HEX_DIGITS[(0xF0 & in[i]) >>> 4];
+            hex[o++] = HEX_DIGITS[0x0F & in[i]];
+        }
+        return new String(hex);
+    }
+
+    private static byte[] randomBytes(int len) {
+        byte[] data = new byte[len];
+        ThreadLocalRandom.current().nextBytes(data);
+        return data;
+    }
+
+    private static Operation keyProviderOperation(KeyProvider keyProvider) {
+        return () -> {
+            if (keyProvider.get(PARTNER_ID, KEY_ID) == null) {
+                throw new IllegalStateException("Key not found");
+            }
+        };
+    }
+
+    /**
+     * Verify a batch of requests signed with 100 different keys, either one at a time on the calling thread, or via
+     * {@link HttpMessageSigner#verifyAll} on the given pool.
+     */
+    private static Operation bulkVerifyOperation(ForkJoinPool pool) {
+        Map<String, String> keys = new HashMap<>();
+        for (int k = 0; k < 100; k++) {
+            keys.put("boku.auth.keys." + PARTNER_ID + "." + k, KEY + k);
+        }
+        HttpMessageSigner signer = new HttpMessageSigner(new BasicStringSignerImpl(new PropertiesKeyProvider(keys)));
+        List<BulkItem> items = new ArrayList<>(BULK_SIZE);
+        for (int i = 0; i < BULK_SIZE; i++) {
+            AuthorizationHeader ah = authorizationHeader();
+            ah.setKeyId(Integer.toString(i % 100));
+            CanonicalHttpRequest request = canonicalRequest();
+            signer.sign(ah, request);
+            items.add(new BulkItem(ah, request));
+        }
+        if (pool == null) {
+            return () -> {
+                for (BulkItem item : items) {
+                    signer.verifySignature(item.getAuthHeader(), item.getHttpMessage());
+                }
+            };
+        }
+        return () -> {
+            for (BulkResult result : signer.verifyAll(items, pool)) {
+                if (!result.isSuccess()) {
+                    throw result.getFailure();
+                }
+            }
+        };
+    }
+
+    private static StandInKMS standInKMS;
+    private static final Map<Integer, RemoteStringSigner> remoteStringSigners = new HashMap<>();
+
+    /**
+     * A RemoteStringSigner with the given batch size, shared by all threads, talking to a StandInKMS started on first
+     * use.
+     */
+    private static synchronized RemoteStringSigner remoteStringSigner(int maxBatchSize) throws Exception {
+        if (standInKMS == null) {
+            standInKMS = new StandInKMS(0, new BasicStringSignerImpl(keyProvider()));
+        }
+        RemoteStringSigner ret = remoteStringSigners.get(maxBatchSize);
+        if (ret == null) {
+            ret = new RemoteStringSigner(
+                URI.create(standInKMS.getURL()), null,
+                maxBatchSize, RemoteStringSigner.DEFAULT_MAX_BATCH_DELAY_MILLIS, RemoteStringSigner.DEFAULT_MAX_CONCURRENT_BATCHES,
+                RemoteStringSigner.DEFAULT_MAX_QUEUED_REQUESTS, RemoteStringSigner.DEFAULT_REQUEST_TIMEOUT_MILLIS
+            );
+            remoteStringSigners.put(maxBatchSize, ret);
+        }
+        return ret;
+    }
+
+    private static String[] largePartnerIds;
+    private static String largeKeyProviderName;
+    private static KeyProvider largeKeyProvider;
+
+    /**
+     * Build the named provider with {@link #LARGE_KEY_COUNT} keys once for all threads, printing the heap it retains.
+     * Only one is kept at a time, so that the previous variant's keys do not skew the next one's measurement.
+     */
+    private static synchronized KeyProvider largeKeyProvider(String name) {
+        if (name.equals(largeKeyProviderName)) {
+            return largeKeyProvider;
+        }
+        largeKeyProvider = null;
+        largeKeyProviderName = null;
+        if (largePartnerIds == null) {
+            largePartnerIds = new String[LARGE_KEY_COUNT];
+            for (int i = 0; i < LARGE_KEY_COUNT; i++) {
+                largePartnerIds[i] = "partner-" + i;
+            }
+        }
+
+        long heapBefore = usedHeap();
+        KeyProvider kp;
+        long offHeap = 0;
+        if (name.equals("properties")) {
+            Map<String, String> keys = new HashMap<>();
+            for (int i = 0; i < LARGE_KEY_COUNT; i++) {
+                keys.put("boku.auth.keys." + largePartnerIds[i] + "." + KEY_ID, KEY);
+            }
+            kp = new PropertiesKeyProvider(keys);
+        } else {
+            OffHeapKeyProvider offHeapKp = new OffHeapKeyProvider(LARGE_KEY_COUNT);
+            for (int i = 0; i < LARGE_KEY_COUNT; i++) {
+                offHeapKp.put(largePartnerIds[i], KEY_ID, KEY);
+            }
+            offHeap = offHeapKp.getOffHeapBytes();
+            kp = offHeapKp;
+        }
+        long heap = usedHeap() - heapBefore;
+        println(String.format("  %-24s %,14d heap bytes %,10d off-heap bytes", name, heap, offHeap));
+
+        largeKeyProvider = kp;
+        largeKeyProviderName = name;
+        return kp;
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static Operation largeKeyProviderOperation(String name) {
+        KeyProvider kp = largeKeyProvider(name);
+        String[] partnerIds = largePartnerIds;
+        byte[] buf = new byte[KEY.length()];
+        boolean copy = name.equals("off-heap-copy");
+        return new Operation() {
+            int i = ThreadLocalRandom.current().nextInt(LARGE_KEY_COUNT);
+
+            @Override
+            public void run() {
+                // Large odd stride, so successive lookups land in unrelated parts of the table
+                this.i = (this.i + 7919) % LARGE_KEY_COUNT;
+                boolean found = copy
+                    ? ((OffHeapKeyProvider)kp).copyKey(partnerIds[this.i], KEY_ID, buf, 0) > 0
+                    : kp.get(partnerIds[this.i], KEY_ID) != null;
+                if (!found) {
+                    throw new IllegalStateException("Key not found");
+                }
+            }
+        };
+    }
+
+    private static Operation stringSignerOperation(StringSigner stringSigner) {
+        return () -> stringSigner.generateSignature(SignatureAlgorithm.HMAC_SHA256, PARTNER_ID, KEY_ID, STRING_TO_SIGN);
+    }
+
+}
@@ -26,6 +26,8 @@ public class Dispatcher {
         Server.class,
         Sign.class,
         Check.class,
+        Benchmark.class,
+        StandInKMS.class,
         Example_BokuAPIClient.class,
         Example_ApacheHttpClient.class,
         Example_ServletServer.class
@@ -68,7 +68,7 @@ public class Example_ServletServer {
         // Set up auth components
         ServerAuthorizationComponentsFactory factory = new ServerAuthorizationComponentsFactory(propsKeyProvider);
         BokuHttpAuthFilter authFilter = new BokuHttpAuthFilter(
-            factory.getThreadLocalServletRequestContextHolder(), factory.getHttpMessageSigner());
+            factory.getServletRequestContextHolder(), factory.getHttpMessageSigner());
         AuthContextCheckingFilter authContextCheckingFilter = new AuthContextCheckingFilter(factory.getAuthorizationContextProvider());
 
         // We're using Jetty as our server implementation here, but any servlet compliant server should work
@@ -0,0 +1,127 @@
+package com.boku.auth.http.tools;
+
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jakarta.servlet.http.HttpServlet;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.eclipse.jetty.ee11.servlet.ServletContextHandler;
+import org.eclipse.jetty.ee11.servlet.ServletHolder;
+import org.eclipse.jetty.server.ServerConnector;
+
+import com.boku.auth.http.client.kms.KmsProtocol;
+import com.boku.auth.http.client.kms.RemoteStringSigner;
+import com.boku.auth.http.keyprovider.PropertiesKeyProvider;
+import com.boku.auth.http.stringsigner.BasicStringSignerImpl;
+import com.boku.auth.http.stringsigner.StringSigner;
+import com.boku.auth.http.tools.shared.ArgvProcessor;
+import com.boku.auth.http.tools.shared.GeneralOptions;
+
+import static com.boku.auth.http.tools.shared.CmdUtil.*;
+
+/**
+ * Stand-in for a key management service, serving the {@link KmsProtocol} used by {@link RemoteStringSigner}, with keys
+ * from the usual config file.<br>
+ * <br>
+ * WARNING: for local development and load testing only. It performs no authentication of its callers.
+ */
+public class StandInKMS {
+
+    public static final String SYNOPSIS = "Local stand-in key management service for RemoteStringSigner, for development and load testing";
+
+    public static final String PATH = "/sign";
+
+    private final org.eclipse.jetty.server.Server jetty;
+    private final SignServlet servlet;
+
+    /**
+     * Start serving on the given port.
+     *
+     * @param port Port to listen on, or 0 to allocate one
+     * @param stringSigner Signs the strings sent by clients
+     */
+    public StandInKMS(int port, StringSigner stringSigner) throws Exception {
+        this.jetty = new org.eclipse.jetty.server.Server(port);
+        ServletContextHandler servletHandler = new ServletContextHandler();
+        this.servlet = new SignServlet(stringSigner);
+        servletHandler.addServlet(new ServletHolder(this.servlet), PATH);
+        this.jetty.setHandler(servletHandler);
+        this.jetty.start();
+    }
+
+    /**
+     * @return The URL of the signing endpoint, to pass to {@link RemoteStringSigner}
+     */
+    public String getURL() {
+        return "http://127.0.0.1:" + ((ServerConnector)this.jetty.getConnectors()[0]).getLocalPort() + PATH;
+    }
+
+    /**
+     * @return Number of strings signed so far
+     */
+    public long getSignedCount() {
+        return this.servlet.signed.get();
+    }
+
+    public void stop() throws Exception {
+        this.jetty.stop();
+    }
+
+    public static void main(String[] argv) throws Exception {
+        int[] port = { 8090 };
+        ArgvProcessor args = new ArgvProcessor(
+            StandInKMS.class, SYNOPSIS, null, argv,
+            "$0 -port 8090 -config config.properties"
+        );
+        args.addParam(
+            "port", "<PORT>",
+            value -> port[0] = Integer.parseInt(value),
+            "Listen on the given port number (Default: " + port[0] + ", use 0 to allocate random port)"
+        );
+        GeneralOptions generalOpts = new GeneralOptions();
+        args.register(generalOpts);
+        while (args.hasNext()) {
+            args.usage("Unrecognized extra argument, '" + args.next() + "'");
+        }
+
+        Properties config = loadProperties(generalOpts.configFile);
+        if (config == null) {
+            die("Config file " + generalOpts.configFile + " does not exist");
+            return;
+        }
+
+        StandInKMS kms = new StandInKMS(port[0], new BasicStringSignerImpl(new PropertiesKeyProvider(config)));
+        println();
+        println("Signing endpoint listening at ", kms.getURL());
+        println();
+    }
+
+    private static class SignServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        final StringSigner stringSigner;
+        final AtomicLong signed = new AtomicLong();
+
+        SignServlet(StringSigner stringSigner) {
+            this.stringSigner = stringSigner;
+        }
+
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+            req.setCharacterEncoding("US-ASCII");
+            resp.setContentType(KmsProtocol.CONTENT_TYPE);
+            int n;
+            try {
+                n = KmsProtocol.handle(req.getReader(), resp.getWriter(), this.stringSigner);
+            } catch (IOException ex) {
+                resp.reset();
+                resp.sendError(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+                return;
+            }
+            this.signed.addAndGet(n);
+        }
+    }
+}
@@ -6,7 +6,6 @@ import com.boku.auth.http.httpmessage.CanonicalHttpMessage;
 import com.boku.auth.http.httpmessage.CanonicalHttpRequest;
 import com.boku.auth.http.httpmessage.CanonicalHttpResponse;
 import com.boku.util.DigestFactory;
-import com.boku.util.HexCodec;
 
 import java.io.UnsupportedEncodingException;
 import java.nio.charset.StandardCharsets;
@@ -152,8 +151,7 @@ public class HTTPMessage {
         }
 
         if (entity != null) {
-            byte[] digest = DigestFactory.getSHA256().digest(entity);
-            r.setEntityDigest(HexCodec.encodeString(digest));
+            r.setEntityDigest(DigestFactory.digestHex(DigestFactory.SHA256, entity));
         }
 
         return r;